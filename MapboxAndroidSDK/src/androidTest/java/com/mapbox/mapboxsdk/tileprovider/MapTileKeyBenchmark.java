@@ -0,0 +1,114 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import junit.framework.Assert;
+import uk.co.senab.bitmapcache.LongLruCache;
+
+/**
+ * Measures looking up the tiles of a viewport in memory by their packed key, compared to by
+ * their cache key in an access ordered map, which is how tiles used to be looked up.
+ */
+public class MapTileKeyBenchmark extends AndroidTestCase {
+    private static final String TAG = "MapTileKeyBenchmark";
+
+    private static final String LAYER = "mapbox.streets";
+    private static final int ZOOM = 15;
+    private static final int SIDE = 16;
+    private static final int PASSES = 200;
+
+    private LongLruCache<Object> mByKey;
+    private Map<String, Object> mByCacheKey;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mByKey = new LongLruCache<Object>(4 * SIDE * SIDE);
+        mByCacheKey = new LinkedHashMap<String, Object>(16, 0.75f, true);
+        // the viewport and the tiles around it are in memory
+        for (int x = -SIDE; x < 2 * SIDE; x++) {
+            for (int y = 0; y < SIDE; y++) {
+                final MapTile tile = new MapTile(LAYER, ZOOM, 1000 + x, 2000 + y);
+                mByKey.put(tile.getKey(), tile);
+                mByCacheKey.put(tile.getCacheKey(), tile);
+            }
+        }
+    }
+
+    public void testLookups() throws Exception {
+        // warm up both paths before measuring
+        lookUpByKey(PASSES / 10);
+        lookUpByCacheKey(PASSES / 10);
+
+        long start = System.nanoTime();
+        Assert.assertEquals(PASSES * SIDE * SIDE, lookUpByKey(PASSES));
+        final double byKey = (System.nanoTime() - start) / (double) (PASSES * SIDE * SIDE);
+        start = System.nanoTime();
+        Assert.assertEquals(PASSES * SIDE * SIDE, lookUpByCacheKey(PASSES));
+        final double byCacheKey = (System.nanoTime() - start) / (double) (PASSES * SIDE * SIDE);
+
+        Log.i(TAG, String.format("%dx%d tiles: %.0f ns per lookup by packed key, %.0f ns by"
+                + " cache key", SIDE, SIDE, byKey, byCacheKey));
+    }
+
+    public void testParseKey() throws Exception {
+        final String[] cacheKeys = new String[SIDE * SIDE];
+        for (int i = 0; i < cacheKeys.length; i++) {
+            cacheKeys[i] = new MapTile(LAYER, ZOOM, 1000 + i % SIDE, 2000 + i / SIDE)
+                    .getCacheKey();
+        }
+        long found = 0;
+        final long start = System.nanoTime();
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (final String cacheKey : cacheKeys) {
+                if (MapTile.parseKey(cacheKey) != MapTile.NO_KEY) {
+                    found++;
+                }
+            }
+        }
+        final double perKey = (System.nanoTime() - start) / (double) (PASSES * cacheKeys.length);
+        Assert.assertEquals(PASSES * cacheKeys.length, found);
+        Log.i(TAG, String.format("%.0f ns to parse a cache key", perKey));
+    }
+
+    /**
+     * Look up every tile of the viewport the way the overlay draws them, a new tile each time.
+     *
+     * @return the number of tiles found
+     */
+    private int lookUpByKey(final int pPasses) {
+        int found = 0;
+        for (int pass = 0; pass < pPasses; pass++) {
+            for (int x = 0; x < SIDE; x++) {
+                for (int y = 0; y < SIDE; y++) {
+                    if (mByKey.get(new MapTile(LAYER, ZOOM, 1000 + x, 2000 + y).getKey())
+                            != null) {
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int lookUpByCacheKey(final int pPasses) {
+        int found = 0;
+        for (int pass = 0; pass < pPasses; pass++) {
+            for (int x = 0; x < SIDE; x++) {
+                for (int y = 0; y < SIDE; y++) {
+                    final Object tile;
+                    synchronized (mByCacheKey) {
+                        tile = mByCacheKey.get(
+                                new MapTile(LAYER, ZOOM, 1000 + x, 2000 + y).getCacheKey());
+                    }
+                    if (tile != null) {
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+}
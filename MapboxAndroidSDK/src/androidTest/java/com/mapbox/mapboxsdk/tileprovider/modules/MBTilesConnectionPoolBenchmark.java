@@ -0,0 +1,111 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+
+/**
+ * Measures the tile throughput of an MBTiles archive read by 1 to 8 threads at once, through a
+ * connection per thread as tile loaders do, and through the single shared connection other
+ * threads use.
+ */
+public class MBTilesConnectionPoolBenchmark extends AndroidTestCase {
+    private static final String TAG = "MBTilesConnectionPoolBenchmark";
+
+    private static final int ZOOM = 16;
+    private static final int TILE_COUNT = 20000;
+    private static final int TILE_BYTES = 8 * 1024;
+    private static final int LOOKUPS = 8000;
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+    private MBTilesFileArchive mArchive;
+    private MapTile[] mTiles;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final File file = new File(getContext().getCacheDir(), "pool-benchmark.mbtiles");
+        if (file.length() < (long) TILE_COUNT * TILE_BYTES) {
+            final SQLiteDatabase db = SyntheticMBTiles.create(file);
+            SyntheticMBTiles.addTiles(db, ZOOM, TILE_COUNT, TILE_BYTES);
+            db.close();
+        }
+        mArchive = MBTilesFileArchive.getDatabaseFileArchive(file);
+
+        final Random random = new Random(ZOOM);
+        final int side = SyntheticMBTiles.getSide(ZOOM, TILE_COUNT);
+        mTiles = new MapTile[LOOKUPS];
+        for (int i = 0; i < mTiles.length; i++) {
+            final int index = random.nextInt(TILE_COUNT);
+            mTiles[i] = new MapTile(ZOOM, index % side, (1 << ZOOM) - index / side - 1);
+        }
+        // read every tile once so that the first run doesn't pay for a cold page cache
+        run(1, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mArchive.close();
+        super.tearDown();
+    }
+
+    public void testThroughput() throws Exception {
+        Log.i(TAG, Runtime.getRuntime().availableProcessors() + " cores");
+        for (final int threads : THREAD_COUNTS) {
+            final double pooled = run(threads, true);
+            final double shared = run(threads, false);
+            Log.i(TAG, String.format("%d threads: %.0f tiles/s pooled, %.0f tiles/s shared",
+                    threads, pooled, shared));
+        }
+    }
+
+    /**
+     * Read every tile once, split between threads.
+     *
+     * @param pLoaderThreads whether the threads get a connection of their own
+     * @return the number of tiles read per second
+     */
+    private double run(final int pThreads, final boolean pLoaderThreads) throws Exception {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger found = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(pThreads);
+        final long start = System.nanoTime();
+        for (int t = 0; t < pThreads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    MapTileModuleLayerBase.setTileLoaderThread(pLoaderThreads);
+                    final byte[] buffer = new byte[TILE_BYTES];
+                    int i;
+                    try {
+                        while ((i = next.getAndIncrement()) < mTiles.length) {
+                            final InputStream in = mArchive.getInputStream(null, mTiles[i]);
+                            if (in != null) {
+                                while (in.read(buffer) != -1) {
+                                    // just read it through
+                                }
+                                in.close();
+                                found.incrementAndGet();
+                            }
+                        }
+                    } catch (final Exception e) {
+                        Log.e(TAG, "Error reading tiles", e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        final double tilesPerSecond = mTiles.length * 1e9 / (System.nanoTime() - start);
+        Assert.assertEquals(mTiles.length, found.get());
+        return tilesPerSecond;
+    }
+}
@@ -0,0 +1,108 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+
+/**
+ * Measures the bulk write throughput of {@link MBTilesFileWriter} for several batch sizes, the
+ * way a region download writes its tiles, from one thread and from as many threads as there are
+ * tile downloaders.
+ */
+public class MBTilesFileWriterBenchmark extends AndroidTestCase {
+    private static final String TAG = "MBTilesFileWriterBenchmark";
+
+    private static final int ZOOM = 14;
+    private static final int TILE_COUNT = 4000;
+    private static final int TILE_BYTES = 16 * 1024;
+    private static final int[] BATCH_SIZES = { 1, 16, MBTilesFileWriter.DEFAULT_BATCH_SIZE, 1024 };
+    private static final int WRITER_THREADS = 4;
+
+    private File mFile;
+    private byte[][] mTileData;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "writer-benchmark.mbtiles");
+        // a few distinct tiles, so that generating them isn't measured
+        final Random random = new Random(ZOOM);
+        mTileData = new byte[16][TILE_BYTES];
+        for (final byte[] data : mTileData) {
+            random.nextBytes(data);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        new File(mFile.getPath() + "-journal").delete();
+        super.tearDown();
+    }
+
+    public void testBatchSizes() throws Exception {
+        for (final int batchSize : BATCH_SIZES) {
+            final double tilesPerSecond = run(batchSize, 1);
+            Log.i(TAG, String.format("batches of %d: %.0f tiles/s, %.1f MB/s", batchSize,
+                    tilesPerSecond, tilesPerSecond * TILE_BYTES / (1024 * 1024)));
+        }
+    }
+
+    public void testConcurrentWriters() throws Exception {
+        final double tilesPerSecond = run(MBTilesFileWriter.DEFAULT_BATCH_SIZE, WRITER_THREADS);
+        Log.i(TAG, String.format("%d threads, batches of %d: %.0f tiles/s", WRITER_THREADS,
+                MBTilesFileWriter.DEFAULT_BATCH_SIZE, tilesPerSecond));
+    }
+
+    /**
+     * Write every tile once into a new file, split between threads, and close the file.
+     *
+     * @return the number of tiles written per second
+     */
+    private double run(final int pBatchSize, final int pThreads) throws Exception {
+        mFile.delete();
+        final MBTilesFileWriter writer = MBTilesFileWriter.open(mFile).setBatchSize(pBatchSize);
+        final int side = SyntheticMBTiles.getSide(ZOOM, TILE_COUNT);
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(pThreads);
+        final long start = System.nanoTime();
+        for (int t = 0; t < pThreads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    int i;
+                    try {
+                        while ((i = next.getAndIncrement()) < TILE_COUNT) {
+                            writer.putTile(new MapTile(ZOOM, i % side, i / side),
+                                    mTileData[i % mTileData.length]);
+                        }
+                    } catch (final Exception e) {
+                        Log.e(TAG, "Error writing tiles", e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        writer.close();
+        final double tilesPerSecond = TILE_COUNT * 1e9 / (System.nanoTime() - start);
+
+        final SQLiteDatabase db = SQLiteDatabase.openDatabase(mFile.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        try {
+            Assert.assertEquals(TILE_COUNT, DatabaseUtils.queryNumEntries(db,
+                    MBTilesFileArchive.TABLE_TILES));
+        } finally {
+            db.close();
+        }
+        return tilesPerSecond;
+    }
+}
@@ -0,0 +1,159 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import junit.framework.Assert;
+
+/**
+ * Compares the ways of reading a tile from an MBTiles file: the query() lookup with string
+ * arguments the archive used to make, a raw query reading the blob through a CursorWindow, and
+ * the compiled statement reading it through a file descriptor that
+ * {@link MBTilesFileArchive#getInputStream} makes, for small and typical tiles.
+ *
+ * The 1 GB archive is built in the cache directory by the first run and reused afterwards.
+ */
+public class MBTilesLookupBenchmark extends AndroidTestCase {
+    private static final String TAG = "MBTilesLookupBenchmark";
+
+    private static final long ARCHIVE_BYTES = 1L << 30;
+    private static final int SMALL_ZOOM = 15;
+    private static final int SMALL_TILE_COUNT = 16384;
+    private static final int SMALL_TILE_BYTES = 1024;
+    private static final int LARGE_ZOOM = 16;
+    private static final int LARGE_TILE_BYTES = 24 * 1024;
+    private static final int LARGE_TILE_COUNT = (int) (ARCHIVE_BYTES / LARGE_TILE_BYTES);
+    private static final int LOOKUPS = 5000;
+
+    private static final String SQL_SELECT_TILE = "SELECT tile_data FROM tiles"
+            + " WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    private SQLiteDatabase mDatabase;
+    private MBTilesFileArchive mArchive;
+    private final byte[] mBuffer = new byte[64 * 1024];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final File file = new File(getContext().getCacheDir(), "lookup-benchmark.mbtiles");
+        if (file.length() < ARCHIVE_BYTES) {
+            final SQLiteDatabase db = SyntheticMBTiles.create(file);
+            SyntheticMBTiles.addTiles(db, SMALL_ZOOM, SMALL_TILE_COUNT, SMALL_TILE_BYTES);
+            SyntheticMBTiles.addTiles(db, LARGE_ZOOM, LARGE_TILE_COUNT, LARGE_TILE_BYTES);
+            db.close();
+        }
+        mDatabase = SQLiteDatabase.openDatabase(file.getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        mArchive = MBTilesFileArchive.getDatabaseFileArchive(file);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mArchive.close();
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    public void testSmallTiles() throws Exception {
+        compare(SMALL_ZOOM, SMALL_TILE_COUNT, SMALL_TILE_BYTES);
+    }
+
+    public void testLargeTiles() throws Exception {
+        compare(LARGE_ZOOM, LARGE_TILE_COUNT, LARGE_TILE_BYTES);
+    }
+
+    private void compare(final int pZoom, final int pCount, final int pTileBytes)
+            throws IOException {
+        final MapTile[] tiles = pickTiles(pZoom, pCount);
+        // read every tile once so that no path pays for a cold page cache
+        for (int path = 0; path < 3; path++) {
+            run(path, tiles);
+        }
+
+        final double[] tilesPerSecond = new double[3];
+        for (int path = 0; path < 3; path++) {
+            final long start = System.nanoTime();
+            final long bytes = run(path, tiles);
+            tilesPerSecond[path] = tiles.length * 1e9 / (System.nanoTime() - start);
+            Assert.assertEquals((long) tiles.length * pTileBytes, bytes);
+        }
+        Log.i(TAG, String.format("%d byte tiles: query() %.0f tiles/s, blob %.0f tiles/s,"
+                + " statement %.0f tiles/s", pTileBytes, tilesPerSecond[0], tilesPerSecond[1],
+                tilesPerSecond[2]));
+    }
+
+    private MapTile[] pickTiles(final int pZoom, final int pCount) {
+        final Random random = new Random(pZoom);
+        final int side = SyntheticMBTiles.getSide(pZoom, pCount);
+        final MapTile[] tiles = new MapTile[LOOKUPS];
+        for (int i = 0; i < tiles.length; i++) {
+            final int index = random.nextInt(pCount);
+            final int row = index / side;
+            tiles[i] = new MapTile(pZoom, index % side, (1 << pZoom) - row - 1);
+        }
+        return tiles;
+    }
+
+    /**
+     * @return the number of bytes read
+     */
+    private long run(final int pPath, final MapTile[] pTiles) throws IOException {
+        long bytes = 0;
+        for (final MapTile tile : pTiles) {
+            final InputStream in;
+            if (pPath == 0) {
+                in = getInputStreamFromQuery(tile);
+            } else if (pPath == 1) {
+                in = getInputStreamFromBlob(tile);
+            } else {
+                in = mArchive.getInputStream(null, tile);
+            }
+            Assert.assertNotNull(tile.toString(), in);
+            int read;
+            while ((read = in.read(mBuffer)) != -1) {
+                bytes += read;
+            }
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * The lookup the archive made before it compiled its statements.
+     */
+    private InputStream getInputStreamFromQuery(final MapTile pTile) {
+        final String[] xyz = {
+                Integer.toString(pTile.getX()),
+                Double.toString(Math.pow(2, pTile.getZ()) - pTile.getY() - 1),
+                Integer.toString(pTile.getZ())
+        };
+        final Cursor cur = mDatabase.query("tiles", new String[] { "tile_data" },
+                "tile_column=? and tile_row=? and zoom_level=?", xyz, null, null, null);
+        try {
+            return cur.moveToFirst() ? new ByteArrayInputStream(cur.getBlob(0)) : null;
+        } finally {
+            cur.close();
+        }
+    }
+
+    private InputStream getInputStreamFromBlob(final MapTile pTile) {
+        final String[] args = {
+                Integer.toString(pTile.getZ()),
+                Integer.toString(pTile.getX()),
+                Integer.toString(MBTilesFileArchive.getTmsRow(pTile))
+        };
+        final Cursor cur = mDatabase.rawQuery(SQL_SELECT_TILE, args);
+        try {
+            return cur.moveToFirst() ? new ByteArrayInputStream(cur.getBlob(0)) : null;
+        } finally {
+            cur.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.test.AndroidTestCase;
+import com.mapbox.mapboxsdk.geometry.BoundingBox;
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.tilesource.WebSourceTileLayer;
+import com.mapbox.mapboxsdk.util.LocalTileServer;
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+
+/**
+ * Downloads regions from a {@link LocalTileServer}.
+ */
+public class OfflineRegionDownloaderTest extends AndroidTestCase {
+
+    private static final byte[] TILE = new byte[] { 1, 2, 3, 4 };
+
+    private File mFile;
+    private MBTilesFileWriter mStore;
+    private LocalTileServer mServer;
+    private final Set<String> mRequested = Collections.synchronizedSet(new HashSet<String>());
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "offline-test.mbtiles");
+        mFile.delete();
+        mStore = MBTilesFileWriter.open(mFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStore.close();
+        mFile.delete();
+        if (mServer != null) {
+            mServer.close();
+        }
+        super.tearDown();
+    }
+
+    public void testDownloadsRegionAcrossAntimeridian() throws Exception {
+        startServer(HttpURLConnection.HTTP_OK);
+        final OfflineRegionDownloader downloader =
+                download(new BoundingBox(10, -170, -10, 170), 2, 5, 4);
+
+        Assert.assertEquals(0, downloader.getFailedTileCount());
+        Assert.assertEquals(downloader.getTotalTileCount(), mRequested.size());
+        Assert.assertEquals(downloader.getTotalTileCount(), mServer.getRequestCount());
+        for (int z = 2; z <= 5; z++) {
+            final int worldTiles = 1 << z;
+            Assert.assertTrue(mStore.containsTile(new MapTile(z, worldTiles - 1, worldTiles / 2)));
+            Assert.assertTrue(mStore.containsTile(new MapTile(z, 0, worldTiles / 2)));
+            Assert.assertFalse(mStore.containsTile(new MapTile(z, worldTiles / 2, worldTiles / 2)));
+        }
+        for (final String path : mRequested) {
+            final String[] parts = path.substring(1, path.indexOf('.')).split("/");
+            final int worldTiles = 1 << Integer.parseInt(parts[0]);
+            final int x = Integer.parseInt(parts[1]);
+            Assert.assertTrue(path, x >= 0 && x < worldTiles);
+        }
+    }
+
+    public void testCountsRegionWithinWorld() throws Exception {
+        startServer(HttpURLConnection.HTTP_OK);
+        // the world tile at zoom level 0, the four around null island at 1
+        final OfflineRegionDownloader downloader =
+                download(new BoundingBox(1, 1, -1, -1), 0, 1, 1);
+        Assert.assertEquals(5, downloader.getTotalTileCount());
+        Assert.assertEquals(5, mRequested.size());
+    }
+
+    public void testReusesConnectionsAfterErrors() throws Exception {
+        startServer(HttpURLConnection.HTTP_INTERNAL_ERROR);
+        final OfflineRegionDownloader downloader =
+                download(new BoundingBox(40, 10, 30, 0), 6, 7, 1);
+
+        Assert.assertTrue(downloader.getTotalTileCount() > 4);
+        Assert.assertEquals(downloader.getTotalTileCount(), downloader.getFailedTileCount());
+        // one request at a time, the error bodies are read so the connection is kept alive
+        Assert.assertTrue("opened " + mServer.getConnectionCount() + " connections",
+                mServer.getConnectionCount() <= 2);
+    }
+
+    public void testSkipsMissingTiles() throws Exception {
+        startServer(HttpURLConnection.HTTP_NOT_FOUND);
+        final OfflineRegionDownloader downloader =
+                download(new BoundingBox(40, 10, 30, 0), 6, 7, 1);
+
+        Assert.assertEquals(0, downloader.getFailedTileCount());
+        Assert.assertEquals(0, mStore.getTileCount());
+        Assert.assertTrue("opened " + mServer.getConnectionCount() + " connections",
+                mServer.getConnectionCount() <= 2);
+    }
+
+    /**
+     * Serve every tile with the same status, with a body.
+     */
+    private void startServer(final int pStatus) throws Exception {
+        mServer = new LocalTileServer(new LocalTileServer.Handler() {
+            @Override
+            public LocalTileServer.Response handle(final String pPath) {
+                mRequested.add(pPath);
+                return new LocalTileServer.Response(pStatus,
+                        (pStatus == HttpURLConnection.HTTP_OK) ? TILE : new byte[1024]);
+            }
+        });
+    }
+
+    private OfflineRegionDownloader download(final BoundingBox pBoundingBox,
+            final int pMinZoomLevel, final int pMaxZoomLevel, final int pConcurrentRequests)
+            throws Exception {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final OfflineRegionDownloader downloader = new OfflineRegionDownloader(
+                new WebSourceTileLayer("local", mServer.getUrlTemplate()), pBoundingBox,
+                pMinZoomLevel, pMaxZoomLevel, mStore)
+                .setMaximumConcurrentRequests(pConcurrentRequests)
+                .setListener(new OfflineRegionDownloader.Listener() {
+                    @Override
+                    public void onProgress(final OfflineRegionDownloader pDownloader) {
+                    }
+
+                    @Override
+                    public void onFinished(final OfflineRegionDownloader pDownloader,
+                            final boolean pCancelled) {
+                        finished.countDown();
+                    }
+                });
+        downloader.start();
+        Assert.assertTrue("download timed out", finished.await(60, TimeUnit.SECONDS));
+        Assert.assertEquals(downloader.getTotalTileCount(), downloader.getCompletedTileCount());
+        return downloader;
+    }
+}
@@ -0,0 +1,67 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Builds MBTiles files of random tiles for the benchmarks. Tiles are laid out row by row in a
+ * square at their zoom level, starting at column 0 and row 0.
+ */
+final class SyntheticMBTiles {
+
+    private SyntheticMBTiles() {
+    }
+
+    /**
+     * Create an empty archive with the tiles and metadata tables, replacing any existing file.
+     */
+    static SQLiteDatabase create(final File pFile) {
+        pFile.delete();
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(pFile, null);
+        db.execSQL("CREATE TABLE metadata (name TEXT, value TEXT)");
+        db.execSQL("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, tile_data BLOB)");
+        db.execSQL("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+        db.execSQL("INSERT INTO metadata VALUES ('name', 'synthetic')");
+        return db;
+    }
+
+    /**
+     * Add tiles of random bytes at a zoom level.
+     *
+     * @param pCount the number of tiles, at most the number of tiles of the zoom level
+     * @param pTileBytes the size of each tile
+     */
+    static void addTiles(final SQLiteDatabase pDatabase, final int pZoom, final int pCount,
+            final int pTileBytes) {
+        final Random random = new Random(pZoom);
+        final byte[] data = new byte[pTileBytes];
+        final int side = getSide(pZoom, pCount);
+        final SQLiteStatement insert =
+                pDatabase.compileStatement("INSERT INTO tiles VALUES (?, ?, ?, ?)");
+        pDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < pCount; i++) {
+                random.nextBytes(data);
+                insert.bindLong(1, pZoom);
+                insert.bindLong(2, i % side);
+                insert.bindLong(3, i / side);
+                insert.bindBlob(4, data);
+                insert.executeInsert();
+            }
+            pDatabase.setTransactionSuccessful();
+        } finally {
+            pDatabase.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Get the number of columns tiles added by {@link #addTiles} are laid out in.
+     */
+    static int getSide(final int pZoom, final int pCount) {
+        return Math.min(1 << pZoom, (int) Math.ceil(Math.sqrt(pCount)));
+    }
+}
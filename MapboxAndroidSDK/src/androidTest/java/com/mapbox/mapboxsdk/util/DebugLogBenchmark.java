@@ -0,0 +1,67 @@
+package com.mapbox.mapboxsdk.util;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import junit.framework.Assert;
+
+/**
+ * Measures the cost of a per-tile debug message through {@link DebugLog} while logging is off,
+ * compared to building and logging it unconditionally, which is how the drawing and tile
+ * loading paths used to log.
+ */
+public class DebugLogBenchmark extends AndroidTestCase {
+    private static final String TAG = "DebugLogBenchmark";
+
+    private static final int CALLS = 100000;
+    // logging for real is slow, fewer calls are enough to measure it
+    private static final int LOGGED_CALLS = 2000;
+
+    private final MapTile mTile = new MapTile("mapbox.streets", 14, 8192, 5461);
+
+    public void testDisabledCalls() throws Exception {
+        Assert.assertFalse(DebugLog.isEnabled());
+        // warm up both paths before measuring
+        callDebugLog(CALLS / 10);
+        callLog(LOGGED_CALLS / 10);
+
+        long start = System.nanoTime();
+        callDebugLog(CALLS);
+        final double debugLog = (System.nanoTime() - start) / (double) CALLS;
+        start = System.nanoTime();
+        callLog(LOGGED_CALLS);
+        final double log = (System.nanoTime() - start) / (double) LOGGED_CALLS;
+
+        Log.i(TAG, String.format("%.1f ns per DebugLog.d() call, %.0f ns per Log.d() call with"
+                + " its message built", debugLog, log));
+    }
+
+    public void testDisabledCallsDontAllocate() throws Exception {
+        Assert.assertFalse(DebugLog.isEnabled());
+        callDebugLog(CALLS / 10);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            callDebugLog(CALLS);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        final int allocations = Debug.getThreadAllocCount();
+        Log.i(TAG, String.format("%d allocations in %d DebugLog.d() calls", allocations, CALLS));
+        Assert.assertEquals(0, allocations);
+    }
+
+    private void callDebugLog(final int pCalls) {
+        for (int i = 0; i < pCalls; i++) {
+            DebugLog.d(TAG, "loadTile() with tile = ", mTile);
+        }
+    }
+
+    private void callLog(final int pCalls) {
+        for (int i = 0; i < pCalls; i++) {
+            Log.d(TAG, "loadTile() with tile = '" + mTile + "'");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.mapbox.mapboxsdk.util;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP/1.1 server on the loopback interface for the tests and benchmarks of the code
+ * fetching tiles. Connections are kept alive, and the number of them opened tells whether
+ * clients reuse them. Every request is answered by a {@link Handler}.
+ */
+public class LocalTileServer {
+    private static final String TAG = "LocalTileServer";
+
+    /**
+     * Answers a request. Called from the connection threads.
+     */
+    public interface Handler {
+        /**
+         * @param path the path of the request, e.g. "/3/4/5.png"
+         */
+        Response handle(String path);
+    }
+
+    public static final class Response {
+        final int mStatus;
+        final byte[] mBody;
+
+        public Response(final int pStatus, final byte[] pBody) {
+            mStatus = pStatus;
+            mBody = pBody;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+    private final AtomicInteger mConnections = new AtomicInteger();
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final List<Socket> mSockets = new ArrayList<Socket>();
+    private volatile boolean mClosed = false;
+
+    public LocalTileServer(final Handler pHandler) throws IOException {
+        mHandler = pHandler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final Thread acceptor = new Thread(TAG) {
+            @Override
+            public void run() {
+                accept();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Get the url template of the tiles, for a
+     * {@link com.mapbox.mapboxsdk.tileprovider.tilesource.WebSourceTileLayer}.
+     */
+    public String getUrlTemplate() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/{z}/{x}/{y}.png";
+    }
+
+    /**
+     * Get the number of connections clients opened so far.
+     */
+    public int getConnectionCount() {
+        return mConnections.get();
+    }
+
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    public void close() {
+        mClosed = true;
+        try {
+            mServerSocket.close();
+        } catch (final IOException e) {
+            Log.w(TAG, "Error closing the server socket", e);
+        }
+        synchronized (mSockets) {
+            for (final Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (final IOException e) {
+                    Log.w(TAG, "Error closing a connection", e);
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        while (!mClosed) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (final IOException e) {
+                if (!mClosed) {
+                    Log.e(TAG, "Error accepting a connection", e);
+                }
+                return;
+            }
+            mConnections.incrementAndGet();
+            synchronized (mSockets) {
+                mSockets.add(socket);
+            }
+            final Thread connection = new Thread(TAG + ".Connection") {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            };
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    /**
+     * Answers the requests of a connection until the client closes it.
+     */
+    private void serve(final Socket pSocket) {
+        try {
+            // responses go out in one write, so they aren't held back waiting for acks
+            pSocket.setTcpNoDelay(true);
+            final InputStream in = new BufferedInputStream(pSocket.getInputStream());
+            final OutputStream out = new BufferedOutputStream(pSocket.getOutputStream());
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                // skip the headers, requests have no body
+                String header;
+                while ((header = readLine(in)) != null && header.length() > 0) {
+                    continue;
+                }
+                mRequests.incrementAndGet();
+                final String[] parts = requestLine.split(" ");
+                final Response response = mHandler.handle((parts.length > 1) ? parts[1] : "/");
+                final byte[] body = (response.mBody != null) ? response.mBody : new byte[0];
+                out.write(("HTTP/1.1 " + response.mStatus + " Status\r\n"
+                        + "Content-Type: image/png\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "Connection: keep-alive\r\n\r\n").getBytes("US-ASCII"));
+                out.write(body);
+                out.flush();
+            }
+        } catch (final IOException e) {
+            // the client or close() dropped the connection
+        } finally {
+            try {
+                pSocket.close();
+            } catch (final IOException e) {
+                Log.w(TAG, "Error closing a connection", e);
+            }
+        }
+    }
+
+    /**
+     * @return the line without its line break, or null at the end of the stream
+     */
+    private static String readLine(final InputStream pIn) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = pIn.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("US-ASCII");
+    }
+}
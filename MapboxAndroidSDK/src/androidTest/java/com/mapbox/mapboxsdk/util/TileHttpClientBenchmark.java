@@ -0,0 +1,110 @@
+package com.mapbox.mapboxsdk.util;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.OkUrlFactory;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.Assert;
+
+/**
+ * Measures the tile throughput of {@link TileHttpClient} against a {@link LocalTileServer},
+ * compared to a new client per request, which is how tiles used to be fetched. The number of
+ * connections the server saw tells how well each one reuses them.
+ */
+public class TileHttpClientBenchmark extends AndroidTestCase {
+    private static final String TAG = "TileHttpClientBenchmark";
+
+    private static final int TILE_BYTES = 16 * 1024;
+    private static final int REQUESTS = 2000;
+    private static final int THREADS = 8;
+
+    private LocalTileServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final byte[] tile = new byte[TILE_BYTES];
+        mServer = new LocalTileServer(new LocalTileServer.Handler() {
+            @Override
+            public LocalTileServer.Response handle(final String pPath) {
+                return new LocalTileServer.Response(HttpURLConnection.HTTP_OK, tile);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testThroughput() throws Exception {
+        // warm up both paths before measuring
+        run(true, REQUESTS / 10);
+        run(false, REQUESTS / 10);
+
+        int connections = mServer.getConnectionCount();
+        final double shared = run(true, REQUESTS);
+        final int sharedConnections = mServer.getConnectionCount() - connections;
+        connections = mServer.getConnectionCount();
+        final double perRequest = run(false, REQUESTS);
+        final int perRequestConnections = mServer.getConnectionCount() - connections;
+
+        Log.i(TAG, String.format("%d threads, %d KB tiles: shared client %.0f tiles/s over %d"
+                + " connections, client per request %.0f tiles/s over %d connections", THREADS,
+                TILE_BYTES / 1024, shared, sharedConnections, perRequest, perRequestConnections));
+        Assert.assertTrue(sharedConnections <= THREADS);
+    }
+
+    /**
+     * Fetch tiles from several threads at once.
+     *
+     * @param pShared whether to go through the shared client, or a new client per request
+     * @return the number of tiles fetched per second
+     */
+    private double run(final boolean pShared, final int pRequests) throws Exception {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger fetched = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    final byte[] buffer = new byte[TILE_BYTES];
+                    int i;
+                    try {
+                        while ((i = next.getAndIncrement()) < pRequests) {
+                            final URL url = new URL(mServer.getUrlTemplate().replace("{z}", "16")
+                                    .replace("{x}", Integer.toString(i)).replace("{y}", "0"));
+                            final InputStream in = pShared ? TileHttpClient.openStream(url)
+                                    : new OkUrlFactory(new OkHttpClient()).open(url)
+                                            .getInputStream();
+                            try {
+                                while (in.read(buffer) != -1) {
+                                    // just read it through
+                                }
+                            } finally {
+                                in.close();
+                            }
+                            fetched.incrementAndGet();
+                        }
+                    } catch (final Exception e) {
+                        Log.e(TAG, "Error fetching tiles", e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        final double tilesPerSecond = pRequests * 1e9 / (System.nanoTime() - start);
+        Assert.assertEquals(pRequests, fetched.get());
+        return tilesPerSecond;
+    }
+}
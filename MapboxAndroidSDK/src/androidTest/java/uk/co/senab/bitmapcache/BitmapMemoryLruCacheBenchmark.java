@@ -0,0 +1,139 @@
+package uk.co.senab.bitmapcache;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+
+/**
+ * Measures the throughput of the striped memory cache from several threads, compared to a
+ * single LRU cache behind one lock, which is how the memory cache used to be shared. Lookups
+ * outnumber insertions, as when the map is drawn while tiles load.
+ */
+public class BitmapMemoryLruCacheBenchmark extends AndroidTestCase {
+    private static final String TAG = "BitmapMemoryLruCacheBenchmark";
+
+    private static final int MAX_SIZE = 32 * 1024 * 1024;
+    private static final int TILE_SIZE = 256;
+    private static final int KEYS = 512;
+    private static final int OPERATIONS = 200000;
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+
+    /**
+     * The operations measured, on either cache.
+     */
+    private interface Cache {
+        CacheableBitmapDrawable get(long pKey);
+
+        void put(long pKey, CacheableBitmapDrawable pDrawable);
+    }
+
+    private CacheableBitmapDrawable[] mDrawables;
+    private Bitmap mBitmap;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // every drawable shares a bitmap, the caches only look at their size
+        mBitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        mDrawables = new CacheableBitmapDrawable[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            mDrawables[i] = new CacheableBitmapDrawable(Integer.toString(i),
+                    getContext().getResources(), mBitmap, BitmapLruCache.RecyclePolicy.DISABLED,
+                    CacheableBitmapDrawable.SOURCE_NEW);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBitmap.recycle();
+        super.tearDown();
+    }
+
+    public void testThroughput() throws Exception {
+        for (final int threads : THREADS) {
+            // warm up both caches before measuring
+            run(newStripedCache(), threads, OPERATIONS / 10);
+            run(newLockedCache(), threads, OPERATIONS / 10);
+
+            final double striped = run(newStripedCache(), threads, OPERATIONS);
+            final double locked = run(newLockedCache(), threads, OPERATIONS);
+            Log.i(TAG, String.format("%d threads: striped %.0f ops/ms, one lock %.0f ops/ms",
+                    threads, striped, locked));
+        }
+    }
+
+    private Cache newStripedCache() {
+        final BitmapMemoryLruCache cache = new BitmapMemoryLruCache(MAX_SIZE, 0,
+                BitmapLruCache.RecyclePolicy.DISABLED);
+        return new Cache() {
+            @Override
+            public CacheableBitmapDrawable get(final long pKey) {
+                return cache.get(pKey);
+            }
+
+            @Override
+            public void put(final long pKey, final CacheableBitmapDrawable pDrawable) {
+                cache.put(pKey, pDrawable);
+            }
+        };
+    }
+
+    private Cache newLockedCache() {
+        final LongLruCache<CacheableBitmapDrawable> cache =
+                new LongLruCache<CacheableBitmapDrawable>(MAX_SIZE) {
+                    @Override
+                    protected int sizeOf(final long key, final CacheableBitmapDrawable value) {
+                        return value.getMemorySize();
+                    }
+                };
+        return new Cache() {
+            @Override
+            public CacheableBitmapDrawable get(final long pKey) {
+                return cache.get(pKey);
+            }
+
+            @Override
+            public void put(final long pKey, final CacheableBitmapDrawable pDrawable) {
+                cache.put(pKey, pDrawable);
+            }
+        };
+    }
+
+    /**
+     * Split the operations between threads, nine lookups for every insertion, over more keys
+     * than the cache holds.
+     *
+     * @return the number of operations per millisecond
+     */
+    private double run(final Cache pCache, final int pThreads, final int pOperations)
+            throws Exception {
+        final CountDownLatch done = new CountDownLatch(pThreads);
+        final long start = System.nanoTime();
+        for (int t = 0; t < pThreads; t++) {
+            final Random random = new Random(t);
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < pOperations / pThreads; i++) {
+                            final int key = random.nextInt(KEYS);
+                            if (random.nextInt(10) == 0) {
+                                pCache.put(key, mDrawables[key]);
+                            } else {
+                                pCache.get(key);
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        Assert.assertTrue(done.await(60, TimeUnit.SECONDS));
+        return pOperations * 1e6 / (System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,134 @@
+package uk.co.senab.bitmapcache;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.Assert;
+
+/**
+ * Hammers the striped memory cache from several threads at once, the way the thread drawing
+ * the map and the tile loaders share it.
+ */
+public class BitmapMemoryLruCacheTest extends AndroidTestCase {
+
+    // large enough for the maximum number of stripes
+    private static final int MAX_SIZE = 32 * 1024 * 1024;
+    private static final int TILE_SIZE = 128;
+    private static final int KEYS = 4096;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20000;
+
+    private Bitmap[] mBitmaps;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // drawables share a few bitmaps, the cache only looks at their size
+        mBitmaps = new Bitmap[16];
+        for (int i = 0; i < mBitmaps.length; i++) {
+            mBitmaps[i] = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        super.tearDown();
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final BitmapMemoryLruCache cache = new BitmapMemoryLruCache(MAX_SIZE, 0,
+                BitmapLruCache.RecyclePolicy.DISABLED);
+        final List<CacheableBitmapDrawable> created = new ArrayList<CacheableBitmapDrawable>();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            new Thread() {
+                @Override
+                public void run() {
+                    final List<CacheableBitmapDrawable> mine =
+                            new ArrayList<CacheableBitmapDrawable>();
+                    try {
+                        for (int i = 0; i < OPERATIONS && failure.get() == null; i++) {
+                            // keys differing in their top bits, like the tiles of two layers
+                            final long key = ((long) random.nextInt(2) << 49)
+                                    | random.nextInt(KEYS);
+                            final int operation = random.nextInt(10);
+                            if (operation < 3) {
+                                final CacheableBitmapDrawable drawable = newDrawable(key);
+                                mine.add(drawable);
+                                cache.put(key, drawable);
+                            } else if (operation < 9) {
+                                final CacheableBitmapDrawable drawable = cache.get(key);
+                                if (drawable != null && !drawable.getUrl()
+                                        .equals(Long.toString(key))) {
+                                    failure.set("got " + drawable.getUrl() + " for " + key);
+                                }
+                            } else {
+                                final CacheableBitmapDrawable drawable = cache.get(key);
+                                if (drawable != null) {
+                                    cache.remove(key, drawable);
+                                }
+                            }
+                            if (cache.size() > MAX_SIZE) {
+                                failure.set("size " + cache.size() + " over " + MAX_SIZE);
+                            }
+                        }
+                    } catch (final RuntimeException e) {
+                        failure.set(e.toString());
+                    } finally {
+                        synchronized (created) {
+                            created.addAll(mine);
+                        }
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        Assert.assertNull(failure.get(), failure.get());
+        Assert.assertTrue(cache.maxSize() <= MAX_SIZE);
+
+        // every drawable is let go of by the cache exactly once
+        int cached = 0;
+        for (final CacheableBitmapDrawable drawable : created) {
+            if (drawable.isReferencedByCache()) {
+                cached++;
+            }
+        }
+        Assert.assertEquals(cache.size(), cached * TILE_SIZE * TILE_SIZE * 4);
+        cache.evictAll();
+        Assert.assertEquals(0, cache.size());
+        for (final CacheableBitmapDrawable drawable : created) {
+            Assert.assertFalse(drawable.isReferencedByCache());
+        }
+    }
+
+    public void testSpreadsOverStripes() throws Exception {
+        final BitmapMemoryLruCache cache = new BitmapMemoryLruCache(MAX_SIZE, 0,
+                BitmapLruCache.RecyclePolicy.DISABLED);
+        final int tileBytes = TILE_SIZE * TILE_SIZE * 4;
+        // half the budget in consecutive keys, as the tiles of a viewport, all stay cached
+        final int count = MAX_SIZE / 2 / tileBytes;
+        for (int i = 0; i < count; i++) {
+            cache.put(i, newDrawable(i));
+        }
+        Assert.assertEquals(count * tileBytes, cache.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertNotNull(cache.get(i));
+        }
+    }
+
+    private CacheableBitmapDrawable newDrawable(final long pKey) {
+        return new CacheableBitmapDrawable(Long.toString(pKey), getContext().getResources(),
+                mBitmaps[(int) (pKey % mBitmaps.length)], BitmapLruCache.RecyclePolicy.DISABLED,
+                CacheableBitmapDrawable.SOURCE_NEW);
+    }
+}
@@ -0,0 +1,108 @@
+package uk.co.senab.bitmapcache;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+
+/**
+ * Checks how the pool buckets, hands out and drops the bitmaps of evicted drawables. Bitmaps
+ * can't be made on the JVM, so this runs on a device.
+ */
+public class BitmapPoolTest extends AndroidTestCase {
+
+    private final List<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+        super.tearDown();
+    }
+
+    public void testHandsOutBitmapsOfTheSameSizeAndConfig() {
+        final BitmapPool pool = new BitmapPool(1024 * 1024);
+        final CacheableBitmapDrawable small = newDrawable(64, Bitmap.Config.ARGB_8888);
+        final CacheableBitmapDrawable large = newDrawable(128, Bitmap.Config.ARGB_8888);
+        final CacheableBitmapDrawable rgb565 = newDrawable(64, Bitmap.Config.RGB_565);
+        pool.release(small);
+        pool.release(large);
+        pool.release(rgb565);
+
+        Assert.assertSame(large.getBitmap(), pool.acquire(128, 128, Bitmap.Config.ARGB_8888));
+        Assert.assertSame(rgb565.getBitmap(), pool.acquire(64, 64, Bitmap.Config.RGB_565));
+        Assert.assertNull(pool.acquire(32, 32, Bitmap.Config.ARGB_8888));
+        Assert.assertSame(small.getBitmap(), pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+        // each bitmap is handed out once
+        Assert.assertNull(pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+        Assert.assertEquals(0, pool.size());
+        Assert.assertEquals(3, pool.getHitCount());
+        Assert.assertEquals(2, pool.getMissCount());
+    }
+
+    public void testHandsOutTheNewestFirst() {
+        final BitmapPool pool = new BitmapPool(1024 * 1024);
+        final CacheableBitmapDrawable older = newDrawable(64, Bitmap.Config.ARGB_8888);
+        final CacheableBitmapDrawable newer = newDrawable(64, Bitmap.Config.ARGB_8888);
+        pool.release(older);
+        pool.release(newer);
+
+        Assert.assertSame(newer.getBitmap(), pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+        Assert.assertSame(older.getBitmap(), pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+    }
+
+    public void testSkipsBitmapsStillDisplayed() {
+        final BitmapPool pool = new BitmapPool(1024 * 1024);
+        final CacheableBitmapDrawable free = newDrawable(64, Bitmap.Config.ARGB_8888);
+        final CacheableBitmapDrawable displayed = newDrawable(64, Bitmap.Config.ARGB_8888);
+        displayed.setBeingUsed(true);
+        pool.release(free);
+        pool.release(displayed);
+
+        Assert.assertSame(free.getBitmap(), pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+        Assert.assertNull(pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+        // handed out once no longer displayed
+        displayed.setBeingUsed(false);
+        Assert.assertSame(displayed.getBitmap(), pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+        Assert.assertFalse(displayed.isBitmapValid());
+    }
+
+    public void testDropsTheEldestOverItsSize() {
+        final int bitmapSize = 64 * 64 * 4;
+        final BitmapPool pool = new BitmapPool(2 * bitmapSize);
+        final CacheableBitmapDrawable eldest = newDrawable(64, Bitmap.Config.ARGB_8888);
+        final CacheableBitmapDrawable middle = newDrawable(64, Bitmap.Config.ARGB_8888);
+        final CacheableBitmapDrawable newest = newDrawable(64, Bitmap.Config.ARGB_8888);
+        pool.release(eldest);
+        pool.release(middle);
+        pool.release(newest);
+
+        Assert.assertEquals(2 * bitmapSize, pool.size());
+        Assert.assertSame(newest.getBitmap(), pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+        Assert.assertSame(middle.getBitmap(), pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+        Assert.assertNull(pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+
+        // a bitmap larger than the pool isn't kept at all
+        pool.release(newDrawable(128, Bitmap.Config.ARGB_8888));
+        Assert.assertEquals(0, pool.size());
+    }
+
+    public void testClears() {
+        final BitmapPool pool = new BitmapPool(1024 * 1024);
+        pool.release(newDrawable(64, Bitmap.Config.ARGB_8888));
+        pool.clear();
+
+        Assert.assertEquals(0, pool.size());
+        Assert.assertNull(pool.acquire(64, 64, Bitmap.Config.ARGB_8888));
+    }
+
+    private CacheableBitmapDrawable newDrawable(final int pSize, final Bitmap.Config pConfig) {
+        final Bitmap bitmap = Bitmap.createBitmap(pSize, pSize, pConfig);
+        mBitmaps.add(bitmap);
+        return new CacheableBitmapDrawable(null, getContext().getResources(), bitmap,
+                BitmapLruCache.RecyclePolicy.DISABLED, CacheableBitmapDrawable.SOURCE_NEW);
+    }
+}
@@ -14,6 +14,9 @@ import android.os.Build;
 import android.util.Log;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
 import com.mapbox.mapboxsdk.tileprovider.MapTileLayerBase;
+import com.mapbox.mapboxsdk.tileprovider.metrics.TileMetrics;
+import com.mapbox.mapboxsdk.tileprovider.metrics.TileMetricsRegistry;
+import com.mapbox.mapboxsdk.util.DebugLog;
 import com.mapbox.mapboxsdk.util.GeometryMath;
 import com.mapbox.mapboxsdk.util.TileLooper;
 import com.mapbox.mapboxsdk.util.constants.UtilConstants;
@@ -47,8 +50,12 @@ public class TilesOverlay extends SafeDrawOverlay {
     private final Rect mTileRect = new Rect();
     private final Rect mViewPort = new Rect();
     private final Rect mClipRect = new Rect();
+    private final Rect mFallbackSrcRect = new Rect();
+    private final Rect mFallbackDestRect = new Rect();
+    private final Paint mFallbackPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
     float mCurrentZoomFactor = 1;
     private float mRescaleZoomDiffMax = 4;
+    private int mFallbackZoomDiffMax = 4;
     private boolean isAnimating = false;
     private boolean mOptionsMenuEnabled = true;
 
@@ -118,7 +125,7 @@ public class TilesOverlay extends SafeDrawOverlay {
     @Override
     protected void drawSafe(final ISafeCanvas c, final MapView mapView, final boolean shadow) {
 
-        Log.d(TAG, "drawSafe() called with shadow = '" + shadow + "'");
+        DebugLog.d(TAG, "drawSafe() called with shadow = ", shadow);
 
         if (shadow) {
             return;
@@ -137,12 +144,12 @@ public class TilesOverlay extends SafeDrawOverlay {
         int tileSize = Projection.getTileSize();
         // Draw the tiles!
         if (tileSize > 0) {
-            Log.d(TAG, "drawSafe(), start drawing tiles!");
+            DebugLog.d(TAG, "drawSafe(), start drawing tiles!");
             drawLoadingTile(c.getSafeCanvas(), mapView, zoomLevel, mClipRect);
             drawTiles(c.getSafeCanvas(), zoomLevel, tileSize, mViewPort, mClipRect);
-            Log.d(TAG, "drawSafe(), done drawing tiles!");
+            DebugLog.d(TAG, "drawSafe(), done drawing tiles!");
         } else {
-            Log.d(TAG, "tileSize is not > 0, so not drawing tiles.");
+            DebugLog.d(TAG, "tileSize is not > 0, so not drawing tiles.");
         }
 
         if (UtilConstants.DEBUGMODE && mapView.getScrollableAreaLimit() != null) {
@@ -157,6 +164,20 @@ public class TilesOverlay extends SafeDrawOverlay {
         }
     }
 
+    public int getFallbackZoomDiffMax() {
+        return mFallbackZoomDiffMax;
+    }
+
+    /**
+     * Set how many zoom levels up to look for a tile in memory to stretch over a tile that is
+     * still loading. Tiles one level down are used if none is found.
+     *
+     * @param pFallbackZoomDiffMax the number of zoom levels, 0 to draw the loading tile instead
+     */
+    public void setFallbackZoomDiffMax(final int pFallbackZoomDiffMax) {
+        mFallbackZoomDiffMax = Math.max(0, pFallbackZoomDiffMax);
+    }
+
     /**
      * Draw a loading tile image to make in-progress tiles easier to deal with.
      * @param c
@@ -198,10 +219,38 @@ public class TilesOverlay extends SafeDrawOverlay {
     }
 
     private final TileLooper mTileLooper = new TileLooper() {
+        /**
+         * The tile range of the viewport, when it last changed, and whether all its tiles have
+         * been delivered since, for {@link TileMetrics#onViewportComplete(long)}. Tiles the
+         * provider can't serve don't hold it up.
+         */
+        private final Rect mViewportTiles = new Rect();
+        private int mViewportZoom = -1;
+        private long mViewportChangedAt;
+        private boolean mViewportComplete;
+        /**
+         * Whether the levels around the viewport were warmed since it last changed.
+         */
+        private boolean mViewportWarmed;
+        private boolean mViewportPending;
+
         @Override
         public void initializeLoop(final float pZoomLevel, final int pTileSizePx) {
 
             final int roundedZoom = (int) Math.floor(pZoomLevel);
+            if (roundedZoom != mViewportZoom || mViewportTiles.left != mUpperLeft.x
+                    || mViewportTiles.top != mUpperLeft.y || mViewportTiles.right != mLowerRight.x
+                    || mViewportTiles.bottom != mLowerRight.y) {
+                mViewportZoom = roundedZoom;
+                mViewportTiles.set(mUpperLeft.x, mUpperLeft.y, mLowerRight.x, mLowerRight.y);
+                mViewportChangedAt = System.nanoTime();
+                mViewportComplete = false;
+                mViewportWarmed = false;
+            }
+            mViewportPending = false;
+            // requests for the tiles about to be drawn are served first
+            mTileProvider.setViewport(roundedZoom, mUpperLeft.x, mUpperLeft.y, mLowerRight.x,
+                    mLowerRight.y);
             if (roundedZoom != pZoomLevel) {
                 final int mapTileUpperBound = 1 << roundedZoom;
                 mCurrentZoomFactor =
@@ -231,6 +280,11 @@ public class TilesOverlay extends SafeDrawOverlay {
                 }
                 drawable.setBounds(mTileRect);
                 drawable.draw(pCanvas);
+            } else {
+                if (!mViewportPending && mTileProvider.isTilePending(pTile, !isAnimating)) {
+                    mViewportPending = true;
+                }
+                drawFallbackTile(pCanvas, pCacheKey, pTile);
             }
 /*
             else
@@ -245,6 +299,98 @@ public class TilesOverlay extends SafeDrawOverlay {
                 canvas.drawRect(mTileRect, getDebugPaint());
             }
         }
+
+        @Override
+        public void finalizeLoop() {
+            super.finalizeLoop();
+            if (mViewportPending) {
+                return;
+            }
+            if (!mViewportComplete) {
+                mViewportComplete = true;
+                TileMetricsRegistry.getMetrics().onViewportComplete(
+                        System.nanoTime() - mViewportChangedAt);
+            }
+            if (!mViewportWarmed && !isAnimating) {
+                // no tiles pending and the map is idle, read ahead the levels it is likely to
+                // zoom to
+                mViewportWarmed = true;
+                mTileProvider.warmPyramid(mTileProvider.getViewport());
+            }
+        }
+
+        /**
+         * Draw the part of an ancestor tile covering a tile that isn't loaded yet, or else its
+         * children, straight from the bitmaps in memory.
+         *
+         * @return true if anything was drawn
+         */
+        private boolean drawFallbackTile(final Canvas pCanvas, final String pCacheKey,
+                                         final MapTile pTile) {
+            final int z = pTile.getZ();
+            // probed by packed key, the tiles around are only built if the tile has none
+            final long key = pTile.getKey();
+            for (int diff = 1; diff <= mFallbackZoomDiffMax && diff <= z; diff++) {
+                final Bitmap bitmap = getBitmapFromMemory(key, pCacheKey, z - diff,
+                        pTile.getX() >> diff, pTile.getY() >> diff);
+                if (bitmap == null) {
+                    continue;
+                }
+                final int width = bitmap.getWidth() >> diff;
+                final int height = bitmap.getHeight() >> diff;
+                if (width == 0 || height == 0) {
+                    // too little of the ancestor left to be worth stretching
+                    break;
+                }
+                final int mask = (1 << diff) - 1;
+                final int left = (pTile.getX() & mask) * width;
+                final int top = (pTile.getY() & mask) * height;
+                mFallbackSrcRect.set(left, top, left + width, top + height);
+                pCanvas.drawBitmap(bitmap, mFallbackSrcRect, mTileRect, mFallbackPaint);
+                return true;
+            }
+
+            if (mFallbackZoomDiffMax == 0 || z >= mTileProvider.getMaximumZoomLevel()) {
+                return false;
+            }
+            boolean drawn = false;
+            for (int i = 0; i < 4; i++) {
+                final int dx = i & 1;
+                final int dy = i >> 1;
+                final Bitmap bitmap = getBitmapFromMemory(key, pCacheKey, z + 1,
+                        pTile.getX() * 2 + dx, pTile.getY() * 2 + dy);
+                if (bitmap != null) {
+                    mFallbackDestRect.set(
+                            dx == 0 ? mTileRect.left : mTileRect.centerX(),
+                            dy == 0 ? mTileRect.top : mTileRect.centerY(),
+                            dx == 0 ? mTileRect.centerX() : mTileRect.right,
+                            dy == 0 ? mTileRect.centerY() : mTileRect.bottom);
+                    pCanvas.drawBitmap(bitmap, null, mFallbackDestRect, mFallbackPaint);
+                    drawn = true;
+                }
+            }
+            return drawn;
+        }
+
+        /**
+         * Get the bitmap of a tile if it's in memory, keeping it from being reused until the
+         * end of this draw.
+         *
+         * @param pKey the packed key of a tile of the same layer, or {@link MapTile#NO_KEY}
+         */
+        private Bitmap getBitmapFromMemory(final long pKey, final String pCacheKey,
+                                           final int pZ, final int pX, final int pY) {
+            final long key = MapTile.getKey(pKey, pZ, pX, pY);
+            final CacheableBitmapDrawable drawable = (key != MapTile.NO_KEY)
+                    ? mTileProvider.getMapTileFromMemory(key)
+                    : mTileProvider.getMapTileFromMemory(new MapTile(pCacheKey, pZ, pX, pY));
+            if (drawable == null || !drawable.isBitmapValid()) {
+                return null;
+            }
+            drawable.setBeingUsed(true);
+            mBeingUsedDrawables.add(drawable);
+            return drawable.getBitmap();
+        }
     };
 
     public int getLoadingBackgroundColor() {
@@ -458,7 +604,7 @@ public class TilesOverlay extends SafeDrawOverlay {
                     final Canvas canvas = new Canvas(bitmap);
                     canvas.drawBitmap(oldBitmap, mSrcRect, mDestRect, null);
                     mNewTiles.put(pTile, bitmap);
-                    Log.d(TAG, "rescaled new tile : " + pTile);
+                    DebugLog.d(TAG, "rescaled new tile : ", pTile);
 
                 }
             }
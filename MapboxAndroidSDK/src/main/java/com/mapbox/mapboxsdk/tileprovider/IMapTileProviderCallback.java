@@ -14,7 +14,8 @@ public interface IMapTileProviderCallback {
     void mapTileRequestCompleted(MapTileRequestState aState, final Drawable aDrawable);
 
     /**
-     * The map tile request has failed.
+     * The map tile request has failed. Requests dropped before being served are reported here
+     * too, unless the callback implements {@link IMapTileProviderCancellationCallback}.
      *
      * @param aState a state object
      */
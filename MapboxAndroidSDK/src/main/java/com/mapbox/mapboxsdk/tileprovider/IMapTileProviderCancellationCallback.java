@@ -0,0 +1,15 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+/**
+ * A callback that tells requests dropped before being served apart from failed ones.
+ */
+public interface IMapTileProviderCancellationCallback extends IMapTileProviderCallback {
+
+    /**
+     * The map tile request was dropped before being served, because the tile left the viewport
+     * or the queue was full. The tile can be requested again.
+     *
+     * @param aState a state object
+     */
+    void mapTileRequestCancelled(MapTileRequestState aState);
+}
@@ -1,6 +1,8 @@
 package com.mapbox.mapboxsdk.tileprovider;
 
 import android.graphics.Rect;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A map tile is distributed using the observer pattern. The tile is delivered by a tile provider
@@ -15,14 +17,35 @@ public class MapTile {
     public static final int MAPTILE_SUCCESS_ID = 0;
     public static final int MAPTILE_FAIL_ID = MAPTILE_SUCCESS_ID + 1;
 
+    /**
+     * The key of tiles that can't be packed in 64 bits, which are looked up by their cache key.
+     */
+    public static final long NO_KEY = -1;
+
+    // Bits of the packed key, from the top: a zero sign bit, the layer id, z, x and y.
+    private static final int KEY_Y_BITS = 22;
+    private static final int KEY_X_BITS = 22;
+    private static final int KEY_Z_BITS = 5;
+    private static final int KEY_LAYER_BITS = 14;
+
+    /**
+     * Layer keys are numbered in the order they are first seen, for the lifetime of the process.
+     */
+    private static final ConcurrentHashMap<String, Integer> sLayerIds =
+            new ConcurrentHashMap<String, Integer>();
+    private static final AtomicInteger sNextLayerId = new AtomicInteger();
+
     // This class must be immutable because it's used as the key in the cache hash map
-    // (ie all the fields are final).
+    // (ie all the fields are final). The path and cache key strings are only derived from
+    // them, lazily, since tiles are created on every draw and most never need them.
     private final int x;
     private final int y;
     private final int z;
-    private final String path;
-    private final String cacheKey;
+    private final String layerKey;
+    private String path;
+    private String cacheKey;
     private final int code;
+    private final long key;
     private Rect mTileRect;
 
     public MapTile(final int az, final int ax, final int ay) {
@@ -33,11 +56,81 @@ public class MapTile {
         this.z = az;
         this.x = ax;
         this.y = ay;
-        this.path = String.valueOf(z) + "/" +
-                String.valueOf(x) + "/" +
-                String.valueOf(y);
-        this.cacheKey = aCacheKey + "/" + path;
-        this.code = ((17 * (37 + z)) * (37 * x)) * (37 + y);
+        this.layerKey = aCacheKey;
+        this.key = packKey(aCacheKey, az, ax, ay);
+        // equals() ignores the layer, so the hash does too
+        final long zxy = ((long) az << 42) ^ ((long) ax << 21) ^ ay;
+        this.code = (int) ((zxy * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    /**
+     * Pack the layer, zoom level and coordinates of a tile into a single long, unique to the
+     * tile within the process.
+     *
+     * @return the key, or {@link #NO_KEY} if the tile doesn't fit in 64 bits
+     */
+    private static long packKey(final String aCacheKey, final int az, final int ax,
+            final int ay) {
+        if (az < 0 || az >= (1 << KEY_Z_BITS) || ax < 0 || ax >= (1 << KEY_X_BITS) || ay < 0
+                || ay >= (1 << KEY_Y_BITS)) {
+            return NO_KEY;
+        }
+        final int layerId = getLayerId(aCacheKey);
+        if (layerId < 0) {
+            return NO_KEY;
+        }
+        return ((long) layerId << (KEY_Z_BITS + KEY_X_BITS + KEY_Y_BITS))
+                | ((long) az << (KEY_X_BITS + KEY_Y_BITS))
+                | ((long) ax << KEY_Y_BITS)
+                | ay;
+    }
+
+    private static int getLayerId(final String aCacheKey) {
+        final String layerKey = (aCacheKey != null) ? aCacheKey : "null";
+        final Integer id = sLayerIds.get(layerKey);
+        if (id != null) {
+            return id;
+        }
+        if (sNextLayerId.get() >= (1 << KEY_LAYER_BITS)) {
+            return -1;
+        }
+        final int next = sNextLayerId.getAndIncrement();
+        if (next >= (1 << KEY_LAYER_BITS)) {
+            return -1;
+        }
+        final Integer previous = sLayerIds.putIfAbsent(layerKey, next);
+        return (previous != null) ? previous : next;
+    }
+
+    /**
+     * Get the packed key of the tile a cache key was built for by {@link #getCacheKey()}.
+     *
+     * @param aCacheKey a cache key
+     * @return the key, or {@link #NO_KEY} if the string isn't the cache key of a tile that fits
+     * in 64 bits
+     */
+    public static long parseKey(final String aCacheKey) {
+        final int[] values = new int[3];
+        int end = aCacheKey.length();
+        for (int i = 2; i >= 0; i--) {
+            final int slash = aCacheKey.lastIndexOf('/', end - 1);
+            // leading zeros would give two strings the same key
+            if (slash < 0 || slash == end - 1 || end - slash > 9
+                    || (end - slash > 2 && aCacheKey.charAt(slash + 1) == '0')) {
+                return NO_KEY;
+            }
+            int value = 0;
+            for (int j = slash + 1; j < end; j++) {
+                final char c = aCacheKey.charAt(j);
+                if (c < '0' || c > '9') {
+                    return NO_KEY;
+                }
+                value = value * 10 + (c - '0');
+            }
+            values[i] = value;
+            end = slash;
+        }
+        return packKey(aCacheKey.substring(0, end), values[0], values[1], values[2]);
     }
 
     public int getZ() {
@@ -52,12 +145,66 @@ public class MapTile {
         return y;
     }
 
+    /**
+     * Get the key of the layer this tile belongs to.
+     */
+    public String getLayerKey() {
+        return layerKey;
+    }
+
+    /**
+     * Get the key of this tile and its layer packed in a long, to look it up in memory without
+     * building its cache key.
+     *
+     * @return the key, or {@link #NO_KEY} if the tile doesn't fit in 64 bits
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Get the packed key of another tile of the same layer as a packed key, like an ancestor or
+     * a child, with long math only, so that probing for it doesn't allocate.
+     *
+     * @param aKey the packed key of a tile of the layer
+     * @return the key, or {@link #NO_KEY} if aKey is {@link #NO_KEY} or the tile doesn't fit in
+     * 64 bits
+     */
+    public static long getKey(final long aKey, final int az, final int ax, final int ay) {
+        if (aKey == NO_KEY || az < 0 || az >= (1 << KEY_Z_BITS) || ax < 0
+                || ax >= (1 << KEY_X_BITS) || ay < 0 || ay >= (1 << KEY_Y_BITS)) {
+            return NO_KEY;
+        }
+        final int layerShift = KEY_Z_BITS + KEY_X_BITS + KEY_Y_BITS;
+        return ((aKey >>> layerShift) << layerShift)
+                | ((long) az << (KEY_X_BITS + KEY_Y_BITS))
+                | ((long) ax << KEY_Y_BITS)
+                | ay;
+    }
+
     public String getCacheKey() {
+        if (cacheKey == null) {
+            cacheKey = layerKey + "/" + toString();
+        }
         return cacheKey;
     }
 
+    /**
+     * Checks whether this tile has the given coordinates and layer, so that an existing
+     * instance can be reused instead of creating an equal one.
+     */
+    public boolean isSameTile(final String aCacheKey, final int az, final int ax, final int ay) {
+        return z == az && x == ax && y == ay
+                && (layerKey == aCacheKey || (layerKey != null && layerKey.equals(aCacheKey)));
+    }
+
     @Override
     public String toString() {
+        if (path == null) {
+            path = String.valueOf(z) + "/" +
+                    String.valueOf(x) + "/" +
+                    String.valueOf(y);
+        }
         return path;
     }
 
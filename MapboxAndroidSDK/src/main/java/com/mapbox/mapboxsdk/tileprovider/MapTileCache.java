@@ -9,11 +9,19 @@ import android.graphics.drawable.Drawable;
 import android.os.Environment;
 import android.util.Log;
 import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import com.mapbox.mapboxsdk.tileprovider.metrics.TileMetricsRegistry;
+import com.mapbox.mapboxsdk.tileprovider.util.StreamUtils;
 import com.mapbox.mapboxsdk.util.BitmapUtils;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
 import uk.co.senab.bitmapcache.BitmapLruCache;
 import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
+import uk.co.senab.bitmapcache.LongLruCache;
 
 /**
  * A wrapper around a BitmapLruCache that stores tiles on disk in order
@@ -29,6 +37,43 @@ public class MapTileCache implements TileLayerConstants {
 
     private boolean mDiskCacheEnabled = false;
 
+    /**
+     * Archives that deduplicate their tiles let many tiles share one decoded bitmap, cached
+     * under a content key. This maps the packed keys of those tiles to their content key.
+     */
+    private static final int MAXIMUM_CONTENT_ALIASES = 2048;
+    private static final LongLruCache<String> sContentKeys =
+            new LongLruCache<String>(MAXIMUM_CONTENT_ALIASES);
+
+    /**
+     * Tiles are kept in memory under their packed key, so that the drawing loop looks them up
+     * without building strings. Other keys, like content keys, are hashed.
+     */
+    private static final BitmapLruCache.MemoryKeyFunction TILE_MEMORY_KEYS =
+            new BitmapLruCache.MemoryKeyFunction() {
+                @Override
+                public long getMemoryKey(final String url) {
+                    final long key = MapTile.parseKey(url);
+                    return (key != MapTile.NO_KEY) ? key
+                            : BitmapLruCache.HASHED_MEMORY_KEYS.getMemoryKey(url);
+                }
+            };
+
+    /**
+     * The size of the tiles last decoded for each layer, so that the next ones are decoded into
+     * a reused bitmap without decoding their bounds first.
+     */
+    private static final ConcurrentHashMap<String, Integer> sTileSizes =
+            new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Tiles of the zoom levels next to the one on screen, read ahead while the map is idle. They
+     * are kept apart from the tiles drawn, within a share of the memory budget taken from the
+     * memory cache, so that they never push those out, and are moved over when first looked up.
+     */
+    private static final int WARM_TILES_FRACTION = 4;
+    private static volatile LongLruCache<Bitmap> sWarmTiles = null;
+
     public MapTileCache(final Context aContext) {
         this(aContext, CACHE_MAPTILEDISKSIZE_DEFAULT);
     }
@@ -56,8 +101,13 @@ public class MapTileCache implements TileLayerConstants {
             } else {
                 Log.i(TAG, "cacheDir previously created '" + cacheDir.getAbsolutePath() + "'");
             }
+            // warmed tiles keep their share of the budget when the cache is built again
+            final LongLruCache<Bitmap> warmTiles = sWarmTiles;
+            final int memoryCacheSize = BitmapUtils.calculateMemoryCacheSize(context)
+                    - ((warmTiles != null) ? warmTiles.maxSize() : 0);
             sCachedTiles = (new BitmapLruCache.Builder(context)).setMemoryCacheEnabled(true)
-                    .setMemoryCacheMaxSize(BitmapUtils.calculateMemoryCacheSize(context))
+                    .setMemoryCacheMaxSize(memoryCacheSize)
+                    .setMemoryKeyFunction(TILE_MEMORY_KEYS)
                     .setDiskCacheEnabled(mDiskCacheEnabled)
                     .setDiskCacheMaxSize(mMaximumCacheSize)
                     .setDiskCacheLocation(cacheDir)
@@ -77,26 +127,289 @@ public class MapTileCache implements TileLayerConstants {
         return aTile.getCacheKey();
     }
 
+    /**
+     * Get the decoded bitmap of a tile from memory, by its content key if it shares its content
+     * with other tiles, else by its packed key.
+     */
+    private CacheableBitmapDrawable getFromMemory(final MapTile aTile) {
+        final long key = aTile.getKey();
+        if (key == MapTile.NO_KEY) {
+            return getCache().getFromMemoryCache(getCacheKey(aTile));
+        }
+        final String contentKey = sContentKeys.get(key);
+        if (contentKey != null) {
+            final CacheableBitmapDrawable result = getCache().getFromMemoryCache(contentKey);
+            if (result != null) {
+                return result;
+            }
+        }
+        final CacheableBitmapDrawable result = getCache().getFromMemoryCache(key);
+        if (result == null && sWarmTiles != null) {
+            return getWarmTile(aTile);
+        }
+        return result;
+    }
+
+    /**
+     * Get the decoded bitmap of a tile from memory by its packed key alone. Warmed tiles aren't
+     * moved over, since that needs the cache key of the tile, they are when the tile itself is
+     * looked up.
+     */
+    private CacheableBitmapDrawable getFromMemory(final long aKey) {
+        if (aKey == MapTile.NO_KEY) {
+            return null;
+        }
+        final String contentKey = sContentKeys.get(aKey);
+        if (contentKey != null) {
+            final CacheableBitmapDrawable result = getCache().getFromMemoryCache(contentKey);
+            if (result != null) {
+                return result;
+            }
+        }
+        return getCache().getFromMemoryCache(aKey);
+    }
+
+    /**
+     * Move a warmed tile to the memory cache, so that it is drawn as any other.
+     */
+    private CacheableBitmapDrawable getWarmTile(final MapTile aTile) {
+        final LongLruCache<Bitmap> warmTiles = sWarmTiles;
+        final Bitmap bitmap = (warmTiles != null) ? warmTiles.remove(aTile.getKey()) : null;
+        if (bitmap == null || bitmap.isRecycled()) {
+            return null;
+        }
+        return getCache().putInMemoryCache(getCacheKey(aTile), bitmap);
+    }
+
+    /**
+     * Create the memory tier warmed tiles are kept in, if it doesn't exist yet. It takes a
+     * fraction of the memory budget of {@link BitmapUtils#calculateMemoryCacheSize(Context)},
+     * which the memory cache shrinks by, so that both together stay within the budget.
+     */
+    public void enableWarmTiles() {
+        synchronized (MapTileCache.class) {
+            if (sWarmTiles == null) {
+                final int budget = BitmapUtils.calculateMemoryCacheSize(context);
+                final int maxSize = budget / WARM_TILES_FRACTION;
+                getCache().resizeMemoryCache(budget - maxSize);
+                sWarmTiles = new LongLruCache<Bitmap>(maxSize) {
+                    @Override
+                    protected int sizeOf(final long key, final Bitmap value) {
+                        return value.getRowBytes() * value.getHeight();
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * Decode a tile the way the memory cache does, into a mutable bitmap reused from the tiles
+     * it evicted if there is one, without caching it. Bitmaps decoded this way can be reused
+     * in turn once they are evicted.
+     *
+     * @return the bitmap, or null if the tile couldn't be decoded
+     */
+    public Bitmap decodeTile(final MapTile aTile, final byte[] data) {
+        final long start = System.nanoTime();
+        final Bitmap result = getCache().decodeBitmap(
+                new BitmapLruCache.ByteArrayInputStreamProvider(data),
+                getDecodeOptions(aTile, null));
+        if (result != null) {
+            TileMetricsRegistry.getMetrics().onDecode(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of bytes warmed tiles can take, 0 if they aren't enabled.
+     */
+    public int getWarmTilesMaxSize() {
+        final LongLruCache<Bitmap> warmTiles = sWarmTiles;
+        return (warmTiles != null) ? warmTiles.maxSize() : 0;
+    }
+
+    /**
+     * Keep a tile read ahead of being drawn in the warm tier.
+     *
+     * @return false if warmed tiles aren't enabled or the tile has no packed key
+     */
+    public boolean putWarmTile(final MapTile aTile, final Bitmap aBitmap) {
+        final LongLruCache<Bitmap> warmTiles = sWarmTiles;
+        if (warmTiles == null || aTile.getKey() == MapTile.NO_KEY) {
+            return false;
+        }
+        warmTiles.put(aTile.getKey(), aBitmap);
+        return true;
+    }
+
+    /**
+     * Checks whether a tile is in memory, among the tiles drawn or the warmed ones, without
+     * moving it between the two.
+     */
+    public boolean containsTileInMemory(final MapTile aTile) {
+        final LongLruCache<Bitmap> warmTiles = sWarmTiles;
+        if (warmTiles != null && aTile.getKey() != MapTile.NO_KEY
+                && warmTiles.get(aTile.getKey()) != null) {
+            return true;
+        }
+        return getCache().containsInMemoryCache(getCacheKey(aTile));
+    }
+
+    private void putContentKey(final MapTile aTile, final String contentKey) {
+        if (aTile.getKey() != MapTile.NO_KEY) {
+            sContentKeys.put(aTile.getKey(), contentKey);
+        }
+    }
+
     public CacheableBitmapDrawable getMapTile(final MapTile aTile) {
-        String key = getCacheKey(aTile);
-        CacheableBitmapDrawable result = getCache().getFromMemoryCache(key);
+        CacheableBitmapDrawable result = getFromMemory(aTile);
         if (result == null) {
-            result = getCache().getFromDiskCache(key, null);
+            result = getMapTileFromDisk(aTile);
         }
         return result;
     }
 
     public CacheableBitmapDrawable getMapTileFromMemory(final MapTile aTile) {
-        return getCache().getFromMemoryCache(getCacheKey(aTile));
+        return getFromMemory(aTile);
+    }
+
+    /**
+     * Get a tile from memory by its packed key, see {@link MapTile#getKey(long, int, int, int)}.
+     *
+     * @return the cached drawable, or null if the tile isn't in memory or aKey is
+     * {@link MapTile#NO_KEY}
+     */
+    public CacheableBitmapDrawable getMapTileFromMemory(final long aKey) {
+        return getFromMemory(aKey);
+    }
+
+    /**
+     * Get the bitmap of a tile from memory by the key of its content, so that tiles with the
+     * same content are decoded only once. On a hit the tile is linked to the content, so later
+     * lookups of the tile find it too.
+     *
+     * @param aTile the tile
+     * @param contentKey a key identifying the content of the tile
+     * @return the cached drawable, or null if the content isn't in memory
+     */
+    public CacheableBitmapDrawable getContentFromMemory(final MapTile aTile,
+            final String contentKey) {
+        final CacheableBitmapDrawable result = getCache().getFromMemoryCache(contentKey);
+        if (result != null) {
+            putContentKey(aTile, contentKey);
+        }
+        return result;
+    }
+
+    /**
+     * Decode the content of a tile and cache it under its content key, so that other tiles
+     * with the same content can share it.
+     *
+     * @param aTile the tile
+     * @param contentKey a key identifying the content of the tile
+     * @param inputStream the encoded content
+     * @param decodeOpts the options to decode with
+     * @return the cached drawable, or null if the content couldn't be decoded
+     */
+    public CacheableBitmapDrawable putTileContentStream(final MapTile aTile,
+            final String contentKey, final InputStream inputStream,
+            final BitmapFactory.Options decodeOpts) {
+        final CacheableBitmapDrawable result = getCache().put(contentKey, inputStream,
+                getDecodeOptions(aTile, decodeOpts));
+        if (result != null) {
+            putContentKey(aTile, contentKey);
+            putTileSize(aTile, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the options to decode a tile with, expecting it to be the size of the tiles of its
+     * layer decoded so far.
+     */
+    private BitmapFactory.Options getDecodeOptions(final MapTile aTile,
+            final BitmapFactory.Options decodeOpts) {
+        if (decodeOpts != null || aTile.getLayerKey() == null) {
+            return decodeOpts;
+        }
+        final Integer size = sTileSizes.get(aTile.getLayerKey());
+        if (size == null) {
+            return null;
+        }
+        return BitmapLruCache.setExpectedSize(new BitmapFactory.Options(), size, size);
+    }
+
+    private void putTileSize(final MapTile aTile, final CacheableBitmapDrawable drawable) {
+        final Bitmap bitmap = drawable.getBitmap();
+        if (aTile.getLayerKey() != null && bitmap != null
+                && bitmap.getWidth() == bitmap.getHeight()) {
+            final Integer size = sTileSizes.get(aTile.getLayerKey());
+            if (size == null || size != bitmap.getWidth()) {
+                sTileSizes.put(aTile.getLayerKey(), bitmap.getWidth());
+            }
+        }
     }
 
     public CacheableBitmapDrawable getMapTileFromDisk(final MapTile aTile) {
-        return getCache().getFromDiskCache(getCacheKey(aTile), null);
+        final CacheableBitmapDrawable result = getCache().getFromDiskCache(getCacheKey(aTile), null);
+        if (result != null) {
+            TileMetricsRegistry.getMetrics().onDiskCacheHit();
+        }
+        return result;
     }
 
+    /**
+     * Get the bytes of a tile from the disk cache as they were stored, e.g. to export the tile
+     * to an MBTiles file.
+     *
+     * @param aTile the tile
+     * @return the encoded tile, or null if the disk cache doesn't hold it
+     */
+    public byte[] getTileBytesFromDisk(final MapTile aTile) {
+        return getCache().getRawFromDiskCache(getCacheKey(aTile));
+    }
+
+    /**
+     * Decode a tile from a stream and cache it. The original bytes of the stream are written to
+     * the disk cache as they are read, so they are neither decoded twice nor re-encoded.
+     */
     public CacheableBitmapDrawable putTileStream(final MapTile aTile, final InputStream inputStream,
             final BitmapFactory.Options decodeOpts) {
-        return getCache().put(getCacheKey(aTile), inputStream, decodeOpts);
+        return putTileStream(aTile, inputStream, decodeOpts, null);
+    }
+
+    /**
+     * Decode a tile from a downloaded stream and cache it, like {@link #putTileStream(MapTile,
+     * InputStream, BitmapFactory.Options)}, along with the caching headers it came with.
+     *
+     * @param validator the caching headers of the download, or null if it had none
+     */
+    public CacheableBitmapDrawable putTileStream(final MapTile aTile, final InputStream inputStream,
+            final BitmapFactory.Options decodeOpts, final TileValidator validator) {
+        final CacheableBitmapDrawable result = getCache().put(getCacheKey(aTile), inputStream,
+                getDecodeOptions(aTile, decodeOpts), toMetadata(validator));
+        if (result != null) {
+            putTileSize(aTile, result);
+        }
+        return result;
+    }
+
+    /**
+     * Decode a tile from its downloaded bytes and cache it, the bytes going to the disk cache
+     * as they are, along with the caching headers they came with.
+     *
+     * @param validator the caching headers of the download, or null if it had none
+     */
+    public CacheableBitmapDrawable putTileBytes(final MapTile aTile, final byte[] data,
+            final TileValidator validator) {
+        final long start = System.nanoTime();
+        final CacheableBitmapDrawable result = getCache().put(getCacheKey(aTile), data,
+                getDecodeOptions(aTile, null), toMetadata(validator));
+        if (result != null) {
+            TileMetricsRegistry.getMetrics().onDecode(System.nanoTime() - start);
+            putTileSize(aTile, result);
+        }
+        return result;
     }
 
     public CacheableBitmapDrawable putTileBitmap(final MapTile aTile, final Bitmap bitmap) {
@@ -107,7 +420,8 @@ public class MapTileCache implements TileLayerConstants {
         if (aDrawable != null && aDrawable instanceof BitmapDrawable) {
             String key = getCacheKey(aTile);
             CacheableBitmapDrawable drawable = null;
-            if (!getCache().containsInMemoryCache(key)) {
+            // tiles sharing their content are already in memory, under the content key
+            if (getFromMemory(aTile) == null) {
                 drawable = getCache().putInMemoryCache(getCacheKey(aTile),
                         ((BitmapDrawable) aDrawable).getBitmap());
             }
@@ -157,7 +471,7 @@ public class MapTileCache implements TileLayerConstants {
     }
 
     public boolean containsTile(final MapTile aTile) {
-        return getCache().contains(getCacheKey(aTile));
+        return getFromMemory(aTile) != null || getCache().contains(getCacheKey(aTile));
     }
 
     public boolean containsTileInDiskCache(final MapTile aTile) {
@@ -165,15 +479,28 @@ public class MapTileCache implements TileLayerConstants {
     }
 
     public void removeTile(final MapTile aTile) {
+        final LongLruCache<Bitmap> warmTiles = sWarmTiles;
+        if (warmTiles != null && aTile.getKey() != MapTile.NO_KEY) {
+            warmTiles.remove(aTile.getKey());
+        }
         getCache().remove(getCacheKey(aTile));
     }
 
     public void removeTileFromMemory(final MapTile aTile) {
-        String key = getCacheKey(aTile);
-        getCache().removeFromMemoryCache(key);
+        final String contentKey = (aTile.getKey() != MapTile.NO_KEY)
+                ? sContentKeys.remove(aTile.getKey()) : null;
+        // the content may still be shown for other tiles, so only the link to it goes
+        if (contentKey == null) {
+            getCache().removeFromMemoryCache(getCacheKey(aTile));
+        }
     }
 
     public void purgeMemoryCache() {
+        sContentKeys.evictAll();
+        final LongLruCache<Bitmap> warmTiles = sWarmTiles;
+        if (warmTiles != null) {
+            warmTiles.evictAll();
+        }
         getCache().purgeMemoryCache();
     }
 
@@ -199,6 +526,67 @@ public class MapTileCache implements TileLayerConstants {
         return getCache().decodeBitmap(ip, opts);
     }
 
+    /**
+     * Get the caching headers a tile in the disk cache was downloaded with. They are kept in
+     * the disk cache entry of the tile, so they go along with it.
+     *
+     * @param aTile the tile
+     * @return the validator, or null if the tile has none
+     */
+    public TileValidator getTileValidator(final MapTile aTile) {
+        if (!isDiskCacheEnabled()) {
+            return null;
+        }
+        final String metadata = getCache().getDiskCacheMetadata(getCacheKey(aTile));
+        if (metadata == null || metadata.length() == 0) {
+            return null;
+        }
+        try {
+            return TileValidator.readFrom(new BufferedReader(new StringReader(metadata)));
+        } catch (final IOException e) {
+            Log.w(TAG, "Ignoring invalid tile validator of " + aTile + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Store the caching headers a tile of the disk cache was revalidated with.
+     *
+     * @param aTile the tile
+     * @param validator the validator, or null to drop the one of the tile
+     */
+    public void putTileValidator(final MapTile aTile, final TileValidator validator) {
+        if (isDiskCacheEnabled()) {
+            getCache().putDiskCacheMetadata(getCacheKey(aTile), toMetadata(validator));
+        }
+    }
+
+    public void removeTileValidator(final MapTile aTile) {
+        putTileValidator(aTile, null);
+    }
+
+    private static String toMetadata(final TileValidator validator) {
+        if (validator == null) {
+            return null;
+        }
+        final StringWriter writer = new StringWriter();
+        try {
+            validator.writeTo(writer);
+        } catch (final IOException e) {
+            // a StringWriter doesn't throw
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Checks whether a tile of the disk cache has outlived the freshness its server gave it
+     * and should be revalidated.
+     */
+    public boolean isTileStale(final MapTile aTile) {
+        final TileValidator validator = getTileValidator(aTile);
+        return validator != null && validator.isStale(System.currentTimeMillis());
+    }
+
     /**
      * Creates a unique subdirectory of the designated app cache directory. Tries to use external
      * but if not mounted, falls back on internal storage.
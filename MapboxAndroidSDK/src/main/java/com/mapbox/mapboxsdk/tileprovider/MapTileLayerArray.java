@@ -2,13 +2,14 @@ package com.mapbox.mapboxsdk.tileprovider;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
-import android.util.Log;
 import com.mapbox.mapboxsdk.geometry.BoundingBox;
 import com.mapbox.mapboxsdk.geometry.LatLng;
+import com.mapbox.mapboxsdk.tileprovider.metrics.TileMetricsRegistry;
 import com.mapbox.mapboxsdk.tileprovider.modules.MapTileModuleLayerBase;
 import com.mapbox.mapboxsdk.tileprovider.modules.NetworkAvailabilityCheck;
 import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
 import com.mapbox.mapboxsdk.util.BitmapUtils;
+import com.mapbox.mapboxsdk.util.DebugLog;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -41,6 +42,11 @@ public class MapTileLayerArray extends MapTileLayerBase {
 
     protected final NetworkAvailabilityCheck mNetworkAvailabilityCheck;
 
+    /**
+     * The number of prefetch requests in {@link #mWorking}, guarded by it.
+     */
+    private int mPrefetchCount;
+
     /**
      * Creates an {@link MapTileLayerArray} with no tile providers.
      *
@@ -88,7 +94,9 @@ public class MapTileLayerArray extends MapTileLayerBase {
 
         synchronized (mWorking) {
             mWorking.clear();
+            mPrefetchCount = 0;
         }
+        setPyramidWarmingEnabled(false);
     }
 
     private boolean networkAvailable() {
@@ -112,11 +120,28 @@ public class MapTileLayerArray extends MapTileLayerBase {
         return false;
     }
 
+    /**
+     * Checks whether any provider may be able to provide this tile.
+     *
+     * @param pTile the tile in question
+     * @return false if no provider can provide the tile, so it shouldn't even be requested
+     */
+    private boolean tileCovered(final MapTile pTile) {
+        synchronized (mTileProviderList) {
+            for (final MapTileModuleLayerBase provider : mTileProviderList) {
+                if (provider.canServiceTile(pTile)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     @Override
     public Drawable getMapTile(final MapTile pTile, final boolean allowRemote) {
  //       Log.d(TAG, "getMapTile() with pTile (CacheKey) = '" + pTile.getCacheKey() + "'; allowRemote = '" + allowRemote + "'");
         if (tileUnavailable(pTile)) {
-            Log.d(TAG, "MapTileLayerArray.getMapTile() tileUnavailable: " + pTile);
+            DebugLog.d(TAG, "MapTileLayerArray.getMapTile() tileUnavailable: ", pTile);
             return null;
         }
 
@@ -124,16 +149,30 @@ public class MapTileLayerArray extends MapTileLayerBase {
 
         if (tileDrawable != null && tileDrawable.isBitmapValid() && !BitmapUtils.isCacheDrawableExpired(tileDrawable)) {
             tileDrawable.setBeingUsed(true);
+            TileMetricsRegistry.getMetrics().onMemoryCacheHit();
 //            Log.d(TAG, "Found tile(" + pTile.getCacheKey() + ") in memory, so returning for drawing.");
             return tileDrawable;
-        } else if (allowRemote) {
+        }
+        TileMetricsRegistry.getMetrics().onMemoryCacheMiss();
+        if (allowRemote) {
 //            Log.d(TAG, "Tile not found in memory so will load from remote.");
             boolean alreadyInProgress = false;
+            MapTileRequestState prefetched = null;
             synchronized (mWorking) {
-                alreadyInProgress = mWorking.containsKey(pTile);
+                final MapTileRequestState working = mWorking.get(pTile);
+                alreadyInProgress = working != null;
+                if (working != null && working.isPrefetch()) {
+                    // the tile came into view before it was prefetched, serve it as a visible one
+                    working.setPrefetch(false);
+                    mPrefetchCount--;
+                    prefetched = working;
+                }
+            }
+            if (prefetched != null && prefetched.getCurrentProvider() != null) {
+                prefetched.getCurrentProvider().reprioritize(prefetched);
             }
 
-            if (!alreadyInProgress) {
+            if (!alreadyInProgress && tileCovered(pTile)) {
 //                Log.d(TAG, "MapTileLayerArray.getMapTile() requested but not in cache, trying from async providers: " + pTile);
 
                 final MapTileRequestState state;
@@ -173,9 +212,7 @@ public class MapTileLayerArray extends MapTileLayerBase {
     @Override
     public void mapTileRequestCompleted(final MapTileRequestState aState,
             final Drawable aDrawable) {
-        synchronized (mWorking) {
-            mWorking.remove(aState.getMapTile());
-        }
+        removeWorking(aState.getMapTile());
         super.mapTileRequestCompleted(aState, aDrawable);
     }
 
@@ -185,9 +222,7 @@ public class MapTileLayerArray extends MapTileLayerBase {
         if (nextProvider != null) {
             nextProvider.loadMapTileAsync(aState);
         } else {
-            synchronized (mWorking) {
-                mWorking.remove(aState.getMapTile());
-            }
+            removeWorking(aState.getMapTile());
             if (!networkAvailable()) {
                 mUnaccessibleTiles.add(aState.getMapTile());
             }
@@ -195,6 +230,12 @@ public class MapTileLayerArray extends MapTileLayerBase {
         }
     }
 
+    @Override
+    public void mapTileRequestCancelled(final MapTileRequestState aState) {
+        removeWorking(aState.getMapTile());
+        super.mapTileRequestCancelled(aState);
+    }
+
     @Override
     public void mapTileRequestExpiredTile(MapTileRequestState aState,
             CacheableBitmapDrawable aDrawable) {
@@ -207,8 +248,111 @@ public class MapTileLayerArray extends MapTileLayerBase {
         if (nextProvider != null) {
             nextProvider.loadMapTileAsync(aState);
         } else {
-            synchronized (mWorking) {
-                mWorking.remove(aState.getMapTile());
+            removeWorking(aState.getMapTile());
+        }
+    }
+
+    /**
+     * A tile is pending while it is queued or loading. Tiles no provider can serve, e.g. outside
+     * the coverage of an archive, or unreachable while offline, never are.
+     */
+    @Override
+    public boolean isTilePending(final MapTile pTile, final boolean pRequested) {
+        if (tileUnavailable(pTile) || !tileCovered(pTile)) {
+            return false;
+        }
+        if (!pRequested) {
+            // it will be requested once the map stops
+            return true;
+        }
+        synchronized (mWorking) {
+            return mWorking.containsKey(pTile);
+        }
+    }
+
+    @Override
+    public boolean prefetchMapTile(final MapTile pTile) {
+        if (tileUnavailable(pTile) || !tileCovered(pTile)) {
+            return false;
+        }
+        final CacheableBitmapDrawable cached = mTileCache.getMapTileFromMemory(pTile);
+        if (cached != null && cached.isBitmapValid()
+                && !BitmapUtils.isCacheDrawableExpired(cached)) {
+            return false;
+        }
+
+        final MapTileRequestState state;
+        synchronized (mTileProviderList) {
+            final MapTileModuleLayerBase[] providerArray =
+                    new MapTileModuleLayerBase[mTileProviderList.size()];
+            state = new MapTileRequestState(pTile, mTileProviderList.toArray(providerArray), this);
+        }
+        state.setPrefetch(true);
+
+        synchronized (mWorking) {
+            if (mWorking.containsKey(pTile)) {
+                return false;
+            }
+            mWorking.put(pTile, state);
+            mPrefetchCount++;
+        }
+
+        final MapTileModuleLayerBase provider = findNextAppropriateProvider(state);
+        if (provider != null) {
+            provider.loadMapTileAsync(state);
+            return true;
+        }
+        mapTileRequestFailed(state);
+        return false;
+    }
+
+    @Override
+    protected byte[] getLocalTileBytes(final MapTile pTile) {
+        final int zoom = pTile.getZ();
+        final MapTileModuleLayerBase[] providers;
+        // read outside the lock, the drawing loop takes it too
+        synchronized (mTileProviderList) {
+            providers = mTileProviderList.toArray(
+                    new MapTileModuleLayerBase[mTileProviderList.size()]);
+        }
+        for (final MapTileModuleLayerBase provider : providers) {
+            if (zoom < provider.getMinimumZoomLevel() || zoom > provider.getMaximumZoomLevel()
+                    || !provider.canServiceTile(pTile)) {
+                continue;
+            }
+            final byte[] data = provider.getLocalTileBytes(pTile);
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int getPrefetchCount() {
+        synchronized (mWorking) {
+            return mPrefetchCount;
+        }
+    }
+
+    /**
+     * Forget a request that is done, one way or another.
+     */
+    private void removeWorking(final MapTile pTile) {
+        synchronized (mWorking) {
+            final MapTileRequestState state = mWorking.remove(pTile);
+            if (state != null && state.isPrefetch()) {
+                mPrefetchCount--;
+            }
+        }
+    }
+
+    @Override
+    protected void setViewport(final TileViewport pViewport) {
+        super.setViewport(pViewport);
+        synchronized (mTileProviderList) {
+            for (final MapTileModuleLayerBase tileProvider : mTileProviderList) {
+                tileProvider.setViewport(pViewport);
             }
         }
     }
@@ -222,7 +366,8 @@ public class MapTileLayerArray extends MapTileLayerBase {
         MapTileModuleLayerBase provider = null;
         boolean providerDoesntExist = false,
                 providerCantGetDataConnection = false,
-                providerCantServiceZoomlevel = false;
+                providerCantServiceZoomlevel = false,
+                providerCantServiceTile = false;
         // The logic of the while statement is
         // "Keep looping until you get null, or a provider that still exists
         // and has a data connection if it needs one and can service the zoom level,"
@@ -237,13 +382,56 @@ public class MapTileLayerArray extends MapTileLayerBase {
                 int zoomLevel = aState.getMapTile().getZ();
                 providerCantServiceZoomlevel = zoomLevel > provider.getMaximumZoomLevel()
                         || zoomLevel < provider.getMinimumZoomLevel();
+                providerCantServiceTile = !providerCantServiceZoomlevel
+                        && !provider.canServiceTile(aState.getMapTile());
             }
         } while ((provider != null) && (providerDoesntExist
                 || providerCantGetDataConnection
-                || providerCantServiceZoomlevel));
+                || providerCantServiceZoomlevel
+                || providerCantServiceTile));
         return provider;
     }
 
+    /**
+     * Get the number of tiles the providers loaded while they were still wanted.
+     */
+    public long getUsefulLoadCount() {
+        long result = 0;
+        synchronized (mTileProviderList) {
+            for (final MapTileModuleLayerBase tileProvider : mTileProviderList) {
+                result += tileProvider.getUsefulLoadCount();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of tiles the providers loaded, or started loading, after they had left the
+     * viewport.
+     */
+    public long getWastedLoadCount() {
+        long result = 0;
+        synchronized (mTileProviderList) {
+            for (final MapTileModuleLayerBase tileProvider : mTileProviderList) {
+                result += tileProvider.getWastedLoadCount();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of requests the providers cancelled before doing any work on them.
+     */
+    public long getCancelledRequestCount() {
+        long result = 0;
+        synchronized (mTileProviderList) {
+            for (final MapTileModuleLayerBase tileProvider : mTileProviderList) {
+                result += tileProvider.getCancelledRequestCount();
+            }
+        }
+        return result;
+    }
+
     public boolean getProviderExists(final MapTileModuleLayerBase provider) {
         synchronized (mTileProviderList) {
             return mTileProviderList.contains(provider);
@@ -27,7 +27,8 @@ import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
  * @author Marc Kurtz
  * @author Nicolas Gramlich
  */
-public abstract class MapTileLayerBase implements IMapTileProviderCallback, TileLayerConstants {
+public abstract class MapTileLayerBase
+        implements IMapTileProviderCancellationCallback, TileLayerConstants {
     protected Context context;
     protected final MapTileCache mTileCache;
     private Handler mTileRequestCompleteHandler;
@@ -35,6 +36,8 @@ public abstract class MapTileLayerBase implements IMapTileProviderCallback, Tile
 
     private ITileLayer mTileSource;
     protected String mCacheKey = "";
+    protected volatile TileViewport mViewport;
+    private PyramidWarmer mPyramidWarmer;
 
     /**
      * Attempts to get a Drawable that represents a {@link MapTile}. If the tile is not immediately
@@ -165,8 +168,9 @@ public abstract class MapTileLayerBase implements IMapTileProviderCallback, Tile
     @Override
     public void mapTileRequestCompleted(final MapTileRequestState pState,
             final Drawable pDrawable) {
-        // tell our caller we've finished and it should update its view
-        if (mTileRequestCompleteHandler != null) {
+        // tell our caller we've finished and it should update its view, unless the tile was
+        // prefetched and isn't on screen yet
+        if (mTileRequestCompleteHandler != null && !pState.isPrefetch()) {
             Message msg = new Message();
             msg.obj = pState.getMapTile().getTileRect();
             msg.what = MapTile.MAPTILE_SUCCESS_ID;
@@ -195,6 +199,19 @@ public abstract class MapTileLayerBase implements IMapTileProviderCallback, Tile
         }
     }
 
+    /**
+     * Called by implementation class methods indicating that they have dropped a request without
+     * serving it. Nothing changed on screen, so no message is sent.
+     *
+     * @param pState the map tile request state object
+     */
+    @Override
+    public void mapTileRequestCancelled(final MapTileRequestState pState) {
+        if (DEBUG_TILE_PROVIDERS) {
+            Log.d(TAG, "MapTileLayerBase.mapTileRequestCancelled(): " + pState.getMapTile());
+        }
+    }
+
     /**
      * Called by implementation class methods indicating that they have produced an expired result
      * that can be used but better results may be delivered later. The tile is added to the cache,
@@ -292,6 +309,103 @@ public abstract class MapTileLayerBase implements IMapTileProviderCallback, Tile
         mUseDataConnection = pMode;
     }
 
+    /**
+     * Set the range of tiles currently drawn, so that requests for them are served first and
+     * requests for tiles that have left it are cancelled. Called on every draw, so nothing is
+     * allocated unless the range changed.
+     *
+     * @param pZoom the zoom level of the tiles drawn
+     * @param pMinX the first tile column, not wrapped around the world
+     * @param pMinY the first tile row
+     * @param pMaxX the last tile column, not wrapped around the world
+     * @param pMaxY the last tile row
+     */
+    public void setViewport(final int pZoom, final int pMinX, final int pMinY, final int pMaxX,
+            final int pMaxY) {
+        final TileViewport viewport = mViewport;
+        if (viewport == null || !viewport.isSameAs(pZoom, pMinX, pMinY, pMaxX, pMaxY)) {
+            setViewport(new TileViewport(pZoom, pMinX, pMinY, pMaxX, pMaxY));
+        }
+    }
+
+    protected void setViewport(final TileViewport pViewport) {
+        mViewport = pViewport;
+    }
+
+    public TileViewport getViewport() {
+        return mViewport;
+    }
+
+    /**
+     * Request a tile ahead of it being drawn, e.g. where the map is about to move to. Prefetched
+     * tiles are loaded after the tiles on screen and only put in the cache.
+     *
+     * @param pTile the tile to load
+     * @return true if a request was queued, false if the tile is already in memory or being
+     * loaded, or can't be prefetched
+     */
+    public boolean prefetchMapTile(final MapTile pTile) {
+        return false;
+    }
+
+    /**
+     * Checks whether a tile missing from memory is on its way, so that the viewport isn't
+     * complete yet. Unless overridden, every missing tile is.
+     *
+     * @param pTile the tile in question
+     * @param pRequested whether the tile was just requested from {@link #getMapTile}, false if
+     * only memory was looked up, e.g. while the map animates
+     */
+    public boolean isTilePending(final MapTile pTile, final boolean pRequested) {
+        return true;
+    }
+
+    /**
+     * Get the number of prefetch requests queued or being loaded.
+     */
+    public int getPrefetchCount() {
+        return 0;
+    }
+
+    /**
+     * Get a tile as it is encoded, if it can be read without going to the network. Called from
+     * background threads.
+     *
+     * @return the encoded tile, or null if there is no local copy of it
+     */
+    protected byte[] getLocalTileBytes(final MapTile pTile) {
+        return mTileCache.getTileBytesFromDisk(pTile);
+    }
+
+    public boolean isPyramidWarmingEnabled() {
+        return mPyramidWarmer != null;
+    }
+
+    /**
+     * Set whether the tiles of the zoom levels above and below the viewport are read ahead
+     * from local copies while the map is idle, so that zooming by one level shows them at
+     * once. Off by default.
+     */
+    public void setPyramidWarmingEnabled(final boolean pEnabled) {
+        if (pEnabled && mPyramidWarmer == null) {
+            mTileCache.enableWarmTiles();
+            mPyramidWarmer = new PyramidWarmer(this);
+        } else if (!pEnabled && mPyramidWarmer != null) {
+            mPyramidWarmer.shutdown();
+            mPyramidWarmer = null;
+        }
+    }
+
+    /**
+     * Read ahead the tiles of the zoom levels above and below a viewport, if pyramid warming is
+     * enabled. Called once all the tiles of the viewport are drawn.
+     */
+    public void warmPyramid(final TileViewport pViewport) {
+        if (mPyramidWarmer != null && pViewport != null) {
+            mPyramidWarmer.warm(pViewport);
+        }
+    }
+
     public boolean hasNoSource() {
         return mTileSource == null;
     }
@@ -300,6 +414,10 @@ public abstract class MapTileLayerBase implements IMapTileProviderCallback, Tile
         return (mTileCache != null) ? mTileCache.getMapTileFromMemory(pTile) : null;
     }
 
+    public CacheableBitmapDrawable getMapTileFromMemory(final long pKey) {
+        return (mTileCache != null) ? mTileCache.getMapTileFromMemory(pKey) : null;
+    }
+
     public CacheableBitmapDrawable createCacheableBitmapDrawable(Bitmap bitmap, MapTile aTile) {
         return (mTileCache != null) ? mTileCache.createCacheableBitmapDrawable(bitmap, aTile)
                 : null;
@@ -61,6 +61,7 @@ public class MapTileLayerBasic extends MapTileLayerArray implements IMapTileProv
         }
         final MapTileDownloader downloaderProvider =
                 new MapTileDownloader(pTileSource, mTileCache, mNetworkAvailabilityCheck, mMapView);
+        downloaderProvider.setViewport(mViewport);
         if (hasNoSource()) {
             mCacheKey = pTileSource.getCacheKey();
         }
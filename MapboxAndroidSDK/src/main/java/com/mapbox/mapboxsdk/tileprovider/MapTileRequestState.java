@@ -14,7 +14,10 @@ public class MapTileRequestState {
     private final Queue<MapTileModuleLayerBase> mProviderQueue;
     private final MapTile mMapTile;
     private final IMapTileProviderCallback mCallback;
-    private MapTileModuleLayerBase mCurrentProvider;
+    private volatile MapTileModuleLayerBase mCurrentProvider;
+    private volatile boolean mPrefetch = false;
+    private volatile boolean mCancelled = false;
+    private long mQueuedAt;
 
     /**
      * Initialize a new state to keep track of a map tile
@@ -47,6 +50,60 @@ public class MapTileRequestState {
         return mCallback;
     }
 
+    /**
+     * Whether the tile is requested ahead of being drawn. Prefetched tiles are loaded after the
+     * tiles on screen, and aren't cancelled when they are off screen.
+     */
+    public boolean isPrefetch() {
+        return mPrefetch;
+    }
+
+    public void setPrefetch(final boolean pPrefetch) {
+        mPrefetch = pPrefetch;
+    }
+
+    /**
+     * Whether the request was cancelled while being worked on, because the tile left the
+     * viewport. Work on a cancelled request should stop as soon as possible.
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Tell the callback the request was dropped without being served. Callbacks that don't
+     * handle cancellation are told it failed.
+     */
+    public void notifyCancelled() {
+        if (mCallback instanceof IMapTileProviderCancellationCallback) {
+            ((IMapTileProviderCancellationCallback) mCallback).mapTileRequestCancelled(this);
+        } else {
+            mCallback.mapTileRequestFailed(this);
+        }
+    }
+
+    /**
+     * Get when the request was last queued by a provider, as a {@link System#nanoTime()}.
+     */
+    public long getQueuedAt() {
+        return mQueuedAt;
+    }
+
+    public void setQueuedAt(final long pQueuedAt) {
+        mQueuedAt = pQueuedAt;
+    }
+
+    /**
+     * Get the provider the request was last handed to.
+     */
+    public MapTileModuleLayerBase getCurrentProvider() {
+        return mCurrentProvider;
+    }
+
     public MapTileModuleLayerBase getNextProvider() {
         mCurrentProvider = mProviderQueue.poll();
         return mCurrentProvider;
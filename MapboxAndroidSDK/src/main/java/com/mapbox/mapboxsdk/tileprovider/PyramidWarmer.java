@@ -0,0 +1,123 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+import com.mapbox.mapboxsdk.tileprovider.modules.ConfigurablePriorityThreadFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the tiles of the zoom levels above and below a viewport into the warm tier of the
+ * {@link MapTileCache}, so that zooming in or out by one level finds them in memory. Only local
+ * copies are read, from the disk cache or an archive, on a single background thread.
+ *
+ * Warming a new viewport abandons the warming of the previous one.
+ */
+final class PyramidWarmer {
+    private static final String TAG = "PyramidWarmer";
+
+    private final MapTileLayerBase mProvider;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ConfigurablePriorityThreadFactory(Thread.MIN_PRIORITY, "Pyramid warmer"));
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    PyramidWarmer(final MapTileLayerBase pProvider) {
+        mProvider = pProvider;
+    }
+
+    /**
+     * Warm the parent level of a viewport, then its child level.
+     */
+    void warm(final TileViewport pViewport) {
+        final int generation = mGeneration.incrementAndGet();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                    final int budget = mProvider.mTileCache.getWarmTilesMaxSize();
+                    final int used = warmLevel(pViewport, pViewport.getZoom() - 1, generation,
+                            budget);
+                    warmLevel(pViewport, pViewport.getZoom() + 1, generation, budget - used);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            Log.w(TAG, "RejectedExecutionException", e);
+        }
+    }
+
+    void shutdown() {
+        mGeneration.incrementAndGet();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Read the tiles of a zoom level covering a viewport, from the center out, until a newer
+     * viewport is warmed or the budget is used.
+     *
+     * @return the number of bytes read into memory
+     */
+    private int warmLevel(final TileViewport pViewport, final int pZoom, final int pGeneration,
+            final int pBudget) {
+        if (pZoom < 0 || pZoom < mProvider.getMinimumZoomLevel()
+                || pZoom > mProvider.getMaximumZoomLevel() || pBudget <= 0) {
+            return 0;
+        }
+        final int minX;
+        final int minY;
+        final int maxX;
+        final int maxY;
+        if (pZoom < pViewport.getZoom()) {
+            minX = pViewport.getMinX() >> 1;
+            minY = pViewport.getMinY() >> 1;
+            maxX = pViewport.getMaxX() >> 1;
+            maxY = pViewport.getMaxY() >> 1;
+        } else {
+            minX = pViewport.getMinX() << 1;
+            minY = pViewport.getMinY() << 1;
+            maxX = (pViewport.getMaxX() << 1) + 1;
+            maxY = (pViewport.getMaxY() << 1) + 1;
+        }
+        final String cacheKey = mProvider.getCacheKey();
+        final int[] used = new int[1];
+        new TileViewport(pZoom, minX, minY, maxX, maxY).visitFromCenter((minX + maxX) / 2,
+                (minY + maxY) / 2, new TileViewport.TileVisitor() {
+                    @Override
+                    public boolean visit(final int pX, final int pY) {
+                        if (mGeneration.get() != pGeneration) {
+                            return false;
+                        }
+                        used[0] += warmTile(new MapTile(cacheKey, pZoom, pX, pY));
+                        return used[0] < pBudget;
+                    }
+                });
+        return used[0];
+    }
+
+    /**
+     * @return the number of bytes read into memory
+     */
+    private int warmTile(final MapTile pTile) {
+        final MapTileCache cache = mProvider.mTileCache;
+        if (cache.containsTileInMemory(pTile)) {
+            return 0;
+        }
+        final byte[] data = mProvider.getLocalTileBytes(pTile);
+        if (data == null) {
+            return 0;
+        }
+        try {
+            final Bitmap bitmap = cache.decodeTile(pTile, data);
+            if (bitmap == null || !cache.putWarmTile(pTile, bitmap)) {
+                return 0;
+            }
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        } catch (final OutOfMemoryError e) {
+            Log.e(TAG, "OutOfMemoryError warming tile: " + pTile);
+            return 0;
+        }
+    }
+}
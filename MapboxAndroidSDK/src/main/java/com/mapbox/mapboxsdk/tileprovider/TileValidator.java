@@ -0,0 +1,146 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import android.text.TextUtils;
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+
+/**
+ * The HTTP caching headers a tile was served with: how long it stays fresh, and the ETag and
+ * Last-Modified values to revalidate it with once it isn't fresh anymore.
+ */
+public final class TileValidator implements TileLayerConstants {
+
+    private final String mETag;
+    private final String mLastModified;
+    private final long mMaxAge;
+    private final long mExpires;
+
+    private TileValidator(final String pETag, final String pLastModified, final long pMaxAge,
+            final long pExpires) {
+        mETag = pETag;
+        mLastModified = pLastModified;
+        mMaxAge = pMaxAge;
+        mExpires = pExpires;
+    }
+
+    /**
+     * Read the caching headers of a response.
+     *
+     * @param connection a connection with a response
+     * @param now the current time, in milliseconds since the epoch
+     * @return the validator, or null if the response has no caching headers, in which case the
+     * tile is considered fresh forever, as it always was
+     */
+    public static TileValidator fromConnection(final HttpURLConnection connection,
+            final long now) {
+        final String eTag = connection.getHeaderField("ETag");
+        final String lastModified = connection.getHeaderField("Last-Modified");
+        final long maxAge = parseMaxAge(connection, now);
+        if (eTag == null && lastModified == null && maxAge < 0) {
+            return null;
+        }
+        final long freshness = (maxAge >= 0) ? maxAge : DEFAULT_TILE_FRESHNESS_MS;
+        return new TileValidator(eTag, lastModified, freshness, now + freshness);
+    }
+
+    /**
+     * Get the number of milliseconds a response stays fresh for, or -1 if it doesn't say.
+     */
+    private static long parseMaxAge(final HttpURLConnection connection, final long now) {
+        final String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (final String directive : cacheControl.split(",")) {
+                final String trimmed = directive.trim();
+                if (trimmed.equalsIgnoreCase("no-cache")) {
+                    return 0;
+                }
+                if (trimmed.regionMatches(true, 0, "max-age=", 0, 8)) {
+                    try {
+                        return Math.max(0, Long.parseLong(trimmed.substring(8).trim())) * 1000;
+                    } catch (final NumberFormatException e) {
+                        // fall back on the Expires header
+                    }
+                }
+            }
+        }
+        final long expires = connection.getHeaderFieldDate("Expires", 0);
+        if (expires > 0) {
+            final long date = connection.getHeaderFieldDate("Date", 0);
+            return Math.max(0, expires - ((date > 0) ? date : now));
+        }
+        return -1;
+    }
+
+    /**
+     * Get the validator of a tile the server just confirmed as unchanged with a 304 response.
+     * Headers the response repeats replace the old ones, the others are kept.
+     */
+    public TileValidator revalidated(final HttpURLConnection connection, final long now) {
+        final String eTag = connection.getHeaderField("ETag");
+        final String lastModified = connection.getHeaderField("Last-Modified");
+        final long maxAge = parseMaxAge(connection, now);
+        final long freshness = (maxAge >= 0) ? maxAge : mMaxAge;
+        return new TileValidator((eTag != null) ? eTag : mETag,
+                (lastModified != null) ? lastModified : mLastModified, freshness, now + freshness);
+    }
+
+    /**
+     * Make the request of a connection conditional, so that the server answers with a 304 and
+     * no body if the tile hasn't changed.
+     */
+    public void addConditions(final HttpURLConnection connection) {
+        if (mETag != null) {
+            connection.setRequestProperty("If-None-Match", mETag);
+        }
+        if (mLastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", mLastModified);
+        }
+    }
+
+    public boolean canRevalidate() {
+        return mETag != null || mLastModified != null;
+    }
+
+    public boolean isStale(final long now) {
+        return now >= mExpires;
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public long getExpires() {
+        return mExpires;
+    }
+
+    void writeTo(final Writer writer) throws IOException {
+        writer.write((mETag != null ? mETag : "") + "\n");
+        writer.write((mLastModified != null ? mLastModified : "") + "\n");
+        writer.write(mMaxAge + "\n");
+        writer.write(mExpires + "\n");
+    }
+
+    static TileValidator readFrom(final BufferedReader reader) throws IOException {
+        final String eTag = reader.readLine();
+        final String lastModified = reader.readLine();
+        final String maxAge = reader.readLine();
+        final String expires = reader.readLine();
+        if (expires == null) {
+            throw new IOException("Truncated tile validator");
+        }
+        try {
+            return new TileValidator(TextUtils.isEmpty(eTag) ? null : eTag,
+                    TextUtils.isEmpty(lastModified) ? null : lastModified,
+                    Long.parseLong(maxAge), Long.parseLong(expires));
+        } catch (final NumberFormatException e) {
+            throw new IOException("Invalid tile validator: " + e.getMessage());
+        }
+    }
+}
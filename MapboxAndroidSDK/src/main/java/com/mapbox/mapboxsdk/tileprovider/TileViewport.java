@@ -0,0 +1,198 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import com.mapbox.mapboxsdk.util.GeometryMath;
+
+/**
+ * The range of tiles the map is currently drawing, used to decide which tile requests to serve
+ * first and which ones aren't worth serving anymore. Tile columns are not wrapped around the
+ * world, so the range may start below 0 or end past the last column; tiles are compared with it
+ * modulo the width of the world.
+ *
+ * Instances are immutable.
+ */
+public final class TileViewport implements TileLayerConstants {
+
+    /**
+     * Priority steps, lower values are served first. Within a step, tiles closer to the center
+     * come first.
+     */
+    private static final long PRIORITY_ZOOM_STEP = 1L << 40;
+    private static final long PRIORITY_PARENT = 1L << 48;
+    private static final long PRIORITY_PREFETCH = 2L << 48;
+
+    /**
+     * Visits tiles, see {@link #visitFromCenter(int, int, TileVisitor)}.
+     */
+    public interface TileVisitor {
+        /**
+         * @param pX the tile column, wrapped around the world
+         * @param pY the tile row
+         * @return false to stop visiting
+         */
+        boolean visit(int pX, int pY);
+    }
+
+    private final int mZoom;
+    private final int mMinX;
+    private final int mMinY;
+    private final int mMaxX;
+    private final int mMaxY;
+
+    /**
+     * @param pZoom the zoom level of the tiles drawn
+     * @param pMinX the first tile column, not wrapped
+     * @param pMinY the first tile row
+     * @param pMaxX the last tile column, not wrapped
+     * @param pMaxY the last tile row
+     */
+    public TileViewport(final int pZoom, final int pMinX, final int pMinY, final int pMaxX,
+            final int pMaxY) {
+        mZoom = pZoom;
+        mMinX = pMinX;
+        mMinY = pMinY;
+        mMaxX = pMaxX;
+        mMaxY = pMaxY;
+    }
+
+    public int getZoom() {
+        return mZoom;
+    }
+
+    /**
+     * Get the first tile column, not wrapped around the world.
+     */
+    public int getMinX() {
+        return mMinX;
+    }
+
+    public int getMinY() {
+        return mMinY;
+    }
+
+    /**
+     * Get the last tile column, not wrapped around the world.
+     */
+    public int getMaxX() {
+        return mMaxX;
+    }
+
+    public int getMaxY() {
+        return mMaxY;
+    }
+
+    /**
+     * Checks whether a tile is drawn in this viewport, either at the viewport zoom level or as
+     * a parent covering part of it.
+     *
+     * @param pTile the tile in question
+     * @return false if the tile is off screen or from a higher zoom level
+     */
+    public boolean contains(final MapTile pTile) {
+        final int z = pTile.getZ();
+        if (z > mZoom || z < 0) {
+            return false;
+        }
+        final int shift = mZoom - z;
+        final int minY = mMinY >> shift;
+        final int maxY = mMaxY >> shift;
+        if (pTile.getY() < minY || pTile.getY() > maxY) {
+            return false;
+        }
+        final int minX = mMinX >> shift;
+        final int maxX = mMaxX >> shift;
+        final int worldSize = 1 << z;
+        if (maxX - minX + 1 >= worldSize) {
+            return true;
+        }
+        // the first copy of the column at or after minX
+        return minX + GeometryMath.mod(pTile.getX() - minX, worldSize) <= maxX;
+    }
+
+    /**
+     * Checks whether this viewport covers the given range of tiles.
+     */
+    public boolean isSameAs(final int pZoom, final int pMinX, final int pMinY, final int pMaxX,
+            final int pMaxY) {
+        return mZoom == pZoom && mMinX == pMinX && mMinY == pMinY && mMaxX == pMaxX
+                && mMaxY == pMaxY;
+    }
+
+    /**
+     * Get the order in which a tile should be loaded, lower values first. Tiles of the viewport
+     * zoom level come first, closest to the center first, then parent tiles, closest zoom level
+     * first, then prefetched tiles.
+     *
+     * @param pTile the tile in question
+     * @param pPrefetch whether the tile is requested ahead of being drawn
+     * @return the priority
+     */
+    public long getPriority(final MapTile pTile, final boolean pPrefetch) {
+        final int z = pTile.getZ();
+        final int zoomDiff = Math.min(Math.abs(mZoom - z), MAXIMUM_ZOOMLEVEL);
+        final long span = 1L << zoomDiff;
+        // the center of the tile, in half tiles of the viewport zoom level
+        final long tileX2;
+        final long tileY2;
+        if (z <= mZoom) {
+            tileX2 = pTile.getX() * span * 2 + span;
+            tileY2 = pTile.getY() * span * 2 + span;
+        } else {
+            tileX2 = (pTile.getX() / span) * 2 + 1;
+            tileY2 = (pTile.getY() / span) * 2 + 1;
+        }
+        final long worldSize2 = (1L << Math.max(0, mZoom)) * 2;
+        long dx = ((tileX2 - (mMinX + mMaxX + 1)) % worldSize2 + worldSize2) % worldSize2;
+        if (dx > worldSize2 / 2) {
+            dx -= worldSize2;
+        }
+        final long dy = tileY2 - (mMinY + mMaxY + 1);
+        final long distance = Math.min(dx * dx + dy * dy, PRIORITY_ZOOM_STEP - 1);
+
+        if (pPrefetch) {
+            return PRIORITY_PREFETCH + zoomDiff * PRIORITY_ZOOM_STEP + distance;
+        }
+        if (z != mZoom) {
+            return PRIORITY_PARENT + zoomDiff * PRIORITY_ZOOM_STEP + distance;
+        }
+        return distance;
+    }
+
+    /**
+     * Visit the tiles of this viewport in rings around a center tile, from the center out, so
+     * that the tiles the user looks at first come first. Rows outside of the world are skipped.
+     *
+     * @param pCenterX the center column, not wrapped
+     * @param pCenterY the center row
+     * @param pVisitor called for each tile
+     * @return false if the visitor stopped
+     */
+    public boolean visitFromCenter(final int pCenterX, final int pCenterY,
+            final TileVisitor pVisitor) {
+        final int worldTiles = 1 << mZoom;
+        final int minY = Math.max(0, mMinY);
+        final int maxY = Math.min(worldTiles - 1, mMaxY);
+        final int radius = Math.max(Math.max(pCenterX - mMinX, mMaxX - pCenterX),
+                Math.max(pCenterY - mMinY, mMaxY - pCenterY));
+        for (int r = 0; r <= radius; r++) {
+            for (int y = Math.max(minY, pCenterY - r); y <= Math.min(maxY, pCenterY + r); y++) {
+                // all of the top and bottom rows of the ring, only the ends of the others
+                final boolean edgeRow = y == pCenterY - r || y == pCenterY + r;
+                final int stepX = edgeRow ? 1 : Math.max(1, 2 * r);
+                for (int x = pCenterX - r; x <= pCenterX + r; x += stepX) {
+                    if (x >= mMinX && x <= mMaxX
+                            && !pVisitor.visit(GeometryMath.mod(x, worldTiles), y)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "TileViewport [z=" + mZoom + ", x=" + mMinX + ".." + mMaxX + ", y=" + mMinY + ".."
+                + mMaxY + "]";
+    }
+}
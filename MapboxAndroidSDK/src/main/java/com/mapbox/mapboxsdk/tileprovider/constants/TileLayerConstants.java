@@ -40,4 +40,16 @@ public interface TileLayerConstants {
     public static final int NUMBER_OF_TILE_DOWNLOAD_THREADS = 8;
 
     public static final int TILE_DOWNLOAD_MAXIMUM_QUEUE_SIZE = 40;
+
+    /**
+     * how long downloaded tiles stay fresh when the server sends validators but doesn't say
+     * for how long, after which they are revalidated
+     */
+    public static final long DEFAULT_TILE_FRESHNESS_MS = 24 * 60 * 60 * 1000;
+
+    /**
+     * maximum number of pending tiles a single tile loader drains at once from layers that can
+     * resolve several tiles with one lookup, like MBTiles
+     */
+    public static final int TILE_LOADER_MAXIMUM_BATCH_SIZE = 8;
 }
@@ -0,0 +1,275 @@
+package com.mapbox.mapboxsdk.tileprovider.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link TileMetrics} kept in memory, as counters and latency histograms that can be read at any
+ * time with {@link #snapshot()}. Recording only updates atomic counters, it never allocates or
+ * locks.
+ */
+public class InMemoryTileMetrics implements TileMetrics {
+
+    private final AtomicLong mMemoryCacheHits = new AtomicLong();
+    private final AtomicLong mMemoryCacheMisses = new AtomicLong();
+    private final AtomicLong mDiskCacheHits = new AtomicLong();
+    private final AtomicLong mDroppedRequests = new AtomicLong();
+    private final Histogram mArchiveReads = new Histogram();
+    private final Histogram mNetworkFetches = new Histogram();
+    private final Histogram mDecodes = new Histogram();
+    private final Histogram mQueueWaits = new Histogram();
+    private final Histogram mViewportCompletions = new Histogram();
+
+    @Override
+    public void onMemoryCacheHit() {
+        mMemoryCacheHits.incrementAndGet();
+    }
+
+    @Override
+    public void onMemoryCacheMiss() {
+        mMemoryCacheMisses.incrementAndGet();
+    }
+
+    @Override
+    public void onDiskCacheHit() {
+        mDiskCacheHits.incrementAndGet();
+    }
+
+    @Override
+    public void onArchiveRead(final long pDurationNs) {
+        mArchiveReads.record(pDurationNs);
+    }
+
+    @Override
+    public void onNetworkFetch(final long pDurationNs) {
+        mNetworkFetches.record(pDurationNs);
+    }
+
+    @Override
+    public void onDecode(final long pDurationNs) {
+        mDecodes.record(pDurationNs);
+    }
+
+    @Override
+    public void onQueueWait(final long pDurationNs) {
+        mQueueWaits.record(pDurationNs);
+    }
+
+    @Override
+    public void onRequestsDropped(final int pCount) {
+        mDroppedRequests.addAndGet(pCount);
+    }
+
+    @Override
+    public void onViewportComplete(final long pDurationNs) {
+        mViewportCompletions.record(pDurationNs);
+    }
+
+    /**
+     * Get a copy of the metrics recorded so far. Metrics recorded while the copy is made may or
+     * may not be part of it.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Forget the metrics recorded so far.
+     */
+    public void reset() {
+        mMemoryCacheHits.set(0);
+        mMemoryCacheMisses.set(0);
+        mDiskCacheHits.set(0);
+        mDroppedRequests.set(0);
+        mArchiveReads.reset();
+        mNetworkFetches.reset();
+        mDecodes.reset();
+        mQueueWaits.reset();
+        mViewportCompletions.reset();
+    }
+
+    /**
+     * Durations counted in buckets of powers of two milliseconds: bucket 0 holds durations
+     * under 1ms, bucket i those from 2^(i-1)ms to 2^i ms, and the last one everything longer.
+     */
+    private static final class Histogram {
+        static final int BUCKETS = 18;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNs = new AtomicLong();
+        private final AtomicLong mMaxNs = new AtomicLong();
+
+        void record(final long pDurationNs) {
+            final long durationNs = Math.max(0, pDurationNs);
+            final long ms = durationNs / 1000000;
+            final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(ms));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mTotalNs.addAndGet(durationNs);
+            long max;
+            while (durationNs > (max = mMaxNs.get()) && !mMaxNs.compareAndSet(max, durationNs)) {
+                // another thread raised the maximum in between, try again
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mTotalNs.set(0);
+            mMaxNs.set(0);
+        }
+    }
+
+    /**
+     * A copy of the durations of a histogram.
+     */
+    public static final class Latency {
+        private final long[] mBuckets = new long[Histogram.BUCKETS];
+        private final long mCount;
+        private final long mTotalNs;
+        private final long mMaxNs;
+
+        private Latency(final Histogram pHistogram) {
+            for (int i = 0; i < mBuckets.length; i++) {
+                mBuckets[i] = pHistogram.mBuckets.get(i);
+            }
+            mCount = pHistogram.mCount.get();
+            mTotalNs = pHistogram.mTotalNs.get();
+            mMaxNs = pHistogram.mMaxNs.get();
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public double getMeanMs() {
+            return (mCount > 0) ? mTotalNs / 1e6 / mCount : 0;
+        }
+
+        public double getMaxMs() {
+            return mMaxNs / 1e6;
+        }
+
+        /**
+         * Get an upper bound of a percentile of the durations, at the precision of the
+         * histogram buckets.
+         *
+         * @param pPercentile the percentile, between 0 and 100
+         * @return the upper bound in milliseconds, or 0 if nothing was recorded
+         */
+        public double getPercentileMs(final double pPercentile) {
+            long total = 0;
+            for (final long bucket : mBuckets) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final double rank = total * Math.min(100, Math.max(0, pPercentile)) / 100;
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length - 1; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, getMaxMs());
+                }
+            }
+            return getMaxMs();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1fms p50=%.0fms p90=%.0fms max=%.1fms",
+                    mCount, getMeanMs(), getPercentileMs(50), getPercentileMs(90), getMaxMs());
+        }
+    }
+
+    /**
+     * A copy of the metrics recorded up to some point.
+     */
+    public static final class Snapshot {
+        private final long mMemoryCacheHits;
+        private final long mMemoryCacheMisses;
+        private final long mDiskCacheHits;
+        private final long mDroppedRequests;
+        private final Latency mArchiveReads;
+        private final Latency mNetworkFetches;
+        private final Latency mDecodes;
+        private final Latency mQueueWaits;
+        private final Latency mViewportCompletions;
+
+        private Snapshot(final InMemoryTileMetrics pMetrics) {
+            mMemoryCacheHits = pMetrics.mMemoryCacheHits.get();
+            mMemoryCacheMisses = pMetrics.mMemoryCacheMisses.get();
+            mDiskCacheHits = pMetrics.mDiskCacheHits.get();
+            mDroppedRequests = pMetrics.mDroppedRequests.get();
+            mArchiveReads = new Latency(pMetrics.mArchiveReads);
+            mNetworkFetches = new Latency(pMetrics.mNetworkFetches);
+            mDecodes = new Latency(pMetrics.mDecodes);
+            mQueueWaits = new Latency(pMetrics.mQueueWaits);
+            mViewportCompletions = new Latency(pMetrics.mViewportCompletions);
+        }
+
+        public long getMemoryCacheHits() {
+            return mMemoryCacheHits;
+        }
+
+        public long getMemoryCacheMisses() {
+            return mMemoryCacheMisses;
+        }
+
+        /**
+         * Get the share of tiles to draw that were found in memory, between 0 and 1.
+         */
+        public double getMemoryCacheHitRate() {
+            final long lookups = mMemoryCacheHits + mMemoryCacheMisses;
+            return (lookups > 0) ? (double) mMemoryCacheHits / lookups : 0;
+        }
+
+        public long getDiskCacheHits() {
+            return mDiskCacheHits;
+        }
+
+        public long getDroppedRequests() {
+            return mDroppedRequests;
+        }
+
+        public Latency getArchiveReads() {
+            return mArchiveReads;
+        }
+
+        public Latency getNetworkFetches() {
+            return mNetworkFetches;
+        }
+
+        public Latency getDecodes() {
+            return mDecodes;
+        }
+
+        public Latency getQueueWaits() {
+            return mQueueWaits;
+        }
+
+        /**
+         * Get the times from a change of the viewport to all its tiles being drawn.
+         */
+        public Latency getViewportCompletions() {
+            return mViewportCompletions;
+        }
+
+        @Override
+        public String toString() {
+            return "TileMetrics [memory hits=" + mMemoryCacheHits
+                    + ", memory misses=" + mMemoryCacheMisses
+                    + ", disk hits=" + mDiskCacheHits
+                    + ", dropped=" + mDroppedRequests
+                    + ", archive reads: " + mArchiveReads
+                    + ", network fetches: " + mNetworkFetches
+                    + ", decodes: " + mDecodes
+                    + ", queue waits: " + mQueueWaits
+                    + ", full viewport: " + mViewportCompletions + "]";
+        }
+    }
+}
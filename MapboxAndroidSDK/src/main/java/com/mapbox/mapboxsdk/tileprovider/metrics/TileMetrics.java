@@ -0,0 +1,71 @@
+package com.mapbox.mapboxsdk.tileprovider.metrics;
+
+/**
+ * Receives events from the tile pipeline, from the memory cache lookups of the drawing loop to
+ * the network fetches and decodes of the loader threads. Install an implementation with
+ * {@link TileMetricsRegistry#setMetrics(TileMetrics)}.
+ *
+ * Methods are called from the UI thread and from loader threads, often in tight loops, so
+ * implementations must be thread-safe and cheap.
+ */
+public interface TileMetrics {
+
+    /**
+     * A tile to draw was found in memory.
+     */
+    void onMemoryCacheHit();
+
+    /**
+     * A tile to draw wasn't in memory and has to be loaded.
+     */
+    void onMemoryCacheMiss();
+
+    /**
+     * A tile was loaded from the disk cache instead of its source.
+     */
+    void onDiskCacheHit();
+
+    /**
+     * Tiles were read from an MBTiles archive.
+     *
+     * @param pDurationNs the time the read took, in nanoseconds
+     */
+    void onArchiveRead(long pDurationNs);
+
+    /**
+     * A tile was downloaded.
+     *
+     * @param pDurationNs the time from sending the request to reading the whole response, in
+     * nanoseconds
+     */
+    void onNetworkFetch(long pDurationNs);
+
+    /**
+     * A downloaded tile was decoded and cached.
+     *
+     * @param pDurationNs the time the decode took, in nanoseconds
+     */
+    void onDecode(long pDurationNs);
+
+    /**
+     * A request was taken from the pending queue of a provider to be loaded.
+     *
+     * @param pDurationNs the time it waited in the queue, in nanoseconds
+     */
+    void onQueueWait(long pDurationNs);
+
+    /**
+     * Requests were dropped without being loaded, because their tiles left the viewport or the
+     * pending queue was full.
+     *
+     * @param pCount the number of requests
+     */
+    void onRequestsDropped(int pCount);
+
+    /**
+     * Every tile of the viewport was drawn for the first time since the viewport changed.
+     *
+     * @param pDurationNs the time since the viewport changed, in nanoseconds
+     */
+    void onViewportComplete(long pDurationNs);
+}
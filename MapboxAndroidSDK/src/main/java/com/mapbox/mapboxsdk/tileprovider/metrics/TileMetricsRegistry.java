@@ -0,0 +1,70 @@
+package com.mapbox.mapboxsdk.tileprovider.metrics;
+
+/**
+ * Holds the {@link TileMetrics} the tile pipeline reports to. Nothing is recorded until one is
+ * set.
+ */
+public final class TileMetricsRegistry {
+
+    private static final TileMetrics NONE = new TileMetrics() {
+        @Override
+        public void onMemoryCacheHit() {
+        }
+
+        @Override
+        public void onMemoryCacheMiss() {
+        }
+
+        @Override
+        public void onDiskCacheHit() {
+        }
+
+        @Override
+        public void onArchiveRead(final long pDurationNs) {
+        }
+
+        @Override
+        public void onNetworkFetch(final long pDurationNs) {
+        }
+
+        @Override
+        public void onDecode(final long pDurationNs) {
+        }
+
+        @Override
+        public void onQueueWait(final long pDurationNs) {
+        }
+
+        @Override
+        public void onRequestsDropped(final int pCount) {
+        }
+
+        @Override
+        public void onViewportComplete(final long pDurationNs) {
+        }
+    };
+
+    private static volatile TileMetrics sMetrics = NONE;
+
+    /**
+     * This is a utility class with only static members.
+     */
+    private TileMetricsRegistry() {
+    }
+
+    /**
+     * Get the metrics to report to, which do nothing if none were set.
+     */
+    public static TileMetrics getMetrics() {
+        return sMetrics;
+    }
+
+    /**
+     * Set the metrics the tile pipeline reports to.
+     *
+     * @param pMetrics the metrics, or null to stop recording
+     */
+    public static void setMetrics(final TileMetrics pMetrics) {
+        sMetrics = (pMetrics != null) ? pMetrics : NONE;
+    }
+}
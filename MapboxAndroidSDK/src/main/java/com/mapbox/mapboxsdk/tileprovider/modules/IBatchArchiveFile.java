@@ -0,0 +1,22 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An archive that can look up several tiles at once, with fewer lookups than one per tile.
+ */
+public interface IBatchArchiveFile extends IArchiveFile {
+
+    /**
+     * Get the input streams for several tiles at once, using as few lookups as the archive
+     * allows.
+     *
+     * @return a map from every requested tile found in the archive to its input stream. Tiles
+     * the archive doesn't contain are left out of the map.
+     */
+    Map<MapTile, InputStream> getInputStreams(ITileLayer tileSource, Collection<MapTile> tiles);
+}
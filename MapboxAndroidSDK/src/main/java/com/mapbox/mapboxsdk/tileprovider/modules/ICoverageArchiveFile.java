@@ -0,0 +1,17 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+/**
+ * An archive that can tell which tiles it holds without being read, so that requests for
+ * missing tiles are rejected before they reach it.
+ */
+public interface ICoverageArchiveFile extends IArchiveFile {
+
+    /**
+     * Get the index of the tiles held by this archive. The index is loaded or built on a
+     * background thread the first time it is asked for, and again after tiles are written to
+     * the archive, so this returns null until it is ready.
+     *
+     * @return the coverage index, or null if it isn't available yet
+     */
+    TileCoverage getCoverage();
+}
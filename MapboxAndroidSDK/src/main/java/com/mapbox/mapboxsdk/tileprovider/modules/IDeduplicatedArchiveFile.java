@@ -0,0 +1,40 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An archive that can store identical tiles only once, so that the content they share is read
+ * and decoded once.
+ */
+public interface IDeduplicatedArchiveFile extends IArchiveFile {
+
+    /**
+     * Get the id of the content of a tile. Tiles with the same content id have the same
+     * content, so it only needs to be read and decoded once.
+     *
+     * @return the content id, or null if the archive doesn't contain the tile or doesn't
+     * deduplicate its tiles
+     */
+    String getContentId(ITileLayer tileSource, MapTile tile);
+
+    /**
+     * Get the ids of the content of several tiles at once, using as few lookups as the archive
+     * allows.
+     *
+     * @return a map from every requested tile the archive holds deduplicated to its content id.
+     * Other tiles are left out of the map.
+     */
+    Map<MapTile, String> getContentIds(ITileLayer tileSource, Collection<MapTile> tiles);
+
+    /**
+     * Get the input stream for the content with the given id.
+     *
+     * @param contentId an id returned by {@link #getContentId(ITileLayer, MapTile)}
+     * @return the input stream, or null if the archive doesn't contain such content
+     */
+    InputStream getContentInputStream(ITileLayer tileSource, String contentId);
+}
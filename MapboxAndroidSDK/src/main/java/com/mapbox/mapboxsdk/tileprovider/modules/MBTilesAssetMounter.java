@@ -0,0 +1,276 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+import com.mapbox.mapboxsdk.tileprovider.util.StreamUtils;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Makes MBTiles files bundled as app assets available to the tile layers, either by mapping
+ * them straight out of the APK when they are stored uncompressed, or by copying them to disk
+ * once and reusing that copy on later launches.
+ */
+public final class MBTilesAssetMounter {
+
+    private static final String TAG = "MBTilesAssetMounter";
+
+    private static final String STAMP_SUFFIX = ".stamp";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private static final String SQLITE_HEADER = "SQLite format 3\u0000";
+    private static final int SQLITE_HEADER_SIZE = 100;
+
+    /**
+     * This is a utility class with only static members.
+     */
+    private MBTilesAssetMounter() {
+    }
+
+    /**
+     * Maps an asset directly from the APK. This only works for assets stored uncompressed,
+     * e.g. with aapt's -0 option or the "noCompress" setting of the Android Gradle plugin.
+     *
+     * @param context the context whose assets to use
+     * @param assetPath the path of the MBTiles file in the assets
+     * @return the archive, or null if the asset is compressed or can't be read this way
+     */
+    public static MBTilesMappedFileArchive openMapped(final Context context,
+            final String assetPath) {
+        final AssetFileDescriptor afd;
+        try {
+            afd = context.getAssets().openFd(assetPath);
+        } catch (final IOException e) {
+            // compressed assets have no file descriptor of their own
+            return null;
+        }
+        try {
+            // the archive closes the channel, and with it the descriptor, once mapped
+            final FileChannel channel = afd.createInputStream().getChannel();
+            return new MBTilesMappedFileArchive(assetPath, channel, afd.getStartOffset(),
+                    afd.getLength());
+        } catch (final IOException e) {
+            Log.w(TAG, "Can't map asset " + assetPath + ", it will be copied instead", e);
+            try {
+                afd.close();
+            } catch (final IOException e2) {
+                Log.e(TAG, "Could not close asset descriptor " + e2);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Copies an asset to the given file, unless a copy made from the same version of the app is
+     * already there. A new copy is checked against the length of the asset and the length its
+     * database header gives. Existing copies are only checked for their size and the version of
+     * the app they were made from, their content isn't hashed again.
+     *
+     * @param context the context whose assets to use
+     * @param assetPath the path of the MBTiles file in the assets
+     * @param destination where the copy goes
+     * @return the copy, or null if the asset couldn't be copied
+     */
+    public static File mount(final Context context, final String assetPath,
+            final File destination) {
+        final File stampFile = new File(destination.getPath() + STAMP_SUFFIX);
+        final long sourceVersion = getSourceVersion(context);
+        final long assetLength = getAssetLength(context.getAssets(), assetPath);
+        if (isValidCopy(destination, stampFile, assetLength, sourceVersion)) {
+            return destination;
+        }
+
+        final File parent = destination.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            Log.e(TAG, "can't create directory " + parent);
+            return null;
+        }
+        final File temp = new File(destination.getPath() + TEMP_SUFFIX);
+        stampFile.delete();
+        try {
+            copyAsset(context.getAssets(), assetPath, temp);
+            final long length = temp.length();
+            if (assetLength != AssetFileDescriptor.UNKNOWN_LENGTH && length != assetLength) {
+                throw new IOException("Copy of " + assetPath + " has " + length
+                        + " bytes instead of " + assetLength);
+            }
+            // the length of compressed assets is unknown, but the database knows its own
+            checkDatabaseLength(temp, length);
+            if (destination.exists() && !destination.delete()) {
+                throw new IOException("Can't replace " + destination);
+            }
+            if (!temp.renameTo(destination)) {
+                throw new IOException("Can't rename " + temp + " to " + destination);
+            }
+            writeStamp(stampFile, length, sourceVersion);
+            return destination;
+        } catch (final IOException e) {
+            Log.e(TAG, "Failed to copy asset " + assetPath, e);
+        }
+        temp.delete();
+        return null;
+    }
+
+    /**
+     * Get the length of an asset as stored in the APK.
+     *
+     * @return the length, or {@link AssetFileDescriptor#UNKNOWN_LENGTH} for compressed assets,
+     * whose length is only known once inflated
+     */
+    private static long getAssetLength(final AssetManager assets, final String assetPath) {
+        AssetFileDescriptor afd = null;
+        try {
+            afd = assets.openFd(assetPath);
+            return afd.getLength();
+        } catch (final IOException e) {
+            return AssetFileDescriptor.UNKNOWN_LENGTH;
+        } finally {
+            if (afd != null) {
+                try {
+                    afd.close();
+                } catch (final IOException e) {
+                    Log.e(TAG, "Could not close asset descriptor " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies an asset with large NIO transfers.
+     */
+    private static void copyAsset(final AssetManager assets, final String assetPath,
+            final File destination) throws IOException {
+        FileChannel out = null;
+        InputStream in = null;
+        try {
+            out = new FileOutputStream(destination).getChannel();
+            try {
+                final AssetFileDescriptor afd = assets.openFd(assetPath);
+                in = afd.createInputStream();
+            } catch (final FileNotFoundException e) {
+                // compressed asset, it has to be inflated through the stream API
+                in = assets.open(assetPath, AssetManager.ACCESS_STREAMING);
+            }
+            final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                wrapped.clear();
+                wrapped.limit(read);
+                while (wrapped.hasRemaining()) {
+                    out.write(wrapped);
+                }
+            }
+            out.force(false);
+        } finally {
+            StreamUtils.closeStream(in);
+            StreamUtils.closeStream(out);
+        }
+    }
+
+    /**
+     * Checks a copy against the SQLite header at its start, which holds the page size and, for
+     * files last written by SQLite 3.7.0 or later, the number of pages of the database.
+     *
+     * @throws IOException if the copy isn't a database, or is shorter or longer than the
+     * database says
+     */
+    private static void checkDatabaseLength(final File file, final long length)
+            throws IOException {
+        final byte[] header = new byte[SQLITE_HEADER_SIZE];
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            in.readFully(header);
+        } catch (final EOFException e) {
+            throw new IOException("Copy " + file + " is too short to be a database");
+        } finally {
+            StreamUtils.closeStream(in);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(header);
+        for (int i = 0; i < SQLITE_HEADER.length(); i++) {
+            if (buffer.get(i) != SQLITE_HEADER.charAt(i)) {
+                throw new IOException("Copy " + file + " isn't an SQLite database");
+            }
+        }
+        final int pageSize = buffer.getShort(16) & 0xffff;
+        final long pageCount = buffer.getInt(28) & 0xffffffffL;
+        // older versions of SQLite left the page count as it was, and the change counter tells
+        final boolean pageCountValid = pageCount != 0 && buffer.getInt(24) == buffer.getInt(92);
+        if (!pageCountValid) {
+            return;
+        }
+        final long expected = ((pageSize == 1) ? 65536 : pageSize) * pageCount;
+        if (expected != length) {
+            throw new IOException("Copy " + file + " has " + length + " bytes instead of "
+                    + expected);
+        }
+    }
+
+    /**
+     * Checks the stamp written next to a copy against the copy and its asset.
+     *
+     * @param assetLength the length of the asset, or
+     * {@link AssetFileDescriptor#UNKNOWN_LENGTH} if it isn't known
+     */
+    private static boolean isValidCopy(final File destination, final File stampFile,
+            final long assetLength, final long sourceVersion) {
+        if (!destination.isFile() || !stampFile.isFile()) {
+            return false;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(stampFile));
+            final long length = Long.parseLong(reader.readLine());
+            final long version = Long.parseLong(reader.readLine());
+            return length == destination.length() && version == sourceVersion
+                    && (assetLength == AssetFileDescriptor.UNKNOWN_LENGTH
+                    || length == assetLength);
+        } catch (final IOException e) {
+            return false;
+        } catch (final NumberFormatException e) {
+            return false;
+        } finally {
+            StreamUtils.closeStream(reader);
+        }
+    }
+
+    private static void writeStamp(final File stampFile, final long length,
+            final long sourceVersion) throws IOException {
+        Writer writer = null;
+        try {
+            writer = new FileWriter(stampFile);
+            writer.write(length + "\n" + sourceVersion + "\n");
+        } finally {
+            StreamUtils.closeStream(writer);
+        }
+    }
+
+    /**
+     * Assets can only change when the app is updated, so the install time of the APK tells
+     * whether an existing copy is stale.
+     */
+    private static long getSourceVersion(final Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (final PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+}
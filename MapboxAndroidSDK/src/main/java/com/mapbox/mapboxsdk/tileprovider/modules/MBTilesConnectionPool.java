@@ -0,0 +1,155 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands every tile loader thread its own read-only connection to an MBTiles file, so that
+ * lookups from several threads don't serialize on the lock of a single SQLiteDatabase.
+ *
+ * Only tile loader threads get a connection, see
+ * {@link MapTileModuleLayerBase#isTileLoaderThread()}, and the connection of a thread that
+ * has died goes to the next thread that needs one. A connection is acquired for a single
+ * lookup and released after it, and is only closed once it is released.
+ */
+class MBTilesConnectionPool {
+
+    static final int OPEN_FLAGS =
+            SQLiteDatabase.NO_LOCALIZED_COLLATORS | SQLiteDatabase.OPEN_READONLY;
+
+    private final String mPath;
+    private final int mMaximumConnections;
+    private final List<Connection> mConnections = new ArrayList<Connection>();
+    private final ThreadLocal<Connection> mThreadConnection = new ThreadLocal<Connection>();
+    private boolean mClosed = false;
+
+    /**
+     * A read-only connection owned by a single thread, along with its compiled lookups.
+     */
+    static class Connection {
+        final SQLiteDatabase database;
+        private final Thread mOwner;
+        private final Map<String, SQLiteStatement> mStatements =
+                new HashMap<String, SQLiteStatement>();
+        // guarded by the list of connections of the pool
+        private boolean mInUse;
+
+        Connection(final SQLiteDatabase pDatabase, final Thread pOwner) {
+            database = pDatabase;
+            mOwner = pOwner;
+        }
+
+        SQLiteStatement getStatement(final String sql) {
+            SQLiteStatement statement = mStatements.get(sql);
+            if (statement == null) {
+                statement = database.compileStatement(sql);
+                mStatements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        void close() {
+            for (final SQLiteStatement statement : mStatements.values()) {
+                statement.close();
+            }
+            mStatements.clear();
+            database.close();
+        }
+    }
+
+    MBTilesConnectionPool(final String pPath, final int pMaximumConnections) {
+        mPath = pPath;
+        mMaximumConnections = pMaximumConnections;
+    }
+
+    /**
+     * Get the connection owned by the calling thread, opening it on first use. It must be
+     * handed back with {@link #release(Connection)} once the lookup is done.
+     *
+     * @return the connection, or null if the calling thread isn't a tile loader or the pool is
+     * full or closed, in which case the caller should fall back on the shared database
+     */
+    Connection acquire() {
+        if (!MapTileModuleLayerBase.isTileLoaderThread()) {
+            return null;
+        }
+        Connection connection = mThreadConnection.get();
+        synchronized (mConnections) {
+            if (mClosed) {
+                return null;
+            }
+            if (connection == null) {
+                if (mConnections.size() >= mMaximumConnections && !reclaimDeadConnection()) {
+                    return null;
+                }
+                try {
+                    connection = new Connection(
+                            SQLiteDatabase.openDatabase(mPath, null, OPEN_FLAGS),
+                            Thread.currentThread());
+                } catch (final SQLiteException e) {
+                    Log.w(TAG, "Can't open an extra connection to " + mPath, e);
+                    return null;
+                }
+                mConnections.add(connection);
+                mThreadConnection.set(connection);
+            }
+            connection.mInUse = true;
+        }
+        return connection;
+    }
+
+    /**
+     * Hand back a connection after a lookup, closing it if the pool was closed meanwhile.
+     */
+    void release(final Connection pConnection) {
+        synchronized (mConnections) {
+            pConnection.mInUse = false;
+            if (mClosed) {
+                pConnection.close();
+                mConnections.remove(pConnection);
+            }
+        }
+    }
+
+    /**
+     * Close the connection of a thread that has died, to make room for another one.
+     *
+     * @return false if every connection belongs to a live thread
+     */
+    private boolean reclaimDeadConnection() {
+        for (final Iterator<Connection> i = mConnections.iterator(); i.hasNext(); ) {
+            final Connection connection = i.next();
+            if (!connection.mOwner.isAlive() && !connection.mInUse) {
+                connection.close();
+                i.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close the connections that aren't in use. Those in use are closed when released.
+     */
+    void close() {
+        synchronized (mConnections) {
+            mClosed = true;
+            for (final Iterator<Connection> i = mConnections.iterator(); i.hasNext(); ) {
+                final Connection connection = i.next();
+                if (!connection.mInUse) {
+                    connection.close();
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    private static final String TAG = "MBTilesConnectionPool";
+}
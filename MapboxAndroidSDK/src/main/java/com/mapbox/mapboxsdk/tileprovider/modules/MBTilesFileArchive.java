@@ -1,22 +1,50 @@
 package com.mapbox.mapboxsdk.tileprovider.modules;
 
+import android.annotation.TargetApi;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 import com.mapbox.mapboxsdk.geometry.BoundingBox;
 import com.mapbox.mapboxsdk.geometry.LatLng;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
 import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
+import com.mapbox.mapboxsdk.tileprovider.util.StreamUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * An access layer to the MBTiles format. This is useful for offline tiles
  * that one would pre-package with an app.
  */
-public class MBTilesFileArchive implements IArchiveFile {
+public class MBTilesFileArchive implements ICoverageArchiveFile, IBatchArchiveFile,
+        IDeduplicatedArchiveFile, Closeable, TileLayerConstants {
 
     private final SQLiteDatabase mDatabase;
 
@@ -26,30 +54,416 @@ public class MBTilesFileArchive implements IArchiveFile {
     public static final String COL_TILES_TILE_DATA = "tile_data";
     public static final String COL_VALUE = "value";
 
+    private static final String SQL_SELECT_TILE = "SELECT " + COL_TILES_TILE_DATA
+            + " FROM " + TABLE_TILES
+            + " WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    private static final String SQL_SELECT_TILE_SPAN = "SELECT tile_column, " + COL_TILES_TILE_DATA
+            + " FROM " + TABLE_TILES
+            + " WHERE zoom_level = ? AND tile_row = ? AND tile_column BETWEEN ? AND ?";
+
+    /**
+     * The most columns between two requested tiles of a row that a span query reads through
+     * rather than being split in two.
+     */
+    private static final int MAX_SPAN_GAP = 2;
+
+    private static final Comparator<MapTile> COLUMN_ORDER = new Comparator<MapTile>() {
+        @Override
+        public int compare(final MapTile lhs, final MapTile rhs) {
+            return (lhs.getX() < rhs.getX()) ? -1 : ((lhs.getX() == rhs.getX()) ? 0 : 1);
+        }
+    };
+
+    // TABLE map (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_id TEXT);
+    // TABLE images (tile_data BLOB, tile_id TEXT);
+    public static final String TABLE_MAP = "map";
+    public static final String TABLE_IMAGES = "images";
+
+    private static final String SQL_SELECT_CONTENT_ID = "SELECT tile_id FROM " + TABLE_MAP
+            + " WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    private static final String SQL_SELECT_CONTENT_ID_SPAN = "SELECT tile_column, tile_id FROM "
+            + TABLE_MAP + " WHERE zoom_level = ? AND tile_row = ? AND tile_column BETWEEN ? AND ?";
+
+    private static final String SQL_SELECT_CONTENT = "SELECT " + COL_TILES_TILE_DATA
+            + " FROM " + TABLE_IMAGES + " WHERE tile_id = ?";
+
+    /**
+     * Whether tiles are stored once per content in the images table, with the tiles table
+     * being a view joining it to the map table. Null until checked.
+     */
+    private volatile Boolean mDeduplicated;
+
+    /**
+     * Compiled statements are not thread safe, so each tile loader thread borrows
+     * one from the pool of its query for the duration of a single lookup.
+     */
+    private static final int STATEMENT_POOL_SIZE = NUMBER_OF_TILE_DOWNLOAD_THREADS;
+    private final Map<String, BlockingQueue<SQLiteStatement>> mStatementPools =
+            newStatementPools(SQL_SELECT_TILE, SQL_SELECT_CONTENT_ID, SQL_SELECT_CONTENT);
+    private volatile boolean mClosed = false;
+
+    /**
+     * Extra read-only connections, one per tile loader thread. Threads that don't get one
+     * share mDatabase.
+     */
+    private final MBTilesConnectionPool mConnectionPool;
+
+    private volatile MBTilesMetadata mMetadata;
+
+    /**
+     * The coverage index is stored next to the archive, with this suffix appended to its name.
+     */
+    public static final String COVERAGE_SUFFIX = ".coverage";
+    private final TileCoverageLoader mCoverageLoader;
+
     public MBTilesFileArchive(final SQLiteDatabase pDatabase) {
         mDatabase = pDatabase;
+        final String path = pDatabase.getPath();
+        if (path != null && new File(path).isFile()) {
+            mConnectionPool = new MBTilesConnectionPool(path, NUMBER_OF_TILE_DOWNLOAD_THREADS);
+        } else {
+            mConnectionPool = null;
+        }
+        mCoverageLoader = new TileCoverageLoader(path) {
+            @Override
+            TileCoverage load(final int pGeneration) {
+                return loadCoverage(pGeneration);
+            }
+        };
     }
 
     public static MBTilesFileArchive getDatabaseFileArchive(final File pFile)
             throws SQLiteException {
         return new MBTilesFileArchive(SQLiteDatabase.openDatabase(pFile.getAbsolutePath(), null,
-                SQLiteDatabase.NO_LOCALIZED_COLLATORS | SQLiteDatabase.OPEN_READONLY)
+                MBTilesConnectionPool.OPEN_FLAGS)
         );
     }
 
+    /**
+     * Get the connection of the calling thread from the pool, to be handed back with
+     * {@link #releaseConnection(MBTilesConnectionPool.Connection)}.
+     *
+     * @return the connection, or null if lookups from the calling thread should go through the
+     * shared database
+     */
+    private MBTilesConnectionPool.Connection acquireConnection() {
+        return (mConnectionPool != null) ? mConnectionPool.acquire() : null;
+    }
+
+    private void releaseConnection(final MBTilesConnectionPool.Connection pConnection) {
+        if (pConnection != null) {
+            mConnectionPool.release(pConnection);
+        }
+    }
+
+    private SQLiteDatabase getReadDatabase(final MBTilesConnectionPool.Connection pConnection) {
+        return (pConnection != null) ? pConnection.database : mDatabase;
+    }
+
     @Override
     public InputStream getInputStream(final ITileLayer pTileSource, final MapTile pTile) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return getInputStreamFromStatement(pTile);
+        }
+        return getInputStreamFromQuery(pTile);
+    }
+
+    /**
+     * Resolves the tiles with one range query per (zoom_level, tile_row) span instead of one
+     * query per tile. The tiles of a row are split into several spans where they are further
+     * apart than {@link #MAX_SPAN_GAP}, e.g. on both sides of the antimeridian, so that a span
+     * doesn't read the whole row in between.
+     */
+    @Override
+    public Map<MapTile, InputStream> getInputStreams(final ITileLayer pTileSource,
+            final Collection<MapTile> pTiles) {
+        final Map<MapTile, InputStream> result = new HashMap<MapTile, InputStream>();
+        for (final List<MapTile> span : getSpans(pTiles)) {
+            getSpanInputStreams(span, result);
+        }
+        return result;
+    }
+
+    /**
+     * Split tiles into spans of the same zoom level and row, sorted by column, wherever they
+     * are further apart than {@link #MAX_SPAN_GAP}.
+     */
+    private static List<List<MapTile>> getSpans(final Collection<MapTile> pTiles) {
+        final Map<Long, List<MapTile>> rows = new HashMap<Long, List<MapTile>>();
+        for (final MapTile tile : pTiles) {
+            final Long rowKey = ((long) tile.getZ() << 32) | getTmsRow(tile);
+            List<MapTile> row = rows.get(rowKey);
+            if (row == null) {
+                row = new ArrayList<MapTile>();
+                rows.put(rowKey, row);
+            }
+            row.add(tile);
+        }
+
+        final List<List<MapTile>> spans = new ArrayList<List<MapTile>>();
+        for (final List<MapTile> row : rows.values()) {
+            Collections.sort(row, COLUMN_ORDER);
+            int start = 0;
+            for (int i = 1; i <= row.size(); i++) {
+                if (i == row.size()
+                        || row.get(i).getX() - row.get(i - 1).getX() > MAX_SPAN_GAP + 1) {
+                    spans.add(row.subList(start, i));
+                    start = i;
+                }
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * Get the cursor factory binding the query arguments that select the tiles of a span,
+     * sorted by column.
+     */
+    private static SQLiteDatabase.CursorFactory getSpanQuery(final List<MapTile> pSpan) {
+        final MapTile first = pSpan.get(0);
+        return new LongArgsCursorFactory(first.getZ(), getTmsRow(first), first.getX(),
+                pSpan.get(pSpan.size() - 1).getX());
+    }
+
+    /**
+     * Binds the arguments of a query as integers, so that the indices on integer columns are
+     * used, where {@link SQLiteDatabase#rawQuery(String, String[])} binds them as strings.
+     */
+    private static final class LongArgsCursorFactory implements SQLiteDatabase.CursorFactory {
+        private final long[] mArgs;
+
+        LongArgsCursorFactory(final long... pArgs) {
+            mArgs = pArgs;
+        }
 
+        @SuppressWarnings("deprecation")
+        @Override
+        public Cursor newCursor(final SQLiteDatabase db, final SQLiteCursorDriver masterQuery,
+                final String editTable, final SQLiteQuery query) {
+            for (int i = 0; i < mArgs.length; i++) {
+                query.bindLong(i + 1, mArgs[i]);
+            }
+            // the constructor without a database is only available from Honeycomb on
+            return new SQLiteCursor(db, masterQuery, editTable, query);
+        }
+    }
+
+    private static Cursor rawQuery(final SQLiteDatabase pDatabase, final String pSql,
+            final SQLiteDatabase.CursorFactory pFactory) {
+        return pDatabase.rawQueryWithFactory(pFactory, pSql, null, null);
+    }
+
+    /**
+     * Get the tile of a span at a column.
+     */
+    private static MapTile getSpanTile(final List<MapTile> pSpan, final int pColumn) {
+        for (final MapTile tile : pSpan) {
+            if (tile.getX() == pColumn) {
+                return tile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the tiles of a span, sorted by column, into the result.
+     */
+    private void getSpanInputStreams(final List<MapTile> pSpan,
+            final Map<MapTile, InputStream> pResult) {
+        final MBTilesConnectionPool.Connection connection = acquireConnection();
+        Cursor cur = null;
+        try {
+            cur = rawQuery(getReadDatabase(connection), SQL_SELECT_TILE_SPAN, getSpanQuery(pSpan));
+            while (cur.moveToNext()) {
+                final MapTile tile = getSpanTile(pSpan, cur.getInt(0));
+                if (tile != null) {
+                    pResult.put(tile, new ByteArrayInputStream(cur.getBlob(1)));
+                }
+            }
+        } catch (final Throwable e) {
+            Log.e(TAG, "Error getting db streams for row: " + pSpan.get(0), e);
+        } finally {
+            if (cur != null) {
+                cur.close();
+            }
+            releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Checks once whether the archive uses the deduplicated map/images layout.
+     */
+    public boolean isDeduplicated() {
+        Boolean deduplicated = mDeduplicated;
+        if (deduplicated == null) {
+            Cursor cur = null;
+            try {
+                cur = mDatabase.rawQuery("SELECT COUNT(*) FROM sqlite_master"
+                        + " WHERE type IN ('table', 'view') AND name IN (?, ?)",
+                        new String[] { TABLE_MAP, TABLE_IMAGES });
+                deduplicated = cur.moveToFirst() && cur.getInt(0) == 2;
+            } catch (final Throwable e) {
+                Log.e(TAG, "Error reading the schema of " + mDatabase.getPath(), e);
+                deduplicated = false;
+            } finally {
+                if (cur != null) {
+                    cur.close();
+                }
+            }
+            mDeduplicated = deduplicated;
+        }
+        return deduplicated;
+    }
+
+    @Override
+    public String getContentId(final ITileLayer pTileSource, final MapTile pTile) {
+        if (!isDeduplicated()) {
+            return null;
+        }
+        final MBTilesConnectionPool.Connection connection = acquireConnection();
+        SQLiteStatement statement = null;
+        try {
+            statement = acquireStatement(connection, SQL_SELECT_CONTENT_ID);
+            statement.bindLong(1, pTile.getZ());
+            statement.bindLong(2, pTile.getX());
+            statement.bindLong(3, getTmsRow(pTile));
+            return statement.simpleQueryForString();
+        } catch (final SQLiteDoneException e) {
+            // no such tile in the archive
+        } catch (final Throwable e) {
+            Log.e(TAG, "Error getting content id: " + pTile, e);
+        } finally {
+            releaseStatement(connection, SQL_SELECT_CONTENT_ID, statement);
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the content ids with one range query per span of a row, like
+     * {@link #getInputStreams(ITileLayer, Collection)}.
+     */
+    @Override
+    public Map<MapTile, String> getContentIds(final ITileLayer pTileSource,
+            final Collection<MapTile> pTiles) {
+        final Map<MapTile, String> result = new HashMap<MapTile, String>();
+        if (!isDeduplicated()) {
+            return result;
+        }
+        for (final List<MapTile> span : getSpans(pTiles)) {
+            final MBTilesConnectionPool.Connection connection = acquireConnection();
+            Cursor cur = null;
+            try {
+                cur = rawQuery(getReadDatabase(connection), SQL_SELECT_CONTENT_ID_SPAN,
+                        getSpanQuery(span));
+                while (cur.moveToNext()) {
+                    final MapTile tile = getSpanTile(span, cur.getInt(0));
+                    if (tile != null && !cur.isNull(1)) {
+                        result.put(tile, cur.getString(1));
+                    }
+                }
+            } catch (final Throwable e) {
+                Log.e(TAG, "Error getting content ids for row: " + span.get(0), e);
+            } finally {
+                if (cur != null) {
+                    cur.close();
+                }
+                releaseConnection(connection);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the content through a compiled statement, like
+     * {@link #getInputStream(ITileLayer, MapTile)}.
+     */
+    @Override
+    public InputStream getContentInputStream(final ITileLayer pTileSource,
+            final String pContentId) {
+        if (!isDeduplicated()) {
+            return null;
+        }
+        final MBTilesConnectionPool.Connection connection = acquireConnection();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            Cursor cur = null;
+            try {
+                cur = getReadDatabase(connection).rawQuery(SQL_SELECT_CONTENT,
+                        new String[] { pContentId });
+                if (cur.moveToFirst()) {
+                    return new ByteArrayInputStream(cur.getBlob(0));
+                }
+            } catch (final Throwable e) {
+                Log.e(TAG, "Error getting content stream: " + pContentId, e);
+            } finally {
+                if (cur != null) {
+                    cur.close();
+                }
+                releaseConnection(connection);
+            }
+            return null;
+        }
+        SQLiteStatement statement = null;
+        try {
+            statement = acquireStatement(connection, SQL_SELECT_CONTENT);
+            statement.bindString(1, pContentId);
+            return SQLiteStatementHoneycomb.simpleQueryForBlobStream(statement);
+        } catch (final SQLiteDoneException e) {
+            // no such content in the archive
+        } catch (final Throwable e) {
+            Log.e(TAG, "Error getting content stream: " + pContentId, e);
+        } finally {
+            releaseStatement(connection, SQL_SELECT_CONTENT, statement);
+        }
+        return null;
+    }
+
+    /**
+     * MBTiles stores rows in TMS order, flipped relative to the XYZ scheme of MapTile.
+     */
+    protected static int getTmsRow(final MapTile pTile) {
+        return (1 << pTile.getZ()) - pTile.getY() - 1;
+    }
+
+    /**
+     * Looks the tile up through a pre-compiled statement with integer bound parameters so
+     * that the (zoom_level, tile_column, tile_row) index is used, and reads the blob through
+     * a file descriptor instead of a CursorWindow. The statement belongs to the calling
+     * thread's own connection when it has one, otherwise it is borrowed from the pool of
+     * statements on the shared database.
+     */
+    private InputStream getInputStreamFromStatement(final MapTile pTile) {
+        final MBTilesConnectionPool.Connection connection = acquireConnection();
+        SQLiteStatement statement = null;
+        try {
+            statement = acquireStatement(connection, SQL_SELECT_TILE);
+            statement.bindLong(1, pTile.getZ());
+            statement.bindLong(2, pTile.getX());
+            statement.bindLong(3, getTmsRow(pTile));
+            return SQLiteStatementHoneycomb.simpleQueryForBlobStream(statement);
+        } catch (final SQLiteDoneException e) {
+            // no such tile in the archive
+        } catch (final Throwable e) {
+            Log.e(TAG, "Error getting db stream: " + pTile, e);
+        } finally {
+            releaseStatement(connection, SQL_SELECT_TILE, statement);
+        }
+        return null;
+    }
+
+    private InputStream getInputStreamFromQuery(final MapTile pTile) {
+        final MBTilesConnectionPool.Connection connection = acquireConnection();
         try {
             InputStream ret = null;
             final String[] tile = { COL_TILES_TILE_DATA };
             final String[] xyz = {
                     Integer.toString(pTile.getX()),
-                    Double.toString(Math.pow(2, pTile.getZ()) - pTile.getY() - 1),
+                    Integer.toString(getTmsRow(pTile)),
                     Integer.toString(pTile.getZ())
             };
 
-            final Cursor cur = mDatabase.query(TABLE_TILES, tile,
+            final Cursor cur = getReadDatabase(connection).query(TABLE_TILES, tile,
                     "tile_column=? and tile_row=? and zoom_level=?", xyz, null, null, null);
 
             if (cur.getCount() != 0) {
@@ -62,90 +476,239 @@ public class MBTilesFileArchive implements IArchiveFile {
             }
         } catch (final Throwable e) {
             Log.e(TAG, "Error getting db stream: " + pTile, e);
+        } finally {
+            releaseConnection(connection);
         }
 
         return null;
     }
 
+    private static Map<String, BlockingQueue<SQLiteStatement>> newStatementPools(
+            final String... sqls) {
+        final Map<String, BlockingQueue<SQLiteStatement>> pools =
+                new HashMap<String, BlockingQueue<SQLiteStatement>>();
+        for (final String sql : sqls) {
+            pools.put(sql, new ArrayBlockingQueue<SQLiteStatement>(STATEMENT_POOL_SIZE));
+        }
+        return pools;
+    }
+
+    /**
+     * Get a compiled statement from the connection of the calling thread if it has one,
+     * otherwise borrow one on the shared database. It must be handed back with
+     * {@link #releaseStatement(MBTilesConnectionPool.Connection, String, SQLiteStatement)}.
+     */
+    private SQLiteStatement acquireStatement(final MBTilesConnectionPool.Connection pConnection,
+            final String sql) {
+        if (pConnection != null) {
+            return pConnection.getStatement(sql);
+        }
+        final SQLiteStatement statement = mStatementPools.get(sql).poll();
+        if (statement != null) {
+            return statement;
+        }
+        return mDatabase.compileStatement(sql);
+    }
+
+    private void releaseStatement(final MBTilesConnectionPool.Connection pConnection,
+            final String sql, final SQLiteStatement statement) {
+        if (statement != null) {
+            statement.clearBindings();
+        }
+        if (pConnection != null) {
+            releaseConnection(pConnection);
+        } else if (statement != null
+                && (mClosed || !mStatementPools.get(sql).offer(statement))) {
+            statement.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static class SQLiteStatementHoneycomb {
+        static InputStream simpleQueryForBlobStream(final SQLiteStatement statement) {
+            final ParcelFileDescriptor fd = statement.simpleQueryForBlobFileDescriptor();
+            if (fd == null) {
+                return null;
+            }
+            return new ParcelFileDescriptor.AutoCloseInputStream(fd);
+        }
+    }
+
     @Override
     public String toString() {
         return "MBTiles [mDatabase=" + mDatabase.getPath() + "]";
     }
 
-    private String getStringValue(String key) {
-        final String[] column = { COL_VALUE };
-        final String[] query = { key };
-
-        Cursor c =
-                this.mDatabase.query(TABLE_METADATA, column, "name = ?", query, null, null, null);
-        try {
-            c.moveToFirst();
-            return c.getString(0);
-        } catch (Exception e) {
-            return null;
-        } finally {
-            c.close();
+    /**
+     * Get the metadata of this archive, read once and cached per file.
+     *
+     * @return the metadata snapshot
+     */
+    public MBTilesMetadata getMetadata() {
+        MBTilesMetadata metadata = mMetadata;
+        if (metadata == null) {
+            metadata = MBTilesMetadata.fromDatabase(mDatabase);
+            mMetadata = metadata;
         }
+        return metadata;
     }
 
     public float getMinZoomLevel() {
-        String result = getStringValue("minzoom");
-        if (result != null) {
-            return Float.parseFloat(result);
-        }
-        return 0;
+        return getMetadata().getMinZoomLevel();
     }
 
     public float getMaxZoomLevel() {
-        String result = getStringValue("maxzoom");
-        if (result != null) {
-            return Float.parseFloat(result);
-        }
-        return 22;
+        return getMetadata().getMaxZoomLevel();
     }
 
     public String getName() {
-        return getStringValue("name");
+        return getMetadata().getName();
     }
 
     public String getType() {
-        return getStringValue("template");
+        return getMetadata().getType();
     }
 
     public String getVersion() {
-        return getStringValue("version");
+        return getMetadata().getVersion();
     }
 
     public String getDescription() {
-        return getStringValue("description");
+        return getMetadata().getDescription();
     }
 
     public String getAttribution() {
-        return getStringValue("attribution");
+        return getMetadata().getAttribution();
     }
 
     public BoundingBox getBounds() {
-        String result = getStringValue("bounds");
-        if (result != null) {
-            String[] boundsArray = result.split(",\\s*");
-            return new BoundingBox(Double.parseDouble(boundsArray[3]),
-                    Double.parseDouble(boundsArray[2]), Double.parseDouble(boundsArray[1]),
-                    Double.parseDouble(boundsArray[0]));
-        }
-        return null;
+        return getMetadata().getBounds();
     }
 
     public LatLng getCenter() {
-        String result = getStringValue("center");
-        if (result != null) {
-            String[] centerArray = result.split(",\\s*");
-            return new LatLng(Double.parseDouble(centerArray[0]),
-                    Double.parseDouble(centerArray[1]), Double.parseDouble(centerArray[2]));
+        return getMetadata().getCenter();
+    }
+
+    @Override
+    public TileCoverage getCoverage() {
+        return mClosed ? null : mCoverageLoader.get();
+    }
+
+    /**
+     * Reads the coverage index persisted next to the archive, or builds it from the tiles
+     * table and tries to persist it when it is missing or older than the archive. It isn't
+     * persisted if tiles were written to the archive meanwhile.
+     */
+    private TileCoverage loadCoverage(final int pGeneration) {
+        final String path = mDatabase.getPath();
+        final File archiveFile = (path != null) ? new File(path) : null;
+        if (archiveFile == null || !archiveFile.isFile()) {
+            return buildCoverage(mDatabase);
         }
-        return null;
+
+        final File coverageFile = new File(path + COVERAGE_SUFFIX);
+        if (coverageFile.isFile() && coverageFile.lastModified() >= archiveFile.lastModified()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(coverageFile)));
+                return TileCoverage.readFrom(in);
+            } catch (final IOException e) {
+                Log.w(TAG, "Ignoring invalid coverage file " + coverageFile, e);
+            } finally {
+                StreamUtils.closeStream(in);
+            }
+        }
+
+        // scan through a connection of our own, so tile lookups aren't blocked meanwhile
+        SQLiteDatabase db = null;
+        final TileCoverage coverage;
+        try {
+            db = SQLiteDatabase.openDatabase(path, null, MBTilesConnectionPool.OPEN_FLAGS);
+            coverage = buildCoverage(db);
+        } catch (final SQLiteException e) {
+            Log.e(TAG, "Can't build the coverage of " + path, e);
+            return null;
+        } finally {
+            if (db != null) {
+                db.close();
+            }
+        }
+        if (coverage == null || TileCoverageLoader.getGeneration(path) != pGeneration) {
+            return coverage;
+        }
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(coverageFile)));
+            coverage.writeTo(out);
+        } catch (final IOException e) {
+            // the directory may well be read-only, the index just won't be reused next time
+            Log.i(TAG, "Can't persist the coverage of " + path + ": " + e);
+            coverageFile.delete();
+        } finally {
+            StreamUtils.closeStream(out);
+        }
+        return coverage;
+    }
+
+    private static TileCoverage buildCoverage(final SQLiteDatabase db) {
+        final TileCoverage.Builder builder = new TileCoverage.Builder();
+        final List<Integer> detailedZooms = new ArrayList<Integer>();
+        Cursor cur = null;
+        try {
+            cur = db.rawQuery("SELECT zoom_level, MIN(tile_column), MAX(tile_column),"
+                    + " MIN(tile_row), MAX(tile_row) FROM " + TABLE_TILES
+                    + " GROUP BY zoom_level", null);
+            while (cur.moveToNext()) {
+                final int z = cur.getInt(0);
+                if (z < 0 || z > MAXIMUM_ZOOMLEVEL) {
+                    continue;
+                }
+                final int rows = 1 << z;
+                // tile rows are stored in TMS order, the coverage works in XYZ
+                if (builder.setBounds(z, cur.getInt(1), cur.getInt(2),
+                        rows - cur.getInt(4) - 1, rows - cur.getInt(3) - 1)) {
+                    detailedZooms.add(z);
+                }
+            }
+            cur.close();
+            cur = null;
+
+            for (final Integer z : detailedZooms) {
+                final int rows = 1 << z;
+                cur = db.rawQuery("SELECT tile_column, tile_row FROM " + TABLE_TILES
+                        + " WHERE zoom_level = ?", new String[] { z.toString() });
+                while (cur.moveToNext()) {
+                    builder.add(z, cur.getInt(0), rows - cur.getInt(1) - 1);
+                }
+                cur.close();
+                cur = null;
+            }
+        } catch (final Throwable e) {
+            Log.e(TAG, "Error building the coverage of " + db.getPath(), e);
+            return null;
+        } finally {
+            if (cur != null) {
+                cur.close();
+            }
+        }
+        return builder.build();
     }
 
+    @Override
     public void close() {
+        mClosed = true;
+        for (final BlockingQueue<SQLiteStatement> pool : mStatementPools.values()) {
+            SQLiteStatement statement;
+            while ((statement = pool.poll()) != null) {
+                statement.close();
+            }
+        }
+        if (mConnectionPool != null) {
+            mConnectionPool.close();
+        }
         if (mDatabase != null) {
             mDatabase.close();
         }
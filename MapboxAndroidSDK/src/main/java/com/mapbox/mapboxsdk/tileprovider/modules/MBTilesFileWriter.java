@@ -0,0 +1,263 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A writable MBTiles file, used as a permanent home for downloaded tiles. Tiles are stored as
+ * the original PNG or JPEG bytes they were served with, and inserts are grouped into large
+ * transactions, since committing every tile on its own costs a journal sync each time.
+ * Tiles are held in memory until a batch is full, and each batch is written in one go, so
+ * that no transaction stays open between calls from different threads.
+ * The result can be read back with {@link MBTilesFileArchive} or
+ * {@link com.mapbox.mapboxsdk.tileprovider.tilesource.MBTilesLayer}, even while it is being
+ * written: every batch written invalidates the coverage of the archives reading the file.
+ *
+ * Instances are safe to share between threads.
+ */
+public class MBTilesFileWriter implements TileLayerConstants {
+
+    /**
+     * The number of tiles inserted per transaction, unless set otherwise.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final String SQL_CREATE_TILES = "CREATE TABLE IF NOT EXISTS "
+            + MBTilesFileArchive.TABLE_TILES + " (zoom_level INTEGER, tile_column INTEGER,"
+            + " tile_row INTEGER, " + MBTilesFileArchive.COL_TILES_TILE_DATA + " BLOB)";
+    private static final String SQL_CREATE_TILES_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS"
+            + " tile_index ON " + MBTilesFileArchive.TABLE_TILES
+            + " (zoom_level, tile_column, tile_row)";
+    private static final String SQL_CREATE_METADATA = "CREATE TABLE IF NOT EXISTS "
+            + MBTilesFileArchive.TABLE_METADATA + " (name TEXT, "
+            + MBTilesFileArchive.COL_VALUE + " TEXT)";
+    private static final String SQL_CREATE_METADATA_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS"
+            + " name ON " + MBTilesFileArchive.TABLE_METADATA + " (name)";
+
+    private static final String SQL_INSERT_TILE = "INSERT OR REPLACE INTO "
+            + MBTilesFileArchive.TABLE_TILES + " (zoom_level, tile_column, tile_row, "
+            + MBTilesFileArchive.COL_TILES_TILE_DATA + ") VALUES (?, ?, ?, ?)";
+    private static final String SQL_INSERT_METADATA = "INSERT OR REPLACE INTO "
+            + MBTilesFileArchive.TABLE_METADATA + " (name, " + MBTilesFileArchive.COL_VALUE
+            + ") VALUES (?, ?)";
+    private static final String SQL_SELECT_METADATA = "SELECT " + MBTilesFileArchive.COL_VALUE
+            + " FROM " + MBTilesFileArchive.TABLE_METADATA + " WHERE name = ?";
+    private static final String SQL_CONTAINS_TILE = "SELECT 1 FROM "
+            + MBTilesFileArchive.TABLE_TILES
+            + " WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    private final SQLiteDatabase mDatabase;
+    private final SQLiteStatement mInsertTile;
+    private final SQLiteStatement mContainsTile;
+    private final Map<MapTile, byte[]> mPendingTiles = new LinkedHashMap<MapTile, byte[]>();
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+    private long mTileCount = 0;
+
+    private MBTilesFileWriter(final SQLiteDatabase pDatabase) {
+        mDatabase = pDatabase;
+        mInsertTile = pDatabase.compileStatement(SQL_INSERT_TILE);
+        mContainsTile = pDatabase.compileStatement(SQL_CONTAINS_TILE);
+    }
+
+    /**
+     * Open an MBTiles file for writing, creating it and its tables if needed. Tiles already in
+     * the file are kept.
+     *
+     * @param pFile the MBTiles file
+     * @return the writer
+     * @throws SQLiteException if the file can't be opened or isn't an SQLite database
+     */
+    public static MBTilesFileWriter open(final File pFile) throws SQLiteException {
+        final File parent = pFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            Log.e(TAG, "can't create directory " + parent);
+        }
+        final SQLiteDatabase db = SQLiteDatabase.openDatabase(pFile.getAbsolutePath(), null,
+                SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.CREATE_IF_NECESSARY
+                        | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        try {
+            db.execSQL(SQL_CREATE_TILES);
+            db.execSQL(SQL_CREATE_TILES_INDEX);
+            db.execSQL(SQL_CREATE_METADATA);
+            db.execSQL(SQL_CREATE_METADATA_INDEX);
+            return new MBTilesFileWriter(db);
+        } catch (final SQLiteException e) {
+            db.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Set how many tiles are inserted per transaction. Larger batches write faster, but more
+     * tiles are lost if the process dies before they are committed.
+     *
+     * @param pBatchSize the number of tiles per transaction, at least 1
+     * @return this writer
+     */
+    public synchronized MBTilesFileWriter setBatchSize(final int pBatchSize) {
+        mBatchSize = Math.max(1, pBatchSize);
+        if (mPendingTiles.size() >= mBatchSize) {
+            writeBatch();
+        }
+        return this;
+    }
+
+    /**
+     * Store the encoded bytes of a tile, replacing any previous version of it.
+     *
+     * @param pTile the tile, in XYZ scheme
+     * @param pData the PNG or JPEG bytes of the tile, as served
+     */
+    public synchronized void putTile(final MapTile pTile, final byte[] pData) {
+        mPendingTiles.put(pTile, pData);
+        mTileCount++;
+        if (mPendingTiles.size() >= mBatchSize) {
+            writeBatch();
+        }
+    }
+
+    /**
+     * Store the encoded bytes of a tile read from a stream. The stream is not closed.
+     *
+     * @param pTile the tile, in XYZ scheme
+     * @param pStream the PNG or JPEG bytes of the tile, as served
+     */
+    public void putTile(final MapTile pTile, final InputStream pStream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+        final byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = pStream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        putTile(pTile, out.toByteArray());
+    }
+
+    /**
+     * Checks whether the file already holds a tile, including tiles not committed yet.
+     */
+    public synchronized boolean containsTile(final MapTile pTile) {
+        if (mPendingTiles.containsKey(pTile)) {
+            return true;
+        }
+        mContainsTile.bindLong(1, pTile.getZ());
+        mContainsTile.bindLong(2, pTile.getX());
+        mContainsTile.bindLong(3, MBTilesFileArchive.getTmsRow(pTile));
+        try {
+            mContainsTile.simpleQueryForLong();
+            return true;
+        } catch (final SQLiteDoneException e) {
+            return false;
+        } finally {
+            mContainsTile.clearBindings();
+        }
+    }
+
+    /**
+     * Set a value of the metadata table, e.g. "name", "bounds", "minzoom" or "maxzoom".
+     */
+    public synchronized void putMetadata(final String pName, final String pValue) {
+        final SQLiteStatement statement = mDatabase.compileStatement(SQL_INSERT_METADATA);
+        try {
+            statement.bindString(1, pName);
+            statement.bindString(2, pValue);
+            statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Get a value of the metadata table.
+     *
+     * @return the value, or null if the file doesn't define it
+     */
+    public synchronized String getMetadata(final String pName) {
+        final SQLiteStatement statement = mDatabase.compileStatement(SQL_SELECT_METADATA);
+        try {
+            statement.bindString(1, pName);
+            return statement.simpleQueryForString();
+        } catch (final SQLiteDoneException e) {
+            return null;
+        } finally {
+            statement.close();
+        }
+    }
+
+    public void putMetadata(final Map<String, String> pValues) {
+        for (final Map.Entry<String, String> entry : pValues.entrySet()) {
+            putMetadata(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Get the number of tiles written through this writer.
+     */
+    public synchronized long getTileCount() {
+        return mTileCount;
+    }
+
+    /**
+     * Commit the tiles written so far.
+     */
+    public synchronized void flush() {
+        writeBatch();
+    }
+
+    /**
+     * Commit the tiles written so far and close the file.
+     */
+    public synchronized void close() {
+        try {
+            writeBatch();
+        } finally {
+            mInsertTile.close();
+            mContainsTile.close();
+            mDatabase.close();
+        }
+    }
+
+    /**
+     * Inserts the pending tiles through the prepared statement, in a single transaction.
+     */
+    private void writeBatch() {
+        if (mPendingTiles.isEmpty()) {
+            return;
+        }
+        mDatabase.beginTransaction();
+        try {
+            for (final Map.Entry<MapTile, byte[]> entry : mPendingTiles.entrySet()) {
+                final MapTile tile = entry.getKey();
+                mInsertTile.bindLong(1, tile.getZ());
+                mInsertTile.bindLong(2, tile.getX());
+                mInsertTile.bindLong(3, MBTilesFileArchive.getTmsRow(tile));
+                mInsertTile.bindBlob(4, entry.getValue());
+                mInsertTile.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mInsertTile.clearBindings();
+            mDatabase.endTransaction();
+        }
+        mPendingTiles.clear();
+        // archives reading this file have to pick up the new tiles
+        TileCoverageLoader.invalidate(mDatabase.getPath());
+    }
+
+    @Override
+    public String toString() {
+        return "MBTilesWriter [mDatabase=" + mDatabase.getPath() + "]";
+    }
+
+    private static final String TAG = "MBTilesFileWriter";
+}
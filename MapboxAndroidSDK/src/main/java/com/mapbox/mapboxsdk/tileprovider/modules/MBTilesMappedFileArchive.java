@@ -0,0 +1,963 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.util.Log;
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An access layer to the MBTiles format that reads the SQLite b-tree pages of the file directly
+ * through memory mapped buffers instead of going through android.database. Tile data is handed
+ * out as streams over slices of the mapped pages, so there is no Cursor, CursorWindow or per-tile
+ * byte[] copy involved. The file is only read through java.nio, so it can be tested on a plain
+ * JVM.
+ * <p/>
+ * The archive must store its tiles in a "tiles" table with an index on
+ * (zoom_level, tile_column, tile_row), which is what the MBTiles spec recommends, or in a
+ * WITHOUT ROWID "tiles" table with those columns as its primary key. Archives that only expose
+ * "tiles" as a view are rejected when opened. Corrupt pages met afterwards are logged and the
+ * tiles on them treated as missing.
+ */
+public class MBTilesMappedFileArchive implements ICoverageArchiveFile, IBatchArchiveFile,
+        Closeable {
+
+    private static final String SQLITE_HEADER = "SQLite format 3\u0000";
+
+    /**
+     * A single MappedByteBuffer can't exceed 2 GB, so the file is mapped in segments. Pages
+     * are a power of two no larger than 64 KB, so they never straddle two segments.
+     */
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    private static final int PAGE_INTERIOR_INDEX = 2;
+    private static final int PAGE_INTERIOR_TABLE = 5;
+    private static final int PAGE_LEAF_INDEX = 10;
+    private static final int PAGE_LEAF_TABLE = 13;
+
+    /**
+     * The deepest b-tree SQLite builds. Deeper trees can only come from corrupt pages that
+     * point back up the tree.
+     */
+    private static final int MAX_DEPTH = 20;
+
+    private static final String COL_ZOOM_LEVEL = "zoom_level";
+    private static final String COL_TILE_COLUMN = "tile_column";
+    private static final String COL_TILE_ROW = "tile_row";
+
+    private final String mPath;
+    private final ByteBuffer[] mSegments;
+    private volatile boolean mClosed = false;
+    private final int mPageSize;
+    private final int mUsableSize;
+    private final long mPageCount;
+    private final Charset mCharset;
+
+    private int mTilesRootPage;
+    private int mIndexRootPage;
+    /**
+     * Whether the index is the tiles table itself, a WITHOUT ROWID table whose records hold
+     * tile_data, rather than pointing to rows of the tiles table.
+     */
+    private boolean mWithoutRowId;
+    private int mTileDataColumn;
+    private int mMetadataRootPage;
+    private int mMetadataNameColumn;
+    private int mMetadataValueColumn;
+    /**
+     * For each of the first three index columns, which tile coordinate it holds:
+     * 0 for zoom_level, 1 for tile_column and 2 for tile_row.
+     */
+    private final int[] mIndexColumns = new int[3];
+
+    private final TileCoverageLoader mCoverageLoader;
+
+    public MBTilesMappedFileArchive(final File pFile) throws IOException {
+        this(pFile.getAbsolutePath(), openChannel(pFile), 0, -1);
+    }
+
+    /**
+     * Maps an MBTiles file embedded at some offset of a larger file, such as an uncompressed
+     * asset inside an APK. The channel is closed once mapped.
+     *
+     * @param pName a name for the archive, used in error messages
+     * @param pChannel the channel to map
+     * @param pOffset the offset of the MBTiles file in the channel
+     * @param pLength the length of the MBTiles file, or -1 to map up to the end of the channel
+     */
+    public MBTilesMappedFileArchive(final String pName, final FileChannel pChannel,
+            final long pOffset, final long pLength) throws IOException {
+        mPath = pName;
+        mCoverageLoader = new TileCoverageLoader(pName) {
+            @Override
+            TileCoverage load(final int pGeneration) {
+                return buildCoverage();
+            }
+        };
+        try {
+            final long size = (pLength >= 0) ? pLength : pChannel.size() - pOffset;
+            final int count = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            mSegments = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                final long start = (long) i * SEGMENT_SIZE;
+                mSegments[i] = pChannel.map(FileChannel.MapMode.READ_ONLY, pOffset + start,
+                        Math.min(SEGMENT_SIZE, size - start));
+            }
+        } finally {
+            pChannel.close();
+        }
+
+        if (mSegments.length == 0) {
+            throw new IOException("Empty MBTiles file: " + mPath);
+        }
+        try {
+            for (int i = 0; i < SQLITE_HEADER.length(); i++) {
+                if (u8(i) != SQLITE_HEADER.charAt(i)) {
+                    throw new IOException("Not a SQLite database: " + mPath);
+                }
+            }
+            final int pageSize = u16(16);
+            mPageSize = (pageSize == 1) ? 65536 : pageSize;
+            mUsableSize = mPageSize - u8(20);
+            final ByteBuffer last = mSegments[mSegments.length - 1];
+            mPageCount = ((long) (mSegments.length - 1) * SEGMENT_SIZE + last.capacity())
+                    / mPageSize;
+            switch ((int) u32(56)) {
+                case 2:
+                    mCharset = Charset.forName("UTF-16LE");
+                    break;
+                case 3:
+                    mCharset = Charset.forName("UTF-16BE");
+                    break;
+                default:
+                    mCharset = Charset.forName("UTF-8");
+                    break;
+            }
+
+            readSchema();
+        } catch (final RuntimeException e) {
+            // pages pointing outside of the file or cells running off their page
+            throw new IOException("Corrupt MBTiles file: " + mPath, e);
+        }
+    }
+
+    private static FileChannel openChannel(final File pFile) throws IOException {
+        return new RandomAccessFile(pFile, "r").getChannel();
+    }
+
+    /**
+     * Reads the name/value pairs of the metadata table.
+     *
+     * @return the metadata, empty if the archive has no metadata table
+     */
+    public Map<String, String> getMetadataValues() {
+        final Map<String, String> values = new HashMap<String, String>();
+        if (mMetadataRootPage == 0 || mClosed) {
+            return values;
+        }
+        try {
+            final List<Payload> records = new ArrayList<Payload>();
+            collectRecords(mMetadataRootPage, records, 0);
+            for (final Payload record : records) {
+                final String name = record.text(mMetadataNameColumn);
+                if (name != null) {
+                    values.put(name, record.text(mMetadataValueColumn));
+                }
+            }
+        } catch (final RuntimeException e) {
+            Log.w(TAG, "Corrupt metadata in " + mPath, e);
+        }
+        return values;
+    }
+
+    @Override
+    public TileCoverage getCoverage() {
+        return mClosed ? null : mCoverageLoader.get();
+    }
+
+    /**
+     * Builds the coverage from the keys of the tile index, which is read twice: once for the
+     * bounds of every zoom level, then for the tiles of the zoom levels small enough to keep a
+     * bitmap of.
+     *
+     * @return the coverage, or null if the index is corrupt
+     */
+    private TileCoverage buildCoverage() {
+        final int[][] bounds = new int[TileLayerConstants.MAXIMUM_ZOOMLEVEL + 1][];
+        try {
+            scanIndex(mIndexRootPage, bounds, null, 0);
+            final TileCoverage.Builder builder = new TileCoverage.Builder();
+            boolean detailed = false;
+            for (int z = 0; z < bounds.length; z++) {
+                if (bounds[z] != null && builder.setBounds(z, bounds[z][0], bounds[z][1],
+                        bounds[z][2], bounds[z][3])) {
+                    detailed = true;
+                }
+            }
+            if (detailed) {
+                scanIndex(mIndexRootPage, null, builder, 0);
+            }
+            return builder.build();
+        } catch (final RuntimeException e) {
+            Log.w(TAG, "Corrupt tile index in " + mPath, e);
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(final ITileLayer pTileSource, final MapTile pTile) {
+        if (mClosed) {
+            return null;
+        }
+        try {
+            return findTile(pTile);
+        } catch (final RuntimeException e) {
+            Log.w(TAG, "Corrupt page reading " + pTile + " from " + mPath, e);
+            return null;
+        }
+    }
+
+    private InputStream findTile(final MapTile pTile) {
+        final int z = pTile.getZ();
+        final Payload entry = findIndexEntry(z, pTile.getX(), (1 << z) - pTile.getY() - 1);
+        if (entry == null) {
+            return null;
+        }
+        final Payload record = mWithoutRowId ? entry
+                : findRecord(mTilesRootPage, entry.integer(entry.columnCount() - 1));
+        if (record == null) {
+            return null;
+        }
+        final int offset = record.columnOffset(mTileDataColumn);
+        final long serialType = record.serialType(mTileDataColumn);
+        if (serialType < 12) {
+            return null;
+        }
+        return record.stream(offset, contentSize(serialType));
+    }
+
+    @Override
+    public Map<MapTile, InputStream> getInputStreams(final ITileLayer pTileSource,
+            final Collection<MapTile> pTiles) {
+        // b-tree lookups on mapped pages are cheap enough that batching buys nothing here
+        final Map<MapTile, InputStream> result = new HashMap<MapTile, InputStream>();
+        for (final MapTile tile : pTiles) {
+            final InputStream stream = getInputStream(pTileSource, tile);
+            if (stream != null) {
+                result.put(tile, stream);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stop handing out tiles. Streams already handed out stay readable, and lookups under way
+     * finish, since the mapped buffers are only released by the garbage collector once the
+     * archive and its streams are unreferenced.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+    }
+
+    @Override
+    public String toString() {
+        return "MBTilesMapped [mPath=" + mPath + "]";
+    }
+
+    /**
+     * Walks sqlite_master, rooted on page 1, to find the tiles table, the column holding
+     * tile_data and the index on the tile coordinates.
+     */
+    private void readSchema() throws IOException {
+        final List<Payload> records = new ArrayList<Payload>();
+        collectRecords(1, records, 0);
+
+        String tilesSql = null;
+        for (final Payload record : records) {
+            if (!"table".equals(record.text(0))) {
+                continue;
+            }
+            final String name = record.text(1);
+            if ("tiles".equalsIgnoreCase(name)) {
+                mTilesRootPage = (int) record.integer(3);
+                tilesSql = record.text(4);
+            } else if (MBTilesFileArchive.TABLE_METADATA.equalsIgnoreCase(name)) {
+                final List<String> columns = parseColumns(record.text(4), false);
+                mMetadataNameColumn = columns.indexOf("name");
+                mMetadataValueColumn = columns.indexOf(MBTilesFileArchive.COL_VALUE);
+                if (mMetadataNameColumn >= 0 && mMetadataValueColumn >= 0) {
+                    mMetadataRootPage = (int) record.integer(3);
+                }
+            }
+        }
+        if (tilesSql == null) {
+            throw new IOException("No tiles table in " + mPath);
+        }
+        final List<String> tableColumns = parseColumns(tilesSql, false);
+        mTileDataColumn = tableColumns.indexOf(MBTilesFileArchive.COL_TILES_TILE_DATA);
+        if (mTileDataColumn < 0) {
+            throw new IOException("No tile_data column in " + mPath);
+        }
+
+        final String tail = tilesSql.substring(tilesSql.lastIndexOf(')') + 1);
+        if (tail.toUpperCase(Locale.US).replaceAll("\\s+", " ").contains("WITHOUT ROWID")) {
+            // the records of the table are keyed by its primary key, which holds the columns
+            // of the key first, then the others in the order they are declared
+            final List<String> keyColumns = parseColumns(tilesSql, true);
+            if (!keyColumns.contains(MBTilesFileArchive.COL_TILES_TILE_DATA)
+                    && setIndexColumns(keyColumns)) {
+                mWithoutRowId = true;
+                mIndexRootPage = mTilesRootPage;
+                final List<String> recordColumns = new ArrayList<String>(keyColumns);
+                for (final String column : tableColumns) {
+                    if (!recordColumns.contains(column)) {
+                        recordColumns.add(column);
+                    }
+                }
+                mTileDataColumn = recordColumns.indexOf(MBTilesFileArchive.COL_TILES_TILE_DATA);
+                return;
+            }
+            throw new IOException("No primary key on (zoom_level, tile_column, tile_row) in "
+                    + mPath);
+        }
+
+        for (final Payload record : records) {
+            if (!"index".equals(record.text(0)) || !"tiles".equalsIgnoreCase(record.text(2))) {
+                continue;
+            }
+            final String sql = record.text(4);
+            // indices backing UNIQUE or PRIMARY KEY constraints have no sql of their own
+            final List<String> indexColumns =
+                    (sql != null) ? parseColumns(sql, false) : parseColumns(tilesSql, true);
+            if (setIndexColumns(indexColumns)) {
+                mIndexRootPage = (int) record.integer(3);
+                return;
+            }
+        }
+        throw new IOException("No index on (zoom_level, tile_column, tile_row) in " + mPath);
+    }
+
+    private boolean setIndexColumns(final List<String> columns) {
+        if (columns.size() < 3) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            final String column = columns.get(i);
+            if (COL_ZOOM_LEVEL.equals(column)) {
+                mIndexColumns[i] = 0;
+            } else if (COL_TILE_COLUMN.equals(column)) {
+                mIndexColumns[i] = 1;
+            } else if (COL_TILE_ROW.equals(column)) {
+                mIndexColumns[i] = 2;
+            } else {
+                return false;
+            }
+        }
+        return mIndexColumns[0] != mIndexColumns[1]
+                && mIndexColumns[1] != mIndexColumns[2]
+                && mIndexColumns[0] != mIndexColumns[2];
+    }
+
+    /**
+     * Extracts the column names of a CREATE TABLE or CREATE INDEX statement. With
+     * pConstraint set, returns instead the columns of the first UNIQUE or PRIMARY KEY table
+     * constraint.
+     */
+    private static List<String> parseColumns(final String sql, final boolean pConstraint) {
+        final List<String> result = new ArrayList<String>();
+        final int start = sql.indexOf('(');
+        final int end = sql.lastIndexOf(')');
+        if (start < 0 || end <= start) {
+            return result;
+        }
+        final List<String> definitions = new ArrayList<String>();
+        int depth = 0;
+        int from = start + 1;
+        for (int i = start + 1; i < end; i++) {
+            final char c = sql.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                definitions.add(sql.substring(from, i).trim());
+                from = i + 1;
+            }
+        }
+        definitions.add(sql.substring(from, end).trim());
+
+        for (final String definition : definitions) {
+            final String upper = definition.toUpperCase(Locale.US);
+            final boolean isConstraint = upper.startsWith("UNIQUE")
+                    || upper.startsWith("PRIMARY")
+                    || upper.startsWith("CONSTRAINT")
+                    || upper.startsWith("CHECK")
+                    || upper.startsWith("FOREIGN");
+            if (pConstraint) {
+                if (isConstraint && (upper.contains("UNIQUE") || upper.contains("PRIMARY"))
+                        && definition.indexOf('(') >= 0) {
+                    return parseColumns(definition, false);
+                }
+            } else if (!isConstraint && definition.length() > 0) {
+                result.add(unquote(definition.split("\\s+")[0]));
+            }
+        }
+        return result;
+    }
+
+    private static String unquote(final String name) {
+        return name.replaceAll("[\"`\\[\\]']", "").toLowerCase(Locale.US);
+    }
+
+    private void collectRecords(final int page, final List<Payload> records, final int depth) {
+        checkDepth(depth);
+        final long pagePos = pagePosition(page);
+        final int header = (page == 1) ? 100 : 0;
+        final int type = u8(pagePos + header);
+        final int cellCount = u16(pagePos + header + 3);
+        if (type == PAGE_INTERIOR_TABLE) {
+            for (int i = 0; i < cellCount; i++) {
+                final long cellPos = pagePos + u16(pagePos + header + 12 + 2 * i);
+                collectRecords((int) u32(cellPos), records, depth + 1);
+            }
+            collectRecords((int) u32(pagePos + header + 8), records, depth + 1);
+        } else if (type == PAGE_LEAF_TABLE) {
+            for (int i = 0; i < cellCount; i++) {
+                long pos = pagePos + u16(pagePos + header + 8 + 2 * i);
+                final long payloadSize = varint(pos);
+                pos += varintLength(pos);
+                pos += varintLength(pos);
+                records.add(payload(pos, payloadSize, false));
+            }
+        }
+    }
+
+    /**
+     * Visits every key of the tile index in order, collecting either the bounds of every zoom
+     * level, as {minX, maxX, minY, maxY} in XYZ scheme, or the tiles themselves.
+     */
+    private void scanIndex(final int page, final int[][] bounds,
+            final TileCoverage.Builder builder, final int depth) {
+        checkDepth(depth);
+        final long pagePos = pagePosition(page);
+        final int header = (page == 1) ? 100 : 0;
+        final int type = u8(pagePos + header);
+        final boolean interior = type == PAGE_INTERIOR_INDEX;
+        if (!interior && type != PAGE_LEAF_INDEX) {
+            throw new IllegalStateException("Page " + page + " isn't an index page");
+        }
+        final int cellCount = u16(pagePos + header + 3);
+        final long cellPointers = pagePos + header + (interior ? 12 : 8);
+        for (int i = 0; i < cellCount; i++) {
+            long pos = pagePos + u16(cellPointers + 2 * i);
+            if (interior) {
+                // the keys of the left child sort before the key of its cell
+                scanIndex((int) u32(pos), bounds, builder, depth + 1);
+                pos += 4;
+            }
+            final long payloadSize = varint(pos);
+            addIndexKey(payload(pos + varintLength(pos), payloadSize, true), bounds, builder);
+        }
+        if (interior) {
+            scanIndex((int) u32(pagePos + header + 8), bounds, builder, depth + 1);
+        }
+    }
+
+    private void addIndexKey(final Payload key, final int[][] bounds,
+            final TileCoverage.Builder builder) {
+        long z = 0;
+        long x = 0;
+        long tmsY = 0;
+        for (int i = 0; i < 3; i++) {
+            final long value = key.integer(i);
+            if (mIndexColumns[i] == 0) {
+                z = value;
+            } else if (mIndexColumns[i] == 1) {
+                x = value;
+            } else {
+                tmsY = value;
+            }
+        }
+        if (z < 0 || z > TileLayerConstants.MAXIMUM_ZOOMLEVEL) {
+            return;
+        }
+        final int zoom = (int) z;
+        final int column = (int) x;
+        // tile rows are stored in TMS order, the coverage works in XYZ
+        final int row = (1 << zoom) - (int) tmsY - 1;
+        if (builder != null) {
+            builder.add(zoom, column, row);
+        } else if (bounds[zoom] == null) {
+            bounds[zoom] = new int[] { column, column, row, row };
+        } else {
+            final int[] b = bounds[zoom];
+            b[0] = Math.min(b[0], column);
+            b[1] = Math.max(b[1], column);
+            b[2] = Math.min(b[2], row);
+            b[3] = Math.max(b[3], row);
+        }
+    }
+
+    /**
+     * Searches the tile index for the given TMS coordinates.
+     *
+     * @return the index entry of the tile, whose last column is the rowid of the tile in the
+     * tiles table, or null if there is none
+     */
+    private Payload findIndexEntry(final int z, final int x, final int tmsY) {
+        int page = mIndexRootPage;
+        for (int depth = 0; ; depth++) {
+            checkDepth(depth);
+            final long pagePos = pagePosition(page);
+            final int header = (page == 1) ? 100 : 0;
+            final int type = u8(pagePos + header);
+            final boolean interior = type == PAGE_INTERIOR_INDEX;
+            if (!interior && type != PAGE_LEAF_INDEX) {
+                return null;
+            }
+            final int cellCount = u16(pagePos + header + 3);
+            final long cellPointers = pagePos + header + (interior ? 12 : 8);
+
+            int lo = 0;
+            int hi = cellCount - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                long pos = pagePos + u16(cellPointers + 2 * mid);
+                if (interior) {
+                    pos += 4;
+                }
+                final long payloadSize = varint(pos);
+                final Payload key = payload(pos + varintLength(pos), payloadSize, true);
+                final int cmp = compareKey(key, z, x, tmsY);
+                if (cmp == 0) {
+                    return key;
+                } else if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if (!interior) {
+                return null;
+            }
+            page = (lo < cellCount) ? (int) u32(pagePos + u16(cellPointers + 2 * lo))
+                    : (int) u32(pagePos + header + 8);
+        }
+    }
+
+    private int compareKey(final Payload key, final int z, final int x, final int tmsY) {
+        for (int i = 0; i < 3; i++) {
+            final int coordinate = mIndexColumns[i];
+            final long target = (coordinate == 0) ? z : (coordinate == 1) ? x : tmsY;
+            final long serialType = key.serialType(i);
+            final int cmp;
+            if (serialType == 0) {
+                cmp = -1;
+            } else if (serialType >= 12) {
+                // text and blobs sort after all numbers
+                cmp = 1;
+            } else if (serialType == 7) {
+                cmp = Double.compare(key.real(i), target);
+            } else {
+                final long value = key.integer(i);
+                cmp = (value < target) ? -1 : (value > target) ? 1 : 0;
+            }
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Searches a table b-tree for a rowid.
+     *
+     * @return the record, or null if there is no such row
+     */
+    private Payload findRecord(final int rootPage, final long rowId) {
+        int page = rootPage;
+        for (int depth = 0; ; depth++) {
+            checkDepth(depth);
+            final long pagePos = pagePosition(page);
+            final int header = (page == 1) ? 100 : 0;
+            final int type = u8(pagePos + header);
+            final boolean interior = type == PAGE_INTERIOR_TABLE;
+            if (!interior && type != PAGE_LEAF_TABLE) {
+                return null;
+            }
+            final int cellCount = u16(pagePos + header + 3);
+            final long cellPointers = pagePos + header + (interior ? 12 : 8);
+
+            int lo = 0;
+            int hi = cellCount - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                long pos = pagePos + u16(cellPointers + 2 * mid);
+                if (interior) {
+                    final long key = varint(pos + 4);
+                    if (key < rowId) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid - 1;
+                    }
+                } else {
+                    final long payloadSize = varint(pos);
+                    pos += varintLength(pos);
+                    final long key = varint(pos);
+                    if (key == rowId) {
+                        return payload(pos + varintLength(pos), payloadSize, false);
+                    } else if (key < rowId) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid - 1;
+                    }
+                }
+            }
+            if (!interior) {
+                return null;
+            }
+            page = (lo < cellCount) ? (int) u32(pagePos + u16(cellPointers + 2 * lo))
+                    : (int) u32(pagePos + header + 8);
+        }
+    }
+
+    /**
+     * Locates the local part and the overflow pages of a cell payload.
+     */
+    private Payload payload(final long localPos, final long payloadSize, final boolean index) {
+        // whatever a corrupt cell says, a payload fits in the pages of the file
+        if (payloadSize < 0 || payloadSize > mPageCount * mUsableSize) {
+            throw new IllegalStateException("Payload of " + payloadSize + " bytes");
+        }
+        final int maxLocal = index ? ((mUsableSize - 12) * 64 / 255) - 23 : mUsableSize - 35;
+        if (payloadSize <= maxLocal) {
+            return new Payload(new long[] { localPos }, new int[] { (int) payloadSize });
+        }
+        final int minLocal = ((mUsableSize - 12) * 32 / 255) - 23;
+        int local = (int) (minLocal + ((payloadSize - minLocal) % (mUsableSize - 4)));
+        if (local > maxLocal) {
+            local = minLocal;
+        }
+        final int overflowPages = (int) ((payloadSize - local + mUsableSize - 5) / (mUsableSize - 4));
+        final long[] positions = new long[overflowPages + 1];
+        final int[] lengths = new int[overflowPages + 1];
+        positions[0] = localPos;
+        lengths[0] = local;
+
+        long remaining = payloadSize - local;
+        long next = u32(localPos + local);
+        for (int i = 1; i <= overflowPages && next != 0; i++) {
+            if (next > mPageCount) {
+                throw new IllegalStateException("Overflow page " + next + " of " + mPageCount);
+            }
+            final long pagePos = pagePosition((int) next);
+            positions[i] = pagePos + 4;
+            lengths[i] = (int) Math.min(remaining, mUsableSize - 4);
+            remaining -= lengths[i];
+            next = u32(pagePos);
+        }
+        return new Payload(positions, lengths);
+    }
+
+    private static void checkDepth(final int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalStateException("B-tree deeper than " + MAX_DEPTH + " pages");
+        }
+    }
+
+    private long pagePosition(final int page) {
+        return (long) (page - 1) * mPageSize;
+    }
+
+    private ByteBuffer segment(final long pos) {
+        return mSegments[(int) (pos / SEGMENT_SIZE)];
+    }
+
+    private int u8(final long pos) {
+        return segment(pos).get((int) (pos % SEGMENT_SIZE)) & 0xff;
+    }
+
+    private int u16(final long pos) {
+        return (u8(pos) << 8) | u8(pos + 1);
+    }
+
+    private long u32(final long pos) {
+        return ((long) u16(pos) << 16) | u16(pos + 2);
+    }
+
+    private long varint(final long pos) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            final int b = u8(pos + i);
+            value = (value << 7) | (b & 0x7f);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return (value << 8) | u8(pos + 8);
+    }
+
+    private int varintLength(final long pos) {
+        for (int i = 0; i < 8; i++) {
+            if ((u8(pos + i) & 0x80) == 0) {
+                return i + 1;
+            }
+        }
+        return 9;
+    }
+
+    private static int contentSize(final long serialType) {
+        switch ((int) Math.min(serialType, 12)) {
+            case 1:
+                return 1;
+            case 2:
+                return 2;
+            case 3:
+                return 3;
+            case 4:
+                return 4;
+            case 5:
+                return 6;
+            case 6:
+            case 7:
+                return 8;
+            case 12:
+                return (int) ((serialType - 12) / 2);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * A record payload, scattered over the local part of a cell and its overflow pages.
+     */
+    private final class Payload {
+        private final long[] mPositions;
+        private final int[] mLengths;
+        private long[] mSerialTypes;
+        private int[] mOffsets;
+
+        Payload(final long[] positions, final int[] lengths) {
+            mPositions = positions;
+            mLengths = lengths;
+        }
+
+        private long position(int offset) {
+            for (int i = 0; i < mLengths.length; i++) {
+                if (offset < mLengths[i]) {
+                    return mPositions[i] + offset;
+                }
+                offset -= mLengths[i];
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        private int byteAt(final int offset) {
+            return u8(position(offset));
+        }
+
+        private void parseHeader() {
+            if (mSerialTypes != null) {
+                return;
+            }
+            final long[] types = new long[8];
+            int count = 0;
+            int pos = 0;
+            long headerSize = 0;
+            for (int i = 0; i < 9; i++) {
+                final int b = byteAt(pos++);
+                headerSize = (headerSize << 7) | (b & 0x7f);
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            long[] serialTypes = types;
+            while (pos < headerSize) {
+                long value = 0;
+                for (int i = 0; i < 9; i++) {
+                    final int b = byteAt(pos++);
+                    if (i == 8) {
+                        value = (value << 8) | b;
+                        break;
+                    }
+                    value = (value << 7) | (b & 0x7f);
+                    if ((b & 0x80) == 0) {
+                        break;
+                    }
+                }
+                if (count == serialTypes.length) {
+                    final long[] grown = new long[count * 2];
+                    System.arraycopy(serialTypes, 0, grown, 0, count);
+                    serialTypes = grown;
+                }
+                serialTypes[count++] = value;
+            }
+            final int[] offsets = new int[count];
+            int offset = (int) headerSize;
+            for (int i = 0; i < count; i++) {
+                offsets[i] = offset;
+                offset += contentSize(serialTypes[i]);
+            }
+            mOffsets = offsets;
+            mSerialTypes = serialTypes;
+        }
+
+        int columnCount() {
+            parseHeader();
+            return mOffsets.length;
+        }
+
+        long serialType(final int column) {
+            parseHeader();
+            return (column < mOffsets.length) ? mSerialTypes[column] : 0;
+        }
+
+        int columnOffset(final int column) {
+            parseHeader();
+            return mOffsets[column];
+        }
+
+        long integer(final int column) {
+            final long serialType = serialType(column);
+            if (serialType == 8) {
+                return 0;
+            } else if (serialType == 9) {
+                return 1;
+            } else if (serialType == 7) {
+                return (long) real(column);
+            } else if (serialType < 1 || serialType > 6) {
+                return 0;
+            }
+            final int size = contentSize(serialType);
+            final int offset = columnOffset(column);
+            long value = (byte) byteAt(offset);
+            for (int i = 1; i < size; i++) {
+                value = (value << 8) | byteAt(offset + i);
+            }
+            return value;
+        }
+
+        double real(final int column) {
+            final int offset = columnOffset(column);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | byteAt(offset + i);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String text(final int column) {
+            final long serialType = serialType(column);
+            if (serialType < 13 || (serialType & 1) == 0) {
+                return null;
+            }
+            final int offset = columnOffset(column);
+            final byte[] bytes = new byte[contentSize(serialType)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) byteAt(offset + i);
+            }
+            return new String(bytes, mCharset);
+        }
+
+        InputStream stream(int offset, final int length) {
+            final List<ByteBuffer> slices = new ArrayList<ByteBuffer>(mLengths.length);
+            int remaining = length;
+            for (int i = 0; i < mLengths.length && remaining > 0; i++) {
+                if (offset >= mLengths[i]) {
+                    offset -= mLengths[i];
+                    continue;
+                }
+                final int count = Math.min(remaining, mLengths[i] - offset);
+                final long pos = mPositions[i] + offset;
+                final ByteBuffer slice = segment(pos).duplicate();
+                final int start = (int) (pos % SEGMENT_SIZE);
+                slice.limit(start + count);
+                slice.position(start);
+                slices.add(slice);
+                remaining -= count;
+                offset = 0;
+            }
+            return new ByteBufferInputStream(slices);
+        }
+    }
+
+    /**
+     * Streams a sequence of buffer slices without copying them.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final List<ByteBuffer> mSlices;
+        private int mCurrent = 0;
+
+        ByteBufferInputStream(final List<ByteBuffer> slices) {
+            mSlices = slices;
+        }
+
+        private ByteBuffer current() {
+            while (mCurrent < mSlices.size()) {
+                final ByteBuffer slice = mSlices.get(mCurrent);
+                if (slice.hasRemaining()) {
+                    return slice;
+                }
+                mCurrent++;
+            }
+            return null;
+        }
+
+        @Override
+        public int read() {
+            final ByteBuffer slice = current();
+            return (slice == null) ? -1 : slice.get() & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            final ByteBuffer slice = current();
+            if (slice == null) {
+                return -1;
+            }
+            final int count = Math.min(length, slice.remaining());
+            slice.get(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            int available = 0;
+            for (int i = mCurrent; i < mSlices.size(); i++) {
+                available += mSlices.get(i).remaining();
+            }
+            return available;
+        }
+
+        @Override
+        public long skip(final long n) {
+            long skipped = 0;
+            ByteBuffer slice;
+            while (skipped < n && (slice = current()) != null) {
+                final int count = (int) Math.min(n - skipped, slice.remaining());
+                slice.position(slice.position() + count);
+                skipped += count;
+            }
+            return skipped;
+        }
+    }
+
+    private static final String TAG = "MBTilesMappedFileArchive";
+}
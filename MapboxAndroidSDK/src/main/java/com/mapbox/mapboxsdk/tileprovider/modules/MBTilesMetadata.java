@@ -0,0 +1,184 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import com.mapbox.mapboxsdk.geometry.BoundingBox;
+import com.mapbox.mapboxsdk.geometry.LatLng;
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the metadata table of an MBTiles file, read in a single query.
+ * Snapshots are cached per file path and reused as long as the file hasn't been modified,
+ * so opening an archive that was already seen doesn't touch the metadata table again.
+ */
+public final class MBTilesMetadata implements TileLayerConstants {
+
+    private static final String TAG = "MBTilesMetadata";
+
+    private static final Map<String, MBTilesMetadata> sCache =
+            new HashMap<String, MBTilesMetadata>();
+
+    private final long mLastModified;
+    private final Map<String, String> mValues;
+    private final float mMinZoomLevel;
+    private final float mMaxZoomLevel;
+    private final BoundingBox mBounds;
+    private final LatLng mCenter;
+
+    private MBTilesMetadata(final Map<String, String> values, final long lastModified) {
+        mValues = Collections.unmodifiableMap(values);
+        mLastModified = lastModified;
+        mMinZoomLevel = parseFloat(values.get("minzoom"), MINIMUM_ZOOMLEVEL);
+        mMaxZoomLevel = parseFloat(values.get("maxzoom"), MAXIMUM_ZOOMLEVEL);
+        mBounds = parseBounds(values.get("bounds"));
+        mCenter = parseCenter(values.get("center"));
+    }
+
+    /**
+     * Get the metadata of a database, from the cache if its file hasn't changed since it was
+     * last read.
+     *
+     * @param db an MBTiles database
+     * @return the metadata snapshot
+     */
+    public static MBTilesMetadata fromDatabase(final SQLiteDatabase db) {
+        final String path = db.getPath();
+        final File file = (path != null) ? new File(path) : null;
+        final long lastModified = (file != null && file.isFile()) ? file.lastModified() : 0;
+        if (lastModified != 0) {
+            synchronized (sCache) {
+                final MBTilesMetadata cached = sCache.get(path);
+                if (cached != null && cached.mLastModified == lastModified) {
+                    return cached;
+                }
+            }
+        }
+
+        final MBTilesMetadata metadata = new MBTilesMetadata(readValues(db), lastModified);
+        if (lastModified != 0) {
+            synchronized (sCache) {
+                sCache.put(path, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Wrap metadata values that were read by other means, e.g. through a
+     * {@link MBTilesMappedFileArchive}. These snapshots are not cached.
+     *
+     * @param values the metadata name/value pairs
+     * @return the metadata snapshot
+     */
+    public static MBTilesMetadata fromValues(final Map<String, String> values) {
+        return new MBTilesMetadata(new HashMap<String, String>(values), 0);
+    }
+
+    private static Map<String, String> readValues(final SQLiteDatabase db) {
+        final Map<String, String> values = new HashMap<String, String>();
+        Cursor c = null;
+        try {
+            c = db.rawQuery("SELECT name, " + MBTilesFileArchive.COL_VALUE
+                    + " FROM " + MBTilesFileArchive.TABLE_METADATA, null);
+            while (c.moveToNext()) {
+                values.put(c.getString(0), c.getString(1));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading metadata of " + db.getPath(), e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return values;
+    }
+
+    private static float parseFloat(final String value, final float defaultValue) {
+        if (value != null) {
+            try {
+                return Float.parseFloat(value);
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Invalid zoom level: " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    private static BoundingBox parseBounds(final String value) {
+        if (value != null) {
+            try {
+                String[] boundsArray = value.split(",\\s*");
+                return new BoundingBox(Double.parseDouble(boundsArray[3]),
+                        Double.parseDouble(boundsArray[2]), Double.parseDouble(boundsArray[1]),
+                        Double.parseDouble(boundsArray[0]));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Invalid bounds: " + value);
+            }
+        }
+        return null;
+    }
+
+    private static LatLng parseCenter(final String value) {
+        if (value != null) {
+            try {
+                String[] centerArray = value.split(",\\s*");
+                return new LatLng(Double.parseDouble(centerArray[0]),
+                        Double.parseDouble(centerArray[1]), Double.parseDouble(centerArray[2]));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Invalid center: " + value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get a raw metadata value.
+     *
+     * @param key the metadata name
+     * @return the value, or null if the archive doesn't define it
+     */
+    public String getValue(final String key) {
+        return mValues.get(key);
+    }
+
+    public float getMinZoomLevel() {
+        return mMinZoomLevel;
+    }
+
+    public float getMaxZoomLevel() {
+        return mMaxZoomLevel;
+    }
+
+    public String getName() {
+        return mValues.get("name");
+    }
+
+    public String getType() {
+        return mValues.get("template");
+    }
+
+    public String getVersion() {
+        return mValues.get("version");
+    }
+
+    public String getDescription() {
+        return mValues.get("description");
+    }
+
+    public String getAttribution() {
+        return mValues.get("attribution");
+    }
+
+    public BoundingBox getBounds() {
+        return mBounds;
+    }
+
+    public LatLng getCenter() {
+        return mCenter;
+    }
+}
@@ -10,9 +10,13 @@ import com.mapbox.mapboxsdk.tileprovider.MapTileCache;
 import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
 import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
 import com.mapbox.mapboxsdk.tileprovider.tilesource.TileLayer;
+import com.mapbox.mapboxsdk.util.DebugLog;
 import com.mapbox.mapboxsdk.views.MapView;
 import com.mapbox.mapboxsdk.views.util.TileLoadedListener;
 import com.mapbox.mapboxsdk.views.util.TilesLoadedListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
@@ -50,6 +54,19 @@ public class MapTileDownloader extends MapTileModuleLayerBase {
         return mTileCache.get();
     }
 
+    @Override
+    public byte[] getLocalTileBytes(final MapTile pTile) {
+        final MapTileCache cache = mTileCache.get();
+        if (cache != null) {
+            final byte[] data = cache.getTileBytesFromDisk(pTile);
+            if (data != null) {
+                return data;
+            }
+        }
+        final TileLayer tileLayer = mTileSource.get();
+        return (tileLayer != null) ? tileLayer.getLocalTileBytes(pTile) : null;
+    }
+
     public boolean isNetworkAvailable() {
         return (mNetworkAvailabilityCheck == null
                 || mNetworkAvailabilityCheck.getNetworkAvailable());
@@ -134,6 +151,12 @@ public class MapTileDownloader extends MapTileModuleLayerBase {
         }
     }
 
+    @Override
+    public boolean canServiceTile(final MapTile pTile) {
+        TileLayer tileLayer = mTileSource.get();
+        return (tileLayer == null) || tileLayer.canServiceTile(pTile);
+    }
+
     @Override
     public String getCacheKey() {
         TileLayer tileLayer = mTileSource.get();
@@ -142,19 +165,53 @@ public class MapTileDownloader extends MapTileModuleLayerBase {
 
     protected class TileLoader extends MapTileModuleLayerBase.TileLoader {
 
+        /**
+         * Drawables resolved for the current batch, or null when tiles are loaded one by one.
+         */
+        private Map<MapTile, Drawable> mBatchResults;
+
+        @Override
+        protected int getMaximumBatchSize() {
+            TileLayer tileLayer = mTileSource.get();
+            return (tileLayer != null) ? tileLayer.getTileBatchSize() : 1;
+        }
+
+        @Override
+        protected void loadTiles(final List<MapTileRequestState> aStates) {
+            mBatchResults = null;
+            TileLayer tileLayer = mTileSource.get();
+            if (tileLayer == null) {
+                return;
+            }
+            final List<MapTile> tiles = new ArrayList<MapTile>(aStates.size());
+            for (final MapTileRequestState state : aStates) {
+                tiles.add(state.getMapTile());
+            }
+            mBatchResults = tileLayer.getDrawablesFromTiles(MapTileDownloader.this, tiles, hdpi);
+        }
+
         @Override
         public Drawable loadTile(final MapTileRequestState aState) throws CantContinueException {
             final MapTile tile = aState.getMapTile();
-            Log.d(TAG, "loadTile() with tile = '" + tile + "'");
-            if (mTileCache != null && mTileCache.get().containsTileInDiskCache(tile)) {
-                Log.d(TAG, "tile found in Disk Cache, so returning it. tile = '" + tile + "'");
-                return mTileCache.get().getMapTileFromDisk(tile);
+            DebugLog.d(TAG, "loadTile() with tile = ", tile);
+            if (mBatchResults != null) {
+                // the batch lookup already covered this tile, a miss means the layer doesn't have it
+                return mBatchResults.remove(tile);
             }
             TileLayer tileLayer = mTileSource.get();
+            if (mTileCache != null && mTileCache.get().containsTileInDiskCache(tile)) {
+                DebugLog.d(TAG, "tile found in Disk Cache, so returning it. tile = ", tile);
+                final CacheableBitmapDrawable cached = mTileCache.get().getMapTileFromDisk(tile);
+                if (cached != null && tileLayer != null && isNetworkAvailable()
+                        && mTileCache.get().isTileStale(tile)) {
+                    return tileLayer.revalidateTile(MapTileDownloader.this, tile, cached, hdpi);
+                }
+                return cached;
+            }
             Drawable result =
                     (tileLayer != null) ? tileLayer.getDrawableFromTile(MapTileDownloader.this,
                             tile, hdpi) : null;
-            Log.d(TAG, "tileLayer.getDrawable() returning result = '" + result + "'");
+            DebugLog.d(TAG, "tileLayer.getDrawable() returning result = ", result);
             return result;
         }
     }
@@ -7,15 +7,24 @@ import com.mapbox.mapboxsdk.geometry.BoundingBox;
 import com.mapbox.mapboxsdk.geometry.LatLng;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
 import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
+import com.mapbox.mapboxsdk.tileprovider.TileViewport;
 import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import com.mapbox.mapboxsdk.tileprovider.metrics.TileMetrics;
+import com.mapbox.mapboxsdk.tileprovider.metrics.TileMetricsRegistry;
 import com.mapbox.mapboxsdk.tileprovider.tilesource.ITileLayer;
 import com.mapbox.mapboxsdk.util.BitmapUtils;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
 /**
@@ -109,19 +118,68 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
 
     public abstract ITileLayer getTileSource();
 
+    /**
+     * Checks whether this provider may be able to provide a tile. This must be cheap enough to
+     * be called on the UI thread, as it is used to reject requests without queueing them.
+     *
+     * @param pTile the tile in question
+     * @return false if this provider definitely can't provide the tile
+     */
+    public boolean canServiceTile(final MapTile pTile) {
+        return true;
+    }
+
     public abstract String getCacheKey();
 
     private final ExecutorService mExecutor;
+    private final int mPendingQueueSize;
 
     protected final Object mQueueLockObject = new Object();
     protected final HashMap<MapTile, MapTileRequestState> mWorking;
-    protected final LinkedHashMap<MapTile, MapTileRequestState> mPending;
+    protected final MapTileRequestQueue mPending;
 
-    public MapTileRequestState popFirstPending() {
-        for (MapTile tile : mPending.keySet()) {
-            return mPending.remove(tile);
+    private final AtomicLong mUsefulLoads = new AtomicLong();
+    private final AtomicLong mWastedLoads = new AtomicLong();
+    private final AtomicLong mCancelledRequests = new AtomicLong();
+
+    private final AtomicLong mFetchCount = new AtomicLong();
+    private final AtomicLong mFetchTimeNs = new AtomicLong();
+    private final AtomicInteger mDecodeQueueDepth = new AtomicInteger();
+    private final AtomicLong mDecodeCount = new AtomicLong();
+    private final AtomicLong mDecodeTimeNs = new AtomicLong();
+
+    /**
+     * The loader of this provider running on the current thread, if any.
+     */
+    private final ThreadLocal<TileLoader> mRunningLoader = new ThreadLocal<TileLoader>();
+
+    /**
+     * Set on the threads running a tile loader, of any provider.
+     */
+    private static final ThreadLocal<Boolean> sTileLoaderThread = new ThreadLocal<Boolean>();
+
+    /**
+     * Checks whether the calling thread is running a tile loader, as opposed to e.g. a decode
+     * or warming thread.
+     */
+    public static boolean isTileLoaderThread() {
+        return sTileLoaderThread.get() != null;
+    }
+
+    static void setTileLoaderThread(final boolean pTileLoaderThread) {
+        if (pTileLoaderThread) {
+            sTileLoaderThread.set(Boolean.TRUE);
+        } else {
+            sTileLoaderThread.remove();
         }
-        return null;
+    }
+
+    /**
+     * Takes the pending request that should be served next, without cancelling requests for
+     * tiles that have left the viewport.
+     */
+    public MapTileRequestState popFirstPending() {
+        return mPending.poll(null);
     }
 
     /**
@@ -139,43 +197,238 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
                 new ConfigurablePriorityThreadFactory(Thread.NORM_PRIORITY, getThreadGroupName()));
 
         mWorking = new HashMap<MapTile, MapTileRequestState>();
-        mPending =
-                new LinkedHashMap<MapTile, MapTileRequestState>(pPendingQueueSize + 2, 0.1f, true) {
+        mPending = new MapTileRequestQueue();
+        mPendingQueueSize = pPendingQueueSize;
+    }
 
-                    private static final long serialVersionUID = 6455337315681858866L;
+    /**
+     * Set the range of tiles currently drawn, which decides the order pending requests are
+     * served in, and which of them are cancelled.
+     *
+     * @param pViewport the viewport, or null to serve requests in the order they are queued
+     */
+    public void setViewport(final TileViewport pViewport) {
+        synchronized (mQueueLockObject) {
+            mPending.setViewport(pViewport);
+            if (pViewport == null) {
+                return;
+            }
+            // tiles being loaded are cancelled too, loaders stop working on them when they can
+            for (final MapTileRequestState state : mWorking.values()) {
+                if (!state.isPrefetch() && !pViewport.contains(state.getMapTile())) {
+                    state.cancel();
+                }
+            }
+        }
+    }
 
-                    @Override
-                    protected boolean removeEldestEntry(
-                            final Map.Entry<MapTile, MapTileRequestState> pEldest) {
-                        while (size() > pPendingQueueSize) {
-                            MapTileRequestState state = popFirstPending();
-                            state.getCallback().mapTileRequestFailed(state);
+    /**
+     * Checks whether the request being worked on for a tile was cancelled because the tile left
+     * the viewport, in which case there is no point in starting any more work on it.
+     *
+     * @param pTile the tile in question
+     * @return true if the request was cancelled
+     */
+    public boolean isTileCancelled(final MapTile pTile) {
+        final MapTileRequestState state;
+        synchronized (mQueueLockObject) {
+            state = mWorking.get(pTile);
+        }
+        return state != null && state.isCancelled();
+    }
+
+    /**
+     * Wrap the stream a tile is read from, so that reading it fails with an
+     * {@link InterruptedIOException} once the request for the tile is cancelled. This stops
+     * downloads of tiles that left the viewport, instead of reading and decoding them in full.
+     *
+     * @param pTile the tile being read
+     * @param pStream the stream of the tile
+     * @return the wrapped stream, or the stream itself if no request is worked on for the tile
+     */
+    public InputStream getCancellableStream(final MapTile pTile, final InputStream pStream) {
+        final MapTileRequestState state;
+        synchronized (mQueueLockObject) {
+            state = mWorking.get(pTile);
+        }
+        if (state == null || pStream == null) {
+            return pStream;
+        }
+        return new FilterInputStream(pStream) {
+            @Override
+            public int read() throws IOException {
+                checkCancelled();
+                return super.read();
+            }
+
+            @Override
+            public int read(final byte[] buffer, final int offset, final int count)
+                    throws IOException {
+                checkCancelled();
+                return super.read(buffer, offset, count);
+            }
+
+            private void checkCancelled() throws InterruptedIOException {
+                if (state.isCancelled()) {
+                    throw new InterruptedIOException("Tile request cancelled: " + pTile);
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the number of tiles loaded while they were still wanted.
+     */
+    public long getUsefulLoadCount() {
+        return mUsefulLoads.get();
+    }
+
+    /**
+     * Get the number of tiles that were loaded, or started loading, after they had left the
+     * viewport.
+     */
+    public long getWastedLoadCount() {
+        return mWastedLoads.get();
+    }
+
+    /**
+     * Get the number of requests cancelled before any work was done on them.
+     */
+    public long getCancelledRequestCount() {
+        return mCancelledRequests.get();
+    }
+
+    /**
+     * Get the number of requests waiting for a loader thread to fetch them.
+     */
+    public int getFetchQueueDepth() {
+        synchronized (mQueueLockObject) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * Get the average time loader threads spent on a tile, in milliseconds, which for tiles
+     * decoded by the decode stage is the time spent fetching them.
+     */
+    public double getAverageFetchLatencyMs() {
+        final long count = mFetchCount.get();
+        return (count > 0) ? mFetchTimeNs.get() / 1e6 / count : 0;
+    }
+
+    /**
+     * Get the number of fetched tiles waiting to be decoded.
+     */
+    public int getDecodeQueueDepth() {
+        return mDecodeQueueDepth.get();
+    }
+
+    /**
+     * Get the average time from handing a tile to the decode stage to its completion, in
+     * milliseconds, waiting included.
+     */
+    public double getAverageDecodeLatencyMs() {
+        final long count = mDecodeCount.get();
+        return (count > 0) ? mDecodeTimeNs.get() / 1e6 / count : 0;
+    }
+
+    /**
+     * Decodes of fetched tiles, run by the decode stage.
+     */
+    public interface TileDecoder {
+        /**
+         * Decode the fetched tile and cache it.
+         *
+         * @return the tile, or null if it couldn't be decoded
+         */
+        Drawable decode();
+    }
+
+    /**
+     * Hand the decoding of a fetched tile to the decode stage, so that the loader thread can go
+     * on with fetching the next tile. It is meant to be called while the tile is loaded by
+     * {@link TileLoader#loadTile(MapTileRequestState)}, which then returns null and leaves the
+     * completion of the request to the decode stage. If the decode stage is full, this waits
+     * for a slot.
+     *
+     * @param pTile the tile being loaded
+     * @param pDecoder the decode of the tile
+     * @return false if the tile isn't being loaded by this thread, in which case the caller
+     * decodes it itself
+     */
+    public boolean decodeLater(final MapTile pTile, final TileDecoder pDecoder) {
+        final TileLoader tileLoader = mRunningLoader.get();
+        final MapTileRequestState state = (tileLoader != null) ? tileLoader.mLoadingState : null;
+        if (state == null || !state.getMapTile().equals(pTile)
+                || tileLoader.mDeferredState != null) {
+            return false;
+        }
+        final long queuedAt = System.nanoTime();
+        mDecodeQueueDepth.incrementAndGet();
+        try {
+            TileDecodeStage.getInstance().submit(new Runnable() {
+                @Override
+                public void run() {
+                    mDecodeQueueDepth.decrementAndGet();
+                    Drawable result = null;
+                    // no point in decoding a tile that left the viewport
+                    if (!state.isCancelled()) {
+                        try {
+                            result = pDecoder.decode();
+                        } catch (final Throwable e) {
+                            Log.e(TAG, "Error decoding tile: " + pTile, e);
                         }
-                        return false;
                     }
-                };
+                    mDecodeTimeNs.addAndGet(System.nanoTime() - queuedAt);
+                    mDecodeCount.incrementAndGet();
+                    tileLoader.completeTile(state, result);
+                }
+            });
+        } catch (final InterruptedException e) {
+            mDecodeQueueDepth.decrementAndGet();
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (final RejectedExecutionException e) {
+            mDecodeQueueDepth.decrementAndGet();
+            Log.w(TAG, "RejectedExecutionException", e);
+            return false;
+        }
+        tileLoader.mDeferredState = state;
+        return true;
+    }
+
+    /**
+     * Checks whether the current loader thread handed the decoding of a tile to the decode
+     * stage, in which case it must not deliver any other result for it.
+     */
+    public boolean isDecodeDeferred(final MapTile pTile) {
+        final TileLoader tileLoader = mRunningLoader.get();
+        final MapTileRequestState state = (tileLoader != null) ? tileLoader.mDeferredState : null;
+        return state != null && state.getMapTile().equals(pTile);
     }
 
     /**
      * Loads a map tile asynchronously, adding it to the queue and calling getTileLoader.
      */
     public void loadMapTileAsync(final MapTileRequestState pState) {
+        List<MapTileRequestState> cancelled = null;
+        pState.setQueuedAt(System.nanoTime());
         synchronized (mQueueLockObject) {
-                Log.d(TAG, "MapTileModuleLayerBase.loadMaptileAsync() on provider: "
-                        + getName()
-                        + " for tile: "
-                        + pState.getMapTile());
-                if (mPending.containsKey(pState.getMapTile())) {
-                    Log.d(TAG,
-                            "MapTileModuleLayerBase.loadMaptileAsync() tile already exists in request queue for modular provider. Moving to front of queue.");
-                } else {
-                    Log.d(TAG,
-                            "MapTileModuleLayerBase.loadMaptileAsync() adding tile to request queue for modular provider.");
-                }
-            // this will put the tile in the queue, or move it to the front of
-            // the queue if it's already present
-            mPending.put(pState.getMapTile(), pState);
+            // this will put the tile in the queue, or bring it forward among the tiles of
+            // the same priority if it's already present
+            mPending.put(pState);
+            if (mPending.size() > mPendingQueueSize) {
+                cancelled = new ArrayList<MapTileRequestState>();
+                mPending.trimTo(mPendingQueueSize, cancelled);
+            }
+        }
+        if (DEBUG_TILE_PROVIDERS) {
+            Log.d(TAG, "MapTileModuleLayerBase.loadMaptileAsync() on provider: "
+                    + getName()
+                    + " for tile: "
+                    + pState.getMapTile());
         }
+        tilesCancelled(cancelled);
 
         try {
             mExecutor.execute(getTileLoader());
@@ -184,6 +437,48 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
         }
     }
 
+    /**
+     * Get a tile as it is encoded, if this provider can read it without going to the network,
+     * e.g. from the disk cache or a local archive. Called from background threads.
+     *
+     * @return the encoded tile, or null if there is no local copy of it
+     */
+    public byte[] getLocalTileBytes(final MapTile pTile) {
+        return null;
+    }
+
+    /**
+     * Recompute the priority of a request that is still pending, e.g. after a prefetched tile
+     * came into view. Requests already being loaded are left alone.
+     */
+    public void reprioritize(final MapTileRequestState pState) {
+        synchronized (mQueueLockObject) {
+            if (mPending.containsKey(pState.getMapTile())) {
+                mPending.put(pState);
+            }
+        }
+    }
+
+    /**
+     * Tells the owners of requests dropped from the pending queue, outside of the queue lock.
+     */
+    private void tilesCancelled(final List<MapTileRequestState> pCancelled) {
+        if (pCancelled == null) {
+            return;
+        }
+        mCancelledRequests.addAndGet(pCancelled.size());
+        TileMetricsRegistry.getMetrics().onRequestsDropped(pCancelled.size());
+        for (final MapTileRequestState state : pCancelled) {
+            if (DEBUG_TILE_PROVIDERS) {
+                Log.d(TAG, "MapTileModuleLayerBase cancelled tile on provider: "
+                        + getName()
+                        + " for tile: "
+                        + state.getMapTile());
+            }
+            state.notifyCancelled();
+        }
+    }
+
     /**
      * Clears both pending and working queues.
      */
@@ -225,6 +520,13 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
      * as they become available. The key unimplemented method is 'loadTile'.
      */
     protected abstract class TileLoader implements Runnable {
+        /**
+         * The request this loader is loading, and the one whose decode it handed to the decode
+         * stage, so that it leaves its completion to the decode stage.
+         */
+        private MapTileRequestState mLoadingState;
+        private MapTileRequestState mDeferredState;
+
         /**
          * Load the requested tile.
          *
@@ -244,23 +546,76 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
         }
 
         protected MapTileRequestState nextTile() {
-
+            final List<MapTileRequestState> cancelled = new ArrayList<MapTileRequestState>();
+            final MapTileRequestState state;
             synchronized (mQueueLockObject) {
-                // get the most recently accessed tile
-                // - the last item in the iterator that's not already being
-                // processed
-                MapTileRequestState state = popFirstPending();
+                // get the pending tile with the highest priority, cancelling the ones that
+                // have left the viewport on the way
+                state = mPending.poll(cancelled);
                 if (state != null) {
                     mWorking.put(state.getMapTile(), state);
-                    if (DEBUG_TILE_PROVIDERS) {
-                        Log.d(TAG, "TileLoader.nextTile() on provider: "
-                                + getName()
-                                + " adding tile to working queue: "
-                                + state.getMapTile());
-                    }
                 }
-                return state;
             }
+            if (DEBUG_TILE_PROVIDERS && state != null) {
+                Log.d(TAG, "TileLoader.nextTile() on provider: "
+                        + getName()
+                        + " adding tile to working queue: "
+                        + state.getMapTile());
+            }
+            tilesCancelled(cancelled);
+            if (state != null) {
+                TileMetricsRegistry.getMetrics().onQueueWait(
+                        System.nanoTime() - state.getQueuedAt());
+            }
+            return state;
+        }
+
+        /**
+         * Moves up to pMaximum pending tiles to the working queue under a single lock, highest
+         * priority first. Tiles that have left the viewport are cancelled on the way.
+         *
+         * @return the tiles to load, empty when the pending queue has been drained
+         */
+        protected List<MapTileRequestState> nextTiles(final int pMaximum) {
+            final List<MapTileRequestState> states = new ArrayList<MapTileRequestState>(pMaximum);
+            final List<MapTileRequestState> cancelled = new ArrayList<MapTileRequestState>();
+            synchronized (mQueueLockObject) {
+                MapTileRequestState state;
+                while (states.size() < pMaximum && (state = mPending.poll(cancelled)) != null) {
+                    mWorking.put(state.getMapTile(), state);
+                    states.add(state);
+                }
+            }
+            tilesCancelled(cancelled);
+            final TileMetrics metrics = TileMetricsRegistry.getMetrics();
+            final long now = System.nanoTime();
+            for (int i = 0; i < states.size(); i++) {
+                metrics.onQueueWait(now - states.get(i).getQueuedAt());
+            }
+            return states;
+        }
+
+        /**
+         * Get the number of pending tiles this loader drains at once. Loaders that can resolve
+         * several tiles with a single lookup should return more than 1 and override
+         * {@link #loadTiles(List)}.
+         *
+         * @return the batch size
+         */
+        protected int getMaximumBatchSize() {
+            return 1;
+        }
+
+        /**
+         * Called with every batch drained from the pending queue before its tiles are handed
+         * one by one to {@link #loadTile(MapTileRequestState)}, so that implementations can
+         * resolve the whole batch at once.
+         *
+         * @throws CantContinueException
+         */
+        protected void loadTiles(final List<MapTileRequestState> pStates)
+                throws CantContinueException {
+            // Do nothing by default
         }
 
         /**
@@ -287,6 +642,20 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
             pState.getCallback().mapTileRequestExpiredTile(pState, pDrawable);
         }
 
+        /**
+         * A tile was cancelled because it left the viewport, it wasn't loaded.
+         */
+        protected void tileLoadedCancelled(final MapTileRequestState pState) {
+            if (DEBUG_TILE_PROVIDERS) {
+                Log.d(TAG, "TileLoader.tileLoadedCancelled() on provider: "
+                        + getName()
+                        + " with tile: "
+                        + pState.getMapTile());
+            }
+            removeTileFromQueues(pState.getMapTile());
+            pState.notifyCancelled();
+        }
+
         protected void tileLoadedFailed(final MapTileRequestState pState) {
             if (DEBUG_TILE_PROVIDERS) {
                 Log.i(TAG, "TileLoader.tileLoadedFailed() on provider: "
@@ -306,32 +675,82 @@ public abstract class MapTileModuleLayerBase implements TileLayerConstants {
             // Make sure we're running with a background priority
             android.os.Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
+            setTileLoaderThread(true);
+            mRunningLoader.set(this);
+            try {
+                loadPendingTiles();
+            } finally {
+                mRunningLoader.remove();
+                setTileLoaderThread(false);
+            }
+        }
+
+        private void loadPendingTiles() {
             onTileLoaderInit();
 
-            MapTileRequestState state;
+            List<MapTileRequestState> states;
             Drawable result = null;
-            while ((state = nextTile()) != null) {
+            while (!(states = nextTiles(Math.max(1, getMaximumBatchSize()))).isEmpty()) {
                 try {
-                    result = null;
-                    result = loadTile(state);
+                    loadTiles(states);
                 } catch (final CantContinueException e) {
-                    Log.e(TAG, "Tile loader can't continue: " + state.getMapTile(), e);
+                    Log.e(TAG, "Tile loader can't continue", e);
                     clearQueue();
                 } catch (final Throwable e) {
-                    Log.e(TAG, "Error downloading tile: " + state.getMapTile(), e);
+                    Log.e(TAG, "Error loading tile batch", e);
                 }
-
-                if (result == null) {
-                    tileLoadedFailed(state);
-                } else if (BitmapUtils.isCacheDrawableExpired(result)) {
-                    tileLoadedExpired(state, (CacheableBitmapDrawable) result);
-                } else {
-                    tileLoaded(state, result);
+                for (final MapTileRequestState state : states) {
+                    if (state.isCancelled()) {
+                        // left the viewport before its turn came
+                        mCancelledRequests.incrementAndGet();
+                        TileMetricsRegistry.getMetrics().onRequestsDropped(1);
+                        tileLoadedCancelled(state);
+                        continue;
+                    }
+                    final long start = System.nanoTime();
+                    mLoadingState = state;
+                    try {
+                        result = null;
+                        result = loadTile(state);
+                    } catch (final CantContinueException e) {
+                        Log.e(TAG, "Tile loader can't continue: " + state.getMapTile(), e);
+                        clearQueue();
+                    } catch (final Throwable e) {
+                        Log.e(TAG, "Error downloading tile: " + state.getMapTile(), e);
+                    }
+                    mLoadingState = null;
+                    mFetchTimeNs.addAndGet(System.nanoTime() - start);
+                    mFetchCount.incrementAndGet();
+
+                    if (mDeferredState != null) {
+                        // the decode stage completes it
+                        mDeferredState = null;
+                        continue;
+                    }
+                    completeTile(state, result);
                 }
             }
 
             onTileLoaderShutdown();
         }
+
+        private void completeTile(final MapTileRequestState state, final Drawable result) {
+            if (state.isCancelled()) {
+                mWastedLoads.incrementAndGet();
+            } else if (result != null) {
+                mUsefulLoads.incrementAndGet();
+            }
+
+            if (result == null && state.isCancelled()) {
+                tileLoadedCancelled(state);
+            } else if (result == null) {
+                tileLoadedFailed(state);
+            } else if (BitmapUtils.isCacheDrawableExpired(result)) {
+                tileLoadedExpired(state, (CacheableBitmapDrawable) result);
+            } else {
+                tileLoaded(state, result);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,177 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
+import com.mapbox.mapboxsdk.tileprovider.TileViewport;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The pending tile requests of a provider, served in the order given by the current
+ * {@link TileViewport}: visible tiles of the current zoom level first, closest to the center
+ * first, then parent tiles, then prefetched tiles. Requests for tiles that have left the
+ * viewport are cancelled instead of being served.
+ *
+ * Priorities are computed when a request is queued and recomputed all at once when the viewport
+ * changes, so that taking the next request doesn't depend on the size of the queue.
+ *
+ * This class is not thread-safe, callers synchronize on their own lock.
+ */
+public final class MapTileRequestQueue {
+
+    private final HashMap<MapTile, Entry> mEntries = new HashMap<MapTile, Entry>();
+    private final PriorityQueue<Entry> mQueue = new PriorityQueue<Entry>();
+    private TileViewport mViewport;
+    private boolean mViewportChanged = false;
+    private long mSequence = 0;
+
+    /**
+     * Queue a request, replacing any request queued for the same tile. A request queued again
+     * is served before others of the same priority.
+     */
+    public void put(final MapTileRequestState pState) {
+        final Entry previous = mEntries.remove(pState.getMapTile());
+        if (previous != null) {
+            mQueue.remove(previous);
+        }
+        final Entry entry = new Entry(pState, mSequence++);
+        entry.mPriority = getPriority(pState);
+        mEntries.put(pState.getMapTile(), entry);
+        mQueue.add(entry);
+    }
+
+    public boolean containsKey(final MapTile pTile) {
+        return mEntries.containsKey(pTile);
+    }
+
+    public MapTileRequestState remove(final MapTile pTile) {
+        final Entry entry = mEntries.remove(pTile);
+        if (entry == null) {
+            return null;
+        }
+        mQueue.remove(entry);
+        return entry.mState;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    public void clear() {
+        mEntries.clear();
+        mQueue.clear();
+    }
+
+    /**
+     * Set the viewport requests are prioritized and cancelled against.
+     *
+     * @param pViewport the viewport, or null to serve requests in the order they are queued
+     */
+    public void setViewport(final TileViewport pViewport) {
+        if (pViewport != mViewport) {
+            mViewport = pViewport;
+            mViewportChanged = true;
+        }
+    }
+
+    /**
+     * Take the request that should be served next.
+     *
+     * @param pCancelled if not null, requests for tiles that have left the viewport are taken
+     * out of the queue and added to this list instead of being returned
+     * @return the request, or null if there is none left
+     */
+    public MapTileRequestState poll(final List<MapTileRequestState> pCancelled) {
+        reprioritize();
+        Entry entry;
+        while ((entry = mQueue.poll()) != null) {
+            mEntries.remove(entry.mState.getMapTile());
+            if (pCancelled == null || isWanted(entry.mState)) {
+                return entry.mState;
+            }
+            pCancelled.add(entry.mState);
+        }
+        return null;
+    }
+
+    /**
+     * Take requests out of the queue until it holds at most pMaximum, dropping requests for
+     * tiles that have left the viewport first, then the requests that would be served last.
+     *
+     * @param pCancelled the list the dropped requests are added to
+     */
+    public void trimTo(final int pMaximum, final List<MapTileRequestState> pCancelled) {
+        if (mEntries.size() <= pMaximum) {
+            return;
+        }
+        reprioritize();
+        final List<Entry> entries = new ArrayList<Entry>(mQueue);
+        for (final Entry entry : entries) {
+            if (mEntries.size() <= pMaximum) {
+                return;
+            }
+            if (!isWanted(entry.mState)) {
+                remove(entry.mState.getMapTile());
+                pCancelled.add(entry.mState);
+            }
+        }
+        while (mEntries.size() > pMaximum) {
+            Entry last = null;
+            for (final Entry entry : mQueue) {
+                if (last == null || entry.compareTo(last) > 0) {
+                    last = entry;
+                }
+            }
+            remove(last.mState.getMapTile());
+            pCancelled.add(last.mState);
+        }
+    }
+
+    private boolean isWanted(final MapTileRequestState pState) {
+        return mViewport == null || pState.isPrefetch() || mViewport.contains(pState.getMapTile());
+    }
+
+    private long getPriority(final MapTileRequestState pState) {
+        return (mViewport != null) ? mViewport.getPriority(pState.getMapTile(), pState.isPrefetch())
+                : 0;
+    }
+
+    private void reprioritize() {
+        if (!mViewportChanged) {
+            return;
+        }
+        mViewportChanged = false;
+        final List<Entry> entries = new ArrayList<Entry>(mQueue);
+        mQueue.clear();
+        for (final Entry entry : entries) {
+            entry.mPriority = getPriority(entry.mState);
+            mQueue.add(entry);
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final MapTileRequestState mState;
+        final long mSequence;
+        long mPriority;
+
+        Entry(final MapTileRequestState pState, final long pSequence) {
+            mState = pState;
+            mSequence = pSequence;
+        }
+
+        @Override
+        public int compareTo(final Entry other) {
+            if (mPriority != other.mPriority) {
+                return (mPriority < other.mPriority) ? -1 : 1;
+            }
+            // most recently requested first
+            return (mSequence > other.mSequence) ? -1 : ((mSequence == other.mSequence) ? 0 : 1);
+        }
+    }
+}
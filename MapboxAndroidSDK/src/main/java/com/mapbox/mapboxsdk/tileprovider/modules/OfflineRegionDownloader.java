@@ -0,0 +1,493 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.graphics.Point;
+import android.graphics.PointF;
+import android.os.SystemClock;
+import android.util.Log;
+import com.mapbox.mapboxsdk.geometry.BoundingBox;
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import com.mapbox.mapboxsdk.tileprovider.tilesource.WebSourceTileLayer;
+import com.mapbox.mapboxsdk.tileprovider.util.StreamUtils;
+import com.mapbox.mapboxsdk.util.GeometryMath;
+import com.mapbox.mapboxsdk.util.NetworkUtils;
+import com.mapbox.mapboxsdk.views.util.Projection;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads every tile of a web tile layer within a region and a range of zoom levels into an
+ * MBTiles file, for use offline. Tiles are fetched with a bounded number of requests in flight
+ * and stored as served, without being decoded.
+ *
+ * Tiles are enumerated in a fixed order, zoom level by zoom level and row by row, so that the
+ * progress of a job comes down to a single index. That checkpoint is saved in the metadata of
+ * the MBTiles file along with the tiles, and a job started again on the same file picks up from
+ * there. Tiles the file already holds are never downloaded again.
+ */
+public class OfflineRegionDownloader implements TileLayerConstants {
+
+    /**
+     * The metadata value holding the index of the first tile not downloaded yet.
+     */
+    public static final String METADATA_CHECKPOINT = "offline_checkpoint";
+
+    /**
+     * How many finished tiles go by between two checkpoints.
+     */
+    private static final int CHECKPOINT_INTERVAL = MBTilesFileWriter.DEFAULT_BATCH_SIZE;
+
+    /**
+     * The largest error body read through to keep its connection alive.
+     */
+    private static final int MAXIMUM_DISCARDED_BYTES = 64 * 1024;
+
+    /**
+     * Receives the progress of a download. Methods are called from the download threads.
+     */
+    public interface Listener {
+        /**
+         * Called whenever a tile is finished, whether it was stored or not.
+         */
+        void onProgress(OfflineRegionDownloader downloader);
+
+        /**
+         * Called once the job is over, because all tiles were handled or it was cancelled.
+         */
+        void onFinished(OfflineRegionDownloader downloader, boolean cancelled);
+    }
+
+    private final WebSourceTileLayer mTileLayer;
+    private final BoundingBox mBoundingBox;
+    private final int mMinZoomLevel;
+    private final int mMaxZoomLevel;
+    private final MBTilesFileWriter mStore;
+
+    /**
+     * The tile range of every zoom level, in XYZ scheme. Columns past the last one of the world
+     * belong to regions crossing the antimeridian, and wrap around to column 0.
+     */
+    private final int[] mMinX;
+    private final int[] mMaxX;
+    private final int[] mMinY;
+    private final int[] mMaxY;
+    private final long mTotalTiles;
+
+    private int mMaximumConcurrentRequests = NUMBER_OF_TILE_DOWNLOAD_THREADS;
+    private boolean mHdpi = false;
+    private Listener mListener;
+
+    private volatile boolean mCancelled = false;
+    private Thread mThread;
+    private volatile long mStartIndex;
+    private volatile long mStartTime;
+
+    private final AtomicLong mCompletedTiles = new AtomicLong();
+    private final AtomicLong mFailedTiles = new AtomicLong();
+    private final AtomicLong mDownloadedTiles = new AtomicLong();
+    private final AtomicLong mDownloadedBytes = new AtomicLong();
+
+    /**
+     * Indexes of the tiles in flight or failed, which the checkpoint can't move past.
+     */
+    private final TreeSet<Long> mUnfinished = new TreeSet<Long>();
+    private long mNextIndex;
+    private long mLastCheckpoint;
+
+    /**
+     * Set up a download. Nothing happens until {@link #start()} is called.
+     *
+     * @param pTileLayer the layer to download tiles from
+     * @param pBoundingBox the region to download
+     * @param pMinZoomLevel the lowest zoom level to download
+     * @param pMaxZoomLevel the highest zoom level to download
+     * @param pStore the MBTiles file to store tiles in. It is flushed, but not closed, when the
+     * job is over.
+     */
+    public OfflineRegionDownloader(final WebSourceTileLayer pTileLayer,
+            final BoundingBox pBoundingBox, final int pMinZoomLevel, final int pMaxZoomLevel,
+            final MBTilesFileWriter pStore) {
+        if (pMinZoomLevel < MINIMUM_ZOOMLEVEL || pMaxZoomLevel > MAXIMUM_ZOOMLEVEL
+                || pMinZoomLevel > pMaxZoomLevel) {
+            throw new IllegalArgumentException(
+                    "Invalid zoom range: " + pMinZoomLevel + " to " + pMaxZoomLevel);
+        }
+        mTileLayer = pTileLayer;
+        mBoundingBox = pBoundingBox;
+        mMinZoomLevel = pMinZoomLevel;
+        mMaxZoomLevel = pMaxZoomLevel;
+        mStore = pStore;
+
+        final int zooms = pMaxZoomLevel - pMinZoomLevel + 1;
+        mMinX = new int[zooms];
+        mMaxX = new int[zooms];
+        mMinY = new int[zooms];
+        mMaxY = new int[zooms];
+        final PointF pixel = new PointF();
+        final Point tile = new Point();
+        final boolean crossesAntimeridian = pBoundingBox.getLonWest() > pBoundingBox.getLonEast();
+        long total = 0;
+        for (int i = 0; i < zooms; i++) {
+            final int z = pMinZoomLevel + i;
+            Projection.latLongToPixelXY(pBoundingBox.getLatNorth(), pBoundingBox.getLonWest(), z,
+                    pixel);
+            Projection.pixelXYToTileXY((int) pixel.x, (int) pixel.y, tile);
+            mMinX[i] = tile.x;
+            mMinY[i] = tile.y;
+            Projection.latLongToPixelXY(pBoundingBox.getLatSouth(), pBoundingBox.getLonEast(), z,
+                    pixel);
+            Projection.pixelXYToTileXY((int) pixel.x, (int) pixel.y, tile);
+            mMaxX[i] = tile.x;
+            mMaxY[i] = tile.y;
+            if (crossesAntimeridian) {
+                // columns run from the west edge past the antimeridian to the east edge, and are
+                // wrapped back into the world when the tiles are enumerated
+                final int worldTiles = 1 << z;
+                mMaxX[i] = Math.min(mMaxX[i] + worldTiles, mMinX[i] + worldTiles - 1);
+            }
+            total += (long) (mMaxX[i] - mMinX[i] + 1) * (mMaxY[i] - mMinY[i] + 1);
+        }
+        mTotalTiles = total;
+    }
+
+    /**
+     * Set how many tiles are downloaded at the same time.
+     *
+     * @return this downloader
+     */
+    public OfflineRegionDownloader setMaximumConcurrentRequests(final int pMaximum) {
+        mMaximumConcurrentRequests = Math.max(1, pMaximum);
+        return this;
+    }
+
+    /**
+     * Set whether to download tiles at 2x, or retina, size.
+     *
+     * @return this downloader
+     */
+    public OfflineRegionDownloader setHdpi(final boolean pHdpi) {
+        mHdpi = pHdpi;
+        return this;
+    }
+
+    /**
+     * @return this downloader
+     */
+    public OfflineRegionDownloader setListener(final Listener pListener) {
+        mListener = pListener;
+        return this;
+    }
+
+    /**
+     * Start downloading on a background thread, resuming from the checkpoint saved in the
+     * store if there is one.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            throw new IllegalStateException("The download was already started");
+        }
+        mThread = new Thread("OfflineRegionDownloader") {
+            @Override
+            public void run() {
+                download();
+            }
+        };
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Stop downloading. Requests in flight are finished and a checkpoint is saved, so the job
+     * can be resumed later.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void download() {
+        mStartIndex = readCheckpoint();
+        synchronized (mUnfinished) {
+            mNextIndex = mStartIndex;
+            mLastCheckpoint = mStartIndex;
+        }
+        mStartTime = SystemClock.elapsedRealtime();
+        writeRegionMetadata();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(mMaximumConcurrentRequests,
+                new ConfigurablePriorityThreadFactory(Thread.MIN_PRIORITY,
+                        "OfflineRegionDownloader.Worker"));
+        final Semaphore slots = new Semaphore(mMaximumConcurrentRequests);
+        try {
+            for (long index = mStartIndex; index < mTotalTiles && !mCancelled; index++) {
+                final MapTile tile = getTile(index);
+                if (mStore.containsTile(tile)) {
+                    finishTile(index, true);
+                    continue;
+                }
+                slots.acquire();
+                synchronized (mUnfinished) {
+                    mUnfinished.add(index);
+                    mNextIndex = index + 1;
+                }
+                final long tileIndex = index;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            finishTile(tileIndex, downloadTile(tile));
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                });
+            }
+        } catch (final InterruptedException e) {
+            mCancelled = true;
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for the last tiles");
+            }
+        }
+        if (!mCancelled) {
+            synchronized (mUnfinished) {
+                mNextIndex = mTotalTiles;
+            }
+        }
+        writeCheckpoint();
+        if (mListener != null) {
+            mListener.onFinished(this, mCancelled);
+        }
+    }
+
+    /**
+     * Fetches the bytes of a tile and hands them to the store as they are.
+     *
+     * @return true if the tile was stored or the server doesn't have it, false if it should be
+     * tried again later
+     */
+    private boolean downloadTile(final MapTile pTile) {
+        final String[] urls = mTileLayer.getTileURLs(pTile, mHdpi);
+        if (urls == null || urls.length == 0) {
+            return true;
+        }
+        if (urls.length > 1) {
+            // composited tiles only exist as decoded bitmaps, there are no bytes to store
+            Log.w(TAG, "Can't store composited tile " + pTile);
+            return false;
+        }
+        HttpURLConnection connection = null;
+        InputStream in = null;
+        try {
+            connection = NetworkUtils.getHttpURLConnection(new URL(urls[0]));
+            final int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                discardResponse(connection, status);
+                if (status == HttpURLConnection.HTTP_NOT_FOUND
+                        || status == HttpURLConnection.HTTP_NO_CONTENT) {
+                    return true;
+                }
+                Log.w(TAG, "Error downloading tile " + urls[0] + ": HTTP " + status);
+                return false;
+            }
+            in = connection.getInputStream();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+            final long length = StreamUtils.copy(in, out);
+            mStore.putTile(pTile, out.toByteArray());
+            mDownloadedTiles.incrementAndGet();
+            mDownloadedBytes.addAndGet(length);
+            return true;
+        } catch (final IOException e) {
+            Log.w(TAG, "Error downloading tile " + urls[0] + ": " + e);
+            if (connection != null) {
+                // the response may have been cut short, the connection can't be reused
+                connection.disconnect();
+            }
+        } catch (final RuntimeException e) {
+            Log.e(TAG, "Error storing tile " + pTile, e);
+        } finally {
+            StreamUtils.closeStream(in);
+        }
+        return false;
+    }
+
+    /**
+     * Reads the body of a response that isn't stored through to its end and closes it, which
+     * hands the connection back to the pool for the next tile. Connections whose body can't be
+     * read, or is too large to be worth reading, are closed instead.
+     */
+    private static void discardResponse(final HttpURLConnection pConnection, final int pStatus) {
+        InputStream body = null;
+        boolean drained = false;
+        try {
+            body = (pStatus >= HttpURLConnection.HTTP_BAD_REQUEST)
+                    ? pConnection.getErrorStream() : pConnection.getInputStream();
+            if (body != null) {
+                final byte[] buffer = new byte[StreamUtils.IO_BUFFER_SIZE];
+                long discarded = 0;
+                int read = 0;
+                while (discarded <= MAXIMUM_DISCARDED_BYTES && (read = body.read(buffer)) != -1) {
+                    discarded += read;
+                }
+                drained = read == -1;
+            }
+        } catch (final IOException e) {
+            Log.d(TAG, "Error discarding response: " + e);
+        } finally {
+            StreamUtils.closeStream(body);
+            if (!drained) {
+                pConnection.disconnect();
+            }
+        }
+    }
+
+    private void finishTile(final long pIndex, final boolean pSucceeded) {
+        boolean checkpoint = false;
+        synchronized (mUnfinished) {
+            if (pSucceeded) {
+                mUnfinished.remove(pIndex);
+            } else {
+                mUnfinished.add(pIndex);
+            }
+            mNextIndex = Math.max(mNextIndex, pIndex + 1);
+            if (getCheckpoint() - mLastCheckpoint >= CHECKPOINT_INTERVAL) {
+                checkpoint = true;
+            }
+        }
+        mCompletedTiles.incrementAndGet();
+        if (!pSucceeded) {
+            mFailedTiles.incrementAndGet();
+        }
+        if (checkpoint) {
+            writeCheckpoint();
+        }
+        if (mListener != null) {
+            mListener.onProgress(this);
+        }
+    }
+
+    /**
+     * Every tile before the checkpoint is either stored or known to be missing on the server.
+     */
+    private long getCheckpoint() {
+        synchronized (mUnfinished) {
+            return mUnfinished.isEmpty() ? mNextIndex : mUnfinished.first();
+        }
+    }
+
+    private long readCheckpoint() {
+        // a checkpoint only makes sense for the region and zoom levels it was saved for
+        if (!getBoundsValue().equals(mStore.getMetadata("bounds"))
+                || !Integer.toString(mMinZoomLevel).equals(mStore.getMetadata("minzoom"))
+                || !Integer.toString(mMaxZoomLevel).equals(mStore.getMetadata("maxzoom"))) {
+            return 0;
+        }
+        final String value = mStore.getMetadata(METADATA_CHECKPOINT);
+        if (value != null) {
+            try {
+                return Math.min(Math.max(0, Long.parseLong(value)), mTotalTiles);
+            } catch (final NumberFormatException e) {
+                Log.w(TAG, "Ignoring invalid checkpoint " + value);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Commits the stored tiles before recording the checkpoint that covers them.
+     */
+    private void writeCheckpoint() {
+        final long checkpoint = getCheckpoint();
+        synchronized (mUnfinished) {
+            mLastCheckpoint = checkpoint;
+        }
+        mStore.flush();
+        mStore.putMetadata(METADATA_CHECKPOINT, Long.toString(checkpoint));
+    }
+
+    private void writeRegionMetadata() {
+        if (mStore.getMetadata("name") == null && mTileLayer.getName() != null) {
+            mStore.putMetadata("name", mTileLayer.getName());
+        }
+        mStore.putMetadata("bounds", getBoundsValue());
+        mStore.putMetadata("minzoom", Integer.toString(mMinZoomLevel));
+        mStore.putMetadata("maxzoom", Integer.toString(mMaxZoomLevel));
+    }
+
+    private String getBoundsValue() {
+        return mBoundingBox.getLonWest() + "," + mBoundingBox.getLatSouth() + ","
+                + mBoundingBox.getLonEast() + "," + mBoundingBox.getLatNorth();
+    }
+
+    /**
+     * Get the tile at an index of the enumeration order: by zoom level, then row, then column.
+     */
+    private MapTile getTile(long pIndex) {
+        for (int i = 0; i < mMinX.length; i++) {
+            final long width = mMaxX[i] - mMinX[i] + 1;
+            final long count = width * (mMaxY[i] - mMinY[i] + 1);
+            if (pIndex < count) {
+                final int z = mMinZoomLevel + i;
+                return new MapTile(mTileLayer.getCacheKey(), z,
+                        GeometryMath.mod(mMinX[i] + (int) (pIndex % width), 1 << z),
+                        mMinY[i] + (int) (pIndex / width));
+            }
+            pIndex -= count;
+        }
+        throw new IndexOutOfBoundsException("No tile at index " + pIndex);
+    }
+
+    /**
+     * Get the number of tiles in the region, over all zoom levels.
+     */
+    public long getTotalTileCount() {
+        return mTotalTiles;
+    }
+
+    /**
+     * Get the number of tiles handled so far, including the ones handled before the job was
+     * resumed.
+     */
+    public long getCompletedTileCount() {
+        return mStartIndex + mCompletedTiles.get();
+    }
+
+    /**
+     * Get the number of tiles that couldn't be downloaded during this run.
+     */
+    public long getFailedTileCount() {
+        return mFailedTiles.get();
+    }
+
+    /**
+     * Get the number of bytes downloaded during this run.
+     */
+    public long getDownloadedBytes() {
+        return mDownloadedBytes.get();
+    }
+
+    /**
+     * Get the average number of tiles downloaded per second during this run.
+     */
+    public float getTilesPerSecond() {
+        final long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+        return (mStartTime == 0 || elapsed <= 0) ? 0 : mDownloadedTiles.get() * 1000f / elapsed;
+    }
+
+    private static final String TAG = "OfflineRegionDownloader";
+}
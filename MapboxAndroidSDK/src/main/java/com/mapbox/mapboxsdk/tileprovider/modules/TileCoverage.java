@@ -0,0 +1,204 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A compact, immutable record of which tiles an archive holds, used to reject requests for
+ * missing tiles without touching the archive. Every zoom level keeps the bounding rectangle of
+ * its tiles, plus a bitmap of that rectangle unless it would hold more than
+ * {@link #MAXIMUM_BITS_PER_ZOOM} bits, in which case only the rectangle is checked.
+ */
+public final class TileCoverage implements TileLayerConstants {
+
+    private static final int MAGIC = 0x4d42434f;
+    private static final int VERSION = 1;
+
+    /**
+     * 1 MB of bitmap per zoom level at most.
+     */
+    public static final long MAXIMUM_BITS_PER_ZOOM = 8L * 1024 * 1024;
+
+    private final int[] mMinX;
+    private final int[] mMaxX;
+    private final int[] mMinY;
+    private final int[] mMaxY;
+    private final long[][] mBits;
+
+    private TileCoverage(final int[] minX, final int[] maxX, final int[] minY, final int[] maxY,
+            final long[][] bits) {
+        mMinX = minX;
+        mMaxX = maxX;
+        mMinY = minY;
+        mMaxY = maxY;
+        mBits = bits;
+    }
+
+    /**
+     * Checks whether the archive may hold a tile.
+     *
+     * @param tile the tile in question, in XYZ scheme
+     * @return false if the archive definitely doesn't hold the tile
+     */
+    public boolean contains(final MapTile tile) {
+        final int z = tile.getZ();
+        if (z < 0 || z >= mMinX.length) {
+            return false;
+        }
+        final int x = tile.getX();
+        final int y = tile.getY();
+        if (x < mMinX[z] || x > mMaxX[z] || y < mMinY[z] || y > mMaxY[z]) {
+            return false;
+        }
+        final long[] bits = mBits[z];
+        if (bits == null) {
+            return true;
+        }
+        final long index = bitIndex(z, x, y);
+        return (bits[(int) (index >>> 6)] & (1L << index)) != 0;
+    }
+
+    private long bitIndex(final int z, final int x, final int y) {
+        return (long) (y - mMinY[z]) * (mMaxX[z] - mMinX[z] + 1) + (x - mMinX[z]);
+    }
+
+    public void writeTo(final DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mMinX.length);
+        for (int z = 0; z < mMinX.length; z++) {
+            out.writeInt(mMinX[z]);
+            out.writeInt(mMaxX[z]);
+            out.writeInt(mMinY[z]);
+            out.writeInt(mMaxY[z]);
+            final long[] bits = mBits[z];
+            out.writeInt(bits != null ? bits.length : -1);
+            if (bits != null) {
+                for (final long word : bits) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    public static TileCoverage readFrom(final DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a tile coverage file");
+        }
+        final int zooms = in.readInt();
+        if (zooms < 0 || zooms > MAXIMUM_ZOOMLEVEL + 1) {
+            throw new IOException("Invalid zoom level count: " + zooms);
+        }
+        final int[] minX = new int[zooms];
+        final int[] maxX = new int[zooms];
+        final int[] minY = new int[zooms];
+        final int[] maxY = new int[zooms];
+        final long[][] bits = new long[zooms][];
+        for (int z = 0; z < zooms; z++) {
+            minX[z] = in.readInt();
+            maxX[z] = in.readInt();
+            minY[z] = in.readInt();
+            maxY[z] = in.readInt();
+            final int words = in.readInt();
+            // a bitmap must cover exactly the rectangle of its zoom level, or contains() would
+            // index past its end
+            if (words < -1 || (words >= 0
+                    && words != getWordCount(minX[z], maxX[z], minY[z], maxY[z]))) {
+                throw new IOException("Invalid bitmap size for zoom level " + z + ": " + words);
+            }
+            if (words >= 0) {
+                bits[z] = new long[words];
+                for (int i = 0; i < words; i++) {
+                    bits[z][i] = in.readLong();
+                }
+            }
+        }
+        return new TileCoverage(minX, maxX, minY, maxY, bits);
+    }
+
+    /**
+     * Get the number of words of the bitmap of a rectangle of tiles.
+     *
+     * @return the number of words, or -1 if the rectangle is empty or too large to keep a
+     * bitmap of
+     */
+    private static int getWordCount(final int minX, final int maxX, final int minY,
+            final int maxY) {
+        if (minX > maxX || minY > maxY) {
+            return -1;
+        }
+        final long size = ((long) maxX - minX + 1) * ((long) maxY - minY + 1);
+        if (size > MAXIMUM_BITS_PER_ZOOM) {
+            return -1;
+        }
+        return (int) ((size + 63) / 64);
+    }
+
+    /**
+     * Collects the bounds and tiles of every zoom level. Bounds must be set for a zoom level
+     * before its tiles are added.
+     */
+    public static final class Builder {
+        private final int[] mMinX = new int[MAXIMUM_ZOOMLEVEL + 1];
+        private final int[] mMaxX = new int[MAXIMUM_ZOOMLEVEL + 1];
+        private final int[] mMinY = new int[MAXIMUM_ZOOMLEVEL + 1];
+        private final int[] mMaxY = new int[MAXIMUM_ZOOMLEVEL + 1];
+        private final long[][] mBits = new long[MAXIMUM_ZOOMLEVEL + 1][];
+
+        public Builder() {
+            for (int z = 0; z <= MAXIMUM_ZOOMLEVEL; z++) {
+                // empty rectangles, so zoom levels without tiles reject everything
+                mMinX[z] = Integer.MAX_VALUE;
+                mMinY[z] = Integer.MAX_VALUE;
+                mMaxX[z] = Integer.MIN_VALUE;
+                mMaxY[z] = Integer.MIN_VALUE;
+            }
+        }
+
+        /**
+         * Sets the bounding rectangle of the tiles of a zoom level, in XYZ scheme.
+         *
+         * @return true if the tiles of this zoom level should be added one by one, false if
+         * the rectangle is too large to keep a bitmap of
+         */
+        public boolean setBounds(final int z, final int minX, final int maxX, final int minY,
+                final int maxY) {
+            if (z < 0 || z > MAXIMUM_ZOOMLEVEL) {
+                return false;
+            }
+            mMinX[z] = minX;
+            mMaxX[z] = maxX;
+            mMinY[z] = minY;
+            mMaxY[z] = maxY;
+            final int words = getWordCount(minX, maxX, minY, maxY);
+            if (words < 0) {
+                mBits[z] = null;
+                return false;
+            }
+            mBits[z] = new long[words];
+            return true;
+        }
+
+        /**
+         * Marks a tile as present, in XYZ scheme.
+         */
+        public Builder add(final int z, final int x, final int y) {
+            if (z < 0 || z > MAXIMUM_ZOOMLEVEL) {
+                return this;
+            }
+            final long[] bits = mBits[z];
+            if (bits != null && x >= mMinX[z] && x <= mMaxX[z] && y >= mMinY[z] && y <= mMaxY[z]) {
+                final long index = (long) (y - mMinY[z]) * (mMaxX[z] - mMinX[z] + 1) + (x - mMinX[z]);
+                bits[(int) (index >>> 6)] |= 1L << index;
+            }
+            return this;
+        }
+
+        public TileCoverage build() {
+            return new TileCoverage(mMinX, mMaxX, mMinY, mMaxY, mBits);
+        }
+    }
+}
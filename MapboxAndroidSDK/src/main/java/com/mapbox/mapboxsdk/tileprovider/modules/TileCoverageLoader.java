@@ -0,0 +1,136 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.os.Process;
+import android.util.Log;
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the coverage of an archive in the background the first time it is asked for, and
+ * again after tiles have been written to the archive file, so that newly written tiles aren't
+ * rejected by an outdated coverage. Until then there is no coverage, and every tile is tried.
+ *
+ * Coverages are loaded one at a time on a single thread, and a loader has at most one load
+ * queued, which loads the latest generation, so that a download writing batch after batch
+ * doesn't pile up rebuilds.
+ */
+abstract class TileCoverageLoader {
+    private static final String TAG = "TileCoverageLoader";
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ConfigurablePriorityThreadFactory(Thread.MIN_PRIORITY, "MBTilesCoverage"));
+
+    /**
+     * The number of times tiles were written to each archive file in this process.
+     */
+    private static final ConcurrentHashMap<String, AtomicInteger> sWriteGenerations =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    private final String mPath;
+    private volatile Loaded mLoaded;
+    private volatile int mLoadedGeneration = -1;
+    private final AtomicBoolean mQueued = new AtomicBoolean(false);
+
+    /**
+     * @param pPath the path of the archive file, or null if it can't be written to
+     */
+    TileCoverageLoader(final String pPath) {
+        mPath = pPath;
+    }
+
+    /**
+     * Marks the coverage of an archive file as outdated, for the loaders of that file to load
+     * it again, and deletes the coverage persisted next to it.
+     */
+    static void invalidate(final String pPath) {
+        if (pPath == null) {
+            return;
+        }
+        AtomicInteger generation = sWriteGenerations.get(pPath);
+        if (generation == null) {
+            final AtomicInteger created = new AtomicInteger();
+            generation = sWriteGenerations.putIfAbsent(pPath, created);
+            if (generation == null) {
+                generation = created;
+            }
+        }
+        generation.incrementAndGet();
+        new File(pPath + MBTilesFileArchive.COVERAGE_SUFFIX).delete();
+    }
+
+    static int getGeneration(final String pPath) {
+        final AtomicInteger generation = (pPath != null) ? sWriteGenerations.get(pPath) : null;
+        return (generation != null) ? generation.get() : 0;
+    }
+
+    /**
+     * Get the coverage, starting to load it if it isn't loaded yet or is outdated.
+     *
+     * @return the coverage, or null if it isn't available yet
+     */
+    TileCoverage get() {
+        final Loaded loaded = mLoaded;
+        final int generation = getGeneration(mPath);
+        if (loaded != null && loaded.mGeneration == generation) {
+            return loaded.mCoverage;
+        }
+        // don't retry a generation that couldn't be loaded
+        if (mLoadedGeneration != generation && mQueued.compareAndSet(false, true)) {
+            try {
+                sExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        // writes made while this one is queued or loading are picked up by the
+                        // next get()
+                        mQueued.set(false);
+                        loadLatest();
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                mQueued.set(false);
+                Log.w(TAG, "RejectedExecutionException", e);
+            }
+        }
+        return null;
+    }
+
+    private void loadLatest() {
+        final int generation = getGeneration(mPath);
+        if (mLoadedGeneration == generation) {
+            return;
+        }
+        mLoadedGeneration = generation;
+        final TileCoverage coverage = load(generation);
+        if (coverage != null && getGeneration(mPath) == generation) {
+            mLoaded = new Loaded(coverage, generation);
+        }
+    }
+
+    /**
+     * Loads or builds the coverage, on a background thread.
+     *
+     * @param pGeneration the write generation of the archive file when loading started, see
+     * {@link #getGeneration(String)}
+     * @return the coverage, or null if it can't be loaded
+     */
+    abstract TileCoverage load(int pGeneration);
+
+    /**
+     * A coverage and the write generation it was loaded at.
+     */
+    private static final class Loaded {
+        private final TileCoverage mCoverage;
+        private final int mGeneration;
+
+        Loaded(final TileCoverage pCoverage, final int pGeneration) {
+            mCoverage = pCoverage;
+            mGeneration = pGeneration;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import android.os.Process;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The stage fetched tiles are decoded in, shared by all providers. It runs as many decodes at
+ * once as there are cores, so that decodes don't compete with each other for them, and it holds
+ * a bounded number of fetched tiles: a loader submitting more waits for a slot, which keeps the
+ * loaders from fetching tiles faster than they can be decoded.
+ */
+final class TileDecodeStage {
+
+    private static TileDecodeStage sInstance;
+
+    private final ExecutorService mExecutor;
+    private final Semaphore mSlots;
+
+    private TileDecodeStage(final int pThreads, final int pCapacity) {
+        mExecutor = Executors.newFixedThreadPool(pThreads,
+                new ConfigurablePriorityThreadFactory(Thread.NORM_PRIORITY, "Tile decoder"));
+        mSlots = new Semaphore(pCapacity);
+    }
+
+    static synchronized TileDecodeStage getInstance() {
+        if (sInstance == null) {
+            final int cores = Math.max(1, Runtime.getRuntime().availableProcessors());
+            sInstance = new TileDecodeStage(cores, cores * 2);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue a decode, waiting for a slot first if the stage is full.
+     *
+     * @throws InterruptedException if interrupted while waiting for a slot
+     * @throws RejectedExecutionException if the decode can't be queued
+     */
+    void submit(final Runnable pDecode) throws InterruptedException {
+        mSlots.acquire();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        pDecode.run();
+                    } finally {
+                        mSlots.release();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            mSlots.release();
+            throw e;
+        }
+    }
+}
@@ -1,20 +1,38 @@
 package com.mapbox.mapboxsdk.tileprovider.tilesource;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.database.sqlite.SQLiteDatabase;
+import android.graphics.drawable.Drawable;
 import android.os.Environment;
 import android.util.Log;
 import com.mapbox.mapboxsdk.constants.MapboxConstants;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.MapTileCache;
+import com.mapbox.mapboxsdk.tileprovider.metrics.TileMetricsRegistry;
+import com.mapbox.mapboxsdk.tileprovider.modules.IArchiveFile;
+import com.mapbox.mapboxsdk.tileprovider.modules.IBatchArchiveFile;
+import com.mapbox.mapboxsdk.tileprovider.modules.ICoverageArchiveFile;
+import com.mapbox.mapboxsdk.tileprovider.modules.IDeduplicatedArchiveFile;
+import com.mapbox.mapboxsdk.tileprovider.modules.MBTilesAssetMounter;
 import com.mapbox.mapboxsdk.tileprovider.modules.MBTilesFileArchive;
+import com.mapbox.mapboxsdk.tileprovider.modules.MBTilesMappedFileArchive;
+import com.mapbox.mapboxsdk.tileprovider.modules.MBTilesMetadata;
 import com.mapbox.mapboxsdk.tileprovider.modules.MapTileDownloader;
+import com.mapbox.mapboxsdk.tileprovider.modules.TileCoverage;
+import com.mapbox.mapboxsdk.tileprovider.util.StreamUtils;
 import com.mapbox.mapboxsdk.views.util.constants.MapViewConstants;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
 /**
@@ -25,6 +43,7 @@ public class MBTilesLayer extends TileLayer implements MapViewConstants, MapboxC
 
     private static final String TAG = "MBTilesLayer";
     MBTilesFileArchive mbTilesFileArchive;
+    IArchiveFile mTileArchive;
 
     /**
      * Initialize a new tile layer, represented by a MBTiles file.
@@ -69,37 +88,41 @@ public class MBTilesLayer extends TileLayer implements MapViewConstants, MapboxC
     }
 
     /**
-     * Get the filename of this layer based on the full path
-     * @param path
-     * @return the filename of the backing mbtiles file
+     * Reads tiles through the given archive instead of the database this layer was opened
+     * with, e.g. a {@link com.mapbox.mapboxsdk.tileprovider.modules.MBTilesMappedFileArchive}
+     * of the same file. Metadata is still read from the database.
+     *
+     * @param archive the archive to read tiles from, or null to go back to the database
+     * @return this layer
      */
-    private static final String getFileName(final String path) {
-        return path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('.'));
+    public MBTilesLayer setTileArchive(final IArchiveFile archive) {
+        if (mTileArchive != archive) {
+            closeArchive(mTileArchive);
+        }
+        mTileArchive = archive;
+        return this;
     }
 
     /**
-     * Creates a file from an input stream by reading it byte by byte.
-     * todo: same as MapViewFactory's createFileFromInputStream
+     * Releases the resources held by an archive, if it has any to release.
      */
-    private static File createFileFromInputStream(InputStream inputStream, String URL) {
-        try {
-            File f = new File(URL);
-            OutputStream outputStream = new FileOutputStream(f);
-            byte[] buffer = new byte[1024];
-            int length = 0;
-
-            while ((length = inputStream.read(buffer)) > 0) {
-                outputStream.write(buffer, 0, length);
-            }
+    private static void closeArchive(final IArchiveFile archive) {
+        if (archive instanceof Closeable) {
+            StreamUtils.closeStream((Closeable) archive);
+        }
+    }
 
-            outputStream.close();
-            inputStream.close();
+    private IArchiveFile getTileArchive() {
+        return (mTileArchive != null) ? mTileArchive : mbTilesFileArchive;
+    }
 
-            return f;
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to create file from input stream.", e);
-        }
-        return null;
+    /**
+     * Get the filename of this layer based on the full path
+     * @param path
+     * @return the filename of the backing mbtiles file
+     */
+    private static final String getFileName(final String path) {
+        return path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('.'));
     }
 
     /**
@@ -110,16 +133,7 @@ public class MBTilesLayer extends TileLayer implements MapViewConstants, MapboxC
         if (file != null) {
             mbTilesFileArchive = MBTilesFileArchive.getDatabaseFileArchive(file);
         }
-
-        if (mbTilesFileArchive != null) {
-            mMaximumZoomLevel = mbTilesFileArchive.getMaxZoomLevel();
-            mMinimumZoomLevel = mbTilesFileArchive.getMinZoomLevel();
-            mName = mbTilesFileArchive.getName();
-            mDescription = mbTilesFileArchive.getDescription();
-            mAttribution = mbTilesFileArchive.getAttribution();
-            mBoundingBox = mbTilesFileArchive.getBounds();
-            mCenter = mbTilesFileArchive.getCenter();
-        }
+        applyMetadata();
     }
 
     /**
@@ -129,38 +143,50 @@ public class MBTilesLayer extends TileLayer implements MapViewConstants, MapboxC
         if (db != null) {
             mbTilesFileArchive = new MBTilesFileArchive(db);
         }
+        applyMetadata();
+    }
 
+    private void applyMetadata() {
         if (mbTilesFileArchive != null) {
-            mMaximumZoomLevel = mbTilesFileArchive.getMaxZoomLevel();
-            mMinimumZoomLevel = mbTilesFileArchive.getMinZoomLevel();
-            mName = mbTilesFileArchive.getName();
-            mDescription = mbTilesFileArchive.getDescription();
-            mAttribution = mbTilesFileArchive.getAttribution();
-            mBoundingBox = mbTilesFileArchive.getBounds();
-            mCenter = mbTilesFileArchive.getCenter();
+            applyMetadata(mbTilesFileArchive.getMetadata());
         }
     }
 
     /**
-     * Reads and opens a MBTiles file given by url and loads its tiles into this layer.
+     * Copies the archive metadata, read in a single pass, into this layer.
+     */
+    private void applyMetadata(final MBTilesMetadata metadata) {
+        mMaximumZoomLevel = metadata.getMaxZoomLevel();
+        mMinimumZoomLevel = metadata.getMinZoomLevel();
+        mName = metadata.getName();
+        mDescription = metadata.getDescription();
+        mAttribution = metadata.getAttribution();
+        mBoundingBox = metadata.getBounds();
+        mCenter = metadata.getCenter();
+    }
+
+    /**
+     * Reads and opens a MBTiles file given by url and loads its tiles into this layer. With a
+     * context, the url is an asset path: uncompressed assets are read straight from the APK,
+     * others are copied to external storage once.
      */
     private void initialize(String url, final Context context) {
+        if (context != null) {
+            final MBTilesMappedFileArchive mapped = MBTilesAssetMounter.openMapped(context, url);
+            if (mapped != null) {
+                mTileArchive = mapped;
+                applyMetadata(MBTilesMetadata.fromValues(mapped.getMetadataValues()));
+                return;
+            }
+        }
         initialize(getFile(url, context));
     }
 
     private File getFile(String url, final Context context) {
         if (context != null) {
             //we assume asset here
-            AssetManager am = context.getAssets();
-            InputStream inputStream;
-            try {
-                inputStream = am.open(url);
-                return createFileFromInputStream(inputStream,
-                        Environment.getExternalStorageDirectory() + File.separator + url);
-            } catch (IOException e) {
-                Log.e(TAG, "MBTiles file not found in assets: " + e.toString());
-                return null;
-            }
+            return MBTilesAssetMounter.mount(context, url,
+                    new File(Environment.getExternalStorageDirectory(), url));
         }
         try {
             return new File(url);
@@ -172,17 +198,119 @@ public class MBTilesLayer extends TileLayer implements MapViewConstants, MapboxC
 
     @Override
     public void detach() {
+        closeArchive(mTileArchive);
+        mTileArchive = null;
         if (mbTilesFileArchive != null) {
             mbTilesFileArchive.close();
             mbTilesFileArchive = null;
         }
     }
 
+    /**
+     * Get the key the decoded content with the given id is cached under.
+     */
+    private String getContentKey(final String contentId) {
+        return getCacheKey() + "/content/" + contentId;
+    }
+
+    /**
+     * Get a tile from the archive by the id of its content, so that tiles sharing their
+     * content, like blank ocean tiles, are read and decoded only once.
+     *
+     * @return the drawable, or null if the archive doesn't deduplicate this tile
+     */
+    private CacheableBitmapDrawable getDrawableFromContent(final MapTileDownloader downloader,
+            final IArchiveFile archive, final MapTile aTile) {
+        if (!(archive instanceof IDeduplicatedArchiveFile)) {
+            return null;
+        }
+        final IDeduplicatedArchiveFile deduplicated = (IDeduplicatedArchiveFile) archive;
+        final String contentId = deduplicated.getContentId(this, aTile);
+        if (contentId == null) {
+            return null;
+        }
+        final String contentKey = getContentKey(contentId);
+        CacheableBitmapDrawable result =
+                downloader.getCache().getContentFromMemory(aTile, contentKey);
+        if (result == null) {
+            final long start = System.nanoTime();
+            final InputStream stream = deduplicated.getContentInputStream(this, contentId);
+            TileMetricsRegistry.getMetrics().onArchiveRead(System.nanoTime() - start);
+            if (stream != null) {
+                result = downloader.getCache().putTileContentStream(aTile, contentKey, stream,
+                        null);
+                if (result == null) {
+                    Log.d(TAG, "error reading stream from mbtiles");
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the tiles of a batch that share their content from the archive, resolving their
+     * content ids at once and reading and decoding each content once.
+     *
+     * @return the tiles left to be read on their own, which the archive doesn't deduplicate
+     */
+    private Collection<MapTile> getDrawablesFromContent(final MapTileDownloader downloader,
+            final IArchiveFile archive, final Collection<MapTile> tiles,
+            final Map<MapTile, Drawable> result) {
+        if (!(archive instanceof IDeduplicatedArchiveFile)) {
+            return tiles;
+        }
+        final IDeduplicatedArchiveFile deduplicated = (IDeduplicatedArchiveFile) archive;
+        long start = System.nanoTime();
+        final Map<MapTile, String> contentIds = deduplicated.getContentIds(this, tiles);
+        TileMetricsRegistry.getMetrics().onArchiveRead(System.nanoTime() - start);
+        if (contentIds.isEmpty()) {
+            return tiles;
+        }
+        final MapTileCache cache = downloader.getCache();
+        final Set<String> read = new HashSet<String>();
+        final List<MapTile> remaining = new ArrayList<MapTile>(tiles.size());
+        for (final MapTile tile : tiles) {
+            final String contentId = contentIds.get(tile);
+            if (contentId == null) {
+                remaining.add(tile);
+                continue;
+            }
+            final String contentKey = getContentKey(contentId);
+            CacheableBitmapDrawable content = cache.getContentFromMemory(tile, contentKey);
+            // content that couldn't be read for another tile of the batch isn't read again
+            if (content == null && read.add(contentId)) {
+                start = System.nanoTime();
+                final InputStream stream = deduplicated.getContentInputStream(this, contentId);
+                TileMetricsRegistry.getMetrics().onArchiveRead(System.nanoTime() - start);
+                if (stream != null) {
+                    content = cache.putTileContentStream(tile, contentKey, stream, null);
+                    if (content == null) {
+                        Log.d(TAG, "error reading stream from mbtiles");
+                    }
+                }
+            }
+            if (content != null) {
+                result.put(tile, content);
+            } else {
+                remaining.add(tile);
+            }
+        }
+        return remaining;
+    }
+
     @Override
     public CacheableBitmapDrawable getDrawableFromTile(final MapTileDownloader downloader,
             final MapTile aTile, boolean hdpi) {
-        if (mbTilesFileArchive != null) {
-            InputStream stream = mbTilesFileArchive.getInputStream(this, aTile);
+        final IArchiveFile archive = getTileArchive();
+        if (archive != null) {
+            final CacheableBitmapDrawable content =
+                    getDrawableFromContent(downloader, archive, aTile);
+            if (content != null) {
+                return content;
+            }
+            final long start = System.nanoTime();
+            InputStream stream = archive.getInputStream(this, aTile);
+            TileMetricsRegistry.getMetrics().onArchiveRead(System.nanoTime() - start);
             if (stream != null) {
                 CacheableBitmapDrawable result =
                         downloader.getCache().putTileStream(aTile, stream, null);
@@ -194,4 +322,89 @@ public class MBTilesLayer extends TileLayer implements MapViewConstants, MapboxC
         }
         return null;
     }
+
+    @Override
+    public Map<MapTile, Drawable> getDrawablesFromTiles(final MapTileDownloader downloader,
+            final Collection<MapTile> tiles, boolean hdpi) {
+        final Map<MapTile, Drawable> result = new HashMap<MapTile, Drawable>();
+        final IArchiveFile archive = getTileArchive();
+        if (archive != null) {
+            final Collection<MapTile> remaining =
+                    getDrawablesFromContent(downloader, archive, tiles, result);
+            if (remaining.isEmpty()) {
+                return result;
+            }
+            final long start = System.nanoTime();
+            final Map<MapTile, InputStream> streams = getInputStreams(archive, remaining);
+            TileMetricsRegistry.getMetrics().onArchiveRead(System.nanoTime() - start);
+            for (final Map.Entry<MapTile, InputStream> entry : streams.entrySet()) {
+                CacheableBitmapDrawable drawable =
+                        downloader.getCache().putTileStream(entry.getKey(), entry.getValue(), null);
+                if (drawable == null) {
+                    Log.d(TAG, "error reading stream from mbtiles");
+                } else {
+                    result.put(entry.getKey(), drawable);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks the tiles up at once if the archive can, one by one otherwise.
+     */
+    private Map<MapTile, InputStream> getInputStreams(final IArchiveFile archive,
+            final Collection<MapTile> tiles) {
+        if (archive instanceof IBatchArchiveFile) {
+            return ((IBatchArchiveFile) archive).getInputStreams(this, tiles);
+        }
+        final Map<MapTile, InputStream> streams = new HashMap<MapTile, InputStream>();
+        for (final MapTile tile : tiles) {
+            final InputStream stream = archive.getInputStream(this, tile);
+            if (stream != null) {
+                streams.put(tile, stream);
+            }
+        }
+        return streams;
+    }
+
+    @Override
+    public byte[] getLocalTileBytes(final MapTile aTile) {
+        final IArchiveFile archive = getTileArchive();
+        if (archive == null) {
+            return null;
+        }
+        final long start = System.nanoTime();
+        final InputStream stream = archive.getInputStream(this, aTile);
+        if (stream == null) {
+            return null;
+        }
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamUtils.copy(stream, out);
+            TileMetricsRegistry.getMetrics().onArchiveRead(System.nanoTime() - start);
+            return out.toByteArray();
+        } catch (final IOException e) {
+            Log.e(TAG, "error reading tile from mbtiles: " + aTile, e);
+            return null;
+        } finally {
+            StreamUtils.closeStream(stream);
+        }
+    }
+
+    /**
+     * Checks the coverage of the archive tiles are read from, if it keeps one.
+     */
+    @Override
+    public boolean canServiceTile(final MapTile aTile) {
+        final IArchiveFile archive = getTileArchive();
+        final TileCoverage coverage = (archive instanceof ICoverageArchiveFile)
+                ? ((ICoverageArchiveFile) archive).getCoverage() : null;
+        return coverage == null || coverage.contains(aTile);
+    }
+
+    @Override
+    public int getTileBatchSize() {
+        return TILE_LOADER_MAXIMUM_BATCH_SIZE;
+    }
 }
@@ -7,6 +7,9 @@ import com.mapbox.mapboxsdk.tileprovider.MapTile;
 import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
 import com.mapbox.mapboxsdk.tileprovider.modules.MapTileDownloader;
 import com.mapbox.mapboxsdk.views.util.constants.MapViewConstants;
+import java.util.Collection;
+import java.util.Map;
+import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
 public class TileLayer implements ITileLayer, TileLayerConstants, MapViewConstants {
 
@@ -81,6 +84,58 @@ public class TileLayer implements ITileLayer, TileLayerConstants, MapViewConstan
         return null;
     }
 
+    /**
+     * Checks whether this layer may be able to provide a tile, without loading it.
+     *
+     * @param aTile the tile in question
+     * @return false if this layer definitely doesn't have the tile
+     */
+    public boolean canServiceTile(final MapTile aTile) {
+        return true;
+    }
+
+    /**
+     * Get rendered Drawables for several tiles with a single lookup.
+     *
+     * @return the Drawables keyed by tile, leaving out tiles this layer doesn't have, or null if
+     * this layer can't load tiles in batches
+     */
+    public Map<MapTile, Drawable> getDrawablesFromTiles(final MapTileDownloader downloader,
+            final Collection<MapTile> tiles, boolean hdpi) {
+        return null;
+    }
+
+    /**
+     * Refresh a tile of the disk cache that has outlived the freshness its server gave it.
+     *
+     * @param cached the stale tile, as read from the disk cache
+     * @return the tile to show, which is the stale one unless this layer has a newer version
+     */
+    public Drawable revalidateTile(final MapTileDownloader downloader, final MapTile aTile,
+            final CacheableBitmapDrawable cached, boolean hdpi) {
+        return cached;
+    }
+
+    /**
+     * Get a tile as it is encoded, if this layer can read it without going to the network,
+     * e.g. from a local archive.
+     *
+     * @return the encoded tile, or null if this layer has no local copy of it
+     */
+    public byte[] getLocalTileBytes(final MapTile aTile) {
+        return null;
+    }
+
+    /**
+     * Get the number of pending tiles a single tile loader should hand to
+     * {@link #getDrawablesFromTiles} at once.
+     *
+     * @return the batch size, 1 if this layer loads tiles one by one
+     */
+    public int getTileBatchSize() {
+        return 1;
+    }
+
     @Override
     public void detach() {
 
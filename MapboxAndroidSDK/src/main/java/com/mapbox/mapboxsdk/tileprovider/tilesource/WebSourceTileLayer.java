@@ -4,14 +4,22 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
 import android.text.TextUtils;
 import android.util.Log;
 import com.mapbox.mapboxsdk.tileprovider.MapTile;
 import com.mapbox.mapboxsdk.tileprovider.MapTileCache;
+import com.mapbox.mapboxsdk.tileprovider.TileValidator;
+import com.mapbox.mapboxsdk.tileprovider.metrics.TileMetricsRegistry;
 import com.mapbox.mapboxsdk.tileprovider.modules.MapTileDownloader;
-import com.mapbox.mapboxsdk.util.NetworkUtils;
+import com.mapbox.mapboxsdk.tileprovider.modules.MapTileModuleLayerBase;
+import com.mapbox.mapboxsdk.tileprovider.util.StreamUtils;
+import com.mapbox.mapboxsdk.util.DebugLog;
+import com.mapbox.mapboxsdk.util.TileHttpClient;
 import com.mapbox.mapboxsdk.views.util.TileLoadedListener;
 import com.mapbox.mapboxsdk.views.util.TilesLoadedListener;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -111,21 +119,33 @@ public class WebSourceTileLayer extends TileLayer {
                 if (listener != null) {
                     listener.onTilesLoadStarted();
                 }
-                for (final String url : urls) {
-                    Bitmap bitmap = getBitmapFromURL(aTile, url, cache);
-                    if (bitmap == null) {
-                        continue;
+                if (urls.length == 1) {
+                    result = getDrawableFromURL(downloader, aTile, urls[0], cache);
+                } else {
+                    for (final String url : urls) {
+                        if (downloader.isTileCancelled(aTile)) {
+                            // the tile left the viewport, don't bother with the other sources
+                            resultBitmap = null;
+                            break;
+                        }
+                        Bitmap bitmap = getBitmapFromURL(aTile, url, cache);
+                        if (bitmap == null) {
+                            continue;
+                        }
+                        if (resultBitmap == null) {
+                            resultBitmap = bitmap;
+                        } else {
+                            resultBitmap = compositeBitmaps(bitmap, resultBitmap);
+                        }
                     }
-                    if (resultBitmap == null) {
-                        resultBitmap = bitmap;
-                    } else {
-                        resultBitmap = compositeBitmaps(bitmap, resultBitmap);
+                    if (resultBitmap != null) {
+                        //get drawable by putting it into cache (memory and disk)
+                        // the validator of any one source doesn't hold for the composite, which
+                        // is stored without one and stays fresh until it is evicted
+                        result = onTileLoaded(downloader,
+                                cache.putTileBitmap(aTile, resultBitmap));
                     }
                 }
-                if (resultBitmap != null) {
-                    //get drawable by putting it into cache (memory and disk)
-                    result = cache.putTileBitmap(aTile, resultBitmap);
-                }
                 if (checkThreadControl()) {
                     if (listener != null) {
                         listener.onTilesLoaded();
@@ -133,18 +153,127 @@ public class WebSourceTileLayer extends TileLayer {
                 }
             }
 
-            if (result != null) {
-                TileLoadedListener listener2 = downloader.getTileLoadedListener();
-                result = listener2 != null ? listener2.onTileLoaded(result) : result;
-            }
-
             return result;
         } else {
-            Log.d(TAG, "Skipping tile " + aTile.toString() + " due to NetworkAvailabilityCheck.");
+            DebugLog.d(TAG, "Skipping tile due to NetworkAvailabilityCheck: ", aTile);
         }
         return null;
     }
 
+    /**
+     * Revalidates a stale tile with a conditional request, so that an unchanged tile costs a
+     * 304 response instead of a download and a decode. Composited tiles have one validator per
+     * source, so they are downloaded again instead.
+     */
+    @Override
+    public Drawable revalidateTile(final MapTileDownloader downloader, final MapTile aTile,
+            final CacheableBitmapDrawable cached, boolean hdpi) {
+        final MapTileCache cache = downloader.getCache();
+        final TileValidator validator = cache.getTileValidator(aTile);
+        final String[] urls = getTileURLs(aTile, hdpi);
+        if (urls == null) {
+            return cached;
+        }
+        if (validator == null || !validator.canRevalidate() || urls.length != 1) {
+            final CacheableBitmapDrawable result = getDrawableFromTile(downloader, aTile, hdpi);
+            if (result == null && downloader.isDecodeDeferred(aTile)) {
+                // the decode stage delivers the new tile
+                return null;
+            }
+            return (result != null) ? result : cached;
+        }
+
+        InputStream in = null;
+        try {
+            HttpURLConnection connection = TileHttpClient.open(new URL(urls[0]));
+            validator.addConditions(connection);
+            in = downloader.getCancellableStream(aTile, TileHttpClient.openStream(connection));
+            final long now = System.currentTimeMillis();
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // the cached bytes are still good, they just stay fresh for longer
+                cache.putTileValidator(aTile, validator.revalidated(connection, now));
+                return cached;
+            }
+            final CacheableBitmapDrawable result = cache.putTileStream(aTile, in, null,
+                    TileValidator.fromConnection(connection, now));
+            if (result != null) {
+                return result;
+            }
+        } catch (final Throwable e) {
+            Log.e(TAG, "Error revalidating MapTile: " + urls[0] + ":" + e);
+        } finally {
+            StreamUtils.closeStream(in);
+        }
+        // better a stale tile than none
+        return cached;
+    }
+
+    private static CacheableBitmapDrawable onTileLoaded(final MapTileDownloader downloader,
+            final CacheableBitmapDrawable result) {
+        if (result == null) {
+            return null;
+        }
+        final TileLoadedListener listener = downloader.getTileLoadedListener();
+        return (listener != null) ? listener.onTileLoaded(result) : result;
+    }
+
+    /**
+     * Requests a tile from a given URL and caches it. The response is decoded once, and its
+     * bytes go to the disk cache as they are, without being re-encoded. The download stops if
+     * the tile leaves the viewport before it's complete.
+     * <p/>
+     * The decode is handed to the decode stage of the downloader, so that this thread can go on
+     * with the next download, in which case this returns null and the downloader completes the
+     * tile once it is decoded.
+     *
+     * @param downloader the downloader the tile is requested by
+     * @param mapTile MapTile
+     * @param url the map tile url. should refer to a valid bitmap resource.
+     * @param aCache a cache, an instance of MapTileCache
+     * @return the cached tile if valid, otherwise null
+     */
+    protected CacheableBitmapDrawable getDrawableFromURL(final MapTileDownloader downloader,
+            final MapTile mapTile, final String url, final MapTileCache aCache) {
+        activeThreads.incrementAndGet();
+        if (TextUtils.isEmpty(url)) {
+            activeThreads.decrementAndGet();
+            return null;
+        }
+
+        InputStream in = null;
+        final byte[] data;
+        final TileValidator validator;
+        try {
+            final long start = System.nanoTime();
+            HttpURLConnection connection = TileHttpClient.open(new URL(url));
+            in = downloader.getCancellableStream(mapTile, TileHttpClient.openStream(connection));
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamUtils.copy(in, out);
+            data = out.toByteArray();
+            TileMetricsRegistry.getMetrics().onNetworkFetch(System.nanoTime() - start);
+            validator = TileValidator.fromConnection(connection, System.currentTimeMillis());
+        } catch (final Throwable e) {
+            Log.e(TAG, "Error downloading MapTile: " + url + ":" + e);
+            return null;
+        } finally {
+            StreamUtils.closeStream(in);
+            activeThreads.decrementAndGet();
+        }
+
+        final MapTileModuleLayerBase.TileDecoder decoder =
+                new MapTileModuleLayerBase.TileDecoder() {
+                    @Override
+                    public Drawable decode() {
+                        return onTileLoaded(downloader,
+                                aCache.putTileBytes(mapTile, data, validator));
+                    }
+                };
+        if (downloader.decodeLater(mapTile, decoder)) {
+            return null;
+        }
+        return (CacheableBitmapDrawable) decoder.decode();
+    }
+
     /**
      * Requests and returns a bitmap object from a given URL, using aCache to decode it.
      *
@@ -156,7 +285,7 @@ public class WebSourceTileLayer extends TileLayer {
      */
     public Bitmap getBitmapFromURL(MapTile mapTile, final String url, final MapTileCache aCache) {
         // We track the active threads here, every exit point should decrement this value.
-        Log.d(getClass().getCanonicalName(), "getBitmapFormURL() called with url = '" + url + "'");
+        DebugLog.d(TAG, "getBitmapFromURL() called with url = ", url);
         activeThreads.incrementAndGet();
 
         if (TextUtils.isEmpty(url)) {
@@ -164,16 +293,19 @@ public class WebSourceTileLayer extends TileLayer {
             return null;
         }
 
+        InputStream in = null;
         try {
-            HttpURLConnection connection = NetworkUtils.getHttpURLConnection(new URL(url));
-            Bitmap bitmap = BitmapFactory.decodeStream(connection.getInputStream());
+            in = TileHttpClient.openStream(new URL(url));
+            Bitmap bitmap = BitmapFactory.decodeStream(in);
             if (bitmap != null) {
+                // no validator, this is only one of the sources of a composited tile
                 aCache.putTileInMemoryCache(mapTile, bitmap);
             }
             return bitmap;
         } catch (final Throwable e) {
             Log.e(TAG, "Error downloading MapTile: " + url + ":" + e);
         } finally {
+            StreamUtils.closeStream(in);
             activeThreads.decrementAndGet();
         }
         return null;
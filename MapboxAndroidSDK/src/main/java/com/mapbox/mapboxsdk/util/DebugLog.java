@@ -0,0 +1,49 @@
+package com.mapbox.mapboxsdk.util;
+
+import android.util.Log;
+import com.mapbox.mapboxsdk.util.constants.UtilConstants;
+
+/**
+ * Debug logging for the drawing and tile loading paths, which run for every frame and every
+ * tile. Messages are only logged when {@link #ENABLED} is set at compile time and debug mode is
+ * turned on with {@link UtilConstants#setDebugMode(boolean)}.
+ *
+ * The message and its argument are passed separately and only joined once the message is
+ * logged, so a call costs nothing but the check when logging is off. Calls that need to build
+ * their arguments should be wrapped in {@code if (DebugLog.isEnabled())}.
+ */
+public final class DebugLog {
+
+    /**
+     * Whether debug logging is compiled in.
+     */
+    public static final boolean ENABLED = false;
+
+    /**
+     * This is a utility class with only static members.
+     */
+    private DebugLog() {
+    }
+
+    /**
+     * Whether debug messages are logged.
+     */
+    public static boolean isEnabled() {
+        return ENABLED && UtilConstants.DEBUGMODE;
+    }
+
+    public static void d(final String pTag, final String pMessage) {
+        if (isEnabled()) {
+            Log.d(pTag, pMessage);
+        }
+    }
+
+    /**
+     * Log a message followed by an argument, e.g. the tile it is about.
+     */
+    public static void d(final String pTag, final String pMessage, final Object pArg) {
+        if (isEnabled()) {
+            Log.d(pTag, pMessage + pArg);
+        }
+    }
+}
@@ -36,7 +36,11 @@ public class NetworkUtils {
     }
 
     public static HttpURLConnection getHttpURLConnection(final URL url, final Cache cache, final SSLSocketFactory sslSocketFactory) {
-        OkHttpClient client = new OkHttpClient();
+        if (cache == null && sslSocketFactory == null) {
+            return TileHttpClient.open(url);
+        }
+        // a clone keeps sharing the connection pool of the shared client
+        OkHttpClient client = TileHttpClient.getClient().clone();
         if (cache != null) {
             client.setCache(cache);
         }
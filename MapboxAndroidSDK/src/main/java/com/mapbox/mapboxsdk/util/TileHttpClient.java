@@ -0,0 +1,215 @@
+package com.mapbox.mapboxsdk.util;
+
+import com.mapbox.mapboxsdk.constants.MapboxConstants;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.OkUrlFactory;
+import com.squareup.okhttp.Protocol;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HTTP client shared by everything that fetches tiles, so that connections are kept alive
+ * and reused from one tile to the next, and multiplexed over HTTP/2 or SPDY where the server
+ * supports it, instead of every request paying for its own TCP and TLS handshakes.
+ *
+ * The settings apply to connections opened after they are changed.
+ */
+public final class TileHttpClient {
+
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+    public static final long DEFAULT_KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 6;
+    public static final long DEFAULT_CONNECT_TIMEOUT_MS = 15 * 1000;
+    public static final long DEFAULT_READ_TIMEOUT_MS = 20 * 1000;
+
+    private static int sMaxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+    private static long sKeepAliveDurationMs = DEFAULT_KEEP_ALIVE_DURATION_MS;
+    private static int sMaxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private static long sConnectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+    private static long sReadTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+    private static boolean sMultiplexingEnabled = true;
+
+    private static OkHttpClient sClient;
+    private static OkUrlFactory sUrlFactory;
+    private static ConcurrentHashMap<String, Semaphore> sHostPermits =
+            new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * This is a utility class with only static members.
+     */
+    private TileHttpClient() {
+    }
+
+    /**
+     * Get the shared client, creating it first if needed. Callers that need different settings,
+     * like a cache, should configure a clone of it, which still shares its connection pool.
+     *
+     * @return the shared client
+     */
+    public static synchronized OkHttpClient getClient() {
+        if (sClient == null) {
+            final OkHttpClient client = new OkHttpClient();
+            client.setConnectionPool(new ConnectionPool(sMaxIdleConnections, sKeepAliveDurationMs));
+            client.setConnectTimeout(sConnectTimeoutMs, TimeUnit.MILLISECONDS);
+            client.setReadTimeout(sReadTimeoutMs, TimeUnit.MILLISECONDS);
+            final List<Protocol> protocols = new ArrayList<Protocol>();
+            if (sMultiplexingEnabled) {
+                protocols.add(Protocol.HTTP_2);
+                protocols.add(Protocol.SPDY_3);
+            }
+            protocols.add(Protocol.HTTP_1_1);
+            client.setProtocols(protocols);
+            sClient = client;
+            sUrlFactory = new OkUrlFactory(client);
+        }
+        return sClient;
+    }
+
+    private static synchronized OkUrlFactory getUrlFactory() {
+        getClient();
+        return sUrlFactory;
+    }
+
+    /**
+     * Open a connection through the shared client.
+     *
+     * @param url the url to request
+     * @return the connection, not connected yet
+     */
+    public static HttpURLConnection open(final URL url) {
+        final HttpURLConnection connection = getUrlFactory().open(url);
+        connection.setRequestProperty("User-Agent", MapboxConstants.USER_AGENT);
+        return connection;
+    }
+
+    /**
+     * Request a url and return the response body, waiting first if the host already has the
+     * maximum number of requests in flight. The slot is given back when the stream is closed,
+     * so it must always be closed.
+     *
+     * @param url the url to request
+     * @return the response body
+     * @throws IOException if the request fails
+     */
+    public static InputStream openStream(final URL url) throws IOException {
+        return openStream(open(url));
+    }
+
+    /**
+     * Send the request of a connection and return the response body, waiting first if the host
+     * already has the maximum number of requests in flight. This lets callers set request
+     * headers and read response headers. The slot is given back when the stream is closed, so
+     * it must always be closed.
+     *
+     * @param connection a connection opened with {@link #open(URL)}, not connected yet
+     * @return the response body, empty for responses without one like 304
+     * @throws IOException if the request fails
+     */
+    public static InputStream openStream(final HttpURLConnection connection) throws IOException {
+        final URL url = connection.getURL();
+        final Semaphore permits = getHostPermits(url.getHost());
+        try {
+            permits.acquire();
+        } catch (final InterruptedException e) {
+            throw new IOException("Interrupted while waiting for " + url.getHost());
+        }
+        try {
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // some connections refuse to hand out a body that doesn't exist
+                permits.release();
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            return new FilterInputStream(connection.getInputStream()) {
+                private boolean mClosed = false;
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (!mClosed) {
+                            mClosed = true;
+                            permits.release();
+                        }
+                    }
+                }
+            };
+        } catch (final IOException e) {
+            permits.release();
+            throw e;
+        } catch (final RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private static Semaphore getHostPermits(final String host) {
+        final ConcurrentHashMap<String, Semaphore> hostPermits;
+        final int maxRequestsPerHost;
+        synchronized (TileHttpClient.class) {
+            hostPermits = sHostPermits;
+            maxRequestsPerHost = sMaxRequestsPerHost;
+        }
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            final Semaphore created = new Semaphore(maxRequestsPerHost);
+            permits = hostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Set how many idle connections are kept open for reuse.
+     */
+    public static synchronized void setMaxIdleConnections(final int maxIdleConnections) {
+        sMaxIdleConnections = Math.max(0, maxIdleConnections);
+        sClient = null;
+    }
+
+    /**
+     * Set how long an idle connection is kept open for reuse.
+     */
+    public static synchronized void setKeepAliveDuration(final long duration,
+            final TimeUnit unit) {
+        sKeepAliveDurationMs = unit.toMillis(duration);
+        sClient = null;
+    }
+
+    /**
+     * Set how many requests {@link #openStream(URL)} lets through to a single host at once.
+     */
+    public static synchronized void setMaxRequestsPerHost(final int maxRequestsPerHost) {
+        sMaxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+        // requests in flight give their slot back to the semaphores they got it from
+        sHostPermits = new ConcurrentHashMap<String, Semaphore>();
+    }
+
+    public static synchronized void setTimeouts(final long connectTimeout,
+            final long readTimeout, final TimeUnit unit) {
+        sConnectTimeoutMs = unit.toMillis(connectTimeout);
+        sReadTimeoutMs = unit.toMillis(readTimeout);
+        sClient = null;
+    }
+
+    /**
+     * Set whether to offer HTTP/2 and SPDY to servers, so that concurrent requests share a
+     * single connection.
+     */
+    public static synchronized void setMultiplexingEnabled(final boolean enabled) {
+        sMultiplexingEnabled = enabled;
+        sClient = null;
+    }
+}
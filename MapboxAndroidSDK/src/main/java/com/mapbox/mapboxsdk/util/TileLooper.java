@@ -12,6 +12,9 @@ import uk.co.senab.bitmapcache.CacheableBitmapDrawable;
 
 /**
  * A class that will loop around all the map tiles in the given viewport.
+ *
+ * The tiles of a loop are kept for the next one, so that looping over a viewport that hasn't
+ * changed, or only partly, reuses them instead of allocating new ones on every frame.
  */
 public abstract class TileLooper {
 
@@ -21,6 +24,27 @@ public abstract class TileLooper {
     protected List<CacheableBitmapDrawable> mBeingUsedDrawables =
             new ArrayList<CacheableBitmapDrawable>();
 
+    /**
+     * The tiles of the last loop, row by row, and the tiles of the current one.
+     */
+    private MapTile[] mTiles = new MapTile[0];
+    private MapTile[] mNextTiles = new MapTile[0];
+    private int mTilesLeft;
+    private int mTilesTop;
+    private int mTilesWidth;
+    private int mTilesHeight;
+
+    private Handler mHandler;
+    private final Runnable mReleaseDrawables = new Runnable() {
+        @Override
+        public void run() {
+            for (CacheableBitmapDrawable drawable : mBeingUsedDrawables) {
+                drawable.setBeingUsed(false);
+            }
+            mBeingUsedDrawables.clear();
+        }
+    };
+
     public final void loop(final Canvas pCanvas, final String pCacheKey, final float pZoomLevel,
             final int pTileSizePx, final Rect pViewPort, final Rect pClipRect) {
         // Calculate the amount of tiles needed for each side around the center one.
@@ -36,19 +60,51 @@ public abstract class TileLooper {
         final int mapTileUpperBound = 1 << roundedZoom;
         initializeLoop(pZoomLevel, pTileSizePx);
 
+        final int width = mLowerRight.x - mUpperLeft.x + 1;
+        final int height = mLowerRight.y - mUpperLeft.y + 1;
+        if (mNextTiles.length < width * height) {
+            mNextTiles = new MapTile[width * height];
+        }
+
         int tileX, tileY;
 
         for (int y = mUpperLeft.y; y <= mLowerRight.y; y++) {
             for (int x = mUpperLeft.x; x <= mLowerRight.x; x++) {
                 tileY = GeometryMath.mod(y, mapTileUpperBound);
                 tileX = GeometryMath.mod(x, mapTileUpperBound);
-                final MapTile tile = new MapTile(pCacheKey, roundedZoom, tileX, tileY);
+                final MapTile tile = getTile(pCacheKey, roundedZoom, tileX, tileY, x, y);
+                mNextTiles[(y - mUpperLeft.y) * width + (x - mUpperLeft.x)] = tile;
                 handleTile(pCanvas, pCacheKey, pTileSizePx, tile, x, y, pClipRect);
             }
         }
+
+        // the tiles of this loop are the ones to reuse in the next
+        final MapTile[] tiles = mTiles;
+        mTiles = mNextTiles;
+        mNextTiles = tiles;
+        mTilesLeft = mUpperLeft.x;
+        mTilesTop = mUpperLeft.y;
+        mTilesWidth = width;
+        mTilesHeight = height;
         finalizeLoop();
     }
 
+    /**
+     * Get the tile drawn at a position, from the last loop if it drew the same tile there.
+     */
+    private MapTile getTile(final String pCacheKey, final int pZoom, final int pTileX,
+            final int pTileY, final int pX, final int pY) {
+        final int column = pX - mTilesLeft;
+        final int row = pY - mTilesTop;
+        if (column >= 0 && column < mTilesWidth && row >= 0 && row < mTilesHeight) {
+            final MapTile tile = mTiles[row * mTilesWidth + column];
+            if (tile != null && tile.isSameTile(pCacheKey, pZoom, pTileX, pTileY)) {
+                return tile;
+            }
+        }
+        return new MapTile(pCacheKey, pZoom, pTileX, pTileY);
+    }
+
     public abstract void initializeLoop(float pZoomLevel, int pTileSizePx);
 
     public abstract void handleTile(Canvas pCanvas, final String pCacheKey, int pTileSizePx,
@@ -56,14 +112,9 @@ public abstract class TileLooper {
 
     public void finalizeLoop() {
         //we delay just to make sure drawable bitmaps are not reused while being drawn.
-        (new Handler()).postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                for (CacheableBitmapDrawable drawable : mBeingUsedDrawables) {
-                    drawable.setBeingUsed(false);
-                }
-                mBeingUsedDrawables.clear();
-            }
-        }, 1);
+        if (mHandler == null) {
+            mHandler = new Handler();
+        }
+        mHandler.postDelayed(mReleaseDrawables, 1);
     }
 }
@@ -224,6 +224,7 @@ public class MapController implements MapViewConstants {
             return false;
         }
 
+        prefetchAnimationTarget(p, dCurrentScroll, currentZoom, targetZoom, zoomAndMove);
         mMapView.mMultiTouchScalePoint.set(p.x, p.y);
         List<PropertyValuesHolder> propertiesList = new ArrayList<PropertyValuesHolder>();
         zoomDeltaScroll.set(0, 0);
@@ -279,6 +280,23 @@ public class MapController implements MapViewConstants {
         return false;
     }
 
+    /**
+     * Prefetch the tiles of where an animation ends. Without a move, the point zoomed about
+     * stays in place and the center gets closer to it, or further, by the zoom factor.
+     */
+    private void prefetchAnimationTarget(final PointF point, final PointF currentScroll,
+                                         final float currentZoom, final float targetZoom,
+                                         final boolean move) {
+        double centerX = point.x;
+        double centerY = point.y;
+        if (!move) {
+            final double factor = Math.pow(2, targetZoom - currentZoom);
+            centerX += (currentScroll.x - point.x) / factor;
+            centerY += (currentScroll.y - point.y) / factor;
+        }
+        mMapView.getTilePrefetcher().prefetch(centerX, centerY, currentZoom, targetZoom);
+    }
+
     public MapView setZoom(final float zoomlevel) {
         return setZoom(zoomlevel, false);
     }
@@ -52,11 +52,13 @@ import com.mapbox.mapboxsdk.tileprovider.tilesource.MapboxTileLayer;
 import com.mapbox.mapboxsdk.tileprovider.util.SimpleInvalidationHandler;
 import com.mapbox.mapboxsdk.util.BitmapUtils;
 import com.mapbox.mapboxsdk.util.DataLoadingUtils;
+import com.mapbox.mapboxsdk.util.DebugLog;
 import com.mapbox.mapboxsdk.util.GeometryMath;
 import com.mapbox.mapboxsdk.util.NetworkUtils;
 import com.mapbox.mapboxsdk.util.constants.UtilConstants;
 import com.mapbox.mapboxsdk.views.util.Projection;
 import com.mapbox.mapboxsdk.views.util.TileLoadedListener;
+import com.mapbox.mapboxsdk.views.util.TilePrefetcher;
 import com.mapbox.mapboxsdk.views.util.TilesLoadedListener;
 import com.mapbox.mapboxsdk.views.util.constants.MapViewConstants;
 import com.mapbox.mapboxsdk.views.util.constants.MapViewLayouts;
@@ -153,6 +155,7 @@ public class MapView extends ViewGroup
 
     // for speed (avoiding allocations)
     protected final MapTileLayerBase mTileProvider;
+    private final TilePrefetcher mTilePrefetcher = new TilePrefetcher(this);
 
     private final Handler mTileRequestCompleteHandler;
 
@@ -578,6 +581,14 @@ public class MapView extends ViewGroup
         return mTileProvider;
     }
 
+    /**
+     * Returns the component loading the tiles of where the map is flung or animated to ahead
+     * of time
+     */
+    public TilePrefetcher getTilePrefetcher() {
+        return mTilePrefetcher;
+    }
+
     /**
      * Returns the map's scroller
      */
@@ -1505,7 +1516,7 @@ public class MapView extends ViewGroup
 
         try {
             if (this.getOverlayManager().onTouchEvent(rotatedEvent, this)) {
-                Log.d(TAG, "OverlayManager handled onTouchEvent");
+                DebugLog.d(TAG, "OverlayManager handled onTouchEvent");
                 return true;
             }
 
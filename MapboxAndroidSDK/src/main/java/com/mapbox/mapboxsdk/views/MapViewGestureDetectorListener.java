@@ -51,6 +51,9 @@ public class MapViewGestureDetectorListener extends SimpleOnGestureListener {
         this.mapView.mIsFlinging = true;
         this.mapView.mScroller.fling(this.mapView.getScrollX(), this.mapView.getScrollY(),
                 (int) -velocityX, (int) -velocityY, -worldSize, worldSize, -worldSize, worldSize);
+        this.mapView.getTilePrefetcher().onFling(this.mapView.getScrollX(),
+                this.mapView.getScrollY(), this.mapView.mScroller.getFinalX(),
+                this.mapView.mScroller.getFinalY());
         return true;
     }
 
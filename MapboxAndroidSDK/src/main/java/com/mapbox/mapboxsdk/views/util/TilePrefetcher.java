@@ -0,0 +1,129 @@
+package com.mapbox.mapboxsdk.views.util;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.MapTileLayerBase;
+import com.mapbox.mapboxsdk.tileprovider.TileViewport;
+import com.mapbox.mapboxsdk.views.MapView;
+
+/**
+ * Requests the tiles of the viewport the map is moving to before it gets there: the end of a
+ * fling and the way to it, or the target of an animation at its target zoom level.
+ *
+ * Prefetched tiles are loaded after the tiles on screen, and no more than a budget of them are
+ * queued or loading at once, so that prefetching never holds up the tiles being drawn.
+ *
+ * Positions are in the map pixels of {@link MapView#getScrollX()}, whose origin is the center
+ * of the world. Methods must be called from the UI thread.
+ */
+public class TilePrefetcher {
+
+    /**
+     * The default number of prefetch requests that can be queued or loading at once.
+     */
+    public static final int DEFAULT_BUDGET = 16;
+
+    private final MapView mMapView;
+    private int mBudget = DEFAULT_BUDGET;
+    private boolean mEnabled = true;
+
+    public TilePrefetcher(final MapView pMapView) {
+        mMapView = pMapView;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public void setEnabled(final boolean pEnabled) {
+        mEnabled = pEnabled;
+    }
+
+    public int getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * Set how many prefetch requests can be queued or loading at once.
+     *
+     * @param pBudget the number of requests, 0 to prefetch nothing
+     */
+    public void setBudget(final int pBudget) {
+        mBudget = Math.max(0, pBudget);
+    }
+
+    /**
+     * Prefetch the tiles along a fling, those of its end first, then those on the way back
+     * from it, one viewport apart.
+     *
+     * @param pStartX where the fling starts
+     * @param pStartY where the fling starts
+     * @param pFinalX where the fling ends
+     * @param pFinalY where the fling ends
+     */
+    public void onFling(final int pStartX, final int pStartY, final int pFinalX,
+            final int pFinalY) {
+        final int step = Math.min(mMapView.getMeasuredWidth(), mMapView.getMeasuredHeight());
+        if (!mEnabled || step <= 0) {
+            return;
+        }
+        final float zoom = mMapView.getZoomLevel(false);
+        final double dx = pFinalX - pStartX;
+        final double dy = pFinalY - pStartY;
+        final int steps = (int) Math.ceil(Math.sqrt(dx * dx + dy * dy) / step);
+        for (int i = steps; i > 0; i--) {
+            if (!prefetch(pStartX + dx * i / steps, pStartY + dy * i / steps, zoom, zoom)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Prefetch the tiles of the viewport centered on a point, from the center out.
+     *
+     * @param pCenterX the center, in map pixels at pFromZoom
+     * @param pCenterY the center, in map pixels at pFromZoom
+     * @param pFromZoom the zoom level of the center coordinates
+     * @param pToZoom the zoom level to prefetch the tiles of
+     * @return false if the budget ran out
+     */
+    public boolean prefetch(final double pCenterX, final double pCenterY, final float pFromZoom,
+            final float pToZoom) {
+        final MapTileLayerBase provider = mMapView.getTileProvider();
+        final int tileSize = Projection.getTileSize();
+        final int width = mMapView.getMeasuredWidth();
+        final int height = mMapView.getMeasuredHeight();
+        if (!mEnabled || provider == null || tileSize <= 0 || width <= 0 || height <= 0) {
+            return true;
+        }
+        if (provider.getPrefetchCount() >= mBudget) {
+            return false;
+        }
+
+        final int zoom = Math.max(0, (int) Math.floor(pToZoom));
+        final int worldTiles = 1 << zoom;
+        // the center and half the viewport, in pixels at the zoom level of the tiles
+        final double scale = Math.pow(2, zoom - pFromZoom);
+        final double x = (pCenterX + (Projection.mapSize(pFromZoom) >> 1)) * scale;
+        final double y = (pCenterY + (Projection.mapSize(pFromZoom) >> 1)) * scale;
+        final double viewScale = Math.pow(2, zoom - pToZoom);
+        final double halfWidth = width * viewScale / 2;
+        final double halfHeight = height * viewScale / 2;
+
+        final int minX = (int) Math.floor((x - halfWidth) / tileSize);
+        final int maxX = (int) Math.floor((x + halfWidth) / tileSize);
+        final int minY = Math.max(0, (int) Math.floor((y - halfHeight) / tileSize));
+        final int maxY = Math.min(worldTiles - 1, (int) Math.floor((y + halfHeight) / tileSize));
+        final int centerX = (int) Math.floor(x / tileSize);
+        final int centerY = Math.min(maxY, Math.max(minY, (int) Math.floor(y / tileSize)));
+
+        final String cacheKey = provider.getCacheKey();
+        return new TileViewport(zoom, minX, minY, maxX, maxY).visitFromCenter(centerX, centerY,
+                new TileViewport.TileVisitor() {
+                    @Override
+                    public boolean visit(final int pX, final int pY) {
+                        return !provider.prefetchMapTile(new MapTile(cacheKey, zoom, pX, pY))
+                                || provider.getPrefetchCount() < mBudget;
+                    }
+                });
+    }
+}
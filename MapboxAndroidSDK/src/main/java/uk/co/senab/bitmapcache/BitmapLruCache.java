@@ -29,6 +29,7 @@ import android.util.Log;
 import com.jakewharton.disklrucache.DiskLruCache;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -111,10 +112,47 @@ public class BitmapLruCache {
         }
     }
 
+    /**
+     * Maps the URLs of values to the keys they are kept under in the memory cache. To be
+     * usable with {@link #getFromMemoryCache(long)}, keys must be unique to their URL; keys
+     * that may collide must have their top bit set, so that lookups by URL check the URL of the
+     * value they find. Set it with {@link Builder#setMemoryKeyFunction(MemoryKeyFunction)}.
+     */
+    public static interface MemoryKeyFunction {
+        long getMemoryKey(String url);
+    }
+
+    /**
+     * Hashes URLs into 63 bits, with the top bit set to mark the keys as possibly colliding.
+     */
+    public static final MemoryKeyFunction HASHED_MEMORY_KEYS = new MemoryKeyFunction() {
+        @Override
+        public long getMemoryKey(final String url) {
+            // 64-bit FNV-1a
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0, length = url.length(); i < length; i++) {
+                hash ^= url.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash | Long.MIN_VALUE;
+        }
+    };
+
     // The number of seconds after the last edit that the Disk Cache should be
     // flushed
     static final int DISK_CACHE_FLUSH_DELAY_SECS = 5;
 
+    // The size of the chunks streams are read in, and the initial size of
+    // the buffers they are read into
+    static final int TEE_BUFFER_SIZE = 1024 * 16;
+
+    // Each entry of the Disk Cache holds the image, and metadata the caller
+    // may keep with it, which goes when the entry is evicted or replaced
+    static final int DISK_CACHE_VERSION = 1;
+    static final int DISK_CACHE_VALUE_COUNT = 2;
+    static final int DISK_CACHE_IMAGE = 0;
+    static final int DISK_CACHE_METADATA = 1;
+
     /**
      * @throws IllegalStateException if the calling thread is the main/UI thread.
      */
@@ -137,8 +175,6 @@ public class BitmapLruCache {
         return Md5.encode(url);
     }
 
-    private File mTempDir;
-
     private Resources mResources;
 
     /**
@@ -146,6 +182,8 @@ public class BitmapLruCache {
      */
     private BitmapMemoryLruCache mMemoryCache;
 
+    private MemoryKeyFunction mMemoryKeyFunction = HASHED_MEMORY_KEYS;
+
     private RecyclePolicy mRecyclePolicy;
 
     /**
@@ -168,7 +206,6 @@ public class BitmapLruCache {
             // Make sure we have the application context
             context = context.getApplicationContext();
 
-            mTempDir = context.getCacheDir();
             mResources = context.getResources();
         }
     }
@@ -198,7 +235,12 @@ public class BitmapLruCache {
             checkNotOnMainThread();
 
             try {
-                return null != mDiskCache.get(transformUrlForDiskCacheKey(url));
+                final DiskLruCache.Snapshot snapshot =
+                        mDiskCache.get(transformUrlForDiskCacheKey(url));
+                if (null != snapshot) {
+                    snapshot.close();
+                    return true;
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -216,7 +258,7 @@ public class BitmapLruCache {
      *         false} otherwise.
      */
     public boolean containsInMemoryCache(String url) {
-        return null != mMemoryCache && null != mMemoryCache.get(url);
+        return null != mMemoryCache && null != getFromMemoryCacheUnchecked(url);
     }
 
     /**
@@ -275,7 +317,7 @@ public class BitmapLruCache {
 
                 if (null != result) {
                     if (null != mMemoryCache) {
-                        mMemoryCache.put(result);
+                        mMemoryCache.put(getMemoryKey(url), result);
                     }
                 } else {
                     // If we get here, the file in the cache can't be
@@ -304,27 +346,76 @@ public class BitmapLruCache {
         CacheableBitmapDrawable result = null;
 
         if (null != mMemoryCache) {
-            synchronized (mMemoryCache) {
-                result = mMemoryCache.get(url);
+            final long key = getMemoryKey(url);
+            result = mMemoryCache.get(key);
 
+            if (null != result && key < 0 && !url.equals(result.getUrl())) {
+                // another URL with the same hashed key
+                result = null;
+            } else if (null != result && !result.isBitmapValid()) {
                 // If we get a value, but it has a invalid bitmap, remove it
-                if (null != result && !result.isBitmapValid()) {
-                    mMemoryCache.remove(url);
-                    result = null;
-                }
+                mMemoryCache.remove(key, result);
+                result = null;
             }
         }
 
         return result;
     }
 
+    /**
+     * Returns the value for a memory key in the memory cache only, without hashing or comparing
+     * its URL. This method is safe to be called from the main thread.
+     *
+     * @param key - the key given by the {@link MemoryKeyFunction} for the URL of the image,
+     *            which must not be a possibly colliding one
+     * @return Value for {@code key} from memory cache, or {@code null} if the memory cache is
+     *         not enabled.
+     */
+    public CacheableBitmapDrawable getFromMemoryCache(final long key) {
+        CacheableBitmapDrawable result = null;
 
-    public Bitmap getBitmapFromRemoved(final int width, final int height) {
         if (null != mMemoryCache) {
-            synchronized (mMemoryCache) {
-                return mMemoryCache.getBitmapFromRemoved(width, height);
+            result = mMemoryCache.get(key);
+
+            // If we get a value, but it has a invalid bitmap, remove it
+            if (null != result && !result.isBitmapValid()) {
+                mMemoryCache.remove(key, result);
+                result = null;
             }
         }
+
+        return result;
+    }
+
+    private CacheableBitmapDrawable getFromMemoryCacheUnchecked(final String url) {
+        final long key = getMemoryKey(url);
+        final CacheableBitmapDrawable result = mMemoryCache.get(key);
+        if (null != result && key < 0 && !url.equals(result.getUrl())) {
+            return null;
+        }
+        return result;
+    }
+
+    private long getMemoryKey(final String url) {
+        return mMemoryKeyFunction.getMemoryKey(url);
+    }
+
+    /**
+     * Removes the value for {@code url} from the memory cache, unless the value under its key
+     * belongs to another URL.
+     */
+    private void removeFromMemoryCacheInternal(final String url) {
+        final CacheableBitmapDrawable value = getFromMemoryCacheUnchecked(url);
+        if (null != value) {
+            mMemoryCache.remove(getMemoryKey(url), value);
+        }
+    }
+
+
+    public Bitmap getBitmapFromRemoved(final int width, final int height) {
+        if (null != mMemoryCache) {
+            return mMemoryCache.getBitmapFromRemoved(width, height);
+        }
         return null;
     }
 
@@ -390,9 +481,7 @@ public class BitmapLruCache {
     public CacheableBitmapDrawable putInMemoryCache(final String url, final CacheableBitmapDrawable drawable,
                                                     Bitmap.CompressFormat compressFormat, int compressQuality) {
         if (null != mMemoryCache) {
-            synchronized (mMemoryCache) {
-                mMemoryCache.put(drawable);
-            }
+            mMemoryCache.put(getMemoryKey(drawable.getUrl()), drawable);
         }
         return drawable;
     }
@@ -428,9 +517,10 @@ public class BitmapLruCache {
 
             try {
                 DiskLruCache.Editor editor = mDiskCache.edit(key);
-                os = editor.newOutputStream(0);
+                os = editor.newOutputStream(DISK_CACHE_IMAGE);
                 drawable.getBitmap().compress(compressFormat, compressQuality, os);
                 os.flush();
+                editor.set(DISK_CACHE_METADATA, "");
                 editor.commit();
             } catch (IOException e) {
                 Log.e(Constants.LOG_TAG, "Error while writing to disk cache", e);
@@ -480,8 +570,8 @@ public class BitmapLruCache {
      * <ul>
      * <li>If the memory cache is enabled, the decoded Bitmap will be cached to
      * memory.</li>
-     * <li>If the disk cache is enabled, a temporay version of the contents is
-     * copied to disk before decoding and then cached to disk.</li>
+     * <li>If the disk cache is enabled, the contents are cached to disk as
+     * they are.</li>
      * </ul>
      * <p/>
      * You should not call this method from the main/UI thread.
@@ -494,6 +584,19 @@ public class BitmapLruCache {
      */
     public CacheableBitmapDrawable put(final String url, final byte[] data,
             final BitmapFactory.Options decodeOpts) {
+        return put(url, data, decodeOpts, null);
+    }
+
+    /**
+     * Caches resulting bitmap from {@code data} for {@code url} into all enabled caches, like
+     * {@link #put(String, byte[], BitmapFactory.Options)}, and keeps {@code metadata} with it in
+     * the disk cache.
+     *
+     * @param metadata - Metadata to keep with the contents in the disk cache, see {@link
+     *                 #getDiskCacheMetadata(String)}. May be null.
+     */
+    public CacheableBitmapDrawable put(final String url, final byte[] data,
+            final BitmapFactory.Options decodeOpts, final String metadata) {
         checkNotOnMainThread();
 
         if (null == mDiskCache) {
@@ -502,14 +605,13 @@ public class BitmapLruCache {
                     decodeOpts);
             if (null != d) {
                 if (null != mMemoryCache) {
-                    d.setCached(true);
-                    mMemoryCache.put(d.getUrl(), d);
+                    mMemoryCache.put(getMemoryKey(d.getUrl()), d);
                 }
                 return d;
             }
         }
 
-        return put(url, new ByteArrayInputStream(data), decodeOpts);
+        return put(url, new ByteArrayInputStream(data), decodeOpts, metadata);
     }
 
     /**
@@ -518,14 +620,15 @@ public class BitmapLruCache {
      * allows the original image contents to be cached, rather than a
      * re-compressed version.
      * <p />
-     * The contents of the InputStream will be copied to a temporary file, then
-     * the file will be decoded into a Bitmap, using the optional
+     * The stream is read once: as its contents are read, they are written
+     * straight to the disk cache, if enabled, and kept in memory, where they
+     * are decoded into a Bitmap once complete, using the optional
      * <code>decodeOpts</code>. Providing the decode worked:
      * <ul>
      * <li>If the memory cache is enabled, the decoded Bitmap will be cached to
      * memory.</li>
      * <li>If the disk cache is enabled, the contents of the original stream
-     * will be cached to disk.</li>
+     * are committed to disk. Otherwise they are discarded.</li>
      * </ul>
      * <p/>
      * You should not call this method from the main/UI thread.
@@ -538,69 +641,199 @@ public class BitmapLruCache {
      */
     public CacheableBitmapDrawable put(final String url, final InputStream inputStream,
             final BitmapFactory.Options decodeOpts) {
+        return put(url, inputStream, decodeOpts, null);
+    }
+
+    /**
+     * Caches resulting bitmap from {@code inputStream} for {@code url} into all enabled caches,
+     * like {@link #put(String, InputStream, BitmapFactory.Options)}, and keeps {@code metadata}
+     * with it in the disk cache.
+     *
+     * @param metadata - Metadata to keep with the contents in the disk cache, see {@link
+     *                 #getDiskCacheMetadata(String)}. May be null.
+     */
+    public CacheableBitmapDrawable put(final String url, final InputStream inputStream,
+            final BitmapFactory.Options decodeOpts, final String metadata) {
         if (inputStream == null) return null;
         checkNotOnMainThread();
 
-        // First we need to save the stream contents to a temporary file, so it
-        // can be read multiple times
-        File tmpFile = null;
-        try {
-            tmpFile = File.createTempFile("bitmapcache_", null, mTempDir);
-
-            // Pipe InputStream to file
-            IoUtils.copy(inputStream, tmpFile);
-        } catch (IOException e) {
-            Log.e(Constants.LOG_TAG, "Error writing to saving stream to temp file: " + url, e);
+        ReentrantLock lock = null;
+        DiskLruCache.Editor editor = null;
+        OutputStream diskStream = null;
+        if (null != mDiskCache) {
+            final String key = transformUrlForDiskCacheKey(url);
+            lock = getLockForDiskCacheEdit(key);
+            lock.lock();
+            try {
+                // null if another thread is writing the same entry, which it then keeps
+                editor = mDiskCache.edit(key);
+                if (null != editor) {
+                    diskStream = editor.newOutputStream(DISK_CACHE_IMAGE);
+                }
+            } catch (IOException e) {
+                Log.e(Constants.LOG_TAG, "Error opening disk cache entry. URL: " + url, e);
+            }
         }
 
         CacheableBitmapDrawable d = null;
-
-        if (null != tmpFile) {
-            // Try and decode File
-            d = decodeBitmapToDrawable(new FileInputStreamProvider(tmpFile), url, decodeOpts);
-
-            if (d != null) {
-                if (null != mMemoryCache) {
-                    d.setCached(true);
-                    synchronized (mMemoryCache) {
-                        mMemoryCache.put(d.getUrl(), d);
-                    }
-                }
-
-                if (null != mDiskCache) {
-                    final String key = transformUrlForDiskCacheKey(url);
-                    final ReentrantLock lock = getLockForDiskCacheEdit(url);
-                    lock.lock();
-
+        try {
+            final ByteArrayOutputStream memoryStream = new ByteArrayOutputStream(TEE_BUFFER_SIZE);
+            final byte[] buffer = new byte[TEE_BUFFER_SIZE];
+            int n;
+            while (-1 != (n = inputStream.read(buffer))) {
+                memoryStream.write(buffer, 0, n);
+                if (null != diskStream) {
                     try {
-                        DiskLruCache.Editor editor = mDiskCache.edit(key);
-                        IoUtils.copy(tmpFile, editor.newOutputStream(0));
-                        editor.commit();
+                        diskStream.write(buffer, 0, n);
                     } catch (IOException e) {
                         Log.e(Constants.LOG_TAG, "Error writing to disk cache. URL: " + url, e);
-                    } finally {
-                        lock.unlock();
-                        scheduleDiskCacheFlush();
+                        IoUtils.closeStream(diskStream);
+                        diskStream = null;
                     }
                 }
             }
 
-            // Finally, delete the temporary file
-            tmpFile.delete();
+            d = decodeBitmapToDrawable(new ByteArrayInputStreamProvider(memoryStream.toByteArray()),
+                    url, decodeOpts);
+            if (d != null && null != mMemoryCache) {
+                mMemoryCache.put(getMemoryKey(d.getUrl()), d);
+            }
+        } catch (IOException e) {
+            Log.e(Constants.LOG_TAG, "Error reading stream: " + url, e);
+        } finally {
+            IoUtils.closeStream(inputStream);
+            if (null != editor) {
+                // only keep what could be decoded, and was written in full
+                final boolean complete = (d != null && null != diskStream);
+                IoUtils.closeStream(diskStream);
+                try {
+                    if (complete) {
+                        editor.set(DISK_CACHE_METADATA, (null != metadata) ? metadata : "");
+                        editor.commit();
+                    } else {
+                        editor.abort();
+                    }
+                } catch (IOException e) {
+                    Log.e(Constants.LOG_TAG, "Error writing to disk cache. URL: " + url, e);
+                }
+            }
+            if (null != lock) {
+                lock.unlock();
+                scheduleDiskCacheFlush();
+            }
         }
 
         return d;
     }
 
+    /**
+     * Returns the bytes cached on disk for {@code url}, as they were stored, without decoding
+     * them. This is useful to export cached images. You should not call this method from
+     * main/UI thread.
+     *
+     * @param url - String representing the URL of the image
+     * @return the cached bytes, or {@code null} if the disk cache is not enabled or doesn't
+     *         contain {@code url}.
+     */
+    public byte[] getRawFromDiskCache(final String url) {
+        if (null == mDiskCache) {
+            return null;
+        }
+        checkNotOnMainThread();
+
+        final InputStream is =
+                new SnapshotInputStreamProvider(transformUrlForDiskCacheKey(url)).getInputStream();
+        if (null == is) {
+            return null;
+        }
+        try {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream(TEE_BUFFER_SIZE);
+            final byte[] buffer = new byte[TEE_BUFFER_SIZE];
+            int n;
+            while (-1 != (n = is.read(buffer))) {
+                os.write(buffer, 0, n);
+            }
+            return os.toByteArray();
+        } catch (IOException e) {
+            Log.e(Constants.LOG_TAG, "Error reading from disk cache. URL: " + url, e);
+            return null;
+        } finally {
+            IoUtils.closeStream(is);
+        }
+    }
+
+    /**
+     * Returns the metadata kept with the contents cached on disk for {@code url}. You should not
+     * call this method from main/UI thread.
+     *
+     * @param url - String representing the URL of the image
+     * @return the metadata, empty if the contents have none, or {@code null} if the disk cache is
+     *         not enabled or doesn't contain {@code url}.
+     */
+    public String getDiskCacheMetadata(final String url) {
+        if (null == mDiskCache) {
+            return null;
+        }
+        checkNotOnMainThread();
+
+        DiskLruCache.Snapshot snapshot = null;
+        try {
+            snapshot = mDiskCache.get(transformUrlForDiskCacheKey(url));
+            return (null != snapshot) ? snapshot.getString(DISK_CACHE_METADATA) : null;
+        } catch (IOException e) {
+            Log.e(Constants.LOG_TAG, "Error reading from disk cache. URL: " + url, e);
+            return null;
+        } finally {
+            if (null != snapshot) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * Replaces the metadata kept with the contents cached on disk for {@code url}, leaving the
+     * contents as they are. Nothing is stored if the disk cache doesn't contain {@code url}. You
+     * should not call this method from main/UI thread.
+     *
+     * @param url - String representing the URL of the image
+     * @param metadata - the metadata, or null to drop it
+     */
+    public void putDiskCacheMetadata(final String url, final String metadata) {
+        if (null == mDiskCache) {
+            return;
+        }
+        checkNotOnMainThread();
+
+        final String key = transformUrlForDiskCacheKey(url);
+        final ReentrantLock lock = getLockForDiskCacheEdit(key);
+        lock.lock();
+        try {
+            final DiskLruCache.Snapshot snapshot = mDiskCache.get(key);
+            if (null == snapshot) {
+                return;
+            }
+            // null if the entry changed since the snapshot
+            final DiskLruCache.Editor editor = snapshot.edit();
+            snapshot.close();
+            if (null != editor) {
+                editor.set(DISK_CACHE_METADATA, (null != metadata) ? metadata : "");
+                editor.commit();
+            }
+        } catch (IOException e) {
+            Log.e(Constants.LOG_TAG, "Error writing to disk cache. URL: " + url, e);
+        } finally {
+            lock.unlock();
+            scheduleDiskCacheFlush();
+        }
+    }
+
     /**
      * Removes the entry for {@code url} from all enabled caches, if it exists. <p/> If you have the
      * disk cache enabled, you should not call this method from main/UI thread.
      */
     public void remove(String url) {
         if (null != mMemoryCache) {
-            synchronized (mMemoryCache) {
-                mMemoryCache.remove(url);
-            }
+            removeFromMemoryCacheInternal(url);
         }
 
         if (null != mDiskCache) {
@@ -620,9 +853,7 @@ public class BitmapLruCache {
      */
     public void removeFromMemoryCache(String url) {
         if (null != mMemoryCache) {
-            synchronized (mMemoryCache) {
-                mMemoryCache.remove(url);
-            }
+            removeFromMemoryCacheInternal(url);
         }
     }
 
@@ -642,6 +873,18 @@ public class BitmapLruCache {
         }
     }
 
+    /**
+     * Sets the maximum size of the memory cache (if enabled), evicting the least recently used
+     * entries if it shrinks.
+     *
+     * @param maxSize - the maximum size in bytes
+     */
+    public void resizeMemoryCache(int maxSize) {
+        if (null != mMemoryCache) {
+            mMemoryCache.resize(maxSize);
+        }
+    }
+
     /**
      * This method iterates through the memory cache (if enabled) and removes any entries which are
      * not currently being displayed. A good place to call this would be from {@link
@@ -649,17 +892,13 @@ public class BitmapLruCache {
      */
     public void trimMemory() {
         if (null != mMemoryCache) {
-            synchronized (mMemoryCache) {
-                mMemoryCache.trimMemory();
-            }
+            mMemoryCache.trimMemory();
         }
     }
 
     public void purgeMemoryCache() {
         if (null != mMemoryCache) {
-            synchronized (mMemoryCache) {
-                mMemoryCache.evictAll();
-            }
+            mMemoryCache.evictAll();
         }
     }
 
@@ -684,6 +923,10 @@ public class BitmapLruCache {
         }
     }
 
+    void setMemoryKeyFunction(MemoryKeyFunction memoryKeyFunction) {
+        mMemoryKeyFunction = memoryKeyFunction;
+    }
+
     void setMemoryCache(BitmapMemoryLruCache memoryCache) {
         mMemoryCache = memoryCache;
         mRecyclePolicy = memoryCache.getRecyclePolicy();
@@ -727,19 +970,47 @@ public class BitmapLruCache {
         return createCacheableBitmapDrawable(result, url, source.get());
     }
 
+    /**
+     * Set the size a bitmap is expected to decode to, so that a bitmap to decode into can be
+     * found without decoding the bounds of the image first. If the image turns out to be of
+     * another size, it is decoded again without reusing a bitmap.
+     *
+     * @param opts the options to decode with
+     * @return the options
+     */
+    public static BitmapFactory.Options setExpectedSize(BitmapFactory.Options opts, int width,
+            int height) {
+        opts.outWidth = width;
+        opts.outHeight = height;
+        return opts;
+    }
+
+    /**
+     * @return the number of decodes that found a bitmap of the right size to decode into.
+     */
+    public long getBitmapPoolHitCount() {
+        return (null != mMemoryCache) ? mMemoryCache.getPoolHitCount() : 0;
+    }
+
+    /**
+     * @return the number of decodes that had to allocate a new bitmap.
+     */
+    public long getBitmapPoolMissCount() {
+        return (null != mMemoryCache) ? mMemoryCache.getPoolMissCount() : 0;
+    }
+
     public Bitmap decodeBitmap(InputStreamProvider ip, BitmapFactory.Options opts) {
         return decodeBitmap(ip, opts, null);
     }
     public Bitmap decodeBitmap(InputStreamProvider ip, BitmapFactory.Options opts,
                                AtomicInteger source) {
         Bitmap bm = null;
-        InputStream is = null;
         if (source != null) {
             source.set(CacheableBitmapDrawable.SOURCE_NEW);
         }
 
         try {
-            if (mRecyclePolicy.canInBitmap()) {
+            if (mRecyclePolicy.canInBitmap() && null != mMemoryCache) {
                 // Create an options instance if we haven't been provided with one
                 if (opts == null) {
                     opts = new BitmapFactory.Options();
@@ -754,52 +1025,72 @@ public class BitmapLruCache {
                 }
             }
 
-            // Get InputStream for actual decode
-            is = ip.getInputStream();
-            // Decode stream
-            if (is == null && ip instanceof ByteArrayInputStreamProvider) {
-                byte[] data = ((ByteArrayInputStreamProvider) ip).array;
-                bm = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
-            } else {
-                bm = BitmapFactory.decodeStream(is, null, opts);
+            try {
+                bm = decodeStream(ip, opts);
+            } catch (IllegalArgumentException e) {
+                if (null == opts || null == opts.inBitmap) {
+                    throw e;
+                }
+            }
+            if (null == bm && null != opts && null != opts.inBitmap) {
+                // the image isn't the size it was expected to be
+                opts.inBitmap = null;
+                if (source != null) {
+                    source.set(CacheableBitmapDrawable.SOURCE_NEW);
+                }
+                bm = decodeStream(ip, opts);
             }
         } catch (Exception e) {
             Log.e(Constants.LOG_TAG, "Unable to decode stream",  e);
-        } finally {
-            IoUtils.closeStream(is);
         }
 
         return bm;
     }
 
-    private boolean addInBitmapOptions(InputStreamProvider ip, BitmapFactory.Options opts) {
-        // Create InputStream for decoding the bounds
+    private static Bitmap decodeStream(InputStreamProvider ip, BitmapFactory.Options opts) {
+        // Get InputStream for actual decode
         final InputStream is = ip.getInputStream();
-        // Decode the bounds so we know what size Bitmap to look for
-        opts.inJustDecodeBounds = true;
-        if (is == null && ip instanceof ByteArrayInputStreamProvider) {
-            byte[] data = ((ByteArrayInputStreamProvider) ip).array;
-            BitmapFactory.decodeByteArray(data, 0, data.length, opts);
-        } else {
-            BitmapFactory.decodeStream(is, null, opts);
-        }
-        IoUtils.closeStream(is);
-
-        // Turn off just decoding bounds
-        opts.inJustDecodeBounds = false;
+        try {
+            if (is == null && ip instanceof ByteArrayInputStreamProvider) {
+                byte[] data = ((ByteArrayInputStreamProvider) ip).array;
+                return BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+            }
+            return BitmapFactory.decodeStream(is, null, opts);
+        } finally {
+            IoUtils.closeStream(is);
+        }
+    }
+
+    private boolean addInBitmapOptions(InputStreamProvider ip, BitmapFactory.Options opts) {
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            // Create InputStream for decoding the bounds
+            final InputStream is = ip.getInputStream();
+            // Decode the bounds so we know what size Bitmap to look for
+            opts.inJustDecodeBounds = true;
+            if (is == null && ip instanceof ByteArrayInputStreamProvider) {
+                byte[] data = ((ByteArrayInputStreamProvider) ip).array;
+                BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+            } else {
+                BitmapFactory.decodeStream(is, null, opts);
+            }
+            IoUtils.closeStream(is);
+
+            // Turn off just decoding bounds
+            opts.inJustDecodeBounds = false;
+        }
         // Make sure the decoded file is mutable
         opts.inMutable = true;
 
         // Try and find Bitmap to use for inBitmap
-        synchronized (mMemoryCache) {
-            Bitmap reusableBm = mMemoryCache.getBitmapFromRemoved(opts.outWidth, opts.outHeight);
-            if (reusableBm != null) {
-                if (Constants.DEBUG) {
-                    Log.i(Constants.LOG_TAG, "Using inBitmap");
-                }
-                SDK11.addInBitmapOption(opts, reusableBm);
-                return true;
+        final Bitmap.Config config = (null != opts.inPreferredConfig) ? opts.inPreferredConfig
+                : Bitmap.Config.ARGB_8888;
+        Bitmap reusableBm = mMemoryCache.getReusableBitmap(opts.outWidth, opts.outHeight, config);
+        if (reusableBm != null) {
+            if (Constants.DEBUG) {
+                Log.i(Constants.LOG_TAG, "Using inBitmap");
             }
+            SDK11.addInBitmapOption(opts, reusableBm);
+            return true;
         }
 
 
@@ -831,6 +1122,8 @@ public class BitmapLruCache {
 
         static final int DEFAULT_MEM_CACHE_MAX_SIZE_MB = 3;
 
+        static final int DEFAULT_BITMAP_POOL_FRACTION = 4;
+
         static final RecyclePolicy DEFAULT_RECYCLE_POLICY = RecyclePolicy.PRE_HONEYCOMB_ONLY;
 
         // Only used for Javadoc
@@ -857,6 +1150,10 @@ public class BitmapLruCache {
 
         private RecyclePolicy mRecyclePolicy;
 
+        private MemoryKeyFunction mMemoryKeyFunction;
+
+        private int mBitmapPoolMaxSize;
+
         /**
          * @deprecated You should now use {@link Builder(Context)}. This is so that we can reliably
          *             set up correctly.
@@ -875,6 +1172,8 @@ public class BitmapLruCache {
             mMemoryCacheEnabled = true;
             mMemoryCacheMaxSize = DEFAULT_MEM_CACHE_MAX_SIZE_MB * MEGABYTE;
             mRecyclePolicy = DEFAULT_RECYCLE_POLICY;
+            mMemoryKeyFunction = HASHED_MEMORY_KEYS;
+            mBitmapPoolMaxSize = -1;
         }
 
         /**
@@ -883,12 +1182,16 @@ public class BitmapLruCache {
          */
         public BitmapLruCache build() {
             final BitmapLruCache cache = new BitmapLruCache(mContext);
+            cache.setMemoryKeyFunction(mMemoryKeyFunction);
 
             if (isValidOptionsForMemoryCache()) {
                 if (Constants.DEBUG) {
                     Log.d("BitmapLruCache.Builder", "Creating Memory Cache");
                 }
-                cache.setMemoryCache(new BitmapMemoryLruCache(mMemoryCacheMaxSize, mRecyclePolicy));
+                final int poolMaxSize = (mBitmapPoolMaxSize >= 0) ? mBitmapPoolMaxSize
+                        : mMemoryCacheMaxSize / DEFAULT_BITMAP_POOL_FRACTION;
+                cache.setMemoryCache(new BitmapMemoryLruCache(mMemoryCacheMaxSize, poolMaxSize,
+                        mRecyclePolicy));
             }
 
             if (isValidOptionsForDiskCache()) {
@@ -897,7 +1200,8 @@ public class BitmapLruCache {
                     @Override
                     protected DiskLruCache doInBackground(Void... params) {
                         try {
-                            return DiskLruCache.open(mDiskCacheLocation, 0, 1, mDiskCacheMaxSize);
+                            return DiskLruCache.open(mDiskCacheLocation, DISK_CACHE_VERSION,
+                                    DISK_CACHE_VALUE_COUNT, mDiskCacheMaxSize);
                         } catch (IOException e) {
                             e.printStackTrace();
                             return null;
@@ -915,6 +1219,18 @@ public class BitmapLruCache {
             return cache;
         }
 
+        /**
+         * Set how URLs map to the keys of the Memory Cache. Defaults to
+         * {@link BitmapLruCache#HASHED_MEMORY_KEYS}.
+         *
+         * @return This Builder object to allow for chaining of calls to set methods.
+         */
+        public Builder setMemoryKeyFunction(MemoryKeyFunction memoryKeyFunction) {
+            mMemoryKeyFunction = (null != memoryKeyFunction) ? memoryKeyFunction
+                    : HASHED_MEMORY_KEYS;
+            return this;
+        }
+
         /**
          * Set whether the Disk Cache should be enabled. Defaults to {@code false}.
          *
@@ -967,6 +1283,17 @@ public class BitmapLruCache {
             return this;
         }
 
+        /**
+         * Set the maximum number of bytes of evicted bitmaps kept to be decoded into, when the
+         * recycle policy allows it. Defaults to a quarter of the Memory Cache maximum size.
+         *
+         * @return This Builder object to allow for chaining of calls to set methods.
+         */
+        public Builder setBitmapPoolMaxSize(int size) {
+            mBitmapPoolMaxSize = Math.max(0, size);
+            return this;
+        }
+
         /**
          * Sets the Memory Cache maximum size to be the default value of {@value
          * #DEFAULT_MEMORY_CACHE_HEAP_PERCENTAGE}% of heap size.
@@ -1105,7 +1432,9 @@ public class BitmapLruCache {
             try {
                 DiskLruCache.Snapshot snapshot = mDiskCache.get(mKey);
                 if (snapshot != null) {
-                    return snapshot.getInputStream(0);
+                    // only the image is read
+                    IoUtils.closeStream(snapshot.getInputStream(DISK_CACHE_METADATA));
+                    return snapshot.getInputStream(DISK_CACHE_IMAGE);
                 }
             } catch (IOException e) {
                 Log.e(Constants.LOG_TAG, "Could open disk cache for url: " + mKey, e);
@@ -17,89 +17,143 @@ package uk.co.senab.bitmapcache;
 
 import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.support.v4.util.LruCache;
 
-import java.lang.ref.SoftReference;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.Set;
 
-final class BitmapMemoryLruCache extends LruCache<String, CacheableBitmapDrawable> {
+/**
+ * The memory cache is split in stripes, each an LRU cache with its own lock and its share of the
+ * maximum size, so that the thread drawing the map and the threads loading tiles rarely wait on
+ * each other. Keys are spread over the stripes by their hash, which makes the eviction order
+ * an approximation of a single LRU. Small caches use fewer stripes, so that each still holds a
+ * useful number of bitmaps.
+ */
+final class BitmapMemoryLruCache {
 
-    private final Set<SoftReference<CacheableBitmapDrawable>> mRemovedEntries;
+    private static final int MAXIMUM_STRIPES = 8;
+    private static final int MINIMUM_STRIPE_SIZE = 4 * 1024 * 1024;
+
+    private final Stripe[] mStripes;
+    private final int mStripeShift;
+    private final BitmapPool mPool;
     private final BitmapLruCache.RecyclePolicy mRecyclePolicy;
 
-    BitmapMemoryLruCache(int maxSize, BitmapLruCache.RecyclePolicy policy) {
-        super(maxSize);
+    BitmapMemoryLruCache(int maxSize, int poolMaxSize, BitmapLruCache.RecyclePolicy policy) {
+        int stripeCount = 1;
+        while (stripeCount < MAXIMUM_STRIPES
+                && maxSize / (stripeCount * 2) >= MINIMUM_STRIPE_SIZE) {
+            stripeCount *= 2;
+        }
+        mStripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            mStripes[i] = new Stripe(Math.max(1, maxSize / stripeCount));
+        }
+        mStripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
 
         mRecyclePolicy = policy;
-        mRemovedEntries = policy.canInBitmap()
-                ? Collections.synchronizedSet(new HashSet<SoftReference<CacheableBitmapDrawable>>())
-                : null;
+        mPool = (policy.canInBitmap() && poolMaxSize > 0) ? new BitmapPool(poolMaxSize) : null;
+    }
+
+    private Stripe stripeFor(long key) {
+        if (mStripes.length == 1) {
+            return mStripes[0];
+        }
+        // the top bits of the hash, the stripes index their tables with lower ones
+        return mStripes[(int) ((key * 0x9E3779B97F4A7C15L) >>> mStripeShift)];
     }
 
-    CacheableBitmapDrawable put(CacheableBitmapDrawable value) {
+    CacheableBitmapDrawable get(long key) {
+        return stripeFor(key).get(key);
+    }
+
+    CacheableBitmapDrawable put(long key, CacheableBitmapDrawable value) {
         if (null != value) {
             value.setCached(true);
-            return put(value.getUrl(), value);
+            return stripeFor(key).put(key, value);
         }
 
         return null;
     }
 
-    BitmapLruCache.RecyclePolicy getRecyclePolicy() {
-        return mRecyclePolicy;
+    CacheableBitmapDrawable remove(long key) {
+        return stripeFor(key).remove(key);
+    }
+
+    /**
+     * Removes the value for a key only if it is still the given one.
+     */
+    boolean remove(long key, CacheableBitmapDrawable value) {
+        return stripeFor(key).remove(key, value);
     }
 
-    @Override
-    protected int sizeOf(String key, CacheableBitmapDrawable value) {
-        return value.getMemorySize();
+    void evictAll() {
+        for (Stripe stripe : mStripes) {
+            stripe.evictAll();
+        }
+    }
+
+    /**
+     * Get the total memory size of the cached bitmaps, in bytes.
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : mStripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    int maxSize() {
+        int maxSize = 0;
+        for (Stripe stripe : mStripes) {
+            maxSize += stripe.maxSize();
+        }
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum size of the cache, split between the stripes as when it was created.
+     */
+    void resize(int maxSize) {
+        for (Stripe stripe : mStripes) {
+            stripe.resize(Math.max(1, maxSize / mStripes.length));
+        }
     }
 
-    @Override
-    protected void entryRemoved(boolean evicted, String key, CacheableBitmapDrawable oldValue,
-            CacheableBitmapDrawable newValue) {
+    BitmapLruCache.RecyclePolicy getRecyclePolicy() {
+        return mRecyclePolicy;
+    }
+
+    private void entryRemoved(CacheableBitmapDrawable oldValue) {
         // Notify the wrapper that it's no longer being cached
         oldValue.setCached(false);
 
-        if (mRemovedEntries != null && canUseForInBitmap(oldValue)) {
-            synchronized (mRemovedEntries) {
-                mRemovedEntries.add(new SoftReference<CacheableBitmapDrawable>(oldValue));
-            }
+        if (mPool != null && canUseForInBitmap(oldValue)) {
+            mPool.release(oldValue);
         }
     }
 
     public Bitmap getBitmapFromRemoved(final int width, final int height) {
-        if (mRemovedEntries == null) {
-            return null;
+        final Bitmap result = getReusableBitmap(width, height, Bitmap.Config.ARGB_8888);
+        if (result != null) {
+            SDK12.setHasAlpha(result, true);
+            result.eraseColor(Color.TRANSPARENT);
         }
+        return result;
+    }
 
-        Bitmap result = null;
-
-        synchronized (mRemovedEntries) {
-            final Iterator<SoftReference<CacheableBitmapDrawable>> it = mRemovedEntries.iterator();
-
-            while (it.hasNext()) {
-                CacheableBitmapDrawable value = it.next().get();
-
-                if (canUseForInBitmap(value)) {
-                    if (canUseForInBitmapForSize(value, width, height) && !value.isBeingDisplayed() && !value.isReferencedByCache()) {
-                        result = value.getBitmap();
-                        SDK12.setHasAlpha(result, true);
-                        result.eraseColor(Color.TRANSPARENT);
-                        value.setReused();
-                        it.remove();
-                        break;
-                    }
-                } else {
-                    it.remove();
-                }
-            }
-        }
+    /**
+     * Get a bitmap of an evicted drawable to decode into. Unlike {@link
+     * #getBitmapFromRemoved(int, int)} it isn't cleared, since decoding overwrites it.
+     */
+    Bitmap getReusableBitmap(final int width, final int height, final Bitmap.Config config) {
+        return (mPool != null) ? mPool.acquire(width, height, config) : null;
+    }
 
-        return result;
+    long getPoolHitCount() {
+        return (mPool != null) ? mPool.getHitCount() : 0;
+    }
+
+    long getPoolMissCount() {
+        return (mPool != null) ? mPool.getMissCount() : 0;
     }
 
     private static boolean canUseForInBitmap(
@@ -109,26 +163,35 @@ final class BitmapMemoryLruCache extends LruCache<String, CacheableBitmapDrawabl
                 candidate.isBitmapMutable();
     }
 
-    private static boolean canUseForInBitmapForSize(
-            CacheableBitmapDrawable candidate, int width, int height) {
-        return
-                candidate.getIntrinsicWidth() == width &&
-                candidate.getIntrinsicHeight() == height;
+    void trimMemory() {
+        for (Stripe stripe : mStripes) {
+            for (long key : stripe.keys()) {
+                CacheableBitmapDrawable value = stripe.get(key);
+                if (null == value || !value.isBeingDisplayed()) {
+                    stripe.remove(key);
+                }
+            }
+        }
+        if (mPool != null) {
+            mPool.clear();
+        }
     }
 
-    void trimMemory() {
-        final Set<Entry<String, CacheableBitmapDrawable>> values = snapshot().entrySet();
+    private final class Stripe extends LongLruCache<CacheableBitmapDrawable> {
 
-        for (Entry<String, CacheableBitmapDrawable> entry : values) {
-            CacheableBitmapDrawable value = entry.getValue();
-            if (null == value || !value.isBeingDisplayed()) {
-                remove(entry.getKey());
-            }
+        Stripe(int maxSize) {
+            super(maxSize);
         }
-        if (mRemovedEntries != null) {
-            synchronized (mRemovedEntries) {
-                mRemovedEntries.clear();
-            }
+
+        @Override
+        protected int sizeOf(long key, CacheableBitmapDrawable value) {
+            return value.getMemorySize();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, long key, CacheableBitmapDrawable oldValue,
+                CacheableBitmapDrawable newValue) {
+            BitmapMemoryLruCache.this.entryRemoved(oldValue);
         }
     }
 }
@@ -0,0 +1,180 @@
+package uk.co.senab.bitmapcache;
+
+import android.graphics.Bitmap;
+
+import java.lang.ref.SoftReference;
+
+/**
+ * The bitmaps of drawables evicted from the memory cache, kept to be decoded into with
+ * inBitmap. Bitmaps are bucketed by width, height and config, so that taking one doesn't scan
+ * the bitmaps of other sizes, and the pool holds at most a given number of bytes, dropping the
+ * eldest bitmaps first.
+ * <p/>
+ * An evicted drawable may still be on screen, so it is only referenced softly, and its bitmap
+ * is only handed out once nothing displays or caches it anymore.
+ */
+final class BitmapPool {
+
+    /**
+     * How many bitmaps of a bucket to look at before giving up, so that taking a bitmap stays
+     * cheap while the newest ones are still being displayed.
+     */
+    private static final int MAXIMUM_CANDIDATES = 4;
+
+    private final int mMaxSize;
+    private int mSize;
+    private Bucket[] mBuckets = new Bucket[0];
+    /**
+     * Sentinel of the list of all pooled bitmaps, eldest first.
+     */
+    private final Node mHead = new Node(null, 0, null);
+    private long mHitCount;
+    private long mMissCount;
+
+    BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+        mHead.mOlder = mHead;
+        mHead.mNewer = mHead;
+    }
+
+    /**
+     * Take a bitmap to decode into.
+     *
+     * @return a bitmap of the given size and config that nothing uses anymore, or null
+     */
+    synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        final Bucket bucket = findBucket(width, height, config);
+        Node node = (bucket != null) ? bucket.mNewest : null;
+        int candidates = 0;
+        while (node != null && candidates < MAXIMUM_CANDIDATES) {
+            final Node next = node.mBucketOlder;
+            final CacheableBitmapDrawable drawable = node.mDrawable.get();
+            if (drawable == null || !drawable.isBitmapValid()) {
+                removeNode(node);
+            } else if (!drawable.isBeingDisplayed() && !drawable.isReferencedByCache()) {
+                removeNode(node);
+                drawable.setReused();
+                mHitCount++;
+                return drawable.getBitmap();
+            } else {
+                candidates++;
+            }
+            node = next;
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Offer the bitmap of a drawable that left the memory cache, dropping the eldest bitmaps if
+     * the pool would go over its maximum size.
+     */
+    synchronized void release(CacheableBitmapDrawable drawable) {
+        final Bitmap bitmap = drawable.getBitmap();
+        final int size = drawable.getMemorySize();
+        if (bitmap == null || size > mMaxSize) {
+            return;
+        }
+        while (mSize + size > mMaxSize && mHead.mNewer != mHead) {
+            removeNode(mHead.mNewer);
+        }
+
+        Bucket bucket = findBucket(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        if (bucket == null) {
+            bucket = new Bucket(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            final Bucket[] buckets = new Bucket[mBuckets.length + 1];
+            System.arraycopy(mBuckets, 0, buckets, 0, mBuckets.length);
+            buckets[mBuckets.length] = bucket;
+            mBuckets = buckets;
+        }
+        final Node node = new Node(new SoftReference<CacheableBitmapDrawable>(drawable), size,
+                bucket);
+        node.mBucketOlder = bucket.mNewest;
+        if (bucket.mNewest != null) {
+            bucket.mNewest.mBucketNewer = node;
+        }
+        bucket.mNewest = node;
+        node.mOlder = mHead.mOlder;
+        node.mNewer = mHead;
+        mHead.mOlder.mNewer = node;
+        mHead.mOlder = node;
+        mSize += size;
+    }
+
+    synchronized void clear() {
+        while (mHead.mNewer != mHead) {
+            removeNode(mHead.mNewer);
+        }
+        mBuckets = new Bucket[0];
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Get the total memory size of the pooled bitmaps, in bytes.
+     */
+    synchronized int size() {
+        return mSize;
+    }
+
+    private Bucket findBucket(int width, int height, Bitmap.Config config) {
+        // there are only ever a few tile sizes, a scan beats hashing a boxed key. Empty buckets
+        // are kept until the pool is cleared, as they are soon filled again
+        for (Bucket bucket : mBuckets) {
+            if (bucket.mWidth == width && bucket.mHeight == height && bucket.mConfig == config) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    private void removeNode(Node node) {
+        final Bucket bucket = node.mBucket;
+        if (node.mBucketNewer != null) {
+            node.mBucketNewer.mBucketOlder = node.mBucketOlder;
+        } else {
+            bucket.mNewest = node.mBucketOlder;
+        }
+        if (node.mBucketOlder != null) {
+            node.mBucketOlder.mBucketNewer = node.mBucketNewer;
+        }
+        node.mOlder.mNewer = node.mNewer;
+        node.mNewer.mOlder = node.mOlder;
+        mSize -= node.mSize;
+    }
+
+    private static final class Bucket {
+        final int mWidth;
+        final int mHeight;
+        final Bitmap.Config mConfig;
+        Node mNewest;
+
+        Bucket(int width, int height, Bitmap.Config config) {
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+        }
+    }
+
+    private static final class Node {
+        final SoftReference<CacheableBitmapDrawable> mDrawable;
+        final int mSize;
+        final Bucket mBucket;
+        Node mBucketNewer;
+        Node mBucketOlder;
+        Node mNewer;
+        Node mOlder;
+
+        Node(SoftReference<CacheableBitmapDrawable> drawable, int size, Bucket bucket) {
+            mDrawable = drawable;
+            mSize = size;
+            mBucket = bucket;
+        }
+    }
+}
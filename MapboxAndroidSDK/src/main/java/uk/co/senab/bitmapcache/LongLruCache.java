@@ -0,0 +1,288 @@
+package uk.co.senab.bitmapcache;
+
+/**
+ * A least recently used cache keyed by primitive longs, so that lookups neither box their key
+ * nor hash and compare strings. It mirrors the API of {@link android.support.v4.util.LruCache}:
+ * values are sized with {@link #sizeOf(long, Object)}, and the eldest ones are evicted once the
+ * total size goes over the maximum.
+ * <p/>
+ * Lookups and removals don't allocate; adding a new key allocates a single entry. Methods are
+ * synchronized on the cache, and {@link #entryRemoved(boolean, long, Object, Object)} is called
+ * with the lock held.
+ */
+public class LongLruCache<V> {
+
+    private static final int MINIMUM_CAPACITY = 16;
+
+    private Entry<V>[] mTable;
+    /**
+     * Sentinel of the access ordered list of entries, eldest first.
+     */
+    private final Entry<V> mHead = new Entry<V>(0, null, null);
+    private int mCount;
+    private int mSize;
+    private int mMaxSize;
+
+    public LongLruCache(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        mTable = newTable(MINIMUM_CAPACITY);
+        mHead.mBefore = mHead;
+        mHead.mAfter = mHead;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <V> Entry<V>[] newTable(final int capacity) {
+        return (Entry<V>[]) new Entry[capacity];
+    }
+
+    private static int indexFor(final long key, final int length) {
+        // spread the bits of both halves, keys often only differ in a few of them
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (length - 1);
+    }
+
+    /**
+     * Get the value for a key, making it the most recently used.
+     *
+     * @return the value, or null if there is none
+     */
+    public final synchronized V get(final long key) {
+        final Entry<V> entry = find(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.unlink();
+        entry.linkBefore(mHead);
+        return entry.mValue;
+    }
+
+    /**
+     * Caches a value for a key, as the most recently used.
+     *
+     * @return the previous value for the key, or null if there was none
+     */
+    public final synchronized V put(final long key, final V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        V previous = null;
+        Entry<V> entry = find(key);
+        if (entry != null) {
+            previous = entry.mValue;
+            mSize -= safeSizeOf(key, previous);
+            entry.mValue = value;
+            entry.unlink();
+        } else {
+            if (mCount >= mTable.length * 3 / 4) {
+                resizeTable(mTable.length * 2);
+            }
+            final int index = indexFor(key, mTable.length);
+            entry = new Entry<V>(key, value, mTable[index]);
+            mTable[index] = entry;
+            mCount++;
+        }
+        entry.linkBefore(mHead);
+        mSize += safeSizeOf(key, value);
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        trimToSize(mMaxSize);
+        return previous;
+    }
+
+    /**
+     * Removes the value for a key.
+     *
+     * @return the removed value, or null if there was none
+     */
+    public final synchronized V remove(final long key) {
+        final Entry<V> entry = removeEntry(key);
+        if (entry == null) {
+            return null;
+        }
+        entryRemoved(false, key, entry.mValue, null);
+        return entry.mValue;
+    }
+
+    /**
+     * Removes the value for a key only if it is still the given one, so that a value found
+     * earlier can be dropped without holding the lock in between.
+     *
+     * @return true if the value was removed
+     */
+    public final synchronized boolean remove(final long key, final V value) {
+        final Entry<V> entry = find(key);
+        if (entry == null || entry.mValue != value) {
+            return false;
+        }
+        removeEntry(key);
+        entryRemoved(false, key, value, null);
+        return true;
+    }
+
+    /**
+     * Removes the eldest entries until the total size is at most maxSize.
+     *
+     * @param maxSize the target size, or -1 to evict everything
+     */
+    public synchronized void trimToSize(final int maxSize) {
+        while (mSize > maxSize && mHead.mAfter != mHead) {
+            final Entry<V> eldest = mHead.mAfter;
+            removeEntry(eldest.mKey);
+            entryRemoved(true, eldest.mKey, eldest.mValue, null);
+        }
+    }
+
+    /**
+     * Sets the maximum size of the cache, evicting the eldest values if it shrinks.
+     */
+    public synchronized void resize(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * Get the keys of the cache, eldest first.
+     */
+    public final synchronized long[] keys() {
+        final long[] keys = new long[mCount];
+        int i = 0;
+        for (Entry<V> entry = mHead.mAfter; entry != mHead; entry = entry.mAfter) {
+            keys[i++] = entry.mKey;
+        }
+        return keys;
+    }
+
+    /**
+     * Get the total size of the values, which is their count unless {@link #sizeOf(long,
+     * Object)} is overridden.
+     */
+    public final synchronized int size() {
+        return mSize;
+    }
+
+    public final synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Get the number of values in the cache.
+     */
+    public final synchronized int count() {
+        return mCount;
+    }
+
+    /**
+     * Get the size of a value, 1 by default. The size of a value must not change while it is
+     * cached.
+     */
+    protected int sizeOf(final long key, final V value) {
+        return 1;
+    }
+
+    /**
+     * Called for values that were evicted or removed, or replaced by a put.
+     *
+     * @param evicted true if the value was removed to make space
+     * @param key the key of the value
+     * @param oldValue the value removed
+     * @param newValue the value that replaced it, or null
+     */
+    protected void entryRemoved(final boolean evicted, final long key, final V oldValue,
+            final V newValue) {
+    }
+
+    private int safeSizeOf(final long key, final V value) {
+        final int size = sizeOf(key, value);
+        if (size < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return size;
+    }
+
+    private Entry<V> find(final long key) {
+        for (Entry<V> entry = mTable[indexFor(key, mTable.length)]; entry != null;
+                entry = entry.mNext) {
+            if (entry.mKey == key) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private Entry<V> removeEntry(final long key) {
+        final int index = indexFor(key, mTable.length);
+        Entry<V> previous = null;
+        for (Entry<V> entry = mTable[index]; entry != null; entry = entry.mNext) {
+            if (entry.mKey == key) {
+                if (previous == null) {
+                    mTable[index] = entry.mNext;
+                } else {
+                    previous.mNext = entry.mNext;
+                }
+                entry.unlink();
+                mCount--;
+                mSize -= safeSizeOf(key, entry.mValue);
+                return entry;
+            }
+            previous = entry;
+        }
+        return null;
+    }
+
+    private void resizeTable(final int capacity) {
+        final Entry<V>[] table = newTable(capacity);
+        for (Entry<V> head : mTable) {
+            while (head != null) {
+                final Entry<V> next = head.mNext;
+                final int index = indexFor(head.mKey, capacity);
+                head.mNext = table[index];
+                table[index] = head;
+                head = next;
+            }
+        }
+        mTable = table;
+    }
+
+    @Override
+    public final synchronized String toString() {
+        return String.format("LongLruCache[count=%d,size=%d,maxSize=%d]", mCount, mSize,
+                mMaxSize);
+    }
+
+    private static final class Entry<V> {
+        final long mKey;
+        V mValue;
+        Entry<V> mNext;
+        Entry<V> mBefore;
+        Entry<V> mAfter;
+
+        Entry(final long key, final V value, final Entry<V> next) {
+            mKey = key;
+            mValue = value;
+            mNext = next;
+        }
+
+        void unlink() {
+            mBefore.mAfter = mAfter;
+            mAfter.mBefore = mBefore;
+        }
+
+        void linkBefore(final Entry<V> existing) {
+            mAfter = existing;
+            mBefore = existing.mBefore;
+            mBefore.mAfter = this;
+            mAfter.mBefore = this;
+        }
+    }
+}
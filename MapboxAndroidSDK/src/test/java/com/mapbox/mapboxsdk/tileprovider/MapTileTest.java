@@ -0,0 +1,158 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+import uk.co.senab.bitmapcache.LongLruCache;
+
+public class MapTileTest {
+
+    private static final int PROBES = 100000;
+
+    private long[] mSink;
+
+    @Test
+    public void parsesKeysOfCacheKeys() {
+        final String[] layers = { "", "roads", "mapbox.streets", "http://a.tiles/{z}/{x}/{y}" };
+        for (final String layer : layers) {
+            for (int z = 0; z < 23; z += 3) {
+                final int max = (1 << z) - 1;
+                final int[] coordinates = { 0, 1, max / 3, max };
+                for (final int x : coordinates) {
+                    for (final int y : coordinates) {
+                        final MapTile tile = new MapTile(layer, z, x, y);
+                        assertTrue(tile.getKey() != MapTile.NO_KEY);
+                        assertEquals(tile.getCacheKey(), tile.getKey(),
+                                MapTile.parseKey(tile.getCacheKey()));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void keysTilesApart() {
+        final MapTile tile = new MapTile("apart", 5, 6, 7);
+        assertTrue(tile.getKey() == new MapTile("apart", 5, 6, 7).getKey());
+        assertTrue(tile.getKey() != new MapTile("apart", 5, 7, 6).getKey());
+        assertTrue(tile.getKey() != new MapTile("apart", 6, 6, 7).getKey());
+        assertTrue(tile.getKey() != new MapTile("apart2", 5, 6, 7).getKey());
+        assertTrue(tile.getKey() >= 0);
+    }
+
+    @Test
+    public void parsesNoKeyOfOtherStrings() {
+        final String[] strings = { "", "/", "layer", "layer/1/2", "1/2/3", "layer/1/2/",
+                "layer//2/3", "layer/1/2/a", "layer/1/-2/3", "layer/01/2/3", "layer/1/2/03",
+                "layer/1/2/123456789", "layer/32/0/0", "layer/3/4194304/0",
+                "http://a.tiles/3/4/5.png" };
+        for (final String string : strings) {
+            assertEquals(string, MapTile.NO_KEY, MapTile.parseKey(string));
+        }
+        // a single zero is the only way to write it
+        assertEquals(new MapTile("layer", 0, 0, 0).getKey(), MapTile.parseKey("layer/0/0/0"));
+    }
+
+    @Test
+    public void keysTilesOutOfRangeByCacheKey() {
+        assertEquals(MapTile.NO_KEY, new MapTile("range", 32, 0, 0).getKey());
+        assertEquals(MapTile.NO_KEY, new MapTile("range", 3, -1, 0).getKey());
+        assertEquals(MapTile.NO_KEY, new MapTile("range", 23, 0, 1 << 22).getKey());
+    }
+
+    @Test
+    public void derivesKeysOfTheSameLayer() {
+        final MapTile tile = new MapTile("derive", 12, 1234, 567);
+        assertEquals(new MapTile("derive", 10, 308, 141).getKey(),
+                MapTile.getKey(tile.getKey(), 10, 1234 >> 2, 567 >> 2));
+        assertEquals(new MapTile("derive", 13, 2469, 1134).getKey(),
+                MapTile.getKey(tile.getKey(), 13, 1234 * 2 + 1, 567 * 2));
+        assertTrue(MapTile.getKey(tile.getKey(), 12, 1234, 567) == tile.getKey());
+        // tiles of other layers have other keys
+        assertTrue(MapTile.getKey(new MapTile("other", 12, 1234, 567).getKey(), 10, 308, 141)
+                != MapTile.getKey(tile.getKey(), 10, 308, 141));
+    }
+
+    @Test
+    public void derivesNoKeyOutOfRange() {
+        final long key = new MapTile("range", 3, 1, 2).getKey();
+        assertEquals(MapTile.NO_KEY, MapTile.getKey(MapTile.NO_KEY, 3, 1, 2));
+        assertEquals(MapTile.NO_KEY, MapTile.getKey(key, -1, 0, 0));
+        assertEquals(MapTile.NO_KEY, MapTile.getKey(key, 32, 0, 0));
+        assertEquals(MapTile.NO_KEY, MapTile.getKey(key, 3, -1, 0));
+        assertEquals(MapTile.NO_KEY, MapTile.getKey(key, 3, 0, 1 << 22));
+    }
+
+    /**
+     * Probing for the ancestors and children of a tile, the way the overlay draws a fallback
+     * for a missing tile, must not allocate.
+     */
+    @Test
+    public void probesFallbackTilesWithoutAllocating() {
+        final com.sun.management.ThreadMXBean threads = getThreadMXBean();
+        assumeTrue(threads != null);
+        final long thread = Thread.currentThread().getId();
+
+        // only the ancestor four levels up is in memory
+        final LongLruCache<Object> memory = new LongLruCache<Object>(1024);
+        final MapTile tile = new MapTile("fallback", 16, 34567, 23456);
+        memory.put(MapTile.getKey(tile.getKey(), 12, 34567 >> 4, 23456 >> 4), new Object());
+
+        // the counter sees allocations
+        long before = threads.getThreadAllocatedBytes(thread);
+        mSink = new long[1024];
+        assertTrue(threads.getThreadAllocatedBytes(thread) - before >= 8 * 1024);
+
+        // the first run is compiled before measuring the second
+        int found = probe(memory, tile, PROBES);
+        before = threads.getThreadAllocatedBytes(thread);
+        found += probe(memory, tile, PROBES);
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertEquals(2 * PROBES, found);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        assertNotNull(mSink);
+    }
+
+    private static int probe(final LongLruCache<Object> pMemory, final MapTile pTile,
+            final int pCount) {
+        final long key = pTile.getKey();
+        final int z = pTile.getZ();
+        int found = 0;
+        for (int i = 0; i < pCount; i++) {
+            for (int diff = 1; diff <= 4; diff++) {
+                if (pMemory.get(MapTile.getKey(key, z - diff, pTile.getX() >> diff,
+                        pTile.getY() >> diff)) != null) {
+                    found++;
+                }
+            }
+            for (int child = 0; child < 4; child++) {
+                if (pMemory.get(MapTile.getKey(key, z + 1, pTile.getX() * 2 + (child & 1),
+                        pTile.getY() * 2 + (child >> 1))) != null) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        try {
+            final java.lang.management.ThreadMXBean threads =
+                    ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threads)
+                    .isThreadAllocatedMemorySupported()) {
+                ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+                return (com.sun.management.ThreadMXBean) threads;
+            }
+        } catch (final LinkageError e) {
+            // not a HotSpot VM
+        }
+        return null;
+    }
+}
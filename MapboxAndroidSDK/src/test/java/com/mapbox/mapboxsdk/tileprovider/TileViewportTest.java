@@ -0,0 +1,126 @@
+package com.mapbox.mapboxsdk.tileprovider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class TileViewportTest {
+
+    @Test
+    public void visitsEveryTileOnceFromTheCenterOut() {
+        final TileViewport viewport = new TileViewport(5, 3, 4, 9, 7);
+        final List<int[]> visited = visit(viewport, 6, 5, Integer.MAX_VALUE);
+
+        assertEquals(7 * 4, visited.size());
+        assertEquals(28, toKeys(visited).size());
+        assertTrue(toKeys(visited).contains("3/4") && toKeys(visited).contains("9/7"));
+        // rings of growing distance from the center
+        int ring = 0;
+        for (final int[] tile : visited) {
+            final int distance = Math.max(Math.abs(tile[0] - 6), Math.abs(tile[1] - 5));
+            assertTrue(distance >= ring);
+            ring = distance;
+        }
+        assertEquals(6, visited.get(0)[0]);
+        assertEquals(5, visited.get(0)[1]);
+    }
+
+    @Test
+    public void wrapsColumnsAroundTheWorld() {
+        // across the antimeridian at zoom level 3, columns 6 to 9
+        final TileViewport viewport = new TileViewport(3, 6, 2, 9, 2);
+        final Set<String> visited = toKeys(visit(viewport, 7, 2, Integer.MAX_VALUE));
+
+        assertEquals(4, visited.size());
+        assertTrue(visited.contains("6/2"));
+        assertTrue(visited.contains("7/2"));
+        assertTrue(visited.contains("0/2"));
+        assertTrue(visited.contains("1/2"));
+    }
+
+    @Test
+    public void skipsRowsOutsideTheWorld() {
+        final TileViewport viewport = new TileViewport(2, 0, -2, 3, 5);
+        final List<int[]> visited = visit(viewport, 1, 1, Integer.MAX_VALUE);
+
+        assertEquals(16, visited.size());
+        for (final int[] tile : visited) {
+            assertTrue(tile[1] >= 0 && tile[1] < 4);
+        }
+    }
+
+    @Test
+    public void stopsWhenTheVisitorDoes() {
+        final TileViewport viewport = new TileViewport(5, 0, 0, 9, 9);
+        final List<int[]> visited = new ArrayList<int[]>();
+        assertFalse(viewport.visitFromCenter(5, 5, new Collector(visited, 3)));
+        assertEquals(3, visited.size());
+        assertTrue(viewport.visitFromCenter(5, 5, new Collector(new ArrayList<int[]>(), 1000)));
+    }
+
+    @Test
+    public void containsTilesAndTheirParents() {
+        final TileViewport viewport = new TileViewport(4, 14, 3, 17, 5);
+
+        assertTrue(viewport.contains(new MapTile(4, 15, 4)));
+        // wrapped around the world
+        assertTrue(viewport.contains(new MapTile(4, 1, 4)));
+        assertFalse(viewport.contains(new MapTile(4, 2, 4)));
+        assertFalse(viewport.contains(new MapTile(4, 15, 6)));
+        assertTrue(viewport.contains(new MapTile(3, 7, 2)));
+        assertFalse(viewport.contains(new MapTile(5, 30, 8)));
+    }
+
+    @Test
+    public void prioritizesTheCenterThenParentsThenPrefetches() {
+        final TileViewport viewport = new TileViewport(4, 4, 4, 7, 7);
+        final long center = viewport.getPriority(new MapTile(4, 5, 5), false);
+        final long corner = viewport.getPriority(new MapTile(4, 4, 4), false);
+        final long parent = viewport.getPriority(new MapTile(3, 2, 2), false);
+        final long prefetch = viewport.getPriority(new MapTile(4, 5, 5), true);
+
+        assertTrue(center < corner);
+        assertTrue(corner < parent);
+        assertTrue(parent < prefetch);
+    }
+
+    private static List<int[]> visit(final TileViewport pViewport, final int pCenterX,
+            final int pCenterY, final int pLimit) {
+        final List<int[]> visited = new ArrayList<int[]>();
+        pViewport.visitFromCenter(pCenterX, pCenterY, new Collector(visited, pLimit));
+        return visited;
+    }
+
+    private static Set<String> toKeys(final List<int[]> pTiles) {
+        final Set<String> keys = new HashSet<String>();
+        for (final int[] tile : pTiles) {
+            keys.add(tile[0] + "/" + tile[1]);
+        }
+        return keys;
+    }
+
+    /**
+     * Collects the tiles visited, up to a limit.
+     */
+    private static final class Collector implements TileViewport.TileVisitor {
+        private final List<int[]> mVisited;
+        private final int mLimit;
+
+        Collector(final List<int[]> pVisited, final int pLimit) {
+            mVisited = pVisited;
+            mLimit = pLimit;
+        }
+
+        @Override
+        public boolean visit(final int pX, final int pY) {
+            mVisited.add(new int[] { pX, pY });
+            return mVisited.size() < mLimit;
+        }
+    }
+}
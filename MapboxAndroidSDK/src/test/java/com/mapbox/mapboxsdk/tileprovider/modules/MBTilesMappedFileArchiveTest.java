@@ -0,0 +1,311 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads MBTiles files written by SQLite itself, with small pages so that even small files
+ * have interior and overflow pages.
+ */
+public class MBTilesMappedFileArchiveTest {
+
+    private static final int PAGE_SIZE = 1024;
+    private static final int ZOOM = 10;
+    private static final int SIDE = 40;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private Connection mConnection;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = mFolder.newFile("test.mbtiles");
+        mFile.delete();
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+        execute("PRAGMA page_size = " + PAGE_SIZE);
+        execute("CREATE TABLE metadata (name TEXT, value TEXT)");
+        execute("INSERT INTO metadata VALUES ('name', 'test'), ('minzoom', '10')");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mConnection != null) {
+            mConnection.close();
+        }
+    }
+
+    @Test
+    public void readsTilesThroughIndex() throws Exception {
+        execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, tile_data BLOB)");
+        execute("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+        insertTiles(100);
+
+        final MBTilesMappedFileArchive archive = open();
+        assertTiles(archive, 100);
+        assertEquals("test", archive.getMetadataValues().get("name"));
+        assertEquals("10", archive.getMetadataValues().get("minzoom"));
+    }
+
+    @Test
+    public void readsTilesSpanningOverflowPages() throws Exception {
+        execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, tile_data BLOB)");
+        execute("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+        insertTiles(20 * PAGE_SIZE + 17);
+
+        assertTiles(open(), 20 * PAGE_SIZE + 17);
+    }
+
+    @Test
+    public void readsTilesThroughUniqueConstraint() throws Exception {
+        execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, tile_data BLOB,"
+                + " UNIQUE (tile_row, zoom_level, tile_column))");
+        insertTiles(100);
+
+        assertTiles(open(), 100);
+    }
+
+    @Test
+    public void readsWithoutRowIdTable() throws Exception {
+        execute("CREATE TABLE tiles (tile_data BLOB, zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, PRIMARY KEY (zoom_level, tile_column, tile_row))"
+                + " WITHOUT ROWID");
+        insertTiles(3 * PAGE_SIZE);
+
+        assertTiles(open(), 3 * PAGE_SIZE);
+    }
+
+    @Test
+    public void returnsNullForMissingTiles() throws Exception {
+        execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, tile_data BLOB)");
+        execute("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+        insertTiles(100);
+
+        final MBTilesMappedFileArchive archive = open();
+        assertNull(archive.getInputStream(null, new MapTile(ZOOM, SIDE, 0)));
+        assertNull(archive.getInputStream(null, new MapTile(ZOOM + 1, 0, 0)));
+        assertNull(archive.getInputStream(null, new MapTile(0, 0, 0)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTableWithoutIndex() throws Exception {
+        execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, tile_data BLOB)");
+        insertTiles(100);
+        open();
+    }
+
+    @Test
+    public void returnsNullAfterClose() throws Exception {
+        execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, tile_data BLOB)");
+        execute("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+        insertTiles(3 * PAGE_SIZE);
+
+        final MBTilesMappedFileArchive archive = open();
+        final MapTile tile = tile(5, 7);
+        final InputStream in = archive.getInputStream(null, tile);
+        archive.close();
+        assertNull(archive.getInputStream(null, tile));
+        // streams handed out before stay readable
+        assertArrayEquals(tileData(tile, 3 * PAGE_SIZE), readFully(in));
+    }
+
+    @Test
+    public void returnsNullForCorruptPages() throws Exception {
+        execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, tile_data BLOB)");
+        execute("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+        insertTiles(100);
+        final int indexRoot = rootPage("tile_index");
+        final MBTilesMappedFileArchive archive = open();
+
+        // an interior index page whose cells run off the end of the file
+        final byte[] page = new byte[PAGE_SIZE];
+        Arrays.fill(page, (byte) 0xff);
+        page[0] = 2;
+        page[3] = 0;
+        page[4] = 1;
+        writePage(indexRoot, page);
+        assertNull(archive.getInputStream(null, tile(5, 7)));
+
+        // an interior index page pointing back to itself
+        Arrays.fill(page, (byte) 0);
+        page[0] = 2;
+        page[8] = (byte) (indexRoot >>> 24);
+        page[9] = (byte) (indexRoot >>> 16);
+        page[10] = (byte) (indexRoot >>> 8);
+        page[11] = (byte) indexRoot;
+        writePage(indexRoot, page);
+        assertNull(archive.getInputStream(null, tile(5, 7)));
+    }
+
+    @Test
+    public void buildsCoverageFromIndex() throws Exception {
+        execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, tile_data BLOB)");
+        execute("CREATE UNIQUE INDEX tile_index ON tiles (tile_row, zoom_level, tile_column)");
+        insertTiles(100);
+        execute("DELETE FROM tiles WHERE tile_column = 5 AND tile_row = "
+                + MBTilesFileArchive.getTmsRow(tile(5, 7)));
+
+        final TileCoverage coverage = awaitCoverage(open());
+        assertTrue(coverage.contains(tile(0, 0)));
+        assertTrue(coverage.contains(tile(SIDE - 1, SIDE - 1)));
+        assertFalse(coverage.contains(tile(5, 7)));
+        assertFalse(coverage.contains(tile(SIDE, 0)));
+        assertFalse(coverage.contains(new MapTile(ZOOM + 1, 0, 0)));
+    }
+
+    @Test
+    public void reloadsCoverageAfterWrites() throws Exception {
+        execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER,"
+                + " tile_row INTEGER, tile_data BLOB)");
+        execute("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+        insertTiles(100);
+
+        final MBTilesMappedFileArchive archive = open();
+        assertTrue(awaitCoverage(archive).contains(tile(5, 7)));
+        TileCoverageLoader.invalidate(mFile.getAbsolutePath());
+        assertNull(archive.getCoverage());
+        assertTrue(awaitCoverage(archive).contains(tile(5, 7)));
+
+        archive.close();
+        assertNull(archive.getCoverage());
+    }
+
+    private static TileCoverage awaitCoverage(final MBTilesMappedFileArchive pArchive)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        TileCoverage coverage;
+        while ((coverage = pArchive.getCoverage()) == null) {
+            assertTrue("coverage not built in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        return coverage;
+    }
+
+    private MBTilesMappedFileArchive open() throws Exception {
+        mConnection.close();
+        mConnection = null;
+        return new MBTilesMappedFileArchive(mFile);
+    }
+
+    private void execute(final String sql) throws SQLException {
+        final Statement statement = mConnection.createStatement();
+        try {
+            statement.execute(sql);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private int rootPage(final String name) throws SQLException {
+        final Statement statement = mConnection.createStatement();
+        try {
+            final ResultSet result = statement.executeQuery(
+                    "SELECT rootpage FROM sqlite_master WHERE name = '" + name + "'");
+            result.next();
+            return result.getInt(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void writePage(final int pPage, final byte[] pData) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek((long) (pPage - 1) * PAGE_SIZE);
+            file.write(pData);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Insert SIDE x SIDE tiles at ZOOM, rows in TMS order.
+     */
+    private void insertTiles(final int pTileBytes) throws SQLException {
+        mConnection.setAutoCommit(false);
+        final PreparedStatement insert = mConnection.prepareStatement("INSERT INTO tiles"
+                + " (zoom_level, tile_column, tile_row, tile_data) VALUES (?, ?, ?, ?)");
+        try {
+            for (int x = 0; x < SIDE; x++) {
+                for (int y = 0; y < SIDE; y++) {
+                    final MapTile tile = tile(x, y);
+                    insert.setInt(1, ZOOM);
+                    insert.setInt(2, x);
+                    insert.setInt(3, MBTilesFileArchive.getTmsRow(tile));
+                    insert.setBytes(4, tileData(tile, pTileBytes));
+                    insert.executeUpdate();
+                }
+            }
+            mConnection.commit();
+        } finally {
+            insert.close();
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    private static MapTile tile(final int x, final int y) {
+        return new MapTile(ZOOM, x, y);
+    }
+
+    private static byte[] tileData(final MapTile pTile, final int pBytes) {
+        final byte[] data = new byte[pBytes];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (pTile.getX() * 31 + pTile.getY() * 7 + i);
+        }
+        return data;
+    }
+
+    private static void assertTiles(final MBTilesMappedFileArchive pArchive,
+            final int pTileBytes) throws IOException {
+        for (int x = 0; x < SIDE; x++) {
+            for (int y = 0; y < SIDE; y++) {
+                final MapTile tile = tile(x, y);
+                final InputStream in = pArchive.getInputStream(null, tile);
+                assertNotNull(tile.toString(), in);
+                assertArrayEquals(tile.toString(), tileData(tile, pTileBytes), readFully(in));
+            }
+        }
+    }
+
+    private static byte[] readFully(final InputStream pIn) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[100];
+        int read;
+        while ((read = pIn.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
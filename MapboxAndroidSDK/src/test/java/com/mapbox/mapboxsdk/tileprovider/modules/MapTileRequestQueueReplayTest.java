@@ -0,0 +1,247 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
+import com.mapbox.mapboxsdk.tileprovider.TileViewport;
+import com.mapbox.mapboxsdk.tileprovider.constants.TileLayerConstants;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Replays pan, fling and zoom traces of a phone sized viewport against the request queue, and
+ * against the access ordered map with a bounded size it replaced, which served the most recent
+ * request first and dropped the eldest. Every frame, the missing tiles of the viewport are
+ * requested, and the network serves a few of them.
+ *
+ * The network is the bottleneck, so both take about as many frames to fill the viewport. The
+ * queue spends none of it on tiles that left the viewport, and fills the center first, where
+ * the user looks, instead of the tiles requested last.
+ */
+public class MapTileRequestQueueReplayTest {
+
+    private static final String LAYER = "replay";
+    private static final int WIDTH = 6;
+    private static final int HEIGHT = 10;
+    private static final int ZOOM = 14;
+    private static final int CENTER_X = 8000;
+    private static final int CENTER_Y = 5000;
+    private static final int FETCHES_PER_FRAME = 3;
+    private static final int CENTER_RADIUS = 1;
+    private static final int DRAIN_FRAMES = 60;
+    private static final int QUEUE_SIZE = TileLayerConstants.TILE_DOWNLOAD_MAXIMUM_QUEUE_SIZE;
+
+    @Test
+    public void replaysPan() {
+        final List<TileViewport> trace = new ArrayList<TileViewport>();
+        // a tile every fourth frame, slightly south
+        for (int frame = 0; frame < 240; frame++) {
+            trace.add(viewport(ZOOM, CENTER_X + frame / 4, CENTER_Y + frame / 16));
+        }
+        replay("pan", trace);
+    }
+
+    @Test
+    public void replaysFling() {
+        final List<TileViewport> trace = new ArrayList<TileViewport>();
+        // fast at first, then slowing down to a stop
+        int x = CENTER_X;
+        for (int frame = 0; frame < 120; frame++) {
+            x += Math.max(0, 3 - frame / 20);
+            trace.add(viewport(ZOOM, x, CENTER_Y));
+        }
+        replay("fling", trace);
+    }
+
+    @Test
+    public void replaysZoom() {
+        final List<TileViewport> trace = new ArrayList<TileViewport>();
+        // pinch in four levels, a level every 15 frames, then back out
+        for (int frame = 0; frame < 120; frame++) {
+            final int step = (frame < 60) ? frame / 15 : 3 - (frame - 60) / 15;
+            final int zoom = ZOOM - 2 + step;
+            final int shift = zoom - ZOOM;
+            trace.add(viewport(zoom, (shift >= 0) ? CENTER_X << shift : CENTER_X >> -shift,
+                    (shift >= 0) ? CENTER_Y << shift : CENTER_Y >> -shift));
+        }
+        replay("zoom", trace);
+    }
+
+    private static void replay(final String pName, final List<TileViewport> pTrace) {
+        final Replay queue = new Replay(new QueueScheduler());
+        final Replay legacy = new Replay(new LegacyScheduler());
+        final long start = System.nanoTime();
+        queue.run(pTrace);
+        final long queueTime = System.nanoTime() - start;
+        legacy.run(pTrace);
+        final long legacyTime = System.nanoTime() - start - queueTime;
+
+        System.out.println(String.format("%s, %d frames: queue %s in %.1f ms, legacy %s in"
+                + " %.1f ms", pName, pTrace.size(), queue, queueTime / 1e6, legacy,
+                legacyTime / 1e6));
+        // the network only serves tiles that are still wanted
+        assertEquals(pName, 0, queue.mWasted);
+        assertTrue(pName + ": legacy " + legacy + ", queue " + queue,
+                queue.mCenterMissingFrames <= legacy.mCenterMissingFrames);
+    }
+
+    private static TileViewport viewport(final int pZoom, final int pCenterX,
+            final int pCenterY) {
+        return new TileViewport(pZoom, pCenterX - WIDTH / 2, pCenterY - HEIGHT / 2,
+                pCenterX - WIDTH / 2 + WIDTH - 1, pCenterY - HEIGHT / 2 + HEIGHT - 1);
+    }
+
+    /**
+     * The pending requests of a layer.
+     */
+    private interface Scheduler {
+        void setViewport(TileViewport pViewport);
+
+        void request(MapTile pTile);
+
+        /**
+         * @return the tile to fetch next, or null if none is pending
+         */
+        MapTile next();
+    }
+
+    private static final class QueueScheduler implements Scheduler {
+        private final MapTileRequestQueue mQueue = new MapTileRequestQueue();
+        private final List<MapTileRequestState> mCancelled = new ArrayList<MapTileRequestState>();
+
+        @Override
+        public void setViewport(final TileViewport pViewport) {
+            mQueue.setViewport(pViewport);
+        }
+
+        @Override
+        public void request(final MapTile pTile) {
+            mQueue.put(new MapTileRequestState(pTile, null, null));
+            if (mQueue.size() > QUEUE_SIZE) {
+                mQueue.trimTo(QUEUE_SIZE, mCancelled);
+                mCancelled.clear();
+            }
+        }
+
+        @Override
+        public MapTile next() {
+            final MapTileRequestState state = mQueue.poll(mCancelled);
+            mCancelled.clear();
+            return (state != null) ? state.getMapTile() : null;
+        }
+    }
+
+    private static final class LegacyScheduler implements Scheduler {
+        private final LinkedHashMap<MapTile, MapTile> mPending =
+                new LinkedHashMap<MapTile, MapTile>(QUEUE_SIZE + 2, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(final Map.Entry<MapTile, MapTile> pEldest) {
+                        return size() > QUEUE_SIZE;
+                    }
+                };
+
+        @Override
+        public void setViewport(final TileViewport pViewport) {
+        }
+
+        @Override
+        public void request(final MapTile pTile) {
+            mPending.put(pTile, pTile);
+        }
+
+        @Override
+        public MapTile next() {
+            MapTile last = null;
+            for (final Iterator<MapTile> it = mPending.keySet().iterator(); it.hasNext(); ) {
+                last = it.next();
+            }
+            if (last != null) {
+                mPending.remove(last);
+            }
+            return last;
+        }
+    }
+
+    private static final class Replay {
+        private final Scheduler mScheduler;
+        private final Set<MapTile> mDelivered = new HashSet<MapTile>();
+        private final Map<MapTile, Integer> mRequestedAt = new HashMap<MapTile, Integer>();
+        int mFetches;
+        int mWasted;
+        int mIncompleteFrames;
+        int mCenterMissingFrames;
+        long mLatency;
+        int mVisibleDeliveries;
+
+        Replay(final Scheduler pScheduler) {
+            mScheduler = pScheduler;
+        }
+
+        void run(final List<TileViewport> pTrace) {
+            for (int frame = 0; frame < pTrace.size() + DRAIN_FRAMES; frame++) {
+                final TileViewport viewport = pTrace.get(Math.min(frame, pTrace.size() - 1));
+                mScheduler.setViewport(viewport);
+                final int centerX = (viewport.getMinX() + viewport.getMaxX()) / 2;
+                final int centerY = (viewport.getMinY() + viewport.getMaxY()) / 2;
+                boolean complete = true;
+                boolean centerComplete = true;
+                for (int x = viewport.getMinX(); x <= viewport.getMaxX(); x++) {
+                    for (int y = viewport.getMinY(); y <= viewport.getMaxY(); y++) {
+                        final MapTile tile = new MapTile(LAYER, viewport.getZoom(), x, y);
+                        if (!mDelivered.contains(tile)) {
+                            complete = false;
+                            if (Math.abs(x - centerX) <= CENTER_RADIUS
+                                    && Math.abs(y - centerY) <= CENTER_RADIUS) {
+                                centerComplete = false;
+                            }
+                            mScheduler.request(tile);
+                            if (!mRequestedAt.containsKey(tile)) {
+                                mRequestedAt.put(tile, frame);
+                            }
+                        }
+                    }
+                }
+                if (!complete) {
+                    mIncompleteFrames++;
+                }
+                if (!centerComplete) {
+                    mCenterMissingFrames++;
+                }
+                for (int i = 0; i < FETCHES_PER_FRAME; i++) {
+                    final MapTile tile = mScheduler.next();
+                    if (tile == null) {
+                        break;
+                    }
+                    mFetches++;
+                    if (viewport.contains(tile)) {
+                        mLatency += frame - mRequestedAt.get(tile);
+                        mVisibleDeliveries++;
+                    } else {
+                        mWasted++;
+                    }
+                    mDelivered.add(tile);
+                }
+            }
+        }
+
+        double getMeanLatency() {
+            return (mVisibleDeliveries > 0) ? mLatency / (double) mVisibleDeliveries : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d fetches, %d wasted, %d incomplete frames, %d frames"
+                    + " missing the center, %.1f frames to a visible tile", mFetches, mWasted,
+                    mIncompleteFrames, mCenterMissingFrames, getMeanLatency());
+        }
+    }
+}
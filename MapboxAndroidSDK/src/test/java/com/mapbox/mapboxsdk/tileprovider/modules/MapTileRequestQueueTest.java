@@ -0,0 +1,146 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import com.mapbox.mapboxsdk.tileprovider.MapTileRequestState;
+import com.mapbox.mapboxsdk.tileprovider.TileViewport;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class MapTileRequestQueueTest {
+
+    @Test
+    public void servesMostRecentFirstWithoutViewport() {
+        final MapTileRequestQueue queue = new MapTileRequestQueue();
+        final MapTileRequestState first = request(4, 1, 1);
+        final MapTileRequestState second = request(4, 2, 2);
+        queue.put(first);
+        queue.put(second);
+
+        assertSame(second, queue.poll(null));
+        assertSame(first, queue.poll(null));
+        assertNull(queue.poll(null));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void replacesRequestsForTheSameTile() {
+        final MapTileRequestQueue queue = new MapTileRequestQueue();
+        final MapTileRequestState other = request(4, 2, 2);
+        queue.put(request(4, 1, 1));
+        queue.put(other);
+        final MapTileRequestState again = request(4, 1, 1);
+        queue.put(again);
+
+        assertEquals(2, queue.size());
+        // queued again, so served first
+        assertSame(again, queue.poll(null));
+        assertSame(other, queue.poll(null));
+    }
+
+    @Test
+    public void servesTheCenterThenParentsThenPrefetches() {
+        final MapTileRequestQueue queue = new MapTileRequestQueue();
+        queue.setViewport(new TileViewport(4, 4, 4, 7, 7));
+        final MapTileRequestState prefetch = request(4, 5, 5);
+        prefetch.setPrefetch(true);
+        final MapTileRequestState parent = request(3, 2, 2);
+        final MapTileRequestState corner = request(4, 4, 4);
+        final MapTileRequestState center = request(4, 6, 6);
+        queue.put(prefetch);
+        queue.put(parent);
+        queue.put(corner);
+        queue.put(center);
+
+        final List<MapTileRequestState> cancelled = new ArrayList<MapTileRequestState>();
+        assertSame(center, queue.poll(cancelled));
+        assertSame(corner, queue.poll(cancelled));
+        assertSame(parent, queue.poll(cancelled));
+        assertSame(prefetch, queue.poll(cancelled));
+        assertTrue(cancelled.isEmpty());
+    }
+
+    @Test
+    public void reprioritizesWhenTheViewportMoves() {
+        final MapTileRequestQueue queue = new MapTileRequestQueue();
+        queue.setViewport(new TileViewport(4, 0, 0, 7, 7));
+        final MapTileRequestState left = request(4, 1, 4);
+        final MapTileRequestState right = request(4, 6, 4);
+        queue.put(left);
+        queue.put(right);
+        queue.setViewport(new TileViewport(4, 4, 0, 11, 7));
+
+        assertSame(right, queue.poll(new ArrayList<MapTileRequestState>()));
+    }
+
+    @Test
+    public void cancelsTilesThatLeftTheViewport() {
+        final MapTileRequestQueue queue = new MapTileRequestQueue();
+        final MapTileRequestState gone = request(4, 1, 1);
+        final MapTileRequestState prefetch = request(4, 12, 12);
+        prefetch.setPrefetch(true);
+        final MapTileRequestState visible = request(4, 9, 9);
+        queue.put(gone);
+        queue.put(prefetch);
+        queue.put(visible);
+        queue.setViewport(new TileViewport(4, 8, 8, 10, 10));
+
+        final List<MapTileRequestState> cancelled = new ArrayList<MapTileRequestState>();
+        assertSame(visible, queue.poll(cancelled));
+        // prefetched tiles are off screen by design
+        assertSame(prefetch, queue.poll(cancelled));
+        assertNull(queue.poll(cancelled));
+        assertEquals(1, cancelled.size());
+        assertSame(gone, cancelled.get(0));
+        assertFalse(queue.containsKey(gone.getMapTile()));
+    }
+
+    @Test
+    public void trimsUnwantedThenLastServed() {
+        final MapTileRequestQueue queue = new MapTileRequestQueue();
+        final MapTileRequestState gone = request(4, 1, 1);
+        final MapTileRequestState center = request(4, 9, 9);
+        final MapTileRequestState edge = request(4, 8, 8);
+        final MapTileRequestState parent = request(3, 4, 4);
+        queue.put(gone);
+        queue.put(center);
+        queue.put(edge);
+        queue.put(parent);
+        queue.setViewport(new TileViewport(4, 8, 8, 10, 10));
+
+        final List<MapTileRequestState> cancelled = new ArrayList<MapTileRequestState>();
+        queue.trimTo(2, cancelled);
+
+        assertEquals(2, queue.size());
+        assertEquals(2, cancelled.size());
+        assertSame(gone, cancelled.get(0));
+        assertSame(parent, cancelled.get(1));
+        assertTrue(queue.containsKey(center.getMapTile()));
+        assertTrue(queue.containsKey(edge.getMapTile()));
+    }
+
+    @Test
+    public void removesRequests() {
+        final MapTileRequestQueue queue = new MapTileRequestQueue();
+        final MapTileRequestState state = request(4, 1, 1);
+        queue.put(state);
+        queue.put(request(4, 2, 2));
+
+        assertSame(state, queue.remove(state.getMapTile()));
+        assertNull(queue.remove(state.getMapTile()));
+        assertEquals(1, queue.size());
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll(null));
+    }
+
+    private static MapTileRequestState request(final int pZ, final int pX, final int pY) {
+        return new MapTileRequestState(new MapTile("queue", pZ, pX, pY), null, null);
+    }
+}
@@ -0,0 +1,116 @@
+package com.mapbox.mapboxsdk.tileprovider.modules;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+public class TileCoverageTest {
+
+    // the header of a coverage file, see TileCoverage.writeTo()
+    private static final int MAGIC = 0x4d42434f;
+    private static final int VERSION = 1;
+
+    @Test
+    public void containsAddedTiles() {
+        final TileCoverage.Builder builder = new TileCoverage.Builder();
+        assertTrue(builder.setBounds(4, 2, 5, 3, 9));
+        builder.add(4, 2, 3).add(4, 5, 9).add(4, 3, 7);
+        final TileCoverage coverage = builder.build();
+
+        assertTrue(coverage.contains(new MapTile(4, 2, 3)));
+        assertTrue(coverage.contains(new MapTile(4, 5, 9)));
+        assertTrue(coverage.contains(new MapTile(4, 3, 7)));
+        assertFalse(coverage.contains(new MapTile(4, 4, 7)));
+        assertFalse(coverage.contains(new MapTile(4, 6, 9)));
+        assertFalse(coverage.contains(new MapTile(3, 2, 3)));
+        assertFalse(coverage.contains(new MapTile(5, 2, 3)));
+    }
+
+    @Test
+    public void checksOnlyBoundsOfLargeZoomLevels() {
+        final TileCoverage.Builder builder = new TileCoverage.Builder();
+        assertFalse(builder.setBounds(20, 0, 1 << 19, 0, 1 << 19));
+        final TileCoverage coverage = builder.build();
+
+        assertTrue(coverage.contains(new MapTile(20, 1000, 2000)));
+        assertFalse(coverage.contains(new MapTile(20, (1 << 19) + 1, 0)));
+    }
+
+    @Test
+    public void readsWhatItWrites() throws IOException {
+        final TileCoverage.Builder builder = new TileCoverage.Builder();
+        builder.setBounds(4, 2, 5, 3, 9);
+        builder.add(4, 3, 7);
+        builder.setBounds(20, 0, 1 << 19, 0, 1 << 19);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        builder.build().writeTo(new DataOutputStream(bytes));
+
+        final TileCoverage coverage = TileCoverage.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(coverage.contains(new MapTile(4, 3, 7)));
+        assertFalse(coverage.contains(new MapTile(4, 4, 7)));
+        assertTrue(coverage.contains(new MapTile(20, 1000, 2000)));
+        assertFalse(coverage.contains(new MapTile(3, 0, 0)));
+    }
+
+    @Test
+    public void acceptsZoomLevelWithoutBitmap() throws IOException {
+        final TileCoverage coverage = read(0, 9, 0, 9, -1);
+        assertTrue(coverage.contains(new MapTile(0, 9, 9)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedBitmap() throws IOException {
+        // 10 x 10 tiles need two words
+        read(0, 9, 0, 9, 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOversizedBitmap() throws IOException {
+        read(0, 9, 0, 9, 3);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsBitmapOfEmptyRectangle() throws IOException {
+        read(Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsBitmapOfHugeRectangle() throws IOException {
+        read(Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 0, 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNegativeWordCount() throws IOException {
+        read(0, 9, 0, 9, -2);
+    }
+
+    /**
+     * Reads a coverage of a single zoom level whose bitmap has the given number of words.
+     */
+    private static TileCoverage read(final int minX, final int maxX, final int minY,
+            final int maxY, final int words) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(1);
+        out.writeInt(minX);
+        out.writeInt(maxX);
+        out.writeInt(minY);
+        out.writeInt(maxY);
+        out.writeInt(words);
+        for (int i = 0; i < words; i++) {
+            out.writeLong(-1L);
+        }
+        return TileCoverage.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
@@ -0,0 +1,112 @@
+package com.mapbox.mapboxsdk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import com.mapbox.mapboxsdk.tileprovider.MapTile;
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+import uk.co.senab.bitmapcache.LongLruCache;
+
+public class TileLooperTest {
+
+    private static final String LAYER = "looper";
+    private static final int TILE_SIZE = 256;
+    private static final int ZOOM = 14;
+    private static final int LOOPS = 2000;
+
+    private long[] mSink;
+
+    /**
+     * Drawing an unchanged viewport again, the way the overlay does on every frame, must reuse
+     * the tiles of the last loop, look them up by packed key and post the same runnable, so
+     * that it doesn't allocate once warmed up.
+     */
+    @Test
+    public void loopsOverAnUnchangedViewportWithoutAllocating() {
+        final com.sun.management.ThreadMXBean threads = getThreadMXBean();
+        assumeTrue(threads != null);
+        final long thread = Thread.currentThread().getId();
+
+        final Rect viewport = new Rect();
+        viewport.left = 1000 * TILE_SIZE + 17;
+        viewport.top = 2000 * TILE_SIZE + 33;
+        viewport.right = viewport.left + 1080;
+        viewport.bottom = viewport.top + 1920;
+        final CountingLooper looper = new CountingLooper();
+
+        // the counter sees allocations
+        long before = threads.getThreadAllocatedBytes(thread);
+        mSink = new long[1024];
+        assertTrue(threads.getThreadAllocatedBytes(thread) - before >= 8 * 1024);
+
+        // the first loops allocate the tiles and are compiled before measuring the others
+        looper.loop(null, LAYER, ZOOM, TILE_SIZE, viewport, null);
+        final MapTile first = looper.mFirstTile;
+        looper.run(viewport, LOOPS);
+        before = threads.getThreadAllocatedBytes(thread);
+        looper.run(viewport, LOOPS);
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertSame(first, looper.mFirstTile);
+        // the tile in memory is found on every loop
+        assertEquals(2 * LOOPS + 1, looper.mFound);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        assertNotNull(mSink);
+    }
+
+    /**
+     * Counts the tiles of a loop, and looks them up in memory by packed key, like the overlay.
+     */
+    private static final class CountingLooper extends TileLooper {
+        private final LongLruCache<Object> mMemory = new LongLruCache<Object>(256);
+        MapTile mFirstTile;
+        int mFound;
+
+        void run(final Rect pViewport, final int pLoops) {
+            for (int i = 0; i < pLoops; i++) {
+                loop(null, LAYER, ZOOM, TILE_SIZE, pViewport, null);
+            }
+        }
+
+        @Override
+        public void initializeLoop(final float pZoomLevel, final int pTileSizePx) {
+            mFirstTile = null;
+        }
+
+        @Override
+        public void handleTile(final Canvas pCanvas, final String pCacheKey,
+                final int pTileSizePx, final MapTile pTile, final int pX, final int pY,
+                final Rect pClipRect) {
+            if (mFirstTile == null) {
+                mFirstTile = pTile;
+                // the first tile of the viewport is the only one in memory
+                mMemory.put(pTile.getKey(), pTile);
+            }
+            if (mMemory.get(pTile.getKey()) != null) {
+                mFound++;
+            }
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        try {
+            final java.lang.management.ThreadMXBean threads =
+                    ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threads)
+                    .isThreadAllocatedMemorySupported()) {
+                ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+                return (com.sun.management.ThreadMXBean) threads;
+            }
+        } catch (final LinkageError e) {
+            // not a HotSpot VM
+        }
+        return null;
+    }
+}
@@ -0,0 +1,177 @@
+package uk.co.senab.bitmapcache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class LongLruCacheTest {
+
+    @Test
+    public void getsWhatItPuts() {
+        final LongLruCache<String> cache = new LongLruCache<String>(10);
+        assertNull(cache.put(1L, "a"));
+        assertNull(cache.put(-1L, "b"));
+        assertNull(cache.put(1L << 62, "c"));
+
+        assertEquals("a", cache.get(1L));
+        assertEquals("b", cache.get(-1L));
+        assertEquals("c", cache.get(1L << 62));
+        assertNull(cache.get(2L));
+        assertEquals(3, cache.count());
+    }
+
+    @Test
+    public void replacesValues() {
+        final List<String> removed = new ArrayList<String>();
+        final LongLruCache<String> cache = new RecordingCache(10, removed);
+        cache.put(1L, "a");
+        assertEquals("a", cache.put(1L, "b"));
+
+        assertEquals("b", cache.get(1L));
+        assertEquals(1, cache.count());
+        assertEquals(1, cache.size());
+        assertEquals("[a>b]", removed.toString());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() {
+        final List<String> removed = new ArrayList<String>();
+        final LongLruCache<String> cache = new RecordingCache(3, removed);
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+        cache.put(3L, "c");
+        // 1 is used again, so 2 is the eldest
+        cache.get(1L);
+        cache.put(4L, "d");
+
+        assertNull(cache.get(2L));
+        assertArrayEquals(new long[] { 3L, 1L, 4L }, cache.keys());
+        assertEquals("[evicted b]", removed.toString());
+    }
+
+    @Test
+    public void evictsBySize() {
+        final LongLruCache<String> cache = new LongLruCache<String>(10) {
+            @Override
+            protected int sizeOf(final long key, final String value) {
+                return value.length();
+            }
+        };
+        cache.put(1L, "aaaa");
+        cache.put(2L, "bbbb");
+        assertEquals(8, cache.size());
+        cache.put(3L, "ccc");
+
+        assertNull(cache.get(1L));
+        assertEquals(7, cache.size());
+        // a value larger than the cache doesn't stay either
+        cache.put(4L, "dddddddddddd");
+        assertEquals(0, cache.count());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsWhenShrunk() {
+        final List<String> removed = new ArrayList<String>();
+        final LongLruCache<String> cache = new RecordingCache(4, removed);
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+        cache.put(3L, "c");
+        cache.resize(2);
+
+        assertEquals(2, cache.maxSize());
+        assertArrayEquals(new long[] { 2L, 3L }, cache.keys());
+        assertEquals("[evicted a]", removed.toString());
+        cache.put(4L, "d");
+        assertArrayEquals(new long[] { 3L, 4L }, cache.keys());
+        // and holds more once grown again
+        cache.resize(3);
+        cache.put(5L, "e");
+        assertEquals(3, cache.count());
+    }
+
+    @Test
+    public void removesValues() {
+        final List<String> removed = new ArrayList<String>();
+        final LongLruCache<String> cache = new RecordingCache(10, removed);
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+
+        assertEquals("a", cache.remove(1L));
+        assertNull(cache.remove(1L));
+        assertFalse(cache.remove(2L, "other"));
+        assertEquals("b", cache.get(2L));
+        assertTrue(cache.remove(2L, "b"));
+        assertEquals(0, cache.count());
+        assertEquals(0, cache.size());
+        assertEquals("[a, b]", removed.toString());
+    }
+
+    @Test
+    public void keepsEntriesWhenGrowing() {
+        final LongLruCache<Long> cache = new LongLruCache<Long>(100000);
+        // keys differing in their top bits only, like the tiles of two layers
+        for (long i = 0; i < 5000; i++) {
+            cache.put(i, i);
+            cache.put(i << 49, -i);
+        }
+
+        assertEquals(9999, cache.count());
+        for (long i = 1; i < 5000; i++) {
+            assertEquals(Long.valueOf(i), cache.get(i));
+            assertEquals(Long.valueOf(-i), cache.get(i << 49));
+        }
+    }
+
+    @Test
+    public void evictsAll() {
+        final List<String> removed = new ArrayList<String>();
+        final LongLruCache<String> cache = new RecordingCache(10, removed);
+        cache.put(1L, "a");
+        cache.put(2L, "b");
+        cache.evictAll();
+
+        assertEquals(0, cache.count());
+        assertNull(cache.get(1L));
+        assertEquals("[evicted a, evicted b]", removed.toString());
+        // still usable afterwards
+        cache.put(3L, "c");
+        assertEquals("c", cache.get(3L));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNullValues() {
+        new LongLruCache<String>(10).put(1L, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCaches() {
+        new LongLruCache<String>(0);
+    }
+
+    /**
+     * Records the values {@link LongLruCache#entryRemoved(boolean, long, Object, Object)} is
+     * called with.
+     */
+    private static final class RecordingCache extends LongLruCache<String> {
+        private final List<String> mRemoved;
+
+        RecordingCache(final int maxSize, final List<String> removed) {
+            super(maxSize);
+            mRemoved = removed;
+        }
+
+        @Override
+        protected void entryRemoved(final boolean evicted, final long key, final String oldValue,
+                final String newValue) {
+            mRemoved.add((evicted ? "evicted " : "") + oldValue
+                    + ((newValue != null) ? ">" + newValue : ""));
+        }
+    }
+}